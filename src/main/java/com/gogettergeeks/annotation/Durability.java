@@ -0,0 +1,16 @@
+package com.gogettergeeks.annotation;
+
+public enum Durability {
+    /** Every commit is synced to disk before the write call returns. */
+    ALWAYS,
+    /**
+     * Commits are synced together, at the latest after {@link FileDBGenerated#groupCommitMillis()} or once
+     * {@link FileDBGenerated#groupCommitOps()} commits are pending. A crash can lose the commits of that window.
+     */
+    GROUP,
+    /**
+     * Commits are left in the OS page cache and reach the disk whenever the OS flushes them. Staged files are not
+     * synced before they are renamed over the data file either, so a crash can lose a whole rewrite.
+     */
+    OS
+}
@@ -8,4 +8,37 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.SOURCE)
 @Target(ElementType.TYPE)
 public @interface FileDBGenerated {
+    StorageMode storage() default StorageMode.REWRITE;
+
+    /** Share of dead records (0, 1] in an {@link StorageMode#APPEND_LOG} file above which it gets compacted. */
+    double compactionThreshold() default 0.5;
+
+    Durability durability() default Durability.OS;
+
+    /** Longest time in milliseconds a {@link Durability#GROUP} commit stays unsynced. */
+    long groupCommitMillis() default 10;
+
+    /** Number of pending {@link Durability#GROUP} commits that triggers a sync right away. */
+    int groupCommitOps() default 64;
+
+    /** Directory holding the data files; empty means the working directory. */
+    String directory() default "";
+
+    /** Number of files the records are spread over by a hash of their {@link UniqueKey} fields. */
+    int partitions() default 1;
+
+    /**
+     * Writes the data files as independently Deflate compressed blocks, available with {@link StorageMode#REWRITE} and
+     * {@link StorageMode#APPEND_LOG}.
+     */
+    boolean compressed() default false;
+
+    /** Uncompressed bytes of records gathered into one {@link #compressed()} block. */
+    int blockSize() default 65536;
+
+    /**
+     * Serves {@code getAll}, {@code forEach} and {@code stream} from an in-memory copy of the records that is only
+     * reloaded after the file changed, not available with {@link StorageMode#FIXED_SLOT}.
+     */
+    boolean snapshot() default false;
 }
@@ -0,0 +1,15 @@
+package com.gogettergeeks.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link Persisted} field that gets a secondary index: with {@link FileDBGenerated} also a generated
+ * {@code findBy<Field>} method, with {@link MySqlGenerated} an index in the generated table DDL.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Indexed {
+}
@@ -0,0 +1,15 @@
+package com.gogettergeeks.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Upper bound, in UTF-8 bytes, of a String field stored in a {@link StorageMode#FIXED_SLOT} file.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface MaxLength {
+    int value();
+}
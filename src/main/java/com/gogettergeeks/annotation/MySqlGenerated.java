@@ -8,4 +8,32 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.SOURCE)
 @Target(ElementType.TYPE)
 public @interface MySqlGenerated {
+    /** Most connections open at once in the pool of a DAO created from a connection URL. */
+    int poolSize() default 10;
+
+    /** Milliseconds an unused pooled connection stays open before it is closed. */
+    long idleTimeoutMillis() default 60000;
+
+    /**
+     * Rows sent per JDBC batch by {@code createAll}, {@code updateAll} and {@code deleteAll}, and keys looked up per
+     * query by {@code findAllByKeys}.
+     */
+    int batchSize() default 500;
+
+    /**
+     * Fetch size of the forward-only statements behind {@code stream} and {@code forEach}. The default
+     * {@link Integer#MIN_VALUE} makes MySQL Connector/J hand rows over one at a time instead of buffering the whole
+     * result and is not passed to other drivers; a positive size fetches that many rows per round trip when the URL
+     * sets {@code useCursorFetch=true}.
+     */
+    int fetchSize() default Integer.MIN_VALUE;
+
+    /**
+     * Most rows kept in the least recently used cache that {@code findByKey} and {@code findAllByKeys} read through;
+     * 0 disables the cache.
+     */
+    int cacheSize() default 0;
+
+    /** Milliseconds a cached row is served before it is read again; 0 keeps it until evicted or written. */
+    long cacheTtlMillis() default 0;
 }
@@ -0,0 +1,18 @@
+package com.gogettergeeks.annotation;
+
+public enum StorageMode {
+    /** Every write rewrites the whole data file. */
+    REWRITE,
+    /** Writes append records and tombstones to a log which is compacted once it holds too many dead records. */
+    APPEND_LOG,
+    /**
+     * Records live in fixed-size slots of a memory-mapped file and are updated and deleted in place. Only primitive,
+     * boxed, enum and {@link MaxLength} bounded String fields are supported.
+     */
+    FIXED_SLOT,
+    /**
+     * Every write rewrites the whole data file, which stores each field as its own segment so projection reads decode
+     * only the fields they select.
+     */
+    COLUMNAR
+}
@@ -1,8 +1,13 @@
 package com.gogettergeeks.processor;
 
+import com.gogettergeeks.annotation.Durability;
 import com.gogettergeeks.annotation.FileDBGenerated;
+import com.gogettergeeks.annotation.Indexed;
+import com.gogettergeeks.annotation.MaxLength;
 import com.gogettergeeks.annotation.Persisted;
+import com.gogettergeeks.annotation.StorageMode;
 import com.gogettergeeks.annotation.UniqueKey;
+import com.gogettergeeks.utils.StringUtil;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.RoundEnvironment;
@@ -13,11 +18,19 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
 
 @SupportedAnnotationTypes("com.gogettergeeks.annotation.FileDBGenerated")
 @SupportedSourceVersion(SourceVersion.RELEASE_21)
@@ -27,9 +40,60 @@ public class FileDBProcessor extends AbstractProcessor {
         add("ServiceException");
     }};
     private static final String DTO_SUFFIX = "GeneratedDto";
+    private static final int MAX_BLOCK_SIZE = 4 << 20;
+    /**
+     * Simple names the generated sources use without qualifying them: their imports, the {@code java.lang} types and
+     * their own nested types. An entity with one of these names would hide the type from its own DAO.
+     */
+    private static final Set<String> RESERVED_TYPE_NAMES = Set.of(
+            "ArrayDeque", "ArrayList", "Arrays", "AtomicBoolean", "AtomicInteger", "AutoCloseable", "BlockingQueue",
+            "Boolean", "BufferedInputStream", "BufferedOutputStream", "Byte", "ByteArrayInputStream",
+            "ByteArrayOutputStream", "ByteBuffer", "CRC32", "Channels", "Character", "Class",
+            "ClassNotFoundException", "Closeable", "Collection", "Collections", "Collectors", "ColumnCursor",
+            "ColumnDecoder", "ColumnReader", "Comparable", "Comparator", "CompletableFuture", "ConcurrentHashMap",
+            "ConcurrentMap", "Consumer", "Cursor", "DataFormatException", "DataInput", "DataInputStream",
+            "DataOutput", "DataOutputStream", "Deflater", "Deque", "Double", "EOFException", "Enum", "EnumSet",
+            "Exception", "ExecutorService", "Executors", "File", "FileChannel", "FileGuard", "FileInputStream",
+            "FileLock", "FileOutputStream", "Files", "FilterInputStream", "FilterOutputStream", "Float", "Function",
+            "FunctionalInterface", "HashMap", "HashSet", "IOException", "IllegalArgumentException",
+            "IllegalStateException", "Inflater", "InputStream", "IntStream", "Integer", "InterruptedException",
+            "Iterator", "LinkedBlockingQueue", "LinkedHashMap", "List", "Long", "Map", "MappedByteBuffer", "Math",
+            "NavigableMap", "NavigableSet", "NoSuchElementException", "Object", "ObjectInputStream",
+            "ObjectOutputStream", "Objects", "OffsetTable", "Op", "Optional", "OutputStream", "Override", "Path",
+            "PendingWrite", "PositionInputStream", "PositionOutputStream", "Read", "ReentrantLock",
+            "ReentrantReadWriteLock", "RuntimeException", "ScheduledExecutorService", "Schema", "Serializable",
+            "Set", "Short", "Spliterator", "Spliterators", "StandardCharsets", "StandardCopyOption",
+            "StandardOpenOption", "Stream", "StreamSupport", "String", "System", "Thread", "ThreadLocalRandom",
+            "TimeUnit", "TreeMap", "TreeSet", "UncheckedIOException", "Void");
+    /**
+     * Locals, parameters and fields of the generated sources. An entity whose lowercase name or its plural is one of
+     * them is named {@code <name>Record} in the generated methods instead.
+     */
+    private static final Set<String> RESERVED_VARIABLE_NAMES = Set.of(
+            "action", "b", "batch", "batches", "buffer", "capacity", "channel", "checksummed", "closed", "code",
+            "codes", "column", "columns", "compacted", "compressed", "copies", "copy", "count", "counter", "crc",
+            "created", "cursor", "dao", "decoder", "deflater", "dictionary", "directory", "e", "encoded", "entries",
+            "entry", "eof", "field", "file", "frame", "free", "future", "generation", "getter", "guard", "guarded",
+            "hash", "header", "headers", "holders", "i", "id", "in", "index", "inflated", "inflater", "key", "keys",
+            "len", "length", "lengths", "lifecycle", "limit", "lock", "locked", "marker", "mask", "message", "n",
+            "name", "names", "next", "now", "off", "offset", "offsets", "op", "opened", "out", "part", "partition",
+            "partitions", "path", "pending", "pos", "position", "previous", "problems", "projection", "put", "queue",
+            "read", "reader", "readers", "records", "resized", "row", "rows", "run", "runnable", "schema", "schemas",
+            "scratch", "selected", "single", "size", "skipped", "slot", "slots", "snapshot", "staged", "stale",
+            "stored", "streams", "target", "thread", "type", "types", "upgraded", "used", "value", "values",
+            "version", "write", "writer", "written");
 
     private String packageName;
     private String className;
+    private String variableName;
+    private Durability durability;
+    private List<VariableElement> indexedFields;
+    private boolean compressed;
+    private List<VariableElement> columns;
+    private boolean offsetTable;
+    private boolean keyRanges;
+    private boolean versioned;
+    private boolean snapshot;
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
@@ -41,6 +105,8 @@ public class FileDBProcessor extends AbstractProcessor {
 
                 List<VariableElement> fields = new ArrayList<>();
                 List<VariableElement> uniqueKeyFields = new ArrayList<>();
+                List<VariableElement> indexedFields = new ArrayList<>();
+                boolean indexedFieldsValid = true;
                 for (Element enclosedElement : classElement.getEnclosedElements()) {
                     if (enclosedElement.getKind() == ElementKind.FIELD
                             && enclosedElement.getAnnotation(UniqueKey.class) != null) {
@@ -51,16 +117,95 @@ public class FileDBProcessor extends AbstractProcessor {
                         VariableElement fieldElement = (VariableElement) enclosedElement;
                         fields.add(fieldElement);
                     }
+                    if (enclosedElement.getKind() == ElementKind.FIELD
+                            && enclosedElement.getAnnotation(Indexed.class) != null) {
+                        if (enclosedElement.getAnnotation(Persisted.class) == null
+                                || enclosedElement.getAnnotation(UniqueKey.class) != null) {
+                            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                    "@Indexed is only supported on @Persisted fields that are not @UniqueKey",
+                                    enclosedElement);
+                            indexedFieldsValid = false;
+                        }
+                        indexedFields.add((VariableElement) enclosedElement);
+                    }
+                }
+                if (!indexedFieldsValid) {
+                    continue;
+                }
+
+                FileDBGenerated fileDBGenerated = classElement.getAnnotation(FileDBGenerated.class);
+                if (fileDBGenerated.compactionThreshold() <= 0 || fileDBGenerated.compactionThreshold() > 1) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "compactionThreshold must be within (0, 1]", classElement);
+                    continue;
+                }
+                if (fileDBGenerated.groupCommitMillis() <= 0 || fileDBGenerated.groupCommitOps() <= 0) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "groupCommitMillis and groupCommitOps must be positive", classElement);
+                    continue;
+                }
+                if (fileDBGenerated.compressed() && (fileDBGenerated.storage() == StorageMode.FIXED_SLOT
+                        || fileDBGenerated.storage() == StorageMode.COLUMNAR)) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "compressed is only supported with StorageMode.REWRITE and StorageMode.APPEND_LOG",
+                            classElement);
+                    continue;
+                }
+                if (fileDBGenerated.snapshot() && fileDBGenerated.storage() == StorageMode.FIXED_SLOT) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "snapshot is not supported with StorageMode.FIXED_SLOT", classElement);
+                    continue;
+                }
+                if (fileDBGenerated.blockSize() <= 0 || fileDBGenerated.blockSize() > MAX_BLOCK_SIZE) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "blockSize must be within (0, " + MAX_BLOCK_SIZE + "]", classElement);
+                    continue;
+                }
+                if (fileDBGenerated.partitions() < 1) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "partitions must be positive", classElement);
+                    continue;
+                }
+                if (RESERVED_TYPE_NAMES.contains(classElement.getSimpleName().toString())) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            classElement.getSimpleName() + " would hide a type the generated DAO uses, rename the entity",
+                            classElement);
+                    continue;
+                }
+
+                List<VariableElement> allFields = new ArrayList<>(uniqueKeyFields);
+                allFields.addAll(fields);
+                boolean fixedSlot = fileDBGenerated.storage() == StorageMode.FIXED_SLOT;
+                if (fixedSlot && !validateFixedSlotFields(allFields)) {
+                    continue;
                 }
 
                 if (!fields.isEmpty()) {
                     TypeElement enclosingClass = (TypeElement) fields.stream().findAny().get().getEnclosingElement();
                     this.packageName = processingEnv.getElementUtils().getPackageOf(enclosingClass).toString();
                     this.className = enclosingClass.getSimpleName().toString();
+                    this.variableName = variableNameFor(this.className, allFields);
+                    this.durability = fileDBGenerated.durability();
+                    this.indexedFields = indexedFields;
+                    this.compressed = fileDBGenerated.compressed();
+                    this.columns = fileDBGenerated.storage() == StorageMode.COLUMNAR ? allFields : List.of();
+                    this.offsetTable = fileDBGenerated.storage() == StorageMode.APPEND_LOG && uniqueKeyFields.size() == 1
+                            && (uniqueKeyFields.get(0).asType().getKind() == TypeKind.INT
+                            || uniqueKeyFields.get(0).asType().getKind() == TypeKind.LONG);
+                    this.keyRanges = uniqueKeyFields.stream().allMatch(this::isComparable);
+                    this.versioned = fileDBGenerated.storage() == StorageMode.REWRITE
+                            || fileDBGenerated.storage() == StorageMode.APPEND_LOG;
+                    this.snapshot = fileDBGenerated.snapshot();
                     generateModel(fields, uniqueKeyFields);
+                    generateCodec(fields, uniqueKeyFields, fixedSlot);
+                    if (!this.columns.isEmpty()) {
+                        generateColumnEnum();
+                    }
                     generateExceptionClasses();
-                    generateInterface();
-                    generateDao(fields, uniqueKeyFields);
+                    generateInterface(uniqueKeyFields);
+                    generatePartition(fields, uniqueKeyFields, fileDBGenerated);
+                    generateDao(uniqueKeyFields, fileDBGenerated);
+                    generateAsyncDao(fields, uniqueKeyFields);
                 }
             }
         }
@@ -146,7 +291,7 @@ public class FileDBProcessor extends AbstractProcessor {
         }
     }
 
-    private void generateInterface() {
+    private void generateInterface(List<VariableElement> uniqueKeyFields) {
         StringBuilder throwsExceptionString = new StringBuilder();
         for (int i=0; i < EXCEPTION_CLASS_NAMES.size(); i++) {
             throwsExceptionString.append(this.className).append(EXCEPTION_CLASS_NAMES.get(i));
@@ -161,19 +306,65 @@ public class FileDBProcessor extends AbstractProcessor {
             body.append("import ").append(this.packageName).append(".")
                     .append(this.className).append(exception).append(";\n");
         }
-        body.append("\nimport java.util.List;\n\n");
+        body.append("\nimport java.util.Collection;\n");
+        body.append("import java.util.List;\n");
+        body.append("import java.util.Optional;\n");
+        body.append("import java.util.function.Consumer;\n");
+        body.append("import java.util.stream.Stream;\n\n");
         body.append("public interface ").append(this.className).append("Dao").append(" {\n");
         body.append("   void add(").append(this.className).append(" ")
-                .append(this.className.toLowerCase()).append(") throws ").append(throwsExceptionString)
+                .append(this.variableName).append(") throws ").append(throwsExceptionString)
                 .append(";\n");
         body.append("   void delete(").append(this.className).append(" ")
-                .append(this.className.toLowerCase()).append(") throws ").append(throwsExceptionString)
+                .append(this.variableName).append(") throws ").append(throwsExceptionString)
                 .append(";\n");
         body.append("   void update(").append(this.className).append(" ")
-                .append(this.className.toLowerCase()).append(") throws ").append(throwsExceptionString)
+                .append(this.variableName).append(") throws ").append(throwsExceptionString)
+                .append(";\n");
+        body.append("   void addAll(Collection<? extends ").append(this.className).append("> ")
+                .append(this.variableName).append("s) throws ").append(throwsExceptionString)
+                .append(";\n");
+        body.append("   void updateAll(Collection<? extends ").append(this.className).append("> ")
+                .append(this.variableName).append("s) throws ").append(throwsExceptionString)
+                .append(";\n");
+        body.append("   void deleteAll(Collection<? extends ").append(this.className).append("> ")
+                .append(this.variableName).append("s) throws ").append(throwsExceptionString)
                 .append(";\n");
         body.append("   List<").append(this.className).append("> getAll() throws ")
                 .append(throwsExceptionString).append(";\n");
+        body.append("   Stream<").append(this.className).append("> stream() throws ")
+                .append(throwsExceptionString).append(";\n");
+        body.append("   void forEach(Consumer<? super ").append(this.className).append("> action) throws ")
+                .append(throwsExceptionString).append(";\n");
+        body.append("   Optional<").append(this.className).append("> findByKey(").append(keyParameters(uniqueKeyFields))
+                .append(") throws ").append(throwsExceptionString).append(";\n");
+        body.append("   boolean existsByKey(").append(keyParameters(uniqueKeyFields)).append(") throws ")
+                .append(throwsExceptionString).append(";\n");
+        if (this.keyRanges) {
+            body.append("   List<").append(this.className).append("> findByKeyRange(")
+                    .append(keyParameters(uniqueKeyFields, "from")).append(", ")
+                    .append(keyParameters(uniqueKeyFields, "to")).append(") throws ").append(throwsExceptionString)
+                    .append(";\n");
+            body.append("   List<").append(this.className).append("> page(int limit) throws ")
+                    .append(throwsExceptionString).append(";\n");
+            body.append("   List<").append(this.className).append("> page(").append(keyParameters(uniqueKeyFields, "after"))
+                    .append(", int limit) throws ").append(throwsExceptionString).append(";\n");
+        }
+        for (VariableElement field : this.indexedFields) {
+            body.append("   List<").append(this.className).append("> findBy")
+                    .append(StringUtil.capitalizeFirstLetter(field.getSimpleName().toString())).append("(")
+                    .append(field.asType().toString()).append(" ").append(field.getSimpleName()).append(") throws ")
+                    .append(throwsExceptionString).append(";\n");
+        }
+        for (VariableElement field : this.columns) {
+            body.append("   List<").append(boxedType(field)).append("> read")
+                    .append(StringUtil.capitalizeFirstLetter(field.getSimpleName().toString())).append("Column() throws ")
+                    .append(throwsExceptionString).append(";\n");
+        }
+        if (!this.columns.isEmpty()) {
+            body.append("   List<").append(this.className).append("> readColumns(").append(this.className)
+                    .append("Column... columns) throws ").append(throwsExceptionString).append(";\n");
+        }
         body.append("}\n");
 
         try {
@@ -187,237 +378,4583 @@ public class FileDBProcessor extends AbstractProcessor {
         }
     }
 
-    private void generateDao(List<VariableElement> fields, List<VariableElement> uniqueKeyFields) {
-        StringBuilder throwsExceptionString = new StringBuilder();
-        for (int i=0; i < EXCEPTION_CLASS_NAMES.size(); i++) {
-            throwsExceptionString.append(this.className).append(EXCEPTION_CLASS_NAMES.get(i));
-            if (i != EXCEPTION_CLASS_NAMES.size()-1) {
-                throwsExceptionString.append(", ");
-            }
-        }
+    private void generateCodec(List<VariableElement> fields, List<VariableElement> uniqueKeyFields, boolean fixedSlot) {
+        List<VariableElement> allFields = new ArrayList<>(uniqueKeyFields);
+        allFields.addAll(fields);
+        boolean serializedFields = allFields.stream().anyMatch(field -> codecType(field) == null);
+        boolean enumFields = allFields.stream().anyMatch(field -> "Enum".equals(codecType(field)));
 
         StringBuilder body = new StringBuilder();
         body.append("package ").append(this.packageName).append(";\n\n");
-        for (String exception : EXCEPTION_CLASS_NAMES) {
-            body.append("import ").append(this.packageName).append(".")
-                    .append(this.className).append(exception).append(";\n");
+        if (serializedFields) {
+            body.append("import java.io.ByteArrayInputStream;\n");
+            body.append("import java.io.ByteArrayOutputStream;\n");
         }
-        body.append("\nimport java.io.EOFException;\n");
-        body.append("import java.io.File;\n");
-        body.append("import java.io.FileInputStream;\n");
-        body.append("import java.io.FileOutputStream;\n");
+        body.append("import java.io.DataInput;\n");
+        body.append("import java.io.DataOutput;\n");
         body.append("import java.io.IOException;\n");
-        body.append("import java.io.ObjectInputStream;\n");
-        body.append("import java.io.ObjectOutputStream;\n\n");
-        body.append("import java.util.ArrayList;\n");
-        body.append("import java.util.List;\n");
-        body.append("import java.util.UUID;\n\n");
-        body.append("public class ").append(this.className).append("DaoImpl implements ")
-                .append(this.className).append("Dao {\n");
-        body.append("   private final String dbFile = \"student.db\";\n\n");
-        body.append("   @Override\n");
-        body.append("   public void add(").append(this.className).append(" ")
-                .append(this.className.toLowerCase()).append(") throws ").append(throwsExceptionString).append(" {\n");
-        body.append("       ").append(this.className).append(DTO_SUFFIX).append(" ")
-                .append(this.className.toLowerCase()).append(DTO_SUFFIX).append(" = convert").append(this.className)
-                .append("To").append(this.className).append(DTO_SUFFIX).append("(").append(this.className.toLowerCase())
-                .append(");\n");
-        body.append("       List<").append(this.className).append("> ")
-                .append(this.className.toLowerCase()).append("s = getAll();\n");
-        body.append("       ").append(this.className.toLowerCase()).append("s.add(")
-                .append(this.className.toLowerCase()).append(");\n");
-        body.append("       try (FileOutputStream fileOut = new FileOutputStream(dbFile);\n");
-        body.append("            ObjectOutputStream objectOut = new ObjectOutputStream(fileOut)) {\n");
-        body.append("           for (").append(this.className).append(" ")
-                .append("random : ").append(this.className.toLowerCase()).append("s) {\n");
-        body.append("               objectOut.writeObject(convert").append(this.className).append("To").append(this.className).append(DTO_SUFFIX).append("(random));\n");
-        body.append("           }\n");
-        body.append("       } catch(IOException e) {\n");
-        body.append("           throw new ").append(this.className)
-                .append("ServiceException(\"Internal service error, please try again!\" + e);\n");
+        if (serializedFields) {
+            body.append("import java.io.ObjectInputStream;\n");
+            body.append("import java.io.ObjectOutputStream;\n");
+        }
+        if (fixedSlot) {
+            body.append("import java.nio.ByteBuffer;\n");
+        }
+        body.append("import java.nio.charset.StandardCharsets;\n\n");
+        if (this.versioned) {
+            body.append("import java.util.Arrays;\n\n");
+        }
+        if (!this.columns.isEmpty()) {
+            body.append("import java.util.ArrayList;\n");
+            body.append("import java.util.Collection;\n");
+            body.append("import java.util.LinkedHashMap;\n");
+            body.append("import java.util.List;\n");
+            body.append("import java.util.Map;\n\n");
+        }
+        body.append("public final class ").append(this.className).append("Codec {\n");
+        if (fixedSlot) {
+            body.append("   public static final int SLOT_SIZE = ").append(slotSize(allFields)).append(";\n\n");
+        }
+        if (this.versioned) {
+            appendSchemaConstants(body, allFields, uniqueKeyFields.size());
+        }
+        body.append("   private ").append(this.className).append("Codec() {\n");
+        body.append("   }\n\n");
+
+        body.append("   public static void writeTo(").append(this.className).append(" ").append(variableName)
+                .append(", DataOutput out) throws IOException {\n");
+        for (VariableElement field : allFields) {
+            appendEncodeStatement(body, field, variableName);
+        }
+        body.append("   }\n\n");
+
+        body.append("   public static ").append(this.className).append(" readFrom(DataInput in) throws IOException {\n");
+        body.append("       ").append(this.className).append(" ").append(variableName).append(" = new ")
+                .append(this.className).append("();\n");
+        for (VariableElement field : allFields) {
+            body.append("       ").append(variableName).append(".").append(setterName(field)).append("(")
+                    .append(decodeExpression(field)).append(");\n");
+        }
+        body.append("       return ").append(variableName).append(";\n");
+        body.append("   }\n\n");
+
+        body.append("   public static void writeKeyTo(").append(this.className).append(" ").append(variableName)
+                .append(", DataOutput out) throws IOException {\n");
+        for (VariableElement field : uniqueKeyFields) {
+            appendEncodeStatement(body, field, variableName);
+        }
+        body.append("   }\n\n");
+
+        body.append("   public static ").append(this.className).append(" readKeyFrom(DataInput in) throws IOException {\n");
+        body.append("       ").append(this.className).append(" ").append(variableName).append(" = new ")
+                .append(this.className).append("();\n");
+        for (VariableElement field : uniqueKeyFields) {
+            body.append("       ").append(variableName).append(".").append(setterName(field)).append("(")
+                    .append(decodeExpression(field)).append(");\n");
+        }
+        body.append("       return ").append(variableName).append(";\n");
+        body.append("   }\n\n");
+
+        if (!this.indexedFields.isEmpty()) {
+            List<VariableElement> indexedRecordFields = new ArrayList<>(uniqueKeyFields);
+            indexedRecordFields.addAll(this.indexedFields);
+            body.append("   public static void writeIndexedTo(").append(this.className).append(" ").append(variableName)
+                    .append(", DataOutput out) throws IOException {\n");
+            for (VariableElement field : indexedRecordFields) {
+                appendEncodeStatement(body, field, variableName);
+            }
+            body.append("   }\n\n");
+
+            body.append("   public static ").append(this.className).append(" readIndexedFrom(DataInput in) throws IOException {\n");
+            body.append("       ").append(this.className).append(" ").append(variableName).append(" = new ")
+                    .append(this.className).append("();\n");
+            for (VariableElement field : indexedRecordFields) {
+                body.append("       ").append(variableName).append(".").append(setterName(field)).append("(")
+                        .append(decodeExpression(field)).append(");\n");
+            }
+            body.append("       return ").append(variableName).append(";\n");
+            body.append("   }\n\n");
+        }
+
+        if (fixedSlot) {
+            appendSlotCodecMethods(body, allFields);
+        }
+        if (!this.columns.isEmpty()) {
+            appendColumnCodecMethods(body);
+        }
+        if (this.versioned) {
+            appendSchemaCodecMethods(body, allFields, enumFields);
+        }
+
+        body.append("   private static void writeString(DataOutput out, String value) throws IOException {\n");
+        body.append("       if (value == null) {\n");
+        body.append("           out.writeInt(-1);\n");
+        body.append("           return;\n");
         body.append("       }\n");
+        body.append("       byte[] bytes = value.getBytes(StandardCharsets.UTF_8);\n");
+        body.append("       out.writeInt(bytes.length);\n");
+        body.append("       out.write(bytes);\n");
         body.append("   }\n\n");
 
-        body.append("   @Override\n");
-        body.append("   public List<").append(this.className).append("> getAll() throws ")
-                .append(throwsExceptionString).append(" {\n");
-        body.append("       List<").append(this.className).append("> ")
-                .append(this.className.toLowerCase()).append("s = new ArrayList<>();\n");
-        body.append("       if (!this.dbExist()) {\n");
-        body.append("           return ").append(this.className.toLowerCase()).append("s;\n");
+        body.append("   private static String readString(DataInput in) throws IOException {\n");
+        body.append("       int length = in.readInt();\n");
+        body.append("       if (length < 0) {\n");
+        body.append("           return null;\n");
         body.append("       }\n");
-        body.append("       try (FileInputStream fileIn = new FileInputStream(dbFile);\n");
-        body.append("            ObjectInputStream objectIn = new ObjectInputStream(fileIn)) {\n");
-        body.append("           while(true) {\n");
-        body.append("               try {\n");
-        body.append("                   ").append(this.className).append(DTO_SUFFIX).append(" ")
-                .append(this.className.toLowerCase()).append(DTO_SUFFIX).append(" = (")
-                .append(this.className).append(DTO_SUFFIX).append(") objectIn.readObject();\n");
-        body.append("                   ").append(this.className.toLowerCase()).append("s.add(convert")
-                .append(this.className).append(DTO_SUFFIX).append("To").append(this.className).append("(")
-                .append(this.className.toLowerCase()).append(DTO_SUFFIX).append("));\n");
-        body.append("               } catch (EOFException eof) {\n");
-        body.append("                   break;\n");
-        body.append("               }\n");
+        body.append("       byte[] bytes = new byte[length];\n");
+        body.append("       in.readFully(bytes);\n");
+        body.append("       return new String(bytes, StandardCharsets.UTF_8);\n");
+        body.append("   }\n");
+
+        if (serializedFields || this.versioned) {
+            body.append("\n");
+            body.append("   private static byte[] readBytes(DataInput in) throws IOException {\n");
+            body.append("       int length = in.readInt();\n");
+            body.append("       if (length < 0) {\n");
+            body.append("           return null;\n");
+            body.append("       }\n");
+            body.append("       byte[] bytes = new byte[length];\n");
+            body.append("       in.readFully(bytes);\n");
+            body.append("       return bytes;\n");
+            body.append("   }\n");
+        }
+
+        if (enumFields) {
+            body.append("\n");
+            body.append("   private static <E extends Enum<E>> E readEnum(DataInput in, Class<E> type) throws IOException {\n");
+            body.append("       return enumOf(type, readString(in));\n");
+            body.append("   }\n\n");
+
+            body.append("   private static <E extends Enum<E>> E enumOf(Class<E> type, String name) {\n");
+            body.append("       return name == null ? null : Enum.valueOf(type, name);\n");
+            body.append("   }\n");
+        }
+
+        if (serializedFields) {
+            body.append("\n");
+            body.append("   private static void writeSerialized(DataOutput out, Object value) throws IOException {\n");
+            body.append("       if (value == null) {\n");
+            body.append("           out.writeInt(-1);\n");
+            body.append("           return;\n");
+            body.append("       }\n");
+            body.append("       ByteArrayOutputStream bytes = new ByteArrayOutputStream();\n");
+            body.append("       try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {\n");
+            body.append("           objectOut.writeObject(value);\n");
+            body.append("       }\n");
+            body.append("       out.writeInt(bytes.size());\n");
+            body.append("       out.write(bytes.toByteArray());\n");
+            body.append("   }\n\n");
+
+            body.append("   private static Object readSerialized(DataInput in) throws IOException {\n");
+            body.append("       byte[] bytes = readBytes(in);\n");
+            body.append("       return bytes == null ? null : deserialize(bytes);\n");
+            body.append("   }\n\n");
+
+            body.append("   private static Object deserialize(byte[] bytes) throws IOException {\n");
+            body.append("       try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {\n");
+            body.append("           return objectIn.readObject();\n");
+            body.append("       } catch (ClassNotFoundException e) {\n");
+            body.append("           throw new IOException(e);\n");
+            body.append("       }\n");
+            body.append("   }\n");
+        }
+        body.append("}\n");
+        writeSourceFile(this.className + "Codec", body);
+    }
+
+    private void appendColumnCursor(StringBuilder body) {
+        String codecClassName = this.className + "Codec";
+        body.append("   private final class ColumnCursor implements Iterator<").append(this.className)
+                .append(">, Closeable {\n");
+        body.append("       private final FileChannel channel;\n");
+        body.append("       private final int rows;\n");
+        for (VariableElement field : this.columns) {
+            body.append("       private final ").append(codecClassName).append(".ColumnReader<").append(boxedType(field))
+                    .append("> ").append(field.getSimpleName()).append("Column;\n");
+        }
+        body.append("       private int row;\n\n");
+
+        body.append("       private ColumnCursor() throws IOException {\n");
+        body.append("           channel = FileChannel.open(Path.of(dbFile), StandardOpenOption.READ);\n");
+        body.append("           try {\n");
+        body.append("               ByteBuffer header = readColumnHeader(channel);\n");
+        body.append("               rows = header.getInt(4);\n");
+        for (int i = 0; i < this.columns.size(); i++) {
+            VariableElement field = this.columns.get(i);
+            body.append("               ").append(field.getSimpleName()).append("Column = ").append(codecClassName)
+                    .append(".open").append(StringUtil.capitalizeFirstLetter(field.getSimpleName().toString()))
+                    .append("Column(segment(channel, header.getLong(").append(8 + 8 * i).append(")));\n");
+        }
+        body.append("           } catch (IOException | RuntimeException e) {\n");
+        body.append("               channel.close();\n");
+        body.append("               throw e;\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+
+        body.append("       private Stream<").append(this.className).append("> stream() {\n");
+        body.append("           return StreamSupport.stream(Spliterators.spliterator(this, rows, Spliterator.ORDERED | Spliterator.NONNULL), false)\n");
+        body.append("                   .onClose(this::close);\n");
+        body.append("       }\n\n");
+
+        body.append("       @Override\n");
+        body.append("       public boolean hasNext() {\n");
+        body.append("           if (row < rows) {\n");
+        body.append("               return true;\n");
+        body.append("           }\n");
+        body.append("           this.close();\n");
+        body.append("           return false;\n");
+        body.append("       }\n\n");
+
+        body.append("       @Override\n");
+        body.append("       public ").append(this.className).append(" next() {\n");
+        body.append("           if (!this.hasNext()) {\n");
+        body.append("               throw new NoSuchElementException();\n");
+        body.append("           }\n");
+        body.append("           ").append(this.className).append(" ").append(variableName).append(" = new ")
+                .append(this.className).append("();\n");
+        body.append("           try {\n");
+        for (VariableElement field : this.columns) {
+            body.append("               ").append(variableName).append(".").append(setterName(field)).append("(")
+                    .append(field.getSimpleName()).append("Column.next());\n");
+        }
+        body.append("           } catch (IOException e) {\n");
+        body.append("               this.close();\n");
+        body.append("               throw new UncheckedIOException(e);\n");
+        body.append("           }\n");
+        body.append("           row++;\n");
+        body.append("           return ").append(variableName).append(";\n");
+        body.append("       }\n\n");
+
+        body.append("       @Override\n");
+        body.append("       public void close() {\n");
+        body.append("           try {\n");
+        body.append("               channel.close();\n");
+        body.append("           } catch (IOException e) {\n");
+        body.append("               // Nothing was written through the channel, there is nothing to lose.\n");
         body.append("           }\n");
-        body.append("       } catch(IOException | ClassNotFoundException e) {\n");
-        body.append("           throw new ").append(this.className).append("ServiceException(\"Internal service error occurred: \" + e);\n");
         body.append("       }\n");
-        body.append("       return ").append(this.className.toLowerCase()).append("s;\n");
         body.append("   }\n\n");
+    }
 
-        body.append("   @Override\n");
-        body.append("   public void delete(").append(this.className).append(" ")
-                .append(this.className.toLowerCase()).append(") throws ").append(throwsExceptionString).append(" {\n");
-        body.append("       if (!this.dbExist()) {\n");
-        body.append("           throw new ").append(this.className)
-                .append("RequestException(\"Unable to find the student\");\n");
-        body.append("       }\n");
-        body.append("       boolean isDeleted = false;\n");
-        body.append("       List<").append(this.className).append("> ")
-                .append(this.className.toLowerCase()).append("s = this.getAll();\n");
-        body.append("       try (FileOutputStream fileOut = new FileOutputStream(dbFile);\n");
-        body.append("            ObjectOutputStream objectOut = new ObjectOutputStream(fileOut)) {\n");
-        body.append("           for (").append(this.className).append(" random : ")
-                .append(this.className.toLowerCase()).append("s) {\n");
-        body.append("               if(!");
-        for (int i=0; i < uniqueKeyFields.size(); i++) {
-            String fieldName = uniqueKeyFields.get(i).getSimpleName().toString();
-            String fieldGetterName = "get" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            if (uniqueKeyFields.get(i).asType().getKind().isPrimitive()) {
-                body.append("(").append("random.").append(fieldGetterName)
-                        .append("() == ").append(this.className.toLowerCase()).append(".").append(fieldGetterName)
-                        .append("())");
+    private void appendColumnCodecMethods(StringBuilder body) {
+        for (VariableElement field : this.columns) {
+            String column = StringUtil.capitalizeFirstLetter(field.getSimpleName().toString());
+            String codecType = codecType(field);
+            String valueType = boxedType(field);
+            body.append("   public static void write").append(column).append("Column(Collection<? extends ")
+                    .append(this.className).append("> ").append(variableName)
+                    .append("s, DataOutput out) throws IOException {\n");
+            if ("String".equals(codecType) || "Enum".equals(codecType)) {
+                String value = variableName + "." + getterName(field) + "()";
+                body.append("       List<String> values = new ArrayList<>(").append(variableName)
+                        .append("s.size());\n");
+                body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                        .append(variableName).append("s) {\n");
+                body.append("           values.add(").append(value);
+                if ("Enum".equals(codecType)) {
+                    body.append(" == null ? null : ").append(value).append(".name()");
+                }
+                body.append(");\n");
+                body.append("       }\n");
+                body.append("       writeDictionary(out, values);\n");
             } else {
-                body.append("random.").append(fieldGetterName)
-                        .append("().equals(").append(this.className.toLowerCase()).append(".").append(fieldGetterName)
-                        .append("())");
+                body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                        .append(variableName).append("s) {\n");
+                appendEncodeStatement(body, "           ", field, variableName);
+                body.append("       }\n");
             }
+            body.append("   }\n\n");
 
-            if (i != uniqueKeyFields.size() - 1) {
-                body.append(" && !");
+            body.append("   public static ColumnReader<").append(valueType).append("> open").append(column)
+                    .append("Column(DataInput in) throws IOException {\n");
+            if ("String".equals(codecType)) {
+                body.append("       return openDictionary(in);\n");
+            } else if ("Enum".equals(codecType)) {
+                body.append("       ColumnReader<String> names = openDictionary(in);\n");
+                body.append("       return () -> enumOf(").append(valueType).append(".class, names.next());\n");
+            } else {
+                body.append("       return () -> ").append(decodeExpression(field)).append(";\n");
             }
+            body.append("   }\n\n");
+
+            body.append("   public static List<").append(valueType).append("> read").append(column)
+                    .append("Column(DataInput in, int rows) throws IOException {\n");
+            body.append("       return readAll(open").append(column).append("Column(in), rows);\n");
+            body.append("   }\n\n");
         }
-        body.append(") {\n");
-        body.append("                   objectOut.writeObject(convert").append(this.className).append("To")
-                .append(this.className).append(DTO_SUFFIX).append("(random));\n");
-        body.append("               } else {\n");
-        body.append("                   isDeleted = true;\n");
-        body.append("               }\n");
+
+        body.append("   private static <T> List<T> readAll(ColumnReader<T> reader, int rows) throws IOException {\n");
+        body.append("       List<T> values = new ArrayList<>(rows);\n");
+        body.append("       for (int row = 0; row < rows; row++) {\n");
+        body.append("           values.add(reader.next());\n");
+        body.append("       }\n");
+        body.append("       return values;\n");
+        body.append("   }\n\n");
+
+        body.append("   private static void writeDictionary(DataOutput out, List<String> values) throws IOException {\n");
+        body.append("       Map<String, Integer> codes = new LinkedHashMap<>();\n");
+        body.append("       for (String value : values) {\n");
+        body.append("           if (value != null) {\n");
+        body.append("               codes.putIfAbsent(value, codes.size());\n");
         body.append("           }\n");
-        body.append("       } catch (IOException e) {\n");
-        body.append("           throw new ").append(this.className).append("ServiceException(\"Internal service error occurred: \" + e);\n");
-        body.append("       }\n\n");
-        body.append("       if (!isDeleted) {\n");
-        body.append("           throw new ").append(this.className).append("RequestException(\"Data not found: \");\n");
+        body.append("       }\n");
+        body.append("       // Dictionary codes only pay off once the values repeat.\n");
+        body.append("       boolean dictionary = codes.size() * 2 <= values.size();\n");
+        body.append("       out.writeBoolean(dictionary);\n");
+        body.append("       if (!dictionary) {\n");
+        body.append("           for (String value : values) {\n");
+        body.append("               writeString(out, value);\n");
+        body.append("           }\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       out.writeInt(codes.size());\n");
+        body.append("       for (String value : codes.keySet()) {\n");
+        body.append("           writeString(out, value);\n");
+        body.append("       }\n");
+        body.append("       for (String value : values) {\n");
+        body.append("           out.writeInt(value == null ? -1 : codes.get(value));\n");
         body.append("       }\n");
         body.append("   }\n\n");
 
-        body.append("   @Override\n");
-        body.append("   public void update(").append(this.className).append(" ")
-                .append(this.className.toLowerCase()).append(") throws ").append(throwsExceptionString).append(" {\n");
-        body.append("       if (!this.dbExist()) {\n");
-        body.append("           throw new ").append(this.className)
-                .append("RequestException(\"Unable to find the student\");\n");
+        body.append("   private static ColumnReader<String> openDictionary(DataInput in) throws IOException {\n");
+        body.append("       if (!in.readBoolean()) {\n");
+        body.append("           return () -> readString(in);\n");
         body.append("       }\n");
-        body.append("       boolean isUpdated = false;\n");
-        body.append("       List<").append(this.className).append("> ")
-                .append(this.className.toLowerCase()).append("s = this.getAll();\n");
-        body.append("       try (FileOutputStream fileOut = new FileOutputStream(dbFile);\n");
-        body.append("            ObjectOutputStream objectOut = new ObjectOutputStream(fileOut)) {\n");
-        body.append("           for (").append(this.className).append(" random : ")
-                .append(this.className.toLowerCase()).append("s) {\n");
-        body.append("               if(");
-        for (int i=0; i < uniqueKeyFields.size(); i++) {
-            String fieldName = uniqueKeyFields.get(i).getSimpleName().toString();
-            String fieldGetterName = "get" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            if (uniqueKeyFields.get(i).asType().getKind().isPrimitive()) {
-                body.append("random.").append(fieldGetterName).append("() == ").append(this.className.toLowerCase())
-                        .append(".").append(fieldGetterName).append("()");
+        body.append("       String[] dictionary = new String[in.readInt()];\n");
+        body.append("       for (int code = 0; code < dictionary.length; code++) {\n");
+        body.append("           dictionary[code] = readString(in);\n");
+        body.append("       }\n");
+        body.append("       return () -> {\n");
+        body.append("           int code = in.readInt();\n");
+        body.append("           return code < 0 ? null : dictionary[code];\n");
+        body.append("       };\n");
+        body.append("   }\n\n");
+
+        body.append("   /** Decodes a column segment one row at a time, in row order. */\n");
+        body.append("   @FunctionalInterface\n");
+        body.append("   public interface ColumnReader<T> {\n");
+        body.append("       T next() throws IOException;\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendSchemaConstants(StringBuilder body, List<VariableElement> allFields, int keyFields) {
+        StringJoiner names = new StringJoiner(", ", "{", "}");
+        StringJoiner types = new StringJoiner(", ", "{", "}");
+        for (VariableElement field : allFields) {
+            names.add("\"" + field.getSimpleName() + "\"");
+            types.add("\"" + wireType(field) + "\"");
+        }
+        body.append("   public static final int SCHEMA_VERSION = ")
+                .append(String.format("0x%08x", layoutHash(allFields, keyFields))).append(";\n");
+        body.append("   private static final int KEY_FIELDS = ").append(keyFields).append(";\n");
+        body.append("   private static final String[] FIELD_NAMES = ").append(names).append(";\n");
+        body.append("   private static final String[] FIELD_TYPES = ").append(types).append(";\n");
+        body.append("   public static final Schema CURRENT_SCHEMA = new Schema(SCHEMA_VERSION, FIELD_NAMES, FIELD_TYPES);\n\n");
+    }
+
+    private void appendSchemaCodecMethods(StringBuilder body, List<VariableElement> allFields, boolean enumFields) {
+        body.append("   public static ").append(this.className)
+                .append(" readFrom(DataInput in, Schema schema) throws IOException {\n");
+        body.append("       if (schema == CURRENT_SCHEMA) {\n");
+        body.append("           return readFrom(in);\n");
+        body.append("       }\n");
+        body.append("       ").append(this.className).append(" ").append(variableName).append(" = new ")
+                .append(this.className).append("();\n");
+        body.append("       for (int i = 0; i < schema.types.length; i++) {\n");
+        body.append("           Object value = readValue(in, schema.types[i]);\n");
+        body.append("           if (value != null && schema.targets[i] >= 0) {\n");
+        body.append("               migrate(").append(variableName).append(", schema.targets[i], value);\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       return ").append(variableName).append(";\n");
+        body.append("   }\n\n");
+
+        body.append("   public static void writeSchema(DataOutput out) throws IOException {\n");
+        body.append("       out.writeInt(SCHEMA_VERSION);\n");
+        body.append("       out.writeShort(KEY_FIELDS);\n");
+        body.append("       out.writeShort(FIELD_NAMES.length);\n");
+        body.append("       for (int i = 0; i < FIELD_NAMES.length; i++) {\n");
+        body.append("           writeString(out, FIELD_NAMES[i]);\n");
+        body.append("           writeString(out, FIELD_TYPES[i]);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   public static Schema readSchema(DataInput in) throws IOException {\n");
+        body.append("       int version = in.readInt();\n");
+        body.append("       int keyFields = in.readUnsignedShort();\n");
+        body.append("       String[] names = new String[in.readUnsignedShort()];\n");
+        body.append("       String[] types = new String[names.length];\n");
+        body.append("       for (int i = 0; i < names.length; i++) {\n");
+        body.append("           names[i] = readString(in);\n");
+        body.append("           types[i] = readString(in);\n");
+        body.append("       }\n");
+        body.append("       if (version == SCHEMA_VERSION && Arrays.equals(names, FIELD_NAMES) && Arrays.equals(types, FIELD_TYPES)) {\n");
+        body.append("           return CURRENT_SCHEMA;\n");
+        body.append("       }\n");
+        body.append("       if (keyFields != KEY_FIELDS || names.length < KEY_FIELDS\n");
+        body.append("               || !Arrays.equals(names, 0, KEY_FIELDS, FIELD_NAMES, 0, KEY_FIELDS)\n");
+        body.append("               || !Arrays.equals(types, 0, KEY_FIELDS, FIELD_TYPES, 0, KEY_FIELDS)) {\n");
+        body.append("           // Keys decide where every later entry lands, so records written under other keys cannot be upgraded.\n");
+        body.append("           throw new IOException(\"Schema \" + version + \" has unique key \"\n");
+        body.append("                   + Arrays.toString(Arrays.copyOf(names, Math.min(keyFields, names.length)))\n");
+        body.append("                   + \", expected \" + Arrays.toString(Arrays.copyOf(FIELD_NAMES, KEY_FIELDS)));\n");
+        body.append("       }\n");
+        body.append("       return new Schema(version, names, types);\n");
+        body.append("   }\n\n");
+
+        body.append("   private static void migrate(").append(this.className).append(" ").append(variableName)
+                .append(", int field, Object value) throws IOException {\n");
+        body.append("       switch (field) {\n");
+        for (int i = 0; i < allFields.size(); i++) {
+            VariableElement field = allFields.get(i);
+            String setter = variableName + "." + setterName(field);
+            String codecType = codecType(field);
+            body.append("           case ").append(i).append(" -> ");
+            if (codecType == null) {
+                String erasure = processingEnv.getTypeUtils().erasure(field.asType()).toString();
+                body.append("{\n");
+                body.append("               Object object = deserialize((byte[]) value);\n");
+                body.append("               if (object instanceof ").append(erasure).append(") {\n");
+                body.append("                   ").append(setter).append("((").append(field.asType())
+                        .append(") object);\n");
+                body.append("               }\n");
+                body.append("           }\n");
+            } else if (codecType.equals("Enum")) {
+                body.append(setter).append("(migrateEnum(").append(field.asType()).append(".class, (String) value));\n");
             } else {
-                body.append("random.").append(fieldGetterName).append("().equals(").append(this.className.toLowerCase())
-                        .append(".").append(fieldGetterName).append("())");
+                body.append(setter).append("((").append(boxedType(field)).append(") value);\n");
             }
+        }
+        body.append("           default -> throw new IOException(\"Unknown field \" + field);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
 
-            if (i != uniqueKeyFields.size() - 1) {
-                body.append(" && ");
-            }
+        body.append("   private static Object readValue(DataInput in, String type) throws IOException {\n");
+        body.append("       if (type.endsWith(\"?\")) {\n");
+        body.append("           return in.readBoolean() ? readValue(in, type.substring(0, type.length() - 1)) : null;\n");
+        body.append("       }\n");
+        body.append("       return switch (type) {\n");
+        for (String primitive : List.of("Boolean", "Byte", "Short", "Char", "Int", "Long", "Float", "Double")) {
+            body.append("           case \"").append(primitive).append("\" -> in.read").append(primitive).append("();\n");
         }
-        body.append(") {\n");
-        body.append("                   objectOut.writeObject(convert").append(this.className).append("To")
-                .append(this.className).append(DTO_SUFFIX).append("(").append(this.className.toLowerCase())
-                .append("));\n");
-        body.append("                   isUpdated=true;\n");
-        body.append("               } else {\n");
-        body.append("                   objectOut.writeObject(convert").append(this.className).append("To")
-                .append(this.className).append(DTO_SUFFIX).append("(random));\n");
+        body.append("           case \"String\", \"Enum\" -> readString(in);\n");
+        body.append("           case \"Object\" -> readBytes(in);\n");
+        body.append("           default -> throw new IOException(\"Unknown field type \" + type);\n");
+        body.append("       };\n");
+        body.append("   }\n\n");
+
+        if (enumFields) {
+            body.append("   private static <E extends Enum<E>> E migrateEnum(Class<E> type, String name) {\n");
+            body.append("       try {\n");
+            body.append("           return enumOf(type, name);\n");
+            body.append("       } catch (IllegalArgumentException removedConstant) {\n");
+            body.append("           return null;\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+        }
+
+        body.append("   public static final class Schema {\n");
+        body.append("       private final int version;\n");
+        body.append("       private final String[] types;\n");
+        body.append("       private final int[] targets;\n\n");
+        body.append("       private Schema(int version, String[] names, String[] types) {\n");
+        body.append("           this.version = version;\n");
+        body.append("           this.types = types;\n");
+        body.append("           this.targets = new int[names.length];\n");
+        body.append("           // A field keeps its value when a field of the same name and encoding survives, otherwise it is dropped.\n");
+        body.append("           for (int i = 0; i < names.length; i++) {\n");
+        body.append("               targets[i] = -1;\n");
+        body.append("               for (int field = 0; field < FIELD_NAMES.length; field++) {\n");
+        body.append("                   if (FIELD_NAMES[field].equals(names[i]) && baseType(FIELD_TYPES[field]).equals(baseType(types[i]))) {\n");
+        body.append("                       targets[i] = field;\n");
+        body.append("                   }\n");
         body.append("               }\n");
         body.append("           }\n");
-        body.append("       } catch (IOException e) {\n");
-        body.append("           throw new ").append(this.className).append("ServiceException(\"Internal service error occurred: \" + e);\n");
         body.append("       }\n\n");
-        body.append("       if (!isUpdated) {\n");
-        body.append("           throw new ").append(this.className).append("RequestException(\"Data not found: \");\n");
+        body.append("       public int version() {\n");
+        body.append("           return version;\n");
+        body.append("       }\n\n");
+        body.append("       private static String baseType(String type) {\n");
+        body.append("           return type.endsWith(\"?\") ? type.substring(0, type.length() - 1) : type;\n");
         body.append("       }\n");
         body.append("   }\n\n");
-        body.append("   private boolean dbExist() {\n");
-        body.append("       File file = new File(dbFile);\n");
-        body.append("       return file.exists();\n");
-        body.append("   }\n\n");
+    }
 
-        body.append("   private ").append(this.className).append(" ").append("convert").append(this.className)
-                .append(DTO_SUFFIX).append("To").append(this.className).append("(").append(this.className)
-                .append(DTO_SUFFIX).append(" ").append(this.className.toLowerCase()).append(DTO_SUFFIX).append(") {\n");
-        body.append("       ").append(this.className).append(" ").append(this.className.toLowerCase())
-                .append(" = new ").append(this.className).append("();\n");
-        for (VariableElement field : fields) {
-            String fieldName = field.getSimpleName().toString();
-            String fieldGetterName = "get" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            String fieldSetterName = "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            body.append("       ").append(this.className.toLowerCase()).append(".").append(fieldSetterName)
-                    .append("(").append(this.className.toLowerCase()).append(DTO_SUFFIX).append(".")
-                    .append(fieldGetterName).append("());\n");
+    /**
+     * Returns the encoding recorded for the field in a schema header: the codec type, suffixed with "?" when a
+     * boxed value carries a null flag, or "Object" for Java serialization.
+     */
+    private String wireType(VariableElement field) {
+        String codecType = codecType(field);
+        if (codecType == null) {
+            return "Object";
+        }
+        if (codecType.equals("String") || codecType.equals("Enum") || field.asType().getKind().isPrimitive()) {
+            return codecType;
         }
+        return codecType + "?";
+    }
 
-        for (VariableElement field : uniqueKeyFields) {
-            String fieldName = field.getSimpleName().toString();
-            String fieldGetterName = "get" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            String fieldSetterName = "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            body.append("       ").append(this.className.toLowerCase()).append(".").append(fieldSetterName)
-                    .append("(").append(this.className.toLowerCase()).append(DTO_SUFFIX).append(".")
-                    .append(fieldGetterName).append("());\n");
+    private int layoutHash(List<VariableElement> layoutFields, int keyFields) {
+        StringJoiner layout = new StringJoiner(",", keyFields + ":", "");
+        for (VariableElement field : layoutFields) {
+            layout.add(field.getSimpleName() + " " + wireType(field));
         }
-        body.append("       return ").append(this.className.toLowerCase()).append(";\n");
-        body.append("   }\n\n");
+        return layout.toString().hashCode();
+    }
 
-        body.append("   private ").append(this.className).append(DTO_SUFFIX).append(" ").append("convert").append(this.className)
-                .append("To").append(this.className).append(DTO_SUFFIX).append("(").append(this.className)
-                .append(" ").append(this.className.toLowerCase()).append(") {\n");
-        body.append("       ").append(this.className).append(DTO_SUFFIX).append(" ").append(this.className.toLowerCase())
-                .append(DTO_SUFFIX).append(" = new ").append(this.className).append(DTO_SUFFIX).append("();\n");
-        for (VariableElement field : fields) {
-            String fieldName = field.getSimpleName().toString();
-            String fieldGetterName = "get" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            String fieldSetterName = "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            body.append("       ").append(this.className.toLowerCase()).append(DTO_SUFFIX).append(".").append(fieldSetterName)
-                    .append("(").append(this.className.toLowerCase()).append(".").append(fieldGetterName).append("());\n");
+    private void generateColumnEnum() {
+        StringBuilder body = new StringBuilder();
+        body.append("package ").append(this.packageName).append(";\n\n");
+        body.append("public enum ").append(this.className).append("Column {\n");
+        for (int i = 0; i < this.columns.size(); i++) {
+            body.append("   ").append(columnConstant(this.columns.get(i)))
+                    .append(i == this.columns.size() - 1 ? "\n" : ",\n");
         }
+        body.append("}\n");
+        writeSourceFile(this.className + "Column", body);
+    }
 
-        for (VariableElement field : uniqueKeyFields) {
-            String fieldName = field.getSimpleName().toString();
-            String fieldGetterName = "get" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            String fieldSetterName = "set" + Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
-            body.append("       ").append(this.className.toLowerCase()).append(DTO_SUFFIX).append(".").append(fieldSetterName)
-                    .append("(").append(this.className.toLowerCase()).append(".").append(fieldGetterName).append("());\n");
+    private String columnConstant(VariableElement field) {
+        return StringUtil.camelCaseToUnderscore(field.getSimpleName().toString()).toUpperCase();
+    }
+
+    private String boxedType(VariableElement field) {
+        TypeMirror type = field.asType();
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).getQualifiedName().toString();
+        }
+        return type.toString();
+    }
+
+    private boolean isComparable(VariableElement field) {
+        TypeMirror type = field.asType();
+        if (type.getKind().isPrimitive()) {
+            return true;
+        }
+        TypeMirror comparable = processingEnv.getElementUtils().getTypeElement("java.lang.Comparable").asType();
+        return processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(type),
+                processingEnv.getTypeUtils().erasure(comparable));
+    }
+
+    private void appendSlotCodecMethods(StringBuilder body, List<VariableElement> allFields) {
+        body.append("   public static void writeSlot(").append(this.className).append(" ").append(variableName)
+                .append(", ByteBuffer buffer, int offset) {\n");
+        for (VariableElement field : allFields) {
+            String codecType = codecType(field);
+            String value = variableName + "." + getterName(field) + "()";
+            if (codecType.equals("String")) {
+                body.append("       byte[] ").append(field.getSimpleName()).append("Bytes = encodeBounded(").append(value)
+                        .append(", ").append(maxLength(field)).append(", \"").append(field.getSimpleName()).append("\");\n");
+            } else if (codecType.equals("Enum")) {
+                body.append("       byte[] ").append(field.getSimpleName()).append("Bytes = encodeBounded(").append(value)
+                        .append(" == null ? null : ").append(value).append(".name(), ").append(maxLength(field))
+                        .append(", \"").append(field.getSimpleName()).append("\");\n");
+            }
+        }
+        int position = 1;
+        for (VariableElement field : allFields) {
+            String codecType = codecType(field);
+            String value = variableName + "." + getterName(field) + "()";
+            if (codecType.equals("String") || codecType.equals("Enum")) {
+                body.append("       putBounded(buffer, offset + ").append(position).append(", ")
+                        .append(field.getSimpleName()).append("Bytes);\n");
+            } else if (field.asType().getKind().isPrimitive()) {
+                body.append("       ").append(slotPut(codecType, position, value)).append(";\n");
+            } else {
+                body.append("       buffer.put(offset + ").append(position).append(", (byte) (").append(value)
+                        .append(" == null ? 0 : 1));\n");
+                body.append("       if (").append(value).append(" != null) {\n");
+                body.append("           ").append(slotPut(codecType, position + 1, value)).append(";\n");
+                body.append("       }\n");
+            }
+            position += slotSize(field);
         }
-        body.append("       return ").append(this.className.toLowerCase()).append(DTO_SUFFIX).append(";\n");
         body.append("   }\n\n");
 
-        body.append("}\n");
+        body.append("   public static ").append(this.className).append(" readSlot(ByteBuffer buffer, int offset) {\n");
+        body.append("       ").append(this.className).append(" ").append(variableName).append(" = new ")
+                .append(this.className).append("();\n");
+        position = 1;
+        for (VariableElement field : allFields) {
+            String codecType = codecType(field);
+            String fieldType = field.asType().toString();
+            String value;
+            if (codecType.equals("String")) {
+                value = "getBounded(buffer, offset + " + position + ")";
+            } else if (codecType.equals("Enum")) {
+                value = "enumOf(" + fieldType + ".class, getBounded(buffer, offset + " + position + "))";
+            } else if (field.asType().getKind().isPrimitive()) {
+                value = slotGet(codecType, position);
+            } else {
+                value = "buffer.get(offset + " + position + ") == 0 ? null : " + fieldType + ".valueOf("
+                        + slotGet(codecType, position + 1) + ")";
+            }
+            body.append("       ").append(variableName).append(".").append(setterName(field)).append("(")
+                    .append(value).append(");\n");
+            position += slotSize(field);
+        }
+        body.append("       return ").append(variableName).append(";\n");
+        body.append("   }\n\n");
 
-        try {
-            Writer writer = processingEnv.getFiler()
-                    .createSourceFile(this.packageName + "." + this.className + "DaoImpl")
+        body.append("   private static byte[] encodeBounded(String value, int maxLength, String fieldName) {\n");
+        body.append("       if (value == null) {\n");
+        body.append("           return null;\n");
+        body.append("       }\n");
+        body.append("       byte[] bytes = value.getBytes(StandardCharsets.UTF_8);\n");
+        body.append("       if (bytes.length > maxLength) {\n");
+        body.append("           throw new IllegalArgumentException(fieldName + \" exceeds \" + maxLength + \" bytes\");\n");
+        body.append("       }\n");
+        body.append("       return bytes;\n");
+        body.append("   }\n\n");
+
+        body.append("   private static void putBounded(ByteBuffer buffer, int offset, byte[] bytes) {\n");
+        body.append("       if (bytes == null) {\n");
+        body.append("           buffer.putShort(offset, (short) -1);\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       buffer.putShort(offset, (short) bytes.length);\n");
+        body.append("       buffer.put(offset + 2, bytes);\n");
+        body.append("   }\n\n");
+
+        body.append("   private static String getBounded(ByteBuffer buffer, int offset) {\n");
+        body.append("       short length = buffer.getShort(offset);\n");
+        body.append("       if (length < 0) {\n");
+        body.append("           return null;\n");
+        body.append("       }\n");
+        body.append("       byte[] bytes = new byte[length];\n");
+        body.append("       buffer.get(offset + 2, bytes);\n");
+        body.append("       return new String(bytes, StandardCharsets.UTF_8);\n");
+        body.append("   }\n\n");
+    }
+
+    private String slotPut(String codecType, int position, String value) {
+        if (codecType.equals("Boolean")) {
+            return "buffer.put(offset + " + position + ", (byte) (" + value + " ? 1 : 0))";
+        } else if (codecType.equals("Byte")) {
+            return "buffer.put(offset + " + position + ", " + value + ")";
+        }
+        return "buffer.put" + codecType + "(offset + " + position + ", " + value + ")";
+    }
+
+    private String slotGet(String codecType, int position) {
+        if (codecType.equals("Boolean")) {
+            return "buffer.get(offset + " + position + ") != 0";
+        } else if (codecType.equals("Byte")) {
+            return "buffer.get(offset + " + position + ")";
+        }
+        return "buffer.get" + codecType + "(offset + " + position + ")";
+    }
+
+    private int slotSize(List<VariableElement> allFields) {
+        int size = 1;
+        for (VariableElement field : allFields) {
+            size += slotSize(field);
+        }
+        return size;
+    }
+
+    private int slotSize(VariableElement field) {
+        String codecType = codecType(field);
+        if (codecType.equals("String") || codecType.equals("Enum")) {
+            return 2 + maxLength(field);
+        }
+        int size = switch (codecType) {
+            case "Boolean", "Byte" -> 1;
+            case "Short", "Char" -> 2;
+            case "Int", "Float" -> 4;
+            default -> 8;
+        };
+        return field.asType().getKind().isPrimitive() ? size : size + 1;
+    }
+
+    private int maxLength(VariableElement field) {
+        MaxLength maxLength = field.getAnnotation(MaxLength.class);
+        if (maxLength != null) {
+            return maxLength.value();
+        }
+        int longestName = 0;
+        Element typeElement = processingEnv.getTypeUtils().asElement(field.asType());
+        for (Element constant : typeElement.getEnclosedElements()) {
+            if (constant.getKind() == ElementKind.ENUM_CONSTANT) {
+                longestName = Math.max(longestName,
+                        constant.getSimpleName().toString().getBytes(StandardCharsets.UTF_8).length);
+            }
+        }
+        return longestName;
+    }
+
+    /**
+     * The generated code names an entity after its class, {@code Order order} and {@code orders}, unless that name is
+     * taken by a local or parameter of the generated methods or by one of the entity's own fields.
+     */
+    private static String variableNameFor(String className, List<VariableElement> allFields) {
+        String variableName = className.toLowerCase();
+        boolean taken = allFields.stream().map(field -> field.getSimpleName().toString())
+                .anyMatch(name -> name.equals(variableName) || name.equals(variableName + "s"));
+        if (taken || RESERVED_VARIABLE_NAMES.contains(variableName)
+                || RESERVED_VARIABLE_NAMES.contains(variableName + "s")
+                || !SourceVersion.isName(variableName) || !SourceVersion.isName(variableName + "s")) {
+            return variableName + "Record";
+        }
+        return variableName;
+    }
+
+    private boolean validateFixedSlotFields(List<VariableElement> allFields) {
+        boolean valid = true;
+        for (VariableElement field : allFields) {
+            String codecType = codecType(field);
+            MaxLength maxLength = field.getAnnotation(MaxLength.class);
+            if (codecType == null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "FIXED_SLOT storage cannot hold fields of type " + field.asType(), field);
+                valid = false;
+            } else if (codecType.equals("String")
+                    && (maxLength == null || maxLength.value() < 0 || maxLength.value() > Short.MAX_VALUE)) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "String fields need @MaxLength between 0 and " + Short.MAX_VALUE + " in FIXED_SLOT storage",
+                        field);
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    private void appendEncodeStatement(StringBuilder body, VariableElement field, String variableName) {
+        appendEncodeStatement(body, "       ", field, variableName);
+    }
+
+    private void appendEncodeStatement(StringBuilder body, String indentation, VariableElement field,
+                                       String variableName) {
+        String value = variableName + "." + getterName(field) + "()";
+        String codecType = codecType(field);
+        if (codecType == null) {
+            body.append(indentation).append("writeSerialized(out, ").append(value).append(");\n");
+        } else if (codecType.equals("String")) {
+            body.append(indentation).append("writeString(out, ").append(value).append(");\n");
+        } else if (codecType.equals("Enum")) {
+            body.append(indentation).append("writeString(out, ").append(value).append(" == null ? null : ")
+                    .append(value).append(".name());\n");
+        } else if (field.asType().getKind().isPrimitive()) {
+            body.append(indentation).append("out.write").append(codecType).append("(").append(value).append(");\n");
+        } else {
+            body.append(indentation).append("out.writeBoolean(").append(value).append(" != null);\n");
+            body.append(indentation).append("if (").append(value).append(" != null) {\n");
+            body.append(indentation).append("    out.write").append(codecType).append("(").append(value)
+                    .append(");\n");
+            body.append(indentation).append("}\n");
+        }
+    }
+
+    private String decodeExpression(VariableElement field) {
+        String fieldType = field.asType().toString();
+        String codecType = codecType(field);
+        if (codecType == null) {
+            return "(" + fieldType + ") readSerialized(in)";
+        } else if (codecType.equals("String")) {
+            return "readString(in)";
+        } else if (codecType.equals("Enum")) {
+            return "readEnum(in, " + fieldType + ".class)";
+        } else if (field.asType().getKind().isPrimitive()) {
+            return "in.read" + codecType + "()";
+        }
+        return "in.readBoolean() ? " + fieldType + ".valueOf(in.read" + codecType + "()) : null";
+    }
+
+    /**
+     * Returns the DataInput/DataOutput method suffix used to encode the field, "String" or "Enum" for the
+     * length-prefixed UTF-8 encodings, or null when the field falls back to Java serialization.
+     */
+    private String codecType(VariableElement field) {
+        TypeMirror type = field.asType();
+        if (type.getKind().isPrimitive()) {
+            return StringUtil.capitalizeFirstLetter(type.getKind().name().toLowerCase());
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement typeElement = (TypeElement) processingEnv.getTypeUtils().asElement(type);
+        if (typeElement.getKind() == ElementKind.ENUM) {
+            return "Enum";
+        }
+        if (typeElement.getQualifiedName().contentEquals("java.lang.String")) {
+            return "String";
+        }
+        try {
+            PrimitiveType unboxed = processingEnv.getTypeUtils().unboxedType(type);
+            return StringUtil.capitalizeFirstLetter(unboxed.getKind().name().toLowerCase());
+        } catch (IllegalArgumentException notBoxed) {
+            return null;
+        }
+    }
+
+    private void generatePartition(List<VariableElement> fields, List<VariableElement> uniqueKeyFields,
+                                   FileDBGenerated fileDBGenerated) {
+        StringBuilder throwsExceptionString = new StringBuilder();
+        for (int i=0; i < EXCEPTION_CLASS_NAMES.size(); i++) {
+            throwsExceptionString.append(this.className).append(EXCEPTION_CLASS_NAMES.get(i));
+            if (i != EXCEPTION_CLASS_NAMES.size()-1) {
+                throwsExceptionString.append(", ");
+            }
+        }
+        StorageMode storage = fileDBGenerated.storage();
+        boolean appendLog = storage == StorageMode.APPEND_LOG;
+        boolean fixedSlot = storage == StorageMode.FIXED_SLOT;
+
+        StringBuilder body = new StringBuilder();
+        body.append("package ").append(this.packageName).append(";\n\n");
+        for (String exception : EXCEPTION_CLASS_NAMES) {
+            body.append("import ").append(this.packageName).append(".")
+                    .append(this.className).append(exception).append(";\n");
+        }
+        body.append("\n");
+        appendImports(body, daoImports(storage));
+        body.append("final class ").append(this.className).append("DaoPartition implements ")
+                .append(this.className).append("Dao {\n");
+        if (fixedSlot) {
+            body.append("   private static final int SLOT_MAGIC = 0x47335331;\n");
+            body.append("   private static final int HEADER_SIZE = 8;\n");
+            body.append("   private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / ")
+                    .append(this.className).append("Codec.SLOT_SIZE;\n");
+            body.append("   private static final byte FREE = 0;\n");
+            body.append("   private static final byte USED = 1;\n");
+        } else if (!this.columns.isEmpty()) {
+            body.append("   private static final int COLUMNAR_MAGIC = 0x47334343;\n");
+            body.append("   private static final int HEADER_SIZE = ").append(8 + 8 * this.columns.size()).append(";\n");
+            body.append("   private static final int LEGACY_STREAM_MAGIC = 0xAC;\n");
+        } else {
+            body.append("   private static final byte PUT = 1;\n");
+            body.append("   private static final byte DELETE = 2;\n");
+            body.append("   private static final byte SCHEMA = 3;\n");
+            body.append("   private static final int LEGACY_STREAM_MAGIC = 0xAC;\n");
+        }
+        if (this.compressed) {
+            body.append("   private static final int BLOCK_SIZE = ").append(fileDBGenerated.blockSize()).append(";\n");
+            body.append("   private static final int ADDRESS_SHIFT = 24;\n");
+        }
+        if (this.offsetTable) {
+            body.append("   private static final int KEYS_MAGIC = 0x47334b54;\n");
+            body.append("   private static final int KEYS_HEADER_SIZE = 48;\n");
+            body.append("   private static final int KEYS_ENTRY_SIZE = 16;\n");
+            body.append("   private static final int MAX_KEYS = 1 << 24;\n");
+            body.append("   private static final long EMPTY = 0;\n");
+            body.append("   private static final long REMOVED = -1;\n");
+            body.append("   private static final long UNSTAMPED = Long.MIN_VALUE;\n");
+        }
+        if (appendLog) {
+            body.append("   private static final int CHECKSUMMED = 0x80;\n");
+            body.append("   private static final int ENTRY_HEADER_SIZE = 13;\n");
+            body.append("   private static final double COMPACTION_THRESHOLD = ")
+                    .append(fileDBGenerated.compactionThreshold()).append(";\n");
+        }
+        if (this.durability == Durability.GROUP) {
+            body.append("   private static final long GROUP_COMMIT_MILLIS = ")
+                    .append(fileDBGenerated.groupCommitMillis()).append(";\n");
+            body.append("   private static final int GROUP_COMMIT_OPS = ")
+                    .append(fileDBGenerated.groupCommitOps()).append(";\n");
+        }
+        if (!this.indexedFields.isEmpty()) {
+            List<VariableElement> indexedRecordFields = new ArrayList<>(uniqueKeyFields);
+            indexedRecordFields.addAll(this.indexedFields);
+            body.append("   private static final int INDEX_MAGIC = 0x47334958;\n");
+            body.append("   private static final int INDEX_LAYOUT = ")
+                    .append(String.format("0x%08x", layoutHash(indexedRecordFields, uniqueKeyFields.size()))).append(";\n");
+            body.append("   private static final byte INDEX_PUT = 1;\n");
+            body.append("   private static final byte INDEX_DELETE = 2;\n");
+            body.append("   private static final int INDEX_SLACK = 1024;\n");
+        }
+        body.append("   private static final long DATA_LOCK_POSITION = 8;\n");
+        if (appendLog) {
+            body.append("   private static final long CURSOR_LOCK_POSITION = 9;\n");
+        }
+        body.append("   private static final ConcurrentMap<String, FileGuard> FILE_GUARDS = new ConcurrentHashMap<>();\n");
+        if (this.keyRanges) {
+            appendKeyOrder(body, uniqueKeyFields);
+        }
+        if (appendLog) {
+            body.append("   private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(runnable -> {\n");
+            body.append("       Thread thread = new Thread(runnable, \"").append(this.className).append("-compactor\");\n");
+            body.append("       thread.setDaemon(true);\n");
+            body.append("       return thread;\n");
+            body.append("   });\n");
+        }
+        if (this.durability == Durability.GROUP) {
+            body.append("   private static final ScheduledExecutorService SYNCER = Executors.newSingleThreadScheduledExecutor(runnable -> {\n");
+            body.append("       Thread thread = new Thread(runnable, \"").append(this.className).append("-syncer\");\n");
+            body.append("       thread.setDaemon(true);\n");
+            body.append("       return thread;\n");
+            body.append("   });\n");
+        }
+        body.append("\n");
+        body.append("   private final String dbFile;\n");
+        body.append("   private final FileGuard guard;\n");
+        body.append("   // Not synchronized: loads do file I/O, and a virtual thread blocked in a monitor pins its carrier.\n");
+        body.append("   private final ReentrantLock stateLock = new ReentrantLock();\n");
+        body.append("   private long loadedGeneration;\n");
+        if (this.durability == Durability.GROUP) {
+            body.append("   private final AtomicInteger unsyncedCommits = new AtomicInteger();\n");
+            body.append("   private final AtomicBoolean syncScheduled = new AtomicBoolean();\n");
+        }
+        if (fixedSlot) {
+            body.append("   private Map<Object, Integer> index;\n");
+            body.append("   private Deque<Integer> freeSlots;\n");
+            body.append("   private MappedByteBuffer buffer;\n");
+            body.append("   private int capacity;\n");
+        } else if (appendLog) {
+            body.append("   private ").append(this.offsetTable ? "OffsetTable" : "Map<Object, Long>").append(" index;\n");
+            body.append("   private long logLength;\n");
+            body.append("   private long logRecords;\n");
+            body.append("   private NavigableMap<Long, ").append(this.className).append("Codec.Schema> schemas;\n");
+            body.append("   private volatile boolean upgraded;\n");
+            body.append("   private boolean compactionScheduled;\n");
+        } else {
+            body.append("   private Map<Object, ").append(this.className).append("> index;\n");
+        }
+        if (this.keyRanges) {
+            body.append("   private NavigableSet<Object> sortedKeys;\n");
+        }
+        if (this.snapshot) {
+            body.append("   private List<").append(this.className).append("> snapshot;\n");
+        }
+        if (!this.indexedFields.isEmpty()) {
+            body.append("   private Map<Object, ").append(this.className).append("> indexedRecords;\n");
+            for (VariableElement field : this.indexedFields) {
+                body.append("   private Map<Object, Set<Object>> ").append(field.getSimpleName()).append("Index;\n");
+            }
+            body.append("   private long secondaryEntries;\n");
+            body.append("   private boolean secondaryFileCurrent;\n");
+        }
+        body.append("\n");
+
+        body.append("   ").append(this.className).append("DaoPartition(String dbFile) {\n");
+        body.append("       this.dbFile = dbFile;\n");
+        body.append("       this.guard = FILE_GUARDS.computeIfAbsent(new File(dbFile).getAbsolutePath(), FileGuard::new);\n");
+        body.append("   }\n\n");
+
+        if (fixedSlot) {
+            appendFixedSlotMethods(body, throwsExceptionString);
+        } else if (appendLog) {
+            appendLogMethods(body, throwsExceptionString);
+        } else {
+            appendRewriteMethods(body, throwsExceptionString);
+            if (this.compressed) {
+                appendPositionStreams(body);
+            }
+            if (!this.columns.isEmpty()) {
+                appendColumnMethods(body, throwsExceptionString);
+            }
+        }
+        appendBatchMethods(body, throwsExceptionString, storage);
+        appendStreamMethods(body, throwsExceptionString, storage);
+        appendKeyLookupMethods(body, throwsExceptionString, fields, uniqueKeyFields, storage);
+        if (this.keyRanges) {
+            appendKeyRangeMethods(body, throwsExceptionString, uniqueKeyFields, storage);
+        }
+        if (!this.indexedFields.isEmpty()) {
+            appendSecondaryIndexMethods(body, throwsExceptionString, uniqueKeyFields, storage);
+        }
+        appendLockMethods(body, storage);
+        appendDurabilityMethods(body, storage);
+        if (fixedSlot) {
+            body.append("}\n");
+            writeSourceFile(this.className + "DaoPartition", body);
+            return;
+        }
+        appendLegacyMethods(body);
+
+        body.append("   private boolean dbExist() {\n");
+        body.append("       File file = new File(dbFile);\n");
+        body.append("       return file.exists();\n");
+        body.append("   }\n\n");
+
+        body.append("   private ").append(this.className).append(" ").append("convert").append(this.className)
+                .append(DTO_SUFFIX).append("To").append(this.className).append("(").append(this.className)
+                .append(DTO_SUFFIX).append(" ").append(this.variableName).append(DTO_SUFFIX).append(") {\n");
+        body.append("       ").append(this.className).append(" ").append(this.variableName)
+                .append(" = new ").append(this.className).append("();\n");
+        for (VariableElement field : fields) {
+            body.append("       ").append(this.variableName).append(".").append(setterName(field))
+                    .append("(").append(this.variableName).append(DTO_SUFFIX).append(".")
+                    .append(getterName(field)).append("());\n");
+        }
+
+        for (VariableElement field : uniqueKeyFields) {
+            body.append("       ").append(this.variableName).append(".").append(setterName(field))
+                    .append("(").append(this.variableName).append(DTO_SUFFIX).append(".")
+                    .append(getterName(field)).append("());\n");
+        }
+        body.append("       return ").append(this.variableName).append(";\n");
+        body.append("   }\n\n");
+
+        body.append("}\n");
+        writeSourceFile(this.className + "DaoPartition", body);
+    }
+
+    private void generateDao(List<VariableElement> uniqueKeyFields, FileDBGenerated fileDBGenerated) {
+        StringBuilder throwsExceptionString = new StringBuilder();
+        for (int i=0; i < EXCEPTION_CLASS_NAMES.size(); i++) {
+            throwsExceptionString.append(this.className).append(EXCEPTION_CLASS_NAMES.get(i));
+            if (i != EXCEPTION_CLASS_NAMES.size()-1) {
+                throwsExceptionString.append(", ");
+            }
+        }
+        String partitionClassName = this.className + "DaoPartition";
+
+        StringBuilder body = new StringBuilder();
+        body.append("package ").append(this.packageName).append(";\n\n");
+        for (String exception : EXCEPTION_CLASS_NAMES) {
+            body.append("import ").append(this.packageName).append(".")
+                    .append(this.className).append(exception).append(";\n");
+        }
+        body.append("\n");
+        Set<String> imports = new TreeSet<>(Arrays.asList("java.io.IOException", "java.io.UncheckedIOException",
+                "java.nio.file.Files", "java.nio.file.Path", "java.util.ArrayList", "java.util.Collection",
+                "java.util.List", "java.util.Map", "java.util.Objects", "java.util.Optional", "java.util.TreeMap",
+                "java.util.function.Consumer", "java.util.function.Function", "java.util.stream.Collectors",
+                "java.util.stream.Stream"));
+        if (this.keyRanges) {
+            imports.add("java.util.Comparator");
+        }
+        appendImports(body, imports);
+        body.append("public class ").append(this.className).append("DaoImpl implements ").append(this.className)
+                .append("Dao {\n");
+        body.append("   private static final String DEFAULT_DIRECTORY = \"")
+                .append(fileDBGenerated.directory().replace("\\", "\\\\").replace("\"", "\\\"")).append("\";\n");
+        body.append("   private static final int DEFAULT_PARTITIONS = ").append(fileDBGenerated.partitions())
+                .append(";\n");
+        body.append("   private static final String MIXED_HASH = \"mixed\";\n");
+        if (this.keyRanges) {
+            body.append("   private static final Comparator<").append(this.className).append("> KEY_ORDER = Comparator\n");
+            for (int i = 0; i < uniqueKeyFields.size(); i++) {
+                body.append("           .").append(i == 0 ? "comparing(" : "thenComparing(").append(this.className)
+                        .append("::").append(getterName(uniqueKeyFields.get(i)))
+                        .append(", Comparator.nullsFirst(Comparator.naturalOrder()))")
+                        .append(i == uniqueKeyFields.size() - 1 ? ";\n" : "\n");
+            }
+        }
+        body.append("\n");
+        body.append("   private final ").append(partitionClassName).append("[] partitions;\n");
+        body.append("   private final boolean mixedHash;\n\n");
+        body.append("   public ").append(this.className).append("DaoImpl() {\n");
+        body.append("       this(DEFAULT_DIRECTORY, DEFAULT_PARTITIONS);\n");
+        body.append("   }\n\n");
+        body.append("   public ").append(this.className).append("DaoImpl(String directory) {\n");
+        body.append("       this(directory, DEFAULT_PARTITIONS);\n");
+        body.append("   }\n\n");
+        body.append("   public ").append(this.className).append("DaoImpl(String directory, int partitionCount) {\n");
+        body.append("       if (partitionCount < 1) {\n");
+        body.append("           throw new IllegalArgumentException(\"partitionCount must be positive: \" + partitionCount);\n");
+        body.append("       }\n");
+        body.append("       Path baseDirectory = Path.of(directory);\n");
+        body.append("       try {\n");
+        body.append("           Files.createDirectories(baseDirectory.toAbsolutePath());\n");
+        body.append("           this.mixedHash = checkPartitionCount(baseDirectory.resolve(\"")
+                .append(this.className.toLowerCase()).append(".partitions\"), partitionCount);\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           throw new UncheckedIOException(e);\n");
+        body.append("       }\n");
+        body.append("       this.partitions = new ").append(partitionClassName).append("[partitionCount];\n");
+        body.append("       for (int i = 0; i < partitionCount; i++) {\n");
+        body.append("           String fileName = partitionCount == 1 ? \"").append(this.className.toLowerCase())
+                .append(".db\" : \"").append(this.className.toLowerCase()).append("-\" + i + \".db\";\n");
+        body.append("           this.partitions[i] = new ").append(partitionClassName)
+                .append("(baseDirectory.resolve(fileName).toString());\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public void add(").append(this.className).append(" ").append(variableName).append(") throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       this.partitionOf(").append(variableName).append(").add(").append(variableName)
+                .append(");\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public void delete(").append(this.className).append(" ").append(variableName)
+                .append(") throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.partitionOf(").append(variableName).append(").delete(").append(variableName)
+                .append(");\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public void update(").append(this.className).append(" ").append(variableName)
+                .append(") throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.partitionOf(").append(variableName).append(").update(").append(variableName)
+                .append(");\n");
+        body.append("   }\n\n");
+        for (String batch : Arrays.asList("addAll", "updateAll", "deleteAll")) {
+            String phase = StringUtil.capitalizeFirstLetter(batch);
+        body.append("   @Override\n");
+        body.append("   public void ").append(batch).append("(Collection<? extends ").append(this.className)
+                .append("> ").append(variableName).append("s) throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       if (partitions.length == 1) {\n");
+        body.append("           partitions[0].").append(batch).append("(").append(variableName).append("s);\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       Map<Integer, List<").append(this.className).append(">> batches = this.split(")
+                .append(variableName).append("s);\n");
+        body.append("       List<").append(partitionClassName).append("> locked = new ArrayList<>(batches.size());\n");
+        body.append("       try {\n");
+        body.append("           // Ascending partition order, so two batches never wait on each other's locks.\n");
+        body.append("           for (Integer partition : batches.keySet()) {\n");
+        body.append("               partitions[partition].beginBatch();\n");
+        body.append("               locked.add(partitions[partition]);\n");
+        body.append("           }\n");
+        body.append("           List<String> problems = new ArrayList<>();\n");
+        body.append("           for (Map.Entry<Integer, List<").append(this.className).append(">> batch : batches.entrySet()) {\n");
+        body.append("               try {\n");
+        body.append("                   partitions[batch.getKey()].check").append(phase).append("(batch.getValue());\n");
+        body.append("               } catch (").append(this.className).append("RequestException e) {\n");
+        body.append("                   problems.add(\"partition \" + batch.getKey() + \": \" + e.getMessage());\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           if (!problems.isEmpty()) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Batch rejected in \" + problems.size()\n");
+        body.append("                       + \" partition(s), nothing was written: \" + String.join(\" | \", problems));\n");
+        body.append("           }\n");
+        body.append("           for (Map.Entry<Integer, List<").append(this.className).append(">> batch : batches.entrySet()) {\n");
+        body.append("               partitions[batch.getKey()].apply").append(phase).append("(batch.getValue());\n");
+        body.append("           }\n");
+        body.append("       } finally {\n");
+        body.append("           for (int i = locked.size() - 1; i >= 0; i--) {\n");
+        body.append("               locked.get(i).endBatch();\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        }
+        body.append("   @Override\n");
+        body.append("   public List<").append(this.className).append("> getAll() throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       if (partitions.length == 1) {\n");
+        body.append("           return partitions[0].getAll();\n");
+        body.append("       }\n");
+        body.append("       try (Stream<").append(this.className).append("> ").append(variableName)
+                .append("s = this.stream()) {\n");
+        body.append("           return ").append(variableName).append("s.collect(Collectors.toList());\n");
+        body.append("       } catch (UncheckedIOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error occurred: \" + e.getCause());\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public Stream<").append(this.className).append("> stream() throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       if (partitions.length == 1) {\n");
+        body.append("           return partitions[0].stream();\n");
+        body.append("       }\n");
+        body.append("       List<Stream<").append(this.className)
+                .append(">> streams = new ArrayList<>(partitions.length);\n");
+        body.append("       boolean opened = false;\n");
+        body.append("       try {\n");
+        body.append("           for (").append(partitionClassName).append(" partition : partitions) {\n");
+        body.append("               streams.add(partition.stream());\n");
+        body.append("           }\n");
+        body.append("           opened = true;\n");
+        body.append("       } finally {\n");
+        body.append("           if (!opened) {\n");
+        body.append("               streams.forEach(Stream::close);\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       return streams.parallelStream()\n");
+        body.append("               .flatMap(Function.identity())\n");
+        body.append("               .onClose(() -> streams.forEach(Stream::close));\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public void forEach(Consumer<? super ").append(this.className).append("> action) throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       if (partitions.length == 1) {\n");
+        body.append("           partitions[0].forEach(action);\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       try (Stream<").append(this.className).append("> ").append(variableName)
+                .append("s = this.stream()) {\n");
+        body.append("           ").append(variableName).append("s.forEach(action);\n");
+        body.append("       } catch (UncheckedIOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error occurred: \" + e.getCause());\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public Optional<").append(this.className).append("> findByKey(")
+                .append(keyParameters(uniqueKeyFields)).append(") throws ").append(throwsExceptionString)
+                .append(" {\n");
+        body.append("       return this.partitionOf(").append(keyArguments(uniqueKeyFields)).append(").findByKey(")
+                .append(keyArguments(uniqueKeyFields)).append(");\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public boolean existsByKey(").append(keyParameters(uniqueKeyFields)).append(") throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       return this.partitionOf(").append(keyArguments(uniqueKeyFields)).append(").existsByKey(")
+                .append(keyArguments(uniqueKeyFields)).append(");\n");
+        body.append("   }\n\n");
+        if (this.keyRanges) {
+            String rangeArguments = keyArguments(uniqueKeyFields, "from") + ", " + keyArguments(uniqueKeyFields, "to");
+            body.append("   @Override\n");
+            body.append("   public List<").append(this.className).append("> findByKeyRange(")
+                    .append(keyParameters(uniqueKeyFields, "from")).append(", ")
+                    .append(keyParameters(uniqueKeyFields, "to")).append(") throws ").append(throwsExceptionString)
+                    .append(" {\n");
+            body.append("       List<").append(this.className).append("> ").append(variableName)
+                    .append("s = new ArrayList<>();\n");
+            body.append("       for (").append(partitionClassName).append(" partition : partitions) {\n");
+            body.append("           ").append(variableName).append("s.addAll(partition.findByKeyRange(")
+                    .append(rangeArguments).append("));\n");
+            body.append("       }\n");
+            body.append("       ").append(variableName).append("s.sort(KEY_ORDER);\n");
+            body.append("       return ").append(variableName).append("s;\n");
+            body.append("   }\n\n");
+            for (String afterArguments : Arrays.asList("", keyArguments(uniqueKeyFields, "after") + ", ")) {
+            body.append("   @Override\n");
+            body.append("   public List<").append(this.className).append("> page(")
+                    .append(afterArguments.isEmpty() ? "" : keyParameters(uniqueKeyFields, "after") + ", ")
+                    .append("int limit) throws ").append(throwsExceptionString).append(" {\n");
+            body.append("       List<").append(this.className).append("> ").append(variableName)
+                    .append("s = new ArrayList<>();\n");
+            body.append("       for (").append(partitionClassName).append(" partition : partitions) {\n");
+            body.append("           ").append(variableName).append("s.addAll(partition.page(").append(afterArguments)
+                    .append("limit));\n");
+            body.append("       }\n");
+            body.append("       ").append(variableName).append("s.sort(KEY_ORDER);\n");
+            body.append("       return ").append(variableName).append("s.size() > limit ? new ArrayList<>(")
+                    .append(variableName).append("s.subList(0, limit)) : ").append(variableName).append("s;\n");
+            body.append("   }\n\n");
+            }
+        }
+        for (VariableElement field : this.indexedFields) {
+            String finder = "findBy" + StringUtil.capitalizeFirstLetter(field.getSimpleName().toString());
+            body.append("   @Override\n");
+            body.append("   public List<").append(this.className).append("> ").append(finder).append("(")
+                    .append(field.asType().toString()).append(" ").append(field.getSimpleName()).append(") throws ")
+                    .append(throwsExceptionString).append(" {\n");
+            body.append("       List<").append(this.className).append("> ").append(variableName)
+                    .append("s = new ArrayList<>();\n");
+            body.append("       for (").append(partitionClassName).append(" partition : partitions) {\n");
+            body.append("           ").append(variableName).append("s.addAll(partition.").append(finder).append("(")
+                    .append(field.getSimpleName()).append("));\n");
+            body.append("       }\n");
+            body.append("       return ").append(variableName).append("s;\n");
+            body.append("   }\n\n");
+        }
+        for (VariableElement field : this.columns) {
+            String reader = "read" + StringUtil.capitalizeFirstLetter(field.getSimpleName().toString()) + "Column";
+            body.append("   @Override\n");
+            body.append("   public List<").append(boxedType(field)).append("> ").append(reader).append("() throws ")
+                    .append(throwsExceptionString).append(" {\n");
+            body.append("       List<").append(boxedType(field)).append("> values = new ArrayList<>();\n");
+            body.append("       for (").append(partitionClassName).append(" partition : partitions) {\n");
+            body.append("           values.addAll(partition.").append(reader).append("());\n");
+            body.append("       }\n");
+            body.append("       return values;\n");
+            body.append("   }\n\n");
+        }
+        if (!this.columns.isEmpty()) {
+            body.append("   @Override\n");
+            body.append("   public List<").append(this.className).append("> readColumns(").append(this.className)
+                    .append("Column... columns) throws ").append(throwsExceptionString).append(" {\n");
+            body.append("       List<").append(this.className).append("> ").append(variableName)
+                    .append("s = new ArrayList<>();\n");
+            body.append("       for (").append(partitionClassName).append(" partition : partitions) {\n");
+            body.append("           ").append(variableName).append("s.addAll(partition.readColumns(columns));\n");
+            body.append("       }\n");
+            body.append("       return ").append(variableName).append("s;\n");
+            body.append("   }\n\n");
+        }
+        body.append("   private Map<Integer, List<").append(this.className).append(">> split(Collection<? extends ")
+                .append(this.className).append("> ").append(variableName).append("s) {\n");
+        body.append("       Map<Integer, List<").append(this.className).append(">> batches = new TreeMap<>();\n");
+        body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                .append(variableName).append("s) {\n");
+        body.append("           batches.computeIfAbsent(this.partitionIndex(").append(variableName)
+                .append("), partition -> new ArrayList<>()).add(").append(variableName).append(");\n");
+        body.append("       }\n");
+        body.append("       return batches;\n");
+        body.append("   }\n\n");
+        body.append("   private ").append(partitionClassName).append(" partitionOf(").append(this.className)
+                .append(" ").append(variableName).append(") {\n");
+        body.append("       return partitions[this.partitionIndex(").append(variableName).append(")];\n");
+        body.append("   }\n\n");
+        body.append("   private int partitionIndex(").append(this.className).append(" ").append(variableName)
+                .append(") {\n");
+        StringBuilder getterArguments = new StringBuilder();
+        for (VariableElement uniqueKeyField : uniqueKeyFields) {
+            if (getterArguments.length() > 0) {
+                getterArguments.append(", ");
+            }
+            getterArguments.append(variableName).append(".").append(getterName(uniqueKeyField)).append("()");
+        }
+        body.append("       return this.partitionIndex(").append(getterArguments).append(");\n");
+        body.append("   }\n\n");
+        body.append("   private ").append(partitionClassName).append(" partitionOf(")
+                .append(keyParameters(uniqueKeyFields)).append(") {\n");
+        body.append("       return partitions[this.partitionIndex(").append(keyArguments(uniqueKeyFields))
+                .append(")];\n");
+        body.append("   }\n\n");
+        body.append("   private int partitionIndex(").append(keyParameters(uniqueKeyFields)).append(") {\n");
+        body.append("       int hash = 1;\n");
+        for (VariableElement uniqueKeyField : uniqueKeyFields) {
+            String keyName = uniqueKeyField.getSimpleName().toString();
+            String keyHash = "Enum".equals(codecType(uniqueKeyField))
+                    ? keyName + " == null ? 0 : " + keyName + ".name().hashCode()"
+                    : "Objects.hashCode(" + keyName + ")";
+        body.append("       hash = 31 * hash + (").append(keyHash).append(");\n");
+        }
+        body.append("       if (mixedHash) {\n");
+        body.append("           // Spread the high bits down, so keys with similar hash codes still land in different partitions.\n");
+        body.append("           hash ^= hash >>> 16;\n");
+        body.append("           hash *= 0x85ebca6b;\n");
+        body.append("           hash ^= hash >>> 13;\n");
+        body.append("           hash *= 0xc2b2ae35;\n");
+        body.append("           hash ^= hash >>> 16;\n");
+        body.append("       }\n");
+        body.append("       return Math.floorMod(hash, partitions.length);\n");
+        body.append("   }\n\n");
+        body.append("   private static boolean checkPartitionCount(Path marker, int partitionCount) throws IOException {\n");
+        body.append("       if (Files.exists(marker)) {\n");
+        body.append("           String[] stored = Files.readString(marker).trim().split(\"\\\\s+\");\n");
+        body.append("           int storedCount = Integer.parseInt(stored[0]);\n");
+        body.append("           if (storedCount != partitionCount) {\n");
+        body.append("               throw new IllegalStateException(marker + \" records \" + storedCount\n");
+        body.append("                       + \" partitions, the DAO was opened with \" + partitionCount);\n");
+        body.append("           }\n");
+        body.append("           // Markers written before the hash was mixed keep the old layout, their records are already placed by it.\n");
+        body.append("           return stored.length > 1 && stored[1].equals(MIXED_HASH);\n");
+        body.append("       } else if (partitionCount > 1) {\n");
+        body.append("           Files.writeString(marker, partitionCount + \" \" + MIXED_HASH);\n");
+        body.append("       }\n");
+        body.append("       return true;\n");
+        body.append("   }\n");
+        body.append("}\n");
+        writeSourceFile(this.className + "DaoImpl", body);
+    }
+
+
+    private void generateAsyncDao(List<VariableElement> fields, List<VariableElement> uniqueKeyFields) {
+        StringBuilder throwsExceptionString = new StringBuilder();
+        for (int i=0; i < EXCEPTION_CLASS_NAMES.size(); i++) {
+            throwsExceptionString.append(this.className).append(EXCEPTION_CLASS_NAMES.get(i));
+            if (i != EXCEPTION_CLASS_NAMES.size()-1) {
+                throwsExceptionString.append(", ");
+            }
+        }
+        StringBuilder keyGetters = new StringBuilder();
+        for (VariableElement uniqueKeyField : uniqueKeyFields) {
+            if (keyGetters.length() > 0) {
+                keyGetters.append(", ");
+            }
+            keyGetters.append(variableName).append(".").append(getterName(uniqueKeyField)).append("()");
+        }
+
+        StringBuilder body = new StringBuilder();
+        body.append("package ").append(this.packageName).append(";\n\n");
+        appendImports(body, new TreeSet<>(Arrays.asList("java.util.Collection", "java.util.List",
+                "java.util.Optional", "java.util.concurrent.CompletableFuture")));
+        body.append("public interface ").append(this.className).append("AsyncDao extends AutoCloseable {\n");
+        body.append("   CompletableFuture<Void> add(").append(this.className).append(" ").append(variableName)
+                .append(");\n");
+        body.append("   CompletableFuture<Void> delete(").append(this.className).append(" ").append(variableName)
+                .append(");\n");
+        body.append("   CompletableFuture<Void> update(").append(this.className).append(" ").append(variableName)
+                .append(");\n");
+        body.append("   CompletableFuture<Void> addAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s);\n");
+        body.append("   CompletableFuture<Void> updateAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s);\n");
+        body.append("   CompletableFuture<Void> deleteAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s);\n");
+        body.append("   CompletableFuture<Void> flush();\n");
+        body.append("   CompletableFuture<List<").append(this.className).append(">> getAll();\n");
+        body.append("   CompletableFuture<Optional<").append(this.className).append(">> findByKey(")
+                .append(keyParameters(uniqueKeyFields)).append(");\n");
+        body.append("   CompletableFuture<Boolean> existsByKey(").append(keyParameters(uniqueKeyFields))
+                .append(");\n");
+        if (this.keyRanges) {
+        body.append("   CompletableFuture<List<").append(this.className).append(">> findByKeyRange(")
+                .append(keyParameters(uniqueKeyFields, "from")).append(", ").append(keyParameters(uniqueKeyFields, "to"))
+                .append(");\n");
+        body.append("   CompletableFuture<List<").append(this.className).append(">> page(int limit);\n");
+        body.append("   CompletableFuture<List<").append(this.className).append(">> page(")
+                .append(keyParameters(uniqueKeyFields, "after")).append(", int limit);\n");
+        }
+        for (VariableElement field : this.indexedFields) {
+        body.append("   CompletableFuture<List<").append(this.className).append(">> findBy")
+                .append(StringUtil.capitalizeFirstLetter(field.getSimpleName().toString())).append("(")
+                .append(field.asType().toString()).append(" ").append(field.getSimpleName()).append(");\n");
+        }
+        for (VariableElement field : this.columns) {
+        body.append("   CompletableFuture<List<").append(boxedType(field)).append(">> read")
+                .append(StringUtil.capitalizeFirstLetter(field.getSimpleName().toString())).append("Column();\n");
+        }
+        if (!this.columns.isEmpty()) {
+        body.append("   CompletableFuture<List<").append(this.className).append(">> readColumns(")
+                .append(this.className).append("Column... columns);\n");
+        }
+        body.append("\n");
+        body.append("   @Override\n");
+        body.append("   void close();\n");
+        body.append("}\n");
+        writeSourceFile(this.className + "AsyncDao", body);
+
+        body = new StringBuilder();
+        body.append("package ").append(this.packageName).append(";\n\n");
+        for (String exception : EXCEPTION_CLASS_NAMES) {
+            body.append("import ").append(this.packageName).append(".")
+                    .append(this.className).append(exception).append(";\n");
+        }
+        body.append("\n");
+        appendImports(body, new TreeSet<>(Arrays.asList("java.util.ArrayList", "java.util.Arrays",
+                "java.util.Collection", "java.util.HashSet", "java.util.List", "java.util.Optional", "java.util.Set",
+                "java.util.concurrent.BlockingQueue", "java.util.concurrent.CompletableFuture",
+                "java.util.concurrent.ExecutorService", "java.util.concurrent.Executors",
+                "java.util.concurrent.LinkedBlockingQueue", "java.util.concurrent.locks.ReentrantLock")));
+        body.append("public class ").append(this.className).append("AsyncDaoImpl implements ").append(this.className)
+                .append("AsyncDao {\n");
+        body.append("   private static final int MAX_COALESCED_WRITES = 1024;\n\n");
+        body.append("   private final ").append(this.className).append("Dao dao;\n");
+        body.append("   private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();\n");
+        body.append("   private final ExecutorService readers = Executors.newVirtualThreadPerTaskExecutor();\n");
+        body.append("   private final Thread writer;\n");
+        body.append("   private final ReentrantLock lifecycle = new ReentrantLock();\n");
+        body.append("   private boolean closed;\n\n");
+        body.append("   public ").append(this.className).append("AsyncDaoImpl() {\n");
+        body.append("       this(new ").append(this.className).append("DaoImpl());\n");
+        body.append("   }\n\n");
+        body.append("   public ").append(this.className).append("AsyncDaoImpl(").append(this.className)
+                .append("Dao dao) {\n");
+        body.append("       this.dao = dao;\n");
+        body.append("       this.writer = Thread.ofVirtual().name(\"").append(this.className)
+                .append("AsyncDao-writer\").start(this::drain);\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<Void> add(").append(this.className).append(" ").append(variableName)
+                .append(") {\n");
+        body.append("       return this.enqueue(Op.ADD, List.of(").append(variableName).append("), true);\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<Void> delete(").append(this.className).append(" ")
+                .append(variableName).append(") {\n");
+        body.append("       return this.enqueue(Op.DELETE, List.of(").append(variableName).append("), true);\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<Void> update(").append(this.className).append(" ")
+                .append(variableName).append(") {\n");
+        body.append("       return this.enqueue(Op.UPDATE, List.of(").append(variableName).append("), true);\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<Void> addAll(Collection<? extends ").append(this.className)
+                .append("> ").append(variableName).append("s) {\n");
+        body.append("       return this.enqueue(Op.ADD, ").append(variableName).append("s, false);\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<Void> updateAll(Collection<? extends ").append(this.className)
+                .append("> ").append(variableName).append("s) {\n");
+        body.append("       return this.enqueue(Op.UPDATE, ").append(variableName).append("s, false);\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<Void> deleteAll(Collection<? extends ").append(this.className)
+                .append("> ").append(variableName).append("s) {\n");
+        body.append("       return this.enqueue(Op.DELETE, ").append(variableName).append("s, false);\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<Void> flush() {\n");
+        body.append("       return this.enqueue(Op.FLUSH, List.of(), false);\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<List<").append(this.className).append(">> getAll() {\n");
+        body.append("       return this.read(dao::getAll);\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<Optional<").append(this.className).append(">> findByKey(")
+                .append(keyParameters(uniqueKeyFields)).append(") {\n");
+        body.append("       return this.read(() -> dao.findByKey(").append(keyArguments(uniqueKeyFields))
+                .append("));\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<Boolean> existsByKey(").append(keyParameters(uniqueKeyFields))
+                .append(") {\n");
+        body.append("       return this.read(() -> dao.existsByKey(").append(keyArguments(uniqueKeyFields))
+                .append("));\n");
+        body.append("   }\n\n");
+        if (this.keyRanges) {
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<List<").append(this.className).append(">> findByKeyRange(")
+                .append(keyParameters(uniqueKeyFields, "from")).append(", ").append(keyParameters(uniqueKeyFields, "to"))
+                .append(") {\n");
+        body.append("       return this.read(() -> dao.findByKeyRange(").append(keyArguments(uniqueKeyFields, "from"))
+                .append(", ").append(keyArguments(uniqueKeyFields, "to")).append("));\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<List<").append(this.className).append(">> page(int limit) {\n");
+        body.append("       return this.read(() -> dao.page(limit));\n");
+        body.append("   }\n\n");
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<List<").append(this.className).append(">> page(")
+                .append(keyParameters(uniqueKeyFields, "after")).append(", int limit) {\n");
+        body.append("       return this.read(() -> dao.page(").append(keyArguments(uniqueKeyFields, "after"))
+                .append(", limit));\n");
+        body.append("   }\n\n");
+        }
+        for (VariableElement field : this.indexedFields) {
+            String finder = "findBy" + StringUtil.capitalizeFirstLetter(field.getSimpleName().toString());
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<List<").append(this.className).append(">> ").append(finder)
+                .append("(").append(field.asType().toString()).append(" ").append(field.getSimpleName())
+                .append(") {\n");
+        body.append("       return this.read(() -> dao.").append(finder).append("(").append(field.getSimpleName())
+                .append("));\n");
+        body.append("   }\n\n");
+        }
+        for (VariableElement field : this.columns) {
+            String reader = "read" + StringUtil.capitalizeFirstLetter(field.getSimpleName().toString()) + "Column";
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<List<").append(boxedType(field)).append(">> ").append(reader)
+                .append("() {\n");
+        body.append("       return this.read(() -> dao.").append(reader).append("());\n");
+        body.append("   }\n\n");
+        }
+        if (!this.columns.isEmpty()) {
+        body.append("   @Override\n");
+        body.append("   public CompletableFuture<List<").append(this.className).append(">> readColumns(")
+                .append(this.className).append("Column... columns) {\n");
+        body.append("       return this.read(() -> dao.readColumns(columns));\n");
+        body.append("   }\n\n");
+        }
+        body.append("   @Override\n");
+        body.append("   public void close() {\n");
+        body.append("       lifecycle.lock();\n");
+        body.append("       try {\n");
+        body.append("           if (closed) {\n");
+        body.append("               return;\n");
+        body.append("           }\n");
+        body.append("           closed = true;\n");
+        body.append("           queue.add(new PendingWrite(Op.CLOSE, List.of(), false, new CompletableFuture<>()));\n");
+        body.append("       } finally {\n");
+        body.append("           lifecycle.unlock();\n");
+        body.append("       }\n");
+        body.append("       try {\n");
+        body.append("           writer.join();\n");
+        body.append("       } catch (InterruptedException e) {\n");
+        body.append("           Thread.currentThread().interrupt();\n");
+        body.append("       }\n");
+        body.append("       readers.close();\n");
+        body.append("   }\n\n");
+        body.append("   private CompletableFuture<Void> enqueue(Op op, Collection<? extends ").append(this.className)
+                .append("> ").append(variableName).append("s, boolean single) {\n");
+        body.append("       // Copied now, so a caller changing its objects after the call cannot change what is written later.\n");
+        body.append("       List<").append(this.className).append("> copies = new ArrayList<>(").append(variableName)
+                .append("s.size());\n");
+        body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                .append(variableName).append("s) {\n");
+        body.append("           copies.add(copyOf(").append(variableName).append("));\n");
+        body.append("       }\n");
+        body.append("       CompletableFuture<Void> future = new CompletableFuture<>();\n");
+        body.append("       lifecycle.lock();\n");
+        body.append("       try {\n");
+        body.append("           // Checked and queued under the lock close() takes, so nothing can land behind the CLOSE marker.\n");
+        body.append("           if (closed) {\n");
+        body.append("               future.completeExceptionally(new IllegalStateException(\"").append(this.className)
+                .append("AsyncDao is closed\"));\n");
+        body.append("           } else {\n");
+        body.append("               queue.add(new PendingWrite(op, copies, single, future));\n");
+        body.append("           }\n");
+        body.append("       } finally {\n");
+        body.append("           lifecycle.unlock();\n");
+        body.append("       }\n");
+        body.append("       return future;\n");
+        body.append("   }\n\n");
+        body.append("   private <T> CompletableFuture<T> read(Read<T> read) {\n");
+        body.append("       CompletableFuture<T> future = new CompletableFuture<>();\n");
+        body.append("       readers.execute(() -> {\n");
+        body.append("           try {\n");
+        body.append("               future.complete(read.get());\n");
+        body.append("           } catch (Exception e) {\n");
+        body.append("               future.completeExceptionally(e);\n");
+        body.append("           }\n");
+        body.append("       });\n");
+        body.append("       return future;\n");
+        body.append("   }\n\n");
+        body.append("   private void drain() {\n");
+        body.append("       List<PendingWrite> pending = new ArrayList<>();\n");
+        body.append("       while (true) {\n");
+        body.append("           try {\n");
+        body.append("               pending.add(queue.take());\n");
+        body.append("           } catch (InterruptedException e) {\n");
+        body.append("               return;\n");
+        body.append("           }\n");
+        body.append("           queue.drainTo(pending, MAX_COALESCED_WRITES - 1);\n");
+        body.append("           this.apply(pending);\n");
+        body.append("           if (pending.get(pending.size() - 1).op() == Op.CLOSE) {\n");
+        body.append("               return;\n");
+        body.append("           }\n");
+        body.append("           pending.clear();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        body.append("   private void apply(List<PendingWrite> pending) {\n");
+        body.append("       List<PendingWrite> run = new ArrayList<>();\n");
+        body.append("       Set<Object> runKeys = new HashSet<>();\n");
+        body.append("       for (PendingWrite write : pending) {\n");
+        body.append("           if (write.op() == Op.FLUSH || write.op() == Op.CLOSE) {\n");
+        body.append("               if (!run.isEmpty()) {\n");
+        body.append("                   this.applyRun(run);\n");
+        body.append("                   run.clear();\n");
+        body.append("                   runKeys.clear();\n");
+        body.append("               }\n");
+        body.append("               write.future().complete(null);\n");
+        body.append("               continue;\n");
+        body.append("           }\n");
+        body.append("           if (!run.isEmpty() && (write.op() != run.get(0).op() || !this.addKeys(runKeys, write))) {\n");
+        body.append("               this.applyRun(run);\n");
+        body.append("               run.clear();\n");
+        body.append("               runKeys.clear();\n");
+        body.append("           }\n");
+        body.append("           if (run.isEmpty()) {\n");
+        body.append("               this.addKeys(runKeys, write);\n");
+        body.append("           }\n");
+        body.append("           run.add(write);\n");
+        body.append("       }\n");
+        body.append("       if (!run.isEmpty()) {\n");
+        body.append("           this.applyRun(run);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        body.append("   private boolean addKeys(Set<Object> runKeys, PendingWrite write) {\n");
+        body.append("       for (").append(this.className).append(" ").append(variableName).append(" : write.")
+                .append(variableName).append("s()) {\n");
+        body.append("           if (runKeys.contains(keyOf(").append(variableName).append("))) {\n");
+        body.append("               return false;\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       for (").append(this.className).append(" ").append(variableName).append(" : write.")
+                .append(variableName).append("s()) {\n");
+        body.append("           runKeys.add(keyOf(").append(variableName).append("));\n");
+        body.append("       }\n");
+        body.append("       return true;\n");
+        body.append("   }\n\n");
+        body.append("   private void applyRun(List<PendingWrite> run) {\n");
+        body.append("       if (run.size() == 1) {\n");
+        body.append("           this.applyAlone(run.get(0));\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       List<PendingWrite> accepted = new ArrayList<>();\n");
+        body.append("       for (PendingWrite write : run) {\n");
+        body.append("           if (this.accepts(write)) {\n");
+        body.append("               accepted.add(write);\n");
+        body.append("           } else {\n");
+        body.append("               this.applyAlone(write);\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       if (accepted.isEmpty()) {\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       List<").append(this.className).append("> ").append(variableName)
+                .append("s = new ArrayList<>();\n");
+        body.append("       for (PendingWrite write : accepted) {\n");
+        body.append("           ").append(variableName).append("s.addAll(write.").append(variableName)
+                .append("s());\n");
+        body.append("       }\n");
+        body.append("       try {\n");
+        body.append("           this.write(run.get(0).op(), ").append(variableName).append("s);\n");
+        body.append("           accepted.forEach(write -> write.future().complete(null));\n");
+        body.append("       } catch (").append(this.className).append("RequestException e) {\n");
+        body.append("           // Another DAO changed the file since the check. The DAO validates every partition before it\n");
+        body.append("           // writes any, so a rejected batch wrote nothing and each write can be replayed on its own.\n");
+        body.append("           accepted.forEach(this::applyAlone);\n");
+        body.append("       } catch (").append(this.className).append("ServiceException | RuntimeException e) {\n");
+        body.append("           accepted.forEach(write -> write.future().completeExceptionally(e));\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        body.append("   private boolean accepts(PendingWrite write) {\n");
+        body.append("       try {\n");
+        body.append("           for (").append(this.className).append(" ").append(variableName).append(" : write.")
+                .append(variableName).append("s()) {\n");
+        body.append("               if (dao.existsByKey(").append(keyGetters)
+                .append(") == (write.op() == Op.ADD)) {\n");
+        body.append("                   return false;\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           return true;\n");
+        body.append("       } catch (Exception e) {\n");
+        body.append("           return false;\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        body.append("   private void applyAlone(PendingWrite write) {\n");
+        body.append("       try {\n");
+        body.append("           if (write.single()) {\n");
+        body.append("               ").append(this.className).append(" ").append(variableName).append(" = write.")
+                .append(variableName).append("s().get(0);\n");
+        body.append("               switch (write.op()) {\n");
+        body.append("                   case ADD -> dao.add(").append(variableName).append(");\n");
+        body.append("                   case UPDATE -> dao.update(").append(variableName).append(");\n");
+        body.append("                   default -> dao.delete(").append(variableName).append(");\n");
+        body.append("               }\n");
+        body.append("           } else {\n");
+        body.append("               this.write(write.op(), write.").append(variableName).append("s());\n");
+        body.append("           }\n");
+        body.append("           write.future().complete(null);\n");
+        body.append("       } catch (Exception e) {\n");
+        body.append("           write.future().completeExceptionally(e);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        body.append("   private void write(Op op, List<").append(this.className).append("> ").append(variableName)
+                .append("s) throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       switch (op) {\n");
+        body.append("           case ADD -> dao.addAll(").append(variableName).append("s);\n");
+        body.append("           case UPDATE -> dao.updateAll(").append(variableName).append("s);\n");
+        body.append("           default -> dao.deleteAll(").append(variableName).append("s);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        body.append("   private static Object keyOf(").append(this.className).append(" ").append(variableName)
+                .append(") {\n");
+        body.append("       return Arrays.asList(").append(keyGetters).append(");\n");
+        body.append("   }\n\n");
+        body.append("   private static ").append(this.className).append(" copyOf(").append(this.className).append(" ")
+                .append(variableName).append(") {\n");
+        body.append("       ").append(this.className).append(" copy = new ").append(this.className).append("();\n");
+        for (VariableElement field : uniqueKeyFields) {
+            body.append("       copy.").append(setterName(field)).append("(").append(variableName).append(".")
+                    .append(getterName(field)).append("());\n");
+        }
+        for (VariableElement field : fields) {
+            body.append("       copy.").append(setterName(field)).append("(").append(variableName).append(".")
+                    .append(getterName(field)).append("());\n");
+        }
+        body.append("       return copy;\n");
+        body.append("   }\n\n");
+        body.append("   private enum Op {\n");
+        body.append("       ADD, UPDATE, DELETE, FLUSH, CLOSE\n");
+        body.append("   }\n\n");
+        body.append("   private record PendingWrite(Op op, List<").append(this.className).append("> ")
+                .append(variableName).append("s, boolean single, CompletableFuture<Void> future) {\n");
+        body.append("   }\n\n");
+        body.append("   @FunctionalInterface\n");
+        body.append("   private interface Read<T> {\n");
+        body.append("       T get() throws ").append(throwsExceptionString).append(";\n");
+        body.append("   }\n");
+        body.append("}\n");
+        writeSourceFile(this.className + "AsyncDaoImpl", body);
+    }
+
+
+    private Set<String> daoImports(StorageMode storage) {
+        Set<String> imports = new TreeSet<>(Arrays.asList("java.io.File", "java.io.IOException",
+                "java.io.UncheckedIOException", "java.nio.ByteBuffer", "java.nio.channels.FileChannel",
+                "java.nio.channels.FileLock", "java.nio.file.Path", "java.nio.file.StandardOpenOption",
+                "java.util.ArrayList", "java.util.Arrays", "java.util.Collection", "java.util.HashSet",
+                "java.util.List", "java.util.Map", "java.util.Optional", "java.util.Set",
+                "java.util.concurrent.ConcurrentHashMap", "java.util.concurrent.ConcurrentMap",
+                "java.util.concurrent.locks.ReentrantLock", "java.util.concurrent.locks.ReentrantReadWriteLock",
+                "java.util.function.Consumer",
+                "java.util.stream.Stream"));
+        if (this.keyRanges) {
+            imports.addAll(Arrays.asList("java.util.Comparator", "java.util.NavigableSet", "java.util.TreeSet"));
+        }
+        if (this.durability == Durability.GROUP) {
+            imports.addAll(Arrays.asList("java.util.concurrent.Executors", "java.util.concurrent.ScheduledExecutorService",
+                    "java.util.concurrent.TimeUnit", "java.util.concurrent.atomic.AtomicBoolean",
+                    "java.util.concurrent.atomic.AtomicInteger"));
+        }
+        if (!this.indexedFields.isEmpty()) {
+            imports.addAll(Arrays.asList("java.io.BufferedInputStream", "java.io.BufferedOutputStream",
+                    "java.io.DataInputStream", "java.io.DataOutputStream", "java.io.EOFException",
+                    "java.io.FileInputStream", "java.io.FileOutputStream", "java.nio.channels.Channels",
+                    "java.nio.file.Files", "java.nio.file.StandardCopyOption", "java.util.HashMap"));
+        }
+        if (storage == StorageMode.FIXED_SLOT) {
+            imports.addAll(Arrays.asList("java.nio.MappedByteBuffer", "java.util.ArrayDeque", "java.util.Deque",
+                    "java.util.HashMap", "java.util.Objects", "java.util.stream.IntStream"));
+            return imports;
+        }
+        imports.addAll(Arrays.asList("java.io.BufferedInputStream", "java.io.BufferedOutputStream",
+                "java.io.DataInputStream", "java.io.DataOutputStream", "java.io.EOFException",
+                "java.io.FileInputStream", "java.io.InputStream", "java.io.ObjectInputStream", "java.nio.file.Files",
+                "java.nio.file.StandardCopyOption", "java.util.LinkedHashMap"));
+        if (storage == StorageMode.COLUMNAR) {
+            imports.addAll(Arrays.asList("java.io.Closeable", "java.io.DataInput", "java.nio.channels.Channels",
+                    "java.util.Collections", "java.util.EnumSet", "java.util.Iterator", "java.util.NoSuchElementException",
+                    "java.util.Spliterator", "java.util.Spliterators", "java.util.function.Function",
+                    "java.util.stream.StreamSupport"));
+            return imports;
+        }
+        imports.addAll(Arrays.asList("java.io.Closeable", "java.io.FileOutputStream", "java.util.Iterator",
+                "java.util.NoSuchElementException", "java.util.Spliterator", "java.util.Spliterators",
+                "java.util.stream.StreamSupport"));
+        if (storage == StorageMode.APPEND_LOG) {
+            imports.addAll(Arrays.asList("java.io.ByteArrayInputStream", "java.io.ByteArrayOutputStream",
+                    "java.io.OutputStream", "java.nio.ByteBuffer", "java.nio.channels.Channels", "java.util.HashMap",
+                    "java.util.NavigableMap", "java.util.TreeMap", "java.util.concurrent.ExecutorService",
+                    "java.util.concurrent.Executors", "java.util.zip.CRC32"));
+            if (!this.compressed) {
+                imports.addAll(Arrays.asList("java.io.FilterInputStream", "java.io.FilterOutputStream"));
+            }
+            if (this.offsetTable) {
+                imports.addAll(Arrays.asList("java.nio.MappedByteBuffer", "java.util.concurrent.ThreadLocalRandom"));
+            }
+        }
+        if (this.compressed) {
+            imports.addAll(Arrays.asList("java.io.ByteArrayOutputStream", "java.io.OutputStream",
+                    "java.nio.ByteBuffer", "java.util.zip.DataFormatException", "java.util.zip.Deflater",
+                    "java.util.zip.Inflater"));
+        }
+        return imports;
+    }
+
+    private void appendImports(StringBuilder body, Set<String> imports) {
+        String group = null;
+        for (String qualifiedName : imports) {
+            String importGroup = qualifiedName.substring(0, qualifiedName.indexOf('.', qualifiedName.indexOf('.') + 1));
+            if (group != null && !group.equals(importGroup)) {
+                body.append("\n");
+            }
+            group = importGroup;
+            body.append("import ").append(qualifiedName).append(";\n");
+        }
+        body.append("\n");
+    }
+
+    private void appendFixedSlotMethods(StringBuilder body, StringBuilder throwsExceptionString) {
+        String codecClassName = this.className + "Codec";
+        body.append("   @Override\n");
+        body.append("   public void add(").append(this.className).append(" ").append(variableName).append(") throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           Object key = keyOf(").append(variableName).append(");\n");
+        body.append("           if (index.containsKey(key)) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Data already exists: \" + key);\n");
+        body.append("           }\n");
+        body.append("           this.markModified();\n");
+        body.append("           if (freeSlots.isEmpty()) {\n");
+        body.append("               this.grow();\n");
+        body.append("           }\n");
+        body.append("           int slot = freeSlots.peek();\n");
+        body.append("           this.writeSlot(slot, ").append(variableName).append(");\n");
+        body.append("           buffer.put(offsetOf(slot), USED);\n");
+        body.append("           freeSlots.pop();\n");
+        body.append("           index.put(key, slot);\n");
+        appendIndexUpdate(body, "           ", "true", "List.of(" + variableName + ")");
+        appendCommit(body, "           ", "buffer.force();");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public List<").append(this.className).append("> getAll() throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginRead();\n");
+        body.append("       try {\n");
+        body.append("           List<").append(this.className).append("> ").append(variableName)
+                .append("s = new ArrayList<>(index.size());\n");
+        body.append("           for (int slot = 0; slot < capacity; slot++) {\n");
+        body.append("               if (buffer.get(offsetOf(slot)) == USED) {\n");
+        body.append("                   ").append(variableName).append("s.add(").append(codecClassName)
+                .append(".readSlot(buffer, offsetOf(slot)));\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           return ").append(variableName).append("s;\n");
+        body.append("       } finally {\n");
+        body.append("           this.endRead();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public void delete(").append(this.className).append(" ").append(variableName)
+                .append(") throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           Integer slot = index.remove(keyOf(").append(variableName).append("));\n");
+        body.append("           if (slot == null) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Data not found: \");\n");
+        body.append("           }\n");
+        body.append("           this.markModified();\n");
+        body.append("           buffer.put(offsetOf(slot), FREE);\n");
+        body.append("           freeSlots.push(slot);\n");
+        appendIndexUpdate(body, "           ", "false", "List.of(" + variableName + ")");
+        appendCommit(body, "           ", "buffer.force();");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public void update(").append(this.className).append(" ").append(variableName)
+                .append(") throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           Integer slot = index.get(keyOf(").append(variableName).append("));\n");
+        body.append("           if (slot == null) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Data not found: \");\n");
+        body.append("           }\n");
+        body.append("           this.markModified();\n");
+        body.append("           this.writeSlot(slot, ").append(variableName).append(");\n");
+        appendIndexUpdate(body, "           ", "true", "List.of(" + variableName + ")");
+        appendCommit(body, "           ", "buffer.force();");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        appendStateLocked(body, "void loadIndex(long generation) throws IOException", "this.loadIndexLocked(generation);");
+        body.append("   private void loadIndexLocked(long generation) throws IOException {\n");
+        body.append("       if (index != null && generation == loadedGeneration) {\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        appendPreviousIndex(body, "       ");
+        body.append("       try (FileChannel channel = FileChannel.open(Path.of(dbFile), StandardOpenOption.CREATE,\n");
+        body.append("               StandardOpenOption.READ, StandardOpenOption.WRITE)) {\n");
+        body.append("           boolean created = channel.size() == 0;\n");
+        body.append("           long slots = created ? 0 : (channel.size() - HEADER_SIZE) / ")
+                .append(codecClassName).append(".SLOT_SIZE;\n");
+        body.append("           if (slots > MAX_CAPACITY) {\n");
+        body.append("               throw new IOException(dbFile + \" holds \" + slots + \" slots, more than the \" + MAX_CAPACITY\n");
+        body.append("                       + \" a fixed-slot file can map\");\n");
+        body.append("           }\n");
+        body.append("           buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + slots * ")
+                .append(codecClassName).append(".SLOT_SIZE);\n");
+        body.append("           if (created) {\n");
+        body.append("               buffer.putInt(0, SLOT_MAGIC);\n");
+        body.append("               buffer.putInt(4, ").append(codecClassName).append(".SLOT_SIZE);\n");
+        body.append("           } else if (buffer.getInt(0) != SLOT_MAGIC || buffer.getInt(4) != ")
+                .append(codecClassName).append(".SLOT_SIZE) {\n");
+        body.append("               throw new IOException(dbFile + \" does not match the fixed-slot layout\");\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       Map<Object, Integer> slotsByKey = new HashMap<>();\n");
+        body.append("       freeSlots = new ArrayDeque<>();\n");
+        body.append("       capacity = (buffer.capacity() - HEADER_SIZE) / ").append(codecClassName)
+                .append(".SLOT_SIZE;\n");
+        body.append("       for (int slot = capacity - 1; slot >= 0; slot--) {\n");
+        body.append("           if (buffer.get(offsetOf(slot)) == USED) {\n");
+        body.append("               slotsByKey.put(keyOf(").append(codecClassName)
+                .append(".readSlot(buffer, offsetOf(slot))), slot);\n");
+        body.append("           } else {\n");
+        body.append("               freeSlots.push(slot);\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       index = slotsByKey;\n");
+        body.append("       loadedGeneration = generation;\n");
+        appendIndexLoad(body, "       ");
+        body.append("   }\n\n");
+
+        body.append("   private void grow() throws ").append(this.className).append("ServiceException {\n");
+        body.append("       if (capacity >= MAX_CAPACITY) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(dbFile + \" is full: a fixed-slot file holds at most \" + MAX_CAPACITY\n");
+        body.append("                   + \" records because its mapping cannot exceed \" + Integer.MAX_VALUE + \" bytes\");\n");
+        body.append("       }\n");
+        body.append("       int grownCapacity = (int) Math.min(MAX_CAPACITY, Math.max(16L, capacity * 2L));\n");
+        body.append("       try (FileChannel channel = FileChannel.open(Path.of(dbFile), StandardOpenOption.READ, StandardOpenOption.WRITE)) {\n");
+        body.append("           buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) grownCapacity * ")
+                .append(codecClassName).append(".SLOT_SIZE);\n");
+        if (this.durability != Durability.OS) {
+            body.append("           channel.force(true);\n");
+        }
+        body.append("       } catch (IOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error, please try again!\" + e);\n");
+        body.append("       }\n");
+        body.append("       for (int slot = grownCapacity - 1; slot >= capacity; slot--) {\n");
+        body.append("           freeSlots.push(slot);\n");
+        body.append("       }\n");
+        body.append("       capacity = grownCapacity;\n");
+        body.append("   }\n\n");
+
+        body.append("   private void writeSlot(int slot, ").append(this.className).append(" ").append(variableName)
+                .append(") throws ").append(this.className).append("RequestException {\n");
+        body.append("       try {\n");
+        body.append("           ").append(codecClassName).append(".writeSlot(").append(variableName)
+                .append(", buffer, offsetOf(slot));\n");
+        body.append("       } catch (IllegalArgumentException e) {\n");
+        body.append("           throw new ").append(this.className).append("RequestException(e.getMessage());\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private static int offsetOf(int slot) {\n");
+        body.append("       return Math.toIntExact(HEADER_SIZE + (long) slot * ").append(codecClassName).append(".SLOT_SIZE);\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendRewriteMethods(StringBuilder body, StringBuilder throwsExceptionString) {
+        boolean columnar = !this.columns.isEmpty();
+        body.append("   @Override\n");
+        body.append("   public void add(").append(this.className).append(" ").append(variableName).append(") throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           Object key = keyOf(").append(variableName).append(");\n");
+        body.append("           if (index.containsKey(key)) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Data already exists: \" + key);\n");
+        body.append("           }\n");
+        body.append("           index.put(key, copyOf(").append(variableName).append("));\n");
+        body.append("           this.writeAll();\n");
+        appendIndexUpdate(body, "           ", "true", "List.of(" + variableName + ")");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public void delete(").append(this.className).append(" ").append(variableName)
+                .append(") throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       if (!this.dbExist()) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("RequestException(\"Unable to find the student\");\n");
+        body.append("       }\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           if (index.remove(keyOf(").append(variableName).append(")) == null) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Data not found: \");\n");
+        body.append("           }\n");
+        body.append("           this.writeAll();\n");
+        appendIndexUpdate(body, "           ", "false", "List.of(" + variableName + ")");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public void update(").append(this.className).append(" ").append(variableName)
+                .append(") throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       if (!this.dbExist()) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("RequestException(\"Unable to find the student\");\n");
+        body.append("       }\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           Object key = keyOf(").append(variableName).append(");\n");
+        body.append("           if (!index.containsKey(key)) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Data not found: \");\n");
+        body.append("           }\n");
+        body.append("           index.put(key, copyOf(").append(variableName).append("));\n");
+        body.append("           this.writeAll();\n");
+        appendIndexUpdate(body, "           ", "true", "List.of(" + variableName + ")");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        if (this.snapshot) {
+            appendSnapshotMethods(body, throwsExceptionString, StorageMode.REWRITE);
+        } else if (columnar) {
+            body.append("   @Override\n");
+            body.append("   public Stream<").append(this.className).append("> stream() throws ")
+                    .append(throwsExceptionString).append(" {\n");
+            body.append("       try {\n");
+            body.append("           guard.lockShared();\n");
+            body.append("           try {\n");
+            body.append("               if (!this.dbExist()) {\n");
+            body.append("                   return Stream.empty();\n");
+            body.append("               }\n");
+            body.append("               if (this.isLegacyFile()) {\n");
+            body.append("                   return this.replay().values().stream();\n");
+            body.append("               }\n");
+            body.append("               return new ColumnCursor().stream();\n");
+            body.append("           } finally {\n");
+            body.append("               guard.unlockShared();\n");
+            body.append("           }\n");
+            body.append("       } catch (IOException e) {\n");
+            body.append("           throw new ").append(this.className)
+                    .append("ServiceException(\"Internal service error occurred: \" + e);\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+        } else {
+            body.append("   @Override\n");
+            body.append("   public Stream<").append(this.className).append("> stream() throws ")
+                    .append(throwsExceptionString).append(" {\n");
+            body.append("       try {\n");
+            body.append("           guard.lockShared();\n");
+            body.append("           try {\n");
+            body.append("               if (!this.dbExist()) {\n");
+            body.append("                   return Stream.empty();\n");
+            body.append("               }\n");
+            body.append("               if (this.isLegacyFile()) {\n");
+            body.append("                   return this.replay().values().stream();\n");
+            body.append("               }\n");
+            body.append("               return new Cursor().stream();\n");
+            body.append("           } finally {\n");
+            body.append("               guard.unlockShared();\n");
+            body.append("           }\n");
+            body.append("       } catch (IOException e) {\n");
+            body.append("           throw new ").append(this.className)
+                    .append("ServiceException(\"Internal service error occurred: \" + e);\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+        }
+
+        appendStateLocked(body, "void loadIndex(long generation) throws IOException", "this.loadIndexLocked(generation);");
+        body.append("   private void loadIndexLocked(long generation) throws IOException {\n");
+        body.append("       if (index == null || generation != loadedGeneration) {\n");
+        appendPreviousIndex(body, "           ");
+        body.append("           index = this.replay();\n");
+        body.append("           loadedGeneration = generation;\n");
+        appendIndexLoad(body, "           ");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private void writeAll() throws ").append(this.className).append("ServiceException {\n");
+        body.append("       this.markModified();\n");
+        body.append("       File staged = new File(dbFile + \".tmp\");\n");
+        body.append("       try {\n");
+        body.append("           this.writeSnapshot(staged);\n");
+        body.append("           Files.move(staged.toPath(), Path.of(dbFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           index = null;\n");
+        body.append("           staged.delete();\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error, please try again!\" + e);\n");
+        body.append("       }\n");
+        appendCommit(body, "       ", "this.forceDirectory();");
+        body.append("   }\n\n");
+
+        body.append("   private Map<Object, ").append(this.className).append("> replay() throws IOException {\n");
+        body.append("       Map<Object, ").append(this.className).append("> records = new LinkedHashMap<>();\n");
+        body.append("       if (!this.dbExist()) {\n");
+        body.append("           return records;\n");
+        body.append("       }\n");
+        if (columnar) {
+            body.append("       if (this.isLegacyFile()) {\n");
+            body.append("           return this.replayLegacy(new BufferedInputStream(new FileInputStream(dbFile)));\n");
+            body.append("       }\n");
+            body.append("       for (").append(this.className).append(" ").append(variableName)
+                    .append(" : this.readSegments(EnumSet.allOf(").append(this.className).append("Column.class))) {\n");
+            body.append("           records.put(keyOf(").append(variableName).append("), ").append(variableName)
+                    .append(");\n");
+            body.append("       }\n");
+            body.append("       return records;\n");
+            body.append("   }\n\n");
+            appendColumnSnapshot(body);
+            return;
+        }
+        body.append("       try (BufferedInputStream fileIn = new BufferedInputStream(new FileInputStream(dbFile))) {\n");
+        body.append("           fileIn.mark(1);\n");
+        body.append("           int firstByte = fileIn.read();\n");
+        body.append("           fileIn.reset();\n");
+        body.append("           if (firstByte == LEGACY_STREAM_MAGIC) {\n");
+        body.append("               return this.replayLegacy(fileIn);\n");
+        body.append("           }\n");
+        body.append("           this.checkFormat(firstByte);\n");
+        body.append("           DataInputStream dataIn = new DataInputStream(").append(this.dataStream("fileIn"))
+                .append(");\n");
+        body.append("           ").append(this.className).append("Codec.Schema schema = ").append(this.className)
+                .append("Codec.CURRENT_SCHEMA;\n");
+        body.append("           int op;\n");
+        body.append("           while ((op = dataIn.read()) != -1) {\n");
+        body.append("               if (op == PUT) {\n");
+        body.append("                   ").append(this.className).append(" ").append(variableName).append(" = ")
+                .append(this.className).append("Codec.readFrom(dataIn, schema);\n");
+        body.append("                   records.put(keyOf(").append(variableName).append("), ").append(variableName)
+                .append(");\n");
+        body.append("               } else if (op == SCHEMA) {\n");
+        body.append("                   schema = ").append(this.className).append("Codec.readSchema(dataIn);\n");
+        body.append("               } else {\n");
+        body.append("                   records.remove(keyOf(").append(this.className)
+                .append("Codec.readKeyFrom(dataIn)));\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       return records;\n");
+        body.append("   }\n\n");
+
+        body.append("   private void writeSnapshot(File target) throws IOException {\n");
+        body.append("       try (FileOutputStream fileOut = new FileOutputStream(target)) {\n");
+        if (this.compressed) {
+            body.append("           PositionOutputStream positionOut = new PositionOutputStream(new BufferedOutputStream(fileOut));\n");
+            body.append("           DataOutputStream dataOut = new DataOutputStream(positionOut);\n");
+        } else {
+            body.append("           DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(fileOut));\n");
+        }
+        body.append("           dataOut.writeByte(SCHEMA);\n");
+        body.append("           ").append(this.className).append("Codec.writeSchema(dataOut);\n");
+        if (this.compressed) {
+            body.append("           positionOut.endEntry();\n");
+        }
+        body.append("           for (").append(this.className).append(" ").append(variableName)
+                .append(" : index.values()) {\n");
+        body.append("               dataOut.writeByte(PUT);\n");
+        body.append("               ").append(this.className).append("Codec.writeTo(").append(variableName)
+                .append(", dataOut);\n");
+        if (this.compressed) {
+            body.append("               positionOut.endEntry();\n");
+        }
+        body.append("           }\n");
+        body.append("           dataOut.flush();\n");
+        if (this.durability != Durability.OS) {
+            body.append("           // The staged file must be on disk before the rename publishes it.\n");
+            body.append("           fileOut.getFD().sync();\n");
+        }
+        body.append("       }\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendColumnSnapshot(StringBuilder body) {
+        String codecClassName = this.className + "Codec";
+        body.append("   private void writeSnapshot(File target) throws IOException {\n");
+        body.append("       List<").append(this.className).append("> ").append(variableName)
+                .append("s = new ArrayList<>(index.values());\n");
+        body.append("       try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,\n");
+        body.append("               StandardOpenOption.TRUNCATE_EXISTING)) {\n");
+        body.append("           ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(COLUMNAR_MAGIC).putInt(")
+                .append(variableName).append("s.size());\n");
+        body.append("           DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel.position(HEADER_SIZE))));\n");
+        for (int i = 0; i < this.columns.size(); i++) {
+            if (i == 0) {
+                body.append("           header.putLong(HEADER_SIZE);\n");
+            } else {
+                body.append("           dataOut.flush();\n");
+                body.append("           header.putLong(channel.position());\n");
+            }
+            body.append("           ").append(codecClassName).append(".write")
+                    .append(StringUtil.capitalizeFirstLetter(this.columns.get(i).getSimpleName().toString()))
+                    .append("Column(").append(variableName).append("s, dataOut);\n");
+        }
+        body.append("           dataOut.flush();\n");
+        body.append("           header.flip();\n");
+        body.append("           while (header.hasRemaining()) {\n");
+        body.append("               channel.write(header, header.position());\n");
+        body.append("           }\n");
+        if (this.durability != Durability.OS) {
+            body.append("           // The staged file must be on disk before the rename publishes it.\n");
+            body.append("           channel.force(true);\n");
+        }
+        body.append("       }\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendColumnMethods(StringBuilder body, StringBuilder throwsExceptionString) {
+        String columnClassName = this.className + "Column";
+        for (VariableElement field : this.columns) {
+            String column = StringUtil.capitalizeFirstLetter(field.getSimpleName().toString());
+            body.append("   @Override\n");
+            body.append("   public List<").append(boxedType(field)).append("> read").append(column)
+                    .append("Column() throws ").append(throwsExceptionString).append(" {\n");
+            body.append("       return this.readColumn(").append(this.columns.indexOf(field)).append(", ")
+                    .append(this.className).append("Codec::read").append(column).append("Column, ")
+                    .append(this.className).append("::").append(getterName(field)).append(");\n");
+            body.append("   }\n\n");
+        }
+
+        body.append("   private <T> List<T> readColumn(int column, ColumnDecoder<T> decoder, Function<")
+                .append(this.className).append(", T> getter)\n");
+        body.append("           throws ").append(this.className).append("ServiceException {\n");
+        body.append("       try {\n");
+        body.append("           guard.lockShared();\n");
+        body.append("           try {\n");
+        body.append("               List<T> values = new ArrayList<>();\n");
+        body.append("               if (!this.dbExist()) {\n");
+        body.append("                   return values;\n");
+        body.append("               }\n");
+        body.append("               if (this.isLegacyFile()) {\n");
+        body.append("                   for (").append(this.className).append(" ").append(variableName)
+                .append(" : this.replay().values()) {\n");
+        body.append("                       values.add(getter.apply(").append(variableName).append("));\n");
+        body.append("                   }\n");
+        body.append("                   return values;\n");
+        body.append("               }\n");
+        body.append("               // Only this column's segment is read, straight into the result.\n");
+        body.append("               try (FileChannel channel = FileChannel.open(Path.of(dbFile), StandardOpenOption.READ)) {\n");
+        body.append("                   ByteBuffer header = this.readColumnHeader(channel);\n");
+        body.append("                   return decoder.decode(segment(channel, header.getLong(8 + 8 * column)), header.getInt(4));\n");
+        body.append("               }\n");
+        body.append("           } finally {\n");
+        body.append("               guard.unlockShared();\n");
+        body.append("           }\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error occurred: \" + e);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public List<").append(this.className).append("> readColumns(").append(columnClassName)
+                .append("... columns) throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       EnumSet<").append(columnClassName).append("> selected = EnumSet.noneOf(")
+                .append(columnClassName).append(".class);\n");
+        body.append("       Collections.addAll(selected, columns);\n");
+        body.append("       return this.project(selected);\n");
+        body.append("   }\n\n");
+
+        body.append("   private List<").append(this.className).append("> project(Set<").append(columnClassName)
+                .append("> columns) throws ").append(this.className).append("ServiceException {\n");
+        body.append("       try {\n");
+        body.append("           guard.lockShared();\n");
+        body.append("           try {\n");
+        body.append("               if (!this.dbExist()) {\n");
+        body.append("                   return new ArrayList<>();\n");
+        body.append("               }\n");
+        body.append("               if (this.isLegacyFile()) {\n");
+        body.append("                   return new ArrayList<>(this.replay().values());\n");
+        body.append("               }\n");
+        body.append("               return this.readSegments(columns);\n");
+        body.append("           } finally {\n");
+        body.append("               guard.unlockShared();\n");
+        body.append("           }\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error occurred: \" + e);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private List<").append(this.className).append("> readSegments(Set<").append(columnClassName)
+                .append("> columns) throws IOException {\n");
+        body.append("       try (FileChannel channel = FileChannel.open(Path.of(dbFile), StandardOpenOption.READ)) {\n");
+        body.append("           ByteBuffer header = this.readColumnHeader(channel);\n");
+        body.append("           int rows = header.getInt(4);\n");
+        body.append("           List<").append(this.className).append("> ").append(variableName)
+                .append("s = new ArrayList<>(rows);\n");
+        body.append("           for (int row = 0; row < rows; row++) {\n");
+        body.append("               ").append(variableName).append("s.add(new ").append(this.className)
+                .append("());\n");
+        body.append("           }\n");
+        for (int i = 0; i < this.columns.size(); i++) {
+            VariableElement field = this.columns.get(i);
+            body.append("           if (columns.contains(").append(columnClassName).append(".")
+                    .append(columnConstant(field)).append(")) {\n");
+            body.append("               List<").append(boxedType(field)).append("> values = ").append(this.className)
+                    .append("Codec.read").append(StringUtil.capitalizeFirstLetter(field.getSimpleName().toString()))
+                    .append("Column(segment(channel, header.getLong(").append(8 + 8 * i).append(")), rows);\n");
+            body.append("               for (int row = 0; row < rows; row++) {\n");
+            body.append("                   ").append(variableName).append("s.get(row).").append(setterName(field))
+                    .append("(values.get(row));\n");
+            body.append("               }\n");
+            body.append("           }\n");
+        }
+        body.append("           return ").append(variableName).append("s;\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private ByteBuffer readColumnHeader(FileChannel channel) throws IOException {\n");
+        body.append("       ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);\n");
+        body.append("       while (header.hasRemaining()) {\n");
+        body.append("           if (channel.read(header, header.position()) == -1) {\n");
+        body.append("               throw new EOFException(dbFile + \" has a truncated header\");\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       if (header.getInt(0) != COLUMNAR_MAGIC) {\n");
+        body.append("           throw new IOException(dbFile + \" is not columnar\");\n");
+        body.append("       }\n");
+        body.append("       return header;\n");
+        body.append("   }\n\n");
+
+        body.append("   private static DataInputStream segment(FileChannel channel, long offset) {\n");
+        body.append("       // Positional reads leave the channel position alone, so segments can be read side by side.\n");
+        body.append("       // Left open on purpose, closing it would close the channel the other segments are read from.\n");
+        body.append("       return new DataInputStream(new BufferedInputStream(new InputStream() {\n");
+        body.append("           private long position = offset;\n\n");
+        body.append("           @Override\n");
+        body.append("           public int read() throws IOException {\n");
+        body.append("               byte[] one = new byte[1];\n");
+        body.append("               return this.read(one, 0, 1) == 1 ? one[0] & 0xFF : -1;\n");
+        body.append("           }\n\n");
+        body.append("           @Override\n");
+        body.append("           public int read(byte[] bytes, int off, int len) throws IOException {\n");
+        body.append("               int read = channel.read(ByteBuffer.wrap(bytes, off, len), position);\n");
+        body.append("               if (read > 0) {\n");
+        body.append("                   position += read;\n");
+        body.append("               }\n");
+        body.append("               return read;\n");
+        body.append("           }\n");
+        body.append("       }));\n");
+        body.append("   }\n\n");
+
+        appendColumnCursor(body);
+
+        body.append("   @FunctionalInterface\n");
+        body.append("   private interface ColumnDecoder<T> {\n");
+        body.append("       List<T> decode(DataInput in, int rows) throws IOException;\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendLogMethods(StringBuilder body, StringBuilder throwsExceptionString) {
+        body.append("   @Override\n");
+        body.append("   public void add(").append(this.className).append(" ").append(variableName).append(") throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           ").append(this.offsetTable ? "long" : "Object").append(" key = keyOf(").append(variableName)
+                .append(");\n");
+        body.append("           if (index.containsKey(key)) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Data already exists: \" + key);\n");
+        body.append("           }\n");
+        body.append("           this.append(PUT, List.of(").append(variableName).append("));\n");
+        body.append("           this.scheduleCompaction();\n");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public void delete(").append(this.className).append(" ").append(variableName)
+                .append(") throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           if (!index.containsKey(keyOf(").append(variableName).append("))) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Data not found: \");\n");
+        body.append("           }\n");
+        body.append("           this.append(DELETE, List.of(").append(variableName).append("));\n");
+        body.append("           this.scheduleCompaction();\n");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public void update(").append(this.className).append(" ").append(variableName)
+                .append(") throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           if (!index.containsKey(keyOf(").append(variableName).append("))) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("RequestException(\"Data not found: \");\n");
+        body.append("           }\n");
+        body.append("           this.append(PUT, List.of(").append(variableName).append("));\n");
+        body.append("           this.scheduleCompaction();\n");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        if (this.snapshot) {
+            appendSnapshotMethods(body, throwsExceptionString, StorageMode.APPEND_LOG);
+        } else {
+            body.append("   @Override\n");
+            body.append("   public Stream<").append(this.className).append("> stream() throws ")
+                    .append(throwsExceptionString).append(" {\n");
+            body.append("       this.beginRead();\n");
+            body.append("       try {\n");
+            body.append("           if (logLength == 0) {\n");
+            body.append("               return Stream.empty();\n");
+            body.append("           }\n");
+            body.append("           return new Cursor(true).stream();\n");
+            body.append("       } catch (IOException e) {\n");
+            body.append("           throw new ").append(this.className)
+                    .append("ServiceException(\"Internal service error occurred: \" + e);\n");
+            body.append("       } finally {\n");
+            body.append("           this.endRead();\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+        }
+
+        appendStateLocked(body, "void loadIndex(long generation) throws IOException", "this.loadIndexLocked(generation);");
+        body.append("   private void loadIndexLocked(long generation) throws IOException {\n");
+        body.append("       if (index != null && generation == loadedGeneration) {\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        appendPreviousIndex(body, "       ");
+        body.append("       if (this.dbExist() && this.isLegacyFile()) {\n");
+        body.append("           this.rewrite(this.replayLegacy(new BufferedInputStream(new FileInputStream(dbFile))).values().iterator());\n");
+        body.append("           loadedGeneration = guard.advance();\n");
+        if (this.offsetTable) {
+            body.append("           index.stamp(loadedGeneration, logLength, logRecords, schemas.size());\n");
+        }
+        appendIndexLoad(body, "           ");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       long offset = 0;\n");
+        body.append("       long entries = 0;\n");
+        body.append("       NavigableMap<Long, ").append(this.className).append("Codec.Schema> headers = new TreeMap<>();\n");
+        if (this.offsetTable) {
+            appendOffsetTableLoad(body);
+        } else {
+            body.append("       Map<Object, Long> offsets = new HashMap<>();\n");
+            appendLogScan(body, "       ");
+        }
+        body.append("       index = offsets;\n");
+        body.append("       logLength = offset;\n");
+        body.append("       logRecords = entries;\n");
+        body.append("       schemas = headers;\n");
+        body.append("       loadedGeneration = generation;\n");
+        appendIndexLoad(body, "       ");
+        body.append("   }\n\n");
+
+        body.append("   private static boolean zeroFilled(InputStream in) throws IOException {\n");
+        body.append("       // A crash after the file grew but before its data landed leaves zeros up to the end.\n");
+        body.append("       int next;\n");
+        body.append("       while ((next = in.read()) == 0) {\n");
+        body.append("       }\n");
+        body.append("       return next == -1;\n");
+        body.append("   }\n\n");
+
+        body.append("   private static void writeEntry(DataOutputStream dataOut, int op, ByteArrayOutputStream entry) throws IOException {\n");
+        body.append("       // The length and both checksums let a reader tell a torn last entry from damage in the middle of the log.\n");
+        body.append("       byte[] payload = entry.toByteArray();\n");
+        body.append("       entry.reset();\n");
+        body.append("       CRC32 crc = new CRC32();\n");
+        body.append("       crc.update(payload);\n");
+        body.append("       ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);\n");
+        body.append("       header.put((byte) (op | CHECKSUMMED)).putInt(payload.length).putInt((int) crc.getValue());\n");
+        body.append("       crc.reset();\n");
+        body.append("       crc.update(header.array(), 0, header.position());\n");
+        body.append("       header.putInt((int) crc.getValue());\n");
+        body.append("       dataOut.write(header.array());\n");
+        body.append("       dataOut.write(payload);\n");
+        body.append("   }\n\n");
+
+        body.append("   private DataInputStream readEntry(int op, DataInputStream dataIn, long offset) throws IOException {\n");
+        body.append("       if ((op & CHECKSUMMED) == 0) {\n");
+        body.append("           // Written before entries carried a checksum, the record follows the entry type directly.\n");
+        body.append("           return dataIn;\n");
+        body.append("       }\n");
+        body.append("       byte[] header = new byte[ENTRY_HEADER_SIZE];\n");
+        body.append("       header[0] = (byte) op;\n");
+        body.append("       dataIn.readFully(header, 1, ENTRY_HEADER_SIZE - 1);\n");
+        body.append("       ByteBuffer frame = ByteBuffer.wrap(header, 1, ENTRY_HEADER_SIZE - 1);\n");
+        body.append("       int length = frame.getInt();\n");
+        body.append("       int payloadCrc = frame.getInt();\n");
+        body.append("       CRC32 crc = new CRC32();\n");
+        body.append("       crc.update(header, 0, ENTRY_HEADER_SIZE - 4);\n");
+        body.append("       if ((int) crc.getValue() != frame.getInt() || length < 0) {\n");
+        body.append("           throw this.corruptEntry(dataIn, \"entry header\", offset);\n");
+        body.append("       }\n");
+        body.append("       // The length is checksummed, so running out of file inside the payload can only be a torn last entry.\n");
+        body.append("       byte[] payload = dataIn.readNBytes(length);\n");
+        body.append("       if (payload.length < length) {\n");
+        body.append("           throw new EOFException(dbFile + \" ends inside the entry at offset \" + offset);\n");
+        body.append("       }\n");
+        body.append("       crc.reset();\n");
+        body.append("       crc.update(payload);\n");
+        body.append("       if ((int) crc.getValue() != payloadCrc) {\n");
+        body.append("           throw this.corruptEntry(dataIn, \"entry\", offset);\n");
+        body.append("       }\n");
+        body.append("       return new DataInputStream(new ByteArrayInputStream(payload));\n");
+        body.append("   }\n\n");
+
+        body.append("   private IOException corruptEntry(InputStream in, String part, long offset) throws IOException {\n");
+        body.append("       // Only the last entry can be torn by a crash, a bad entry with data behind it is corruption.\n");
+        body.append("       String message = dbFile + \" is corrupt at offset \" + offset + \", the \" + part + \" checksum does not match\";\n");
+        body.append("       return zeroFilled(in) ? new EOFException(message) : new IOException(message);\n");
+        body.append("   }\n\n");
+
+        body.append("   private void append(byte op, Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(this.className).append("ServiceException {\n");
+        body.append("       this.markModified();\n");
+        body.append("       try (FileChannel channel = FileChannel.open(Path.of(dbFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {\n");
+        String logBytes = this.compressed ? "logLength >>> ADDRESS_SHIFT" : "logLength";
+        body.append("           if (channel.size() > ").append(logBytes).append(") {\n");
+        body.append("               channel.truncate(").append(logBytes).append(");\n");
+        body.append("           }\n");
+        body.append("           channel.position(").append(logBytes).append(");\n");
+        body.append("           PositionOutputStream positionOut = new PositionOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));\n");
+        body.append("           DataOutputStream dataOut = new DataOutputStream(positionOut);\n");
+        body.append("           ByteArrayOutputStream entry = new ByteArrayOutputStream();\n");
+        body.append("           DataOutputStream entryOut = new DataOutputStream(entry);\n");
+        body.append("           if (logLength == 0 || this.schemaAt(logLength) != ").append(this.className).append("Codec.CURRENT_SCHEMA) {\n");
+        body.append("               // Older entries keep their layout, a header in front of the new ones tells readers where it changes.\n");
+        body.append("               schemas.put(logLength + positionOut.position(), ").append(this.className).append("Codec.CURRENT_SCHEMA);\n");
+        body.append("               ").append(this.className).append("Codec.writeSchema(entryOut);\n");
+        body.append("               writeEntry(dataOut, SCHEMA, entry);\n");
+        if (this.compressed) {
+            body.append("               positionOut.endEntry();\n");
+        }
+        body.append("           }\n");
+        body.append("           for (").append(this.className).append(" ").append(variableName).append(" : ")
+                .append(variableName).append("s) {\n");
+        body.append("               long offset = logLength + positionOut.position();\n");
+        body.append("               if (op == PUT) {\n");
+        body.append("                   ").append(this.className).append("Codec.writeTo(").append(variableName)
+                .append(", entryOut);\n");
+        body.append("                   index.put(keyOf(").append(variableName).append("), offset);\n");
+        body.append("               } else {\n");
+        body.append("                   ").append(this.className).append("Codec.writeKeyTo(").append(variableName)
+                .append(", entryOut);\n");
+        body.append("                   index.remove(keyOf(").append(variableName).append("));\n");
+        body.append("               }\n");
+        body.append("               writeEntry(dataOut, op, entry);\n");
+        if (this.compressed) {
+            body.append("               positionOut.endEntry();\n");
+        }
+        body.append("           }\n");
+        body.append("           dataOut.flush();\n");
+        if (this.durability == Durability.ALWAYS) {
+            body.append("           channel.force(false);\n");
+        }
+        body.append("           logLength += positionOut.position();\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           index = null;\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error, please try again!\" + e);\n");
+        body.append("       }\n");
+        body.append("       logRecords += ").append(variableName).append("s.size();\n");
+        if (this.offsetTable) {
+            body.append("       index.stamp(loadedGeneration, logLength, logRecords, schemas.size());\n");
+            if (this.durability == Durability.ALWAYS) {
+                body.append("       index.force();\n");
+            }
+        }
+        appendIndexUpdate(body, "       ", "op == PUT", variableName + "s");
+        if (this.durability == Durability.GROUP) {
+            body.append("       this.committed();\n");
+        }
+        body.append("   }\n\n");
+
+        body.append("   private ").append(this.className).append(" readRecord(long offset) throws ")
+                .append(this.className).append("ServiceException {\n");
+        body.append("       try (FileChannel channel = FileChannel.open(Path.of(dbFile), StandardOpenOption.READ)) {\n");
+        if (this.compressed) {
+            body.append("           channel.position(offset >>> ADDRESS_SHIFT);\n");
+            body.append("           PositionInputStream positionIn = new PositionInputStream(new BufferedInputStream(Channels.newInputStream(channel)));\n");
+            body.append("           positionIn.skipNBytes(offset & ((1L << ADDRESS_SHIFT) - 1));\n");
+            body.append("           DataInputStream dataIn = new DataInputStream(positionIn);\n");
+        } else {
+            body.append("           channel.position(offset);\n");
+            body.append("           DataInputStream dataIn = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));\n");
+        }
+        body.append("           return ").append(this.className)
+                .append("Codec.readFrom(this.readEntry(dataIn.read(), dataIn, offset), this.schemaAt(offset));\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error occurred: \" + e);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private ").append(this.className).append("Codec.Schema schemaAt(long offset) {\n");
+        body.append("       Map.Entry<Long, ").append(this.className).append("Codec.Schema> header = schemas.floorEntry(offset);\n");
+        body.append("       return header == null ? ").append(this.className).append("Codec.CURRENT_SCHEMA : header.getValue();\n");
+        body.append("   }\n\n");
+
+        if (this.offsetTable) {
+            body.append("   private NavigableMap<Long, ").append(this.className).append("Codec.Schema> readHeader() throws IOException {\n");
+            body.append("       try (DataInputStream dataIn = new DataInputStream(new PositionInputStream(new BufferedInputStream(new FileInputStream(dbFile))))) {\n");
+            body.append("           int op = dataIn.read();\n");
+            body.append("           if ((op & ~CHECKSUMMED) != SCHEMA) {\n");
+            body.append("               throw new IOException(dbFile + \" does not start with a schema header\");\n");
+            body.append("           }\n");
+            body.append("           return new TreeMap<>(Map.of(0L, ").append(this.className)
+                    .append("Codec.readSchema(this.readEntry(op, dataIn, 0))));\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+        }
+
+        body.append("   private void scheduleCompaction() {\n");
+        body.append("       long deadRecords = logRecords - index.size();\n");
+        body.append("       if (!compactionScheduled && deadRecords > COMPACTION_THRESHOLD * logRecords) {\n");
+        body.append("           compactionScheduled = true;\n");
+        body.append("           COMPACTOR.execute(this::compact);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private void compact() {\n");
+        body.append("       try {\n");
+        body.append("           this.beginWrite();\n");
+        body.append("       } catch (").append(this.className).append("ServiceException e) {\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       try {\n");
+        body.append("           compactionScheduled = false;\n");
+        body.append("           FileLock cursorLock = guard.tryLockCursors();\n");
+        body.append("           if (cursorLock == null) {\n");
+        body.append("               // An open stream still reads the current file, the next write will simply retry it.\n");
+        body.append("               return;\n");
+        body.append("           }\n");
+        body.append("           try (Cursor cursor = new Cursor(false)) {\n");
+        body.append("               this.markModified();\n");
+        body.append("               this.rewrite(cursor);\n");
+        appendIndexUpdate(body, "               ", "true", "List.of()");
+        body.append("           } finally {\n");
+        body.append("               cursorLock.release();\n");
+        body.append("           }\n");
+        body.append("       } catch (IOException | UncheckedIOException | ").append(this.className)
+                .append("ServiceException e) {\n");
+        body.append("           // The log is still complete without compaction, the next write will simply retry it.\n");
+        body.append("           index = null;\n");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private void rewrite(Iterator<").append(this.className).append("> ").append(variableName)
+                .append("s) throws IOException {\n");
+        body.append("       File compacted = new File(dbFile + \".compact\");\n");
+        if (this.offsetTable) {
+            body.append("       OffsetTable offsets = OffsetTable.create(Path.of(dbFile + \".keys\"), index == null ? 0 : index.size());\n");
+        } else {
+            body.append("       Map<Object, Long> offsets = new HashMap<>();\n");
+        }
+        body.append("       long length;\n");
+        body.append("       try {\n");
+        body.append("           try (FileOutputStream fileOut = new FileOutputStream(compacted)) {\n");
+        body.append("               PositionOutputStream positionOut = new PositionOutputStream(new BufferedOutputStream(fileOut));\n");
+        body.append("               DataOutputStream dataOut = new DataOutputStream(positionOut);\n");
+        body.append("               ByteArrayOutputStream entry = new ByteArrayOutputStream();\n");
+        body.append("               DataOutputStream entryOut = new DataOutputStream(entry);\n");
+        body.append("               ").append(this.className).append("Codec.writeSchema(entryOut);\n");
+        body.append("               writeEntry(dataOut, SCHEMA, entry);\n");
+        if (this.compressed) {
+            body.append("               positionOut.endEntry();\n");
+        }
+        body.append("               while (").append(variableName).append("s.hasNext()) {\n");
+        body.append("                   ").append(this.className).append(" ").append(variableName).append(" = ")
+                .append(variableName).append("s.next();\n");
+        body.append("                   offsets.put(keyOf(").append(variableName)
+                .append("), positionOut.position());\n");
+        body.append("                   ").append(this.className).append("Codec.writeTo(").append(variableName)
+                .append(", entryOut);\n");
+        body.append("                   writeEntry(dataOut, PUT, entry);\n");
+        if (this.compressed) {
+            body.append("                   positionOut.endEntry();\n");
+        }
+        body.append("               }\n");
+        body.append("               dataOut.flush();\n");
+        if (this.durability != Durability.OS) {
+            body.append("               fileOut.getFD().sync();\n");
+        }
+        body.append("               length = positionOut.position();\n");
+        body.append("           }\n");
+        if (this.offsetTable) {
+            body.append("           offsets.stamp(loadedGeneration, length, offsets.size(), 1);\n");
+            body.append("           offsets.force();\n");
+        }
+        body.append("           Files.move(compacted.toPath(), new File(dbFile).toPath(),\n");
+        body.append("                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);\n");
+        if (this.offsetTable) {
+            body.append("           offsets.publish();\n");
+            body.append("       } catch (IOException | RuntimeException e) {\n");
+            body.append("           offsets.discard();\n");
+            body.append("           throw e;\n");
+        }
+        body.append("       } finally {\n");
+        body.append("           compacted.delete();\n");
+        body.append("       }\n");
+        body.append("       index = offsets;\n");
+        body.append("       logLength = length;\n");
+        body.append("       logRecords = offsets.size();\n");
+        body.append("       schemas = new TreeMap<>(Map.of(0L, ").append(this.className).append("Codec.CURRENT_SCHEMA));\n");
+        body.append("   }\n\n");
+
+        appendPositionStreams(body);
+        if (this.offsetTable) {
+            appendOffsetTable(body);
+        }
+    }
+
+    private void appendOffsetTableLoad(StringBuilder body) {
+        body.append("       Path keysFile = Path.of(dbFile + \".keys\");\n");
+        body.append("       OffsetTable stale = OffsetTable.open(keysFile);\n");
+        body.append("       if (stale != null && stale.generation() == generation && stale.schemaEntries() <= 1\n");
+        body.append("               && new File(dbFile).length() >= ").append(this.compressed
+                ? "stale.logLength() >>> ADDRESS_SHIFT" : "stale.logLength()").append(") {\n");
+        body.append("           // A single header can only sit at the start of the log, more than one are found by the scan below.\n");
+        body.append("           schemas = stale.schemaEntries() == 0 ? headers : this.readHeader();\n");
+        body.append("           index = stale;\n");
+        body.append("           logLength = stale.logLength();\n");
+        body.append("           logRecords = stale.logRecords();\n");
+        body.append("           loadedGeneration = generation;\n");
+        appendIndexLoad(body, "           ");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       // The key file is missing or was not stamped by the last write, one scan of the log rebuilds it.\n");
+        body.append("       OffsetTable offsets = OffsetTable.create(keysFile, stale == null ? 0 : stale.size());\n");
+        body.append("       try {\n");
+        appendLogScan(body, "           ");
+        body.append("           offsets.stamp(generation, offset, entries, headers.size());\n");
+        body.append("           offsets.publish();\n");
+        body.append("       } catch (IOException | RuntimeException e) {\n");
+        body.append("           offsets.discard();\n");
+        body.append("           throw e;\n");
+        body.append("       }\n");
+    }
+
+    private void appendLogScan(StringBuilder body, String indentation) {
+        body.append(indentation).append("if (this.dbExist()) {\n");
+        body.append(indentation).append("    try (PositionInputStream positionIn = new PositionInputStream(new BufferedInputStream(new FileInputStream(dbFile)))) {\n");
+        body.append(indentation).append("        DataInputStream dataIn = new DataInputStream(positionIn);\n");
+        body.append(indentation).append("        ").append(this.className).append("Codec.Schema schema = ")
+                .append(this.className).append("Codec.CURRENT_SCHEMA;\n");
+        body.append(indentation).append("        int op;\n");
+        body.append(indentation).append("        boolean checksummed = false;\n");
+        body.append(indentation).append("        while ((op = dataIn.read()) != -1) {\n");
+        body.append(indentation).append("            if (op == 0 && zeroFilled(positionIn)) {\n");
+        body.append(indentation).append("                break;\n");
+        body.append(indentation).append("            }\n");
+        body.append(indentation).append("            if (checksummed && (op & CHECKSUMMED) == 0) {\n");
+        body.append(indentation).append("                throw new IOException(dbFile + \" is corrupt at offset \" + offset + \", unknown entry type \" + op);\n");
+        body.append(indentation).append("            }\n");
+        body.append(indentation).append("            checksummed = (op & CHECKSUMMED) != 0;\n");
+        body.append(indentation).append("            DataInputStream entryIn = this.readEntry(op, dataIn, offset);\n");
+        body.append(indentation).append("            try {\n");
+        body.append(indentation).append("                op &= ~CHECKSUMMED;\n");
+        body.append(indentation).append("                if (op == SCHEMA) {\n");
+        body.append(indentation).append("                    schema = ").append(this.className)
+                .append("Codec.readSchema(entryIn);\n");
+        body.append(indentation).append("                    headers.put(offset, schema);\n");
+        body.append(indentation).append("                    offset = positionIn.position();\n");
+        body.append(indentation).append("                    continue;\n");
+        body.append(indentation).append("                }\n");
+        body.append(indentation).append("                if (op == PUT) {\n");
+        body.append(indentation).append("                    offsets.put(keyOf(").append(this.className)
+                .append("Codec.readFrom(entryIn, schema)), offset);\n");
+        body.append(indentation).append("                } else if (op == DELETE) {\n");
+        body.append(indentation).append("                    offsets.remove(keyOf(").append(this.className)
+                .append("Codec.readKeyFrom(entryIn)));\n");
+        body.append(indentation).append("                } else {\n");
+        body.append(indentation).append("                    throw new IOException(dbFile + \" is corrupt at offset \" + offset + \", unknown entry type \" + op);\n");
+        body.append(indentation).append("                }\n");
+        body.append(indentation).append("            } catch (EOFException e) {\n");
+        body.append(indentation).append("                if (!checksummed) {\n");
+        body.append(indentation).append("                    throw e;\n");
+        body.append(indentation).append("                }\n");
+        body.append(indentation).append("                // The whole entry was read and its checksum matched, so it was written that way.\n");
+        body.append(indentation).append("                throw new IOException(dbFile + \" is corrupt at offset \" + offset + \", the entry does not decode\", e);\n");
+        body.append(indentation).append("            }\n");
+        body.append(indentation).append("            entries++;\n");
+        body.append(indentation).append("            offset = positionIn.position();\n");
+        body.append(indentation).append("        }\n");
+        body.append(indentation).append("    } catch (EOFException e) {\n");
+        body.append(indentation).append("        // The last entry runs into the end of the file: a crash in the middle of an append tore it, the\n");
+        body.append(indentation).append("        // next append cuts it off. A checksum failure with data behind it fails the scan instead.\n");
+        body.append(indentation).append("    }\n");
+        body.append(indentation).append("}\n");
+    }
+
+    private void appendOffsetTable(StringBuilder body) {
+        body.append("   private static final class OffsetTable {\n");
+        body.append("       private final Path path;\n");
+        body.append("       private Path file;\n");
+        body.append("       private MappedByteBuffer buffer;\n");
+        body.append("       private int mask;\n");
+        body.append("       private int size;\n");
+        body.append("       private int used;\n\n");
+        body.append("       private OffsetTable(Path path, Path file, MappedByteBuffer buffer) {\n");
+        body.append("           this.path = path;\n");
+        body.append("           this.file = file;\n");
+        body.append("           this.buffer = buffer;\n");
+        body.append("           this.mask = buffer.getInt(4) - 1;\n");
+        body.append("           this.size = buffer.getInt(32);\n");
+        body.append("           this.used = buffer.getInt(36);\n");
+        body.append("       }\n\n");
+        body.append("       private static OffsetTable open(Path path) throws IOException {\n");
+        body.append("           if (!Files.exists(path)) {\n");
+        body.append("               return null;\n");
+        body.append("           }\n");
+        body.append("           try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {\n");
+        body.append("               long length = channel.size();\n");
+        body.append("               if (length < KEYS_HEADER_SIZE) {\n");
+        body.append("                   return null;\n");
+        body.append("               }\n");
+        body.append("               MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);\n");
+        body.append("               int capacity = buffer.getInt(4);\n");
+        body.append("               if (buffer.getInt(0) != KEYS_MAGIC || Integer.bitCount(capacity) != 1\n");
+        body.append("                       || length != KEYS_HEADER_SIZE + (long) capacity * KEYS_ENTRY_SIZE) {\n");
+        body.append("                   return null;\n");
+        body.append("               }\n");
+        body.append("               return new OffsetTable(path, path, buffer);\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+        body.append("       private static OffsetTable create(Path path, int expectedKeys) throws IOException {\n");
+        body.append("           return create(path, \".tmp\", expectedKeys);\n");
+        body.append("       }\n\n");
+        body.append("       private static OffsetTable create(Path path, String stagedSuffix, int expectedKeys) throws IOException {\n");
+        body.append("           if (expectedKeys > MAX_KEYS) {\n");
+        body.append("               throw new IOException(path + \" cannot hold more than \" + MAX_KEYS + \" keys\");\n");
+        body.append("           }\n");
+        body.append("           int capacity = Integer.highestOneBit(Math.max(expectedKeys, 16) * 8 - 1);\n");
+        body.append("           // Staged next to the key file and created like the data file, so it keeps the same permissions once moved.\n");
+        body.append("           Path staged = path.resolveSibling(path.getFileName() + stagedSuffix);\n");
+        body.append("           try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,\n");
+        body.append("                   StandardOpenOption.READ, StandardOpenOption.WRITE)) {\n");
+        body.append("               MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,\n");
+        body.append("                       KEYS_HEADER_SIZE + (long) capacity * KEYS_ENTRY_SIZE);\n");
+        body.append("               buffer.putInt(0, KEYS_MAGIC);\n");
+        body.append("               buffer.putInt(4, capacity);\n");
+        body.append("               buffer.putLong(8, UNSTAMPED);\n");
+        body.append("               // Tells a reloading DAO whether the offsets it knew are still valid, a resize keeps it.\n");
+        body.append("               buffer.putInt(44, ThreadLocalRandom.current().nextInt());\n");
+        body.append("               return new OffsetTable(path, staged, buffer);\n");
+        body.append("           } catch (IOException | RuntimeException e) {\n");
+        body.append("               Files.deleteIfExists(staged);\n");
+        body.append("               throw e;\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+        body.append("       private long get(long key) {\n");
+        body.append("           for (int slot = this.slotOf(key); ; slot = (slot + 1) & mask) {\n");
+        body.append("               long stored = buffer.getLong(entryOf(slot) + 8);\n");
+        body.append("               if (stored == EMPTY) {\n");
+        body.append("                   return -1;\n");
+        body.append("               }\n");
+        body.append("               if (stored != REMOVED && buffer.getLong(entryOf(slot)) == key) {\n");
+        body.append("                   return stored - 1;\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+        body.append("       private boolean containsKey(long key) {\n");
+        body.append("           return this.get(key) >= 0;\n");
+        body.append("       }\n\n");
+        body.append("       private void put(long key, long offset) throws IOException {\n");
+        body.append("           int free = -1;\n");
+        body.append("           int slot = this.slotOf(key);\n");
+        body.append("           for (; ; slot = (slot + 1) & mask) {\n");
+        body.append("               long stored = buffer.getLong(entryOf(slot) + 8);\n");
+        body.append("               if (stored == EMPTY) {\n");
+        body.append("                   break;\n");
+        body.append("               }\n");
+        body.append("               if (stored == REMOVED) {\n");
+        body.append("                   free = free < 0 ? slot : free;\n");
+        body.append("               } else if (buffer.getLong(entryOf(slot)) == key) {\n");
+        body.append("                   buffer.putLong(entryOf(slot) + 8, offset + 1);\n");
+        body.append("                   return;\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           if (free < 0) {\n");
+        body.append("               free = slot;\n");
+        body.append("               used++;\n");
+        body.append("           }\n");
+        body.append("           // Offsets are stored plus one, so the zeros of a fresh file read as empty slots.\n");
+        body.append("           buffer.putLong(entryOf(free), key);\n");
+        body.append("           buffer.putLong(entryOf(free) + 8, offset + 1);\n");
+        body.append("           size++;\n");
+        body.append("           if (used * 2L > mask + 1) {\n");
+        body.append("               this.resize();\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+        body.append("       private void remove(long key) {\n");
+        body.append("           for (int slot = this.slotOf(key); ; slot = (slot + 1) & mask) {\n");
+        body.append("               long stored = buffer.getLong(entryOf(slot) + 8);\n");
+        body.append("               if (stored == EMPTY) {\n");
+        body.append("                   return;\n");
+        body.append("               }\n");
+        body.append("               if (stored != REMOVED && buffer.getLong(entryOf(slot)) == key) {\n");
+        body.append("                   buffer.putLong(entryOf(slot) + 8, REMOVED);\n");
+        body.append("                   size--;\n");
+        body.append("                   return;\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+        body.append("       private int size() {\n");
+        body.append("           return size;\n");
+        body.append("       }\n\n");
+        body.append("       private long[] keys() {\n");
+        body.append("           long[] keys = new long[size];\n");
+        body.append("           int next = 0;\n");
+        body.append("           for (int slot = 0; slot <= mask; slot++) {\n");
+        body.append("               long stored = buffer.getLong(entryOf(slot) + 8);\n");
+        body.append("               if (stored != EMPTY && stored != REMOVED) {\n");
+        body.append("                   keys[next++] = buffer.getLong(entryOf(slot));\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           return keys;\n");
+        body.append("       }\n\n");
+        body.append("       private long[] keysSince(long logLength) {\n");
+        body.append("           long[] keys = new long[size];\n");
+        body.append("           int next = 0;\n");
+        body.append("           for (int slot = 0; slot <= mask; slot++) {\n");
+        body.append("               long stored = buffer.getLong(entryOf(slot) + 8);\n");
+        body.append("               if (stored != EMPTY && stored != REMOVED && stored - 1 >= logLength) {\n");
+        body.append("                   keys[next++] = buffer.getLong(entryOf(slot));\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           return Arrays.copyOf(keys, next);\n");
+        body.append("       }\n\n");
+        body.append("       private int tableId() {\n");
+        body.append("           return buffer.getInt(44);\n");
+        body.append("       }\n\n");
+        body.append("       private long generation() {\n");
+        body.append("           return buffer.getLong(8);\n");
+        body.append("       }\n\n");
+        body.append("       private long logLength() {\n");
+        body.append("           return buffer.getLong(16);\n");
+        body.append("       }\n\n");
+        body.append("       private long logRecords() {\n");
+        body.append("           return buffer.getLong(24);\n");
+        body.append("       }\n\n");
+        body.append("       private int schemaEntries() {\n");
+        body.append("           return buffer.getInt(40);\n");
+        body.append("       }\n\n");
+        body.append("       private void stamp(long generation, long logLength, long logRecords, int schemaEntries) {\n");
+        body.append("           buffer.putInt(32, size);\n");
+        body.append("           buffer.putInt(36, used);\n");
+        body.append("           buffer.putInt(40, schemaEntries);\n");
+        body.append("           buffer.putLong(16, logLength);\n");
+        body.append("           buffer.putLong(24, logRecords);\n");
+        body.append("           buffer.putLong(8, generation);\n");
+        body.append("       }\n\n");
+        body.append("       private void publish() throws IOException {\n");
+        body.append("           if (!file.equals(path)) {\n");
+        body.append("               Files.move(file, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);\n");
+        body.append("               file = path;\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+        body.append("       private void discard() throws IOException {\n");
+        body.append("           if (!file.equals(path)) {\n");
+        body.append("               Files.deleteIfExists(file);\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+        body.append("       private void force() {\n");
+        body.append("           buffer.force();\n");
+        body.append("       }\n\n");
+        body.append("       private void resize() throws IOException {\n");
+        body.append("           // A distinct name, this table may itself still be staged under the default one.\n");
+        body.append("           OffsetTable resized = create(path, \".resize.tmp\", size);\n");
+        body.append("           try {\n");
+        body.append("               for (int slot = 0; slot <= mask; slot++) {\n");
+        body.append("                   long stored = buffer.getLong(entryOf(slot) + 8);\n");
+        body.append("                   if (stored != EMPTY && stored != REMOVED) {\n");
+        body.append("                       resized.put(buffer.getLong(entryOf(slot)), stored - 1);\n");
+        body.append("                   }\n");
+        body.append("               }\n");
+        body.append("               resized.stamp(this.generation(), this.logLength(), this.logRecords(), this.schemaEntries());\n");
+        body.append("               resized.buffer.putInt(44, this.tableId());\n");
+        body.append("               if (file.equals(path)) {\n");
+        body.append("                   resized.publish();\n");
+        body.append("               } else {\n");
+        body.append("                   Files.move(resized.file, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);\n");
+        body.append("                   resized.file = file;\n");
+        body.append("               }\n");
+        body.append("           } catch (IOException | RuntimeException e) {\n");
+        body.append("               resized.discard();\n");
+        body.append("               throw e;\n");
+        body.append("           }\n");
+        body.append("           buffer = resized.buffer;\n");
+        body.append("           mask = resized.mask;\n");
+        body.append("           size = resized.size;\n");
+        body.append("           used = resized.used;\n");
+        body.append("       }\n\n");
+        body.append("       private int slotOf(long key) {\n");
+        body.append("           return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;\n");
+        body.append("       }\n\n");
+        body.append("       private static int entryOf(int slot) {\n");
+        body.append("           return KEYS_HEADER_SIZE + slot * KEYS_ENTRY_SIZE;\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendPositionStreams(StringBuilder body) {
+        if (this.compressed) {
+            appendBlockStreams(body);
+            return;
+        }
+        body.append("   private static final class PositionInputStream extends FilterInputStream {\n");
+        body.append("       private long position;\n\n");
+        body.append("       private PositionInputStream(InputStream in) {\n");
+        body.append("           super(in);\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public int read() throws IOException {\n");
+        body.append("           int b = super.read();\n");
+        body.append("           if (b != -1) {\n");
+        body.append("               position++;\n");
+        body.append("           }\n");
+        body.append("           return b;\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public int read(byte[] b, int off, int len) throws IOException {\n");
+        body.append("           int read = super.read(b, off, len);\n");
+        body.append("           if (read > 0) {\n");
+        body.append("               position += read;\n");
+        body.append("           }\n");
+        body.append("           return read;\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public long skip(long n) throws IOException {\n");
+        body.append("           long skipped = super.skip(n);\n");
+        body.append("           position += skipped;\n");
+        body.append("           return skipped;\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public boolean markSupported() {\n");
+        body.append("           return false;\n");
+        body.append("       }\n\n");
+        body.append("       private long position() {\n");
+        body.append("           return position;\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private static final class PositionOutputStream extends FilterOutputStream {\n");
+        body.append("       private long position;\n\n");
+        body.append("       private PositionOutputStream(OutputStream out) {\n");
+        body.append("           super(out);\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public void write(int b) throws IOException {\n");
+        body.append("           out.write(b);\n");
+        body.append("           position++;\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public void write(byte[] b, int off, int len) throws IOException {\n");
+        body.append("           out.write(b, off, len);\n");
+        body.append("           position += len;\n");
+        body.append("       }\n\n");
+        body.append("       private long position() {\n");
+        body.append("           return position;\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendBlockStreams(StringBuilder body) {
+        body.append("   private static final class PositionInputStream extends InputStream {\n");
+        body.append("       private final InputStream in;\n");
+        body.append("       private final Inflater inflater = new Inflater();\n");
+        body.append("       private final byte[] header = new byte[8];\n");
+        body.append("       private byte[] block = new byte[0];\n");
+        body.append("       private int blockLength;\n");
+        body.append("       private int pos;\n");
+        body.append("       private long blockStart;\n");
+        body.append("       private long nextBlockStart;\n\n");
+        body.append("       private PositionInputStream(InputStream in) {\n");
+        body.append("           this.in = in;\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public int read() throws IOException {\n");
+        body.append("           if (pos == blockLength && !this.nextBlock()) {\n");
+        body.append("               return -1;\n");
+        body.append("           }\n");
+        body.append("           return block[pos++] & 0xFF;\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public int read(byte[] b, int off, int len) throws IOException {\n");
+        body.append("           if (len == 0) {\n");
+        body.append("               return 0;\n");
+        body.append("           }\n");
+        body.append("           if (pos == blockLength && !this.nextBlock()) {\n");
+        body.append("               return -1;\n");
+        body.append("           }\n");
+        body.append("           int read = Math.min(len, blockLength - pos);\n");
+        body.append("           System.arraycopy(block, pos, b, off, read);\n");
+        body.append("           pos += read;\n");
+        body.append("           return read;\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public long skip(long n) throws IOException {\n");
+        body.append("           if (n <= 0 || (pos == blockLength && !this.nextBlock())) {\n");
+        body.append("               return 0;\n");
+        body.append("           }\n");
+        body.append("           int skipped = (int) Math.min(n, blockLength - pos);\n");
+        body.append("           pos += skipped;\n");
+        body.append("           return skipped;\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public void close() throws IOException {\n");
+        body.append("           inflater.end();\n");
+        body.append("           in.close();\n");
+        body.append("       }\n\n");
+        body.append("       private long position() {\n");
+        body.append("           return pos == blockLength ? nextBlockStart << ADDRESS_SHIFT : (blockStart << ADDRESS_SHIFT) + pos;\n");
+        body.append("       }\n\n");
+        body.append("       private boolean nextBlock() throws IOException {\n");
+        body.append("           int read = in.readNBytes(header, 0, header.length);\n");
+        body.append("           if (read == 0) {\n");
+        body.append("               return false;\n");
+        body.append("           }\n");
+        body.append("           ByteBuffer lengths = ByteBuffer.wrap(header);\n");
+        body.append("           int rawLength = lengths.getInt();\n");
+        body.append("           int compressedLength = lengths.getInt();\n");
+        body.append("           if (read < header.length) {\n");
+        body.append("               throw new EOFException(\"Torn block at \" + nextBlockStart);\n");
+        body.append("           }\n");
+        body.append("           if (rawLength <= 0 || rawLength >= 1 << ADDRESS_SHIFT || compressedLength <= 0) {\n");
+        body.append("               throw this.damaged(\"Corrupt block header at \" + nextBlockStart);\n");
+        body.append("           }\n");
+        body.append("           byte[] compressed = in.readNBytes(compressedLength);\n");
+        body.append("           if (compressed.length < compressedLength) {\n");
+        body.append("               throw new EOFException(\"Torn block at \" + nextBlockStart);\n");
+        body.append("           }\n");
+        body.append("           if (block.length < rawLength) {\n");
+        body.append("               block = new byte[rawLength];\n");
+        body.append("           }\n");
+        body.append("           inflater.reset();\n");
+        body.append("           inflater.setInput(compressed);\n");
+        body.append("           int inflated = 0;\n");
+        body.append("           try {\n");
+        body.append("               while (inflated < rawLength && !inflater.finished()) {\n");
+        body.append("                   int n = inflater.inflate(block, inflated, rawLength - inflated);\n");
+        body.append("                   if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {\n");
+        body.append("                       break;\n");
+        body.append("                   }\n");
+        body.append("                   inflated += n;\n");
+        body.append("               }\n");
+        body.append("           } catch (DataFormatException e) {\n");
+        body.append("               throw this.damaged(\"Corrupt block at \" + nextBlockStart + \": \" + e.getMessage());\n");
+        body.append("           }\n");
+        body.append("           if (inflated != rawLength) {\n");
+        body.append("               throw this.damaged(\"Corrupt block at \" + nextBlockStart);\n");
+        body.append("           }\n");
+        body.append("           blockStart = nextBlockStart;\n");
+        body.append("           nextBlockStart += header.length + compressedLength;\n");
+        body.append("           blockLength = rawLength;\n");
+        body.append("           pos = 0;\n");
+        body.append("           return true;\n");
+        body.append("       }\n\n");
+        body.append("       private IOException damaged(String message) throws IOException {\n");
+        body.append("           // Only the last block can be torn by a crash, a bad block with data behind it is corruption.\n");
+        body.append("           int next;\n");
+        body.append("           while ((next = in.read()) == 0) {\n");
+        body.append("           }\n");
+        body.append("           return next == -1 ? new EOFException(message) : new IOException(message);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private static final class PositionOutputStream extends OutputStream {\n");
+        body.append("       private final OutputStream out;\n");
+        body.append("       private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);\n");
+        body.append("       private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();\n");
+        body.append("       private final byte[] chunk = new byte[8192];\n");
+        body.append("       private long written;\n\n");
+        body.append("       private PositionOutputStream(OutputStream out) {\n");
+        body.append("           this.out = out;\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public void write(int b) {\n");
+        body.append("           buffer.write(b);\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public void write(byte[] b, int off, int len) {\n");
+        body.append("           buffer.write(b, off, len);\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public void flush() throws IOException {\n");
+        body.append("           this.writeBlock();\n");
+        body.append("           out.flush();\n");
+        body.append("       }\n\n");
+        body.append("       @Override\n");
+        body.append("       public void close() throws IOException {\n");
+        body.append("           try {\n");
+        body.append("               this.flush();\n");
+        body.append("           } finally {\n");
+        body.append("               deflater.end();\n");
+        body.append("               out.close();\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+        body.append("       private void endEntry() throws IOException {\n");
+        body.append("           if (buffer.size() >= BLOCK_SIZE) {\n");
+        body.append("               this.writeBlock();\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+        body.append("       private long position() {\n");
+        body.append("           return (written << ADDRESS_SHIFT) + buffer.size();\n");
+        body.append("       }\n\n");
+        body.append("       private void writeBlock() throws IOException {\n");
+        body.append("           int rawLength = buffer.size();\n");
+        body.append("           if (rawLength == 0) {\n");
+        body.append("               return;\n");
+        body.append("           }\n");
+        body.append("           if (rawLength >= 1 << ADDRESS_SHIFT) {\n");
+        body.append("               throw new IOException(\"Block of \" + rawLength + \" bytes exceeds the addressable block size\");\n");
+        body.append("           }\n");
+        body.append("           deflater.reset();\n");
+        body.append("           deflater.setInput(buffer.toByteArray());\n");
+        body.append("           deflater.finish();\n");
+        body.append("           ByteArrayOutputStream compressed = new ByteArrayOutputStream();\n");
+        body.append("           while (!deflater.finished()) {\n");
+        body.append("               compressed.write(chunk, 0, deflater.deflate(chunk));\n");
+        body.append("           }\n");
+        body.append("           out.write(ByteBuffer.allocate(8).putInt(rawLength).putInt(compressed.size()).array());\n");
+        body.append("           compressed.writeTo(out);\n");
+        body.append("           written += 8 + compressed.size();\n");
+        body.append("           buffer.reset();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+    }
+
+    private String dataStream(String fileStream) {
+        return this.compressed ? "new PositionInputStream(" + fileStream + ")" : fileStream;
+    }
+
+    private void appendBatchMethods(StringBuilder body, StringBuilder throwsExceptionString, StorageMode storage) {
+        boolean fixedSlot = storage == StorageMode.FIXED_SLOT;
+        body.append("   @Override\n");
+        body.append("   public void addAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           this.checkAddAll(").append(variableName).append("s);\n");
+        body.append("           this.applyAddAll(").append(variableName).append("s);\n");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   void checkAddAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(this.className).append("RequestException {\n");
+        body.append("       this.checkBatch(").append(variableName).append("s, false").append(fixedSlot ? ", true" : "").append(");\n");
+        body.append("   }\n\n");
+
+        body.append("   void applyAddAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(throwsExceptionString).append(" {\n");
+        if (fixedSlot) {
+            body.append("       this.markModified();\n");
+            body.append("       while (freeSlots.size() < ").append(variableName).append("s.size()) {\n");
+            body.append("           this.grow();\n");
+            body.append("       }\n");
+            body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                    .append(variableName).append("s) {\n");
+            body.append("           int slot = freeSlots.pop();\n");
+            body.append("           ").append(this.className).append("Codec.writeSlot(").append(variableName)
+                    .append(", buffer, offsetOf(slot));\n");
+            body.append("           buffer.put(offsetOf(slot), USED);\n");
+            body.append("           index.put(keyOf(").append(variableName).append("), slot);\n");
+            body.append("       }\n");
+            appendIndexUpdate(body, "       ", "true", variableName + "s");
+            appendCommit(body, "       ", "buffer.force();");
+        } else if (storage == StorageMode.APPEND_LOG) {
+            body.append("       this.append(PUT, ").append(variableName).append("s);\n");
+            body.append("       this.scheduleCompaction();\n");
+        } else {
+            body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                    .append(variableName).append("s) {\n");
+            body.append("           index.put(keyOf(").append(variableName).append("), copyOf(")
+                    .append(variableName).append("));\n");
+            body.append("       }\n");
+            body.append("       this.writeAll();\n");
+            appendIndexUpdate(body, "       ", "true", variableName + "s");
+        }
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public void updateAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           this.checkUpdateAll(").append(variableName).append("s);\n");
+        body.append("           this.applyUpdateAll(").append(variableName).append("s);\n");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   void checkUpdateAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(this.className).append("RequestException {\n");
+        body.append("       this.checkBatch(").append(variableName).append("s, true").append(fixedSlot ? ", true" : "").append(");\n");
+        body.append("   }\n\n");
+
+        body.append("   void applyUpdateAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(throwsExceptionString).append(" {\n");
+        if (fixedSlot) {
+            body.append("       this.markModified();\n");
+            body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                    .append(variableName).append("s) {\n");
+            body.append("           ").append(this.className).append("Codec.writeSlot(").append(variableName)
+                    .append(", buffer, offsetOf(index.get(keyOf(").append(variableName).append("))));\n");
+            body.append("       }\n");
+            appendIndexUpdate(body, "       ", "true", variableName + "s");
+            appendCommit(body, "       ", "buffer.force();");
+        } else if (storage == StorageMode.APPEND_LOG) {
+            body.append("       this.append(PUT, ").append(variableName).append("s);\n");
+            body.append("       this.scheduleCompaction();\n");
+        } else {
+            body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                    .append(variableName).append("s) {\n");
+            body.append("           index.put(keyOf(").append(variableName).append("), copyOf(")
+                    .append(variableName).append("));\n");
+            body.append("       }\n");
+            body.append("       this.writeAll();\n");
+            appendIndexUpdate(body, "       ", "true", variableName + "s");
+        }
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public void deleteAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("       try {\n");
+        body.append("           this.checkDeleteAll(").append(variableName).append("s);\n");
+        body.append("           this.applyDeleteAll(").append(variableName).append("s);\n");
+        body.append("       } finally {\n");
+        body.append("           this.endWrite();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   void checkDeleteAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(this.className).append("RequestException {\n");
+        body.append("       this.checkBatch(").append(variableName).append("s, true").append(fixedSlot ? ", false" : "").append(");\n");
+        body.append("   }\n\n");
+
+        body.append("   void applyDeleteAll(Collection<? extends ").append(this.className).append("> ")
+                .append(variableName).append("s) throws ").append(throwsExceptionString).append(" {\n");
+        if (fixedSlot) {
+            body.append("       this.markModified();\n");
+            body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                    .append(variableName).append("s) {\n");
+            body.append("           int slot = index.remove(keyOf(").append(variableName).append("));\n");
+            body.append("           buffer.put(offsetOf(slot), FREE);\n");
+            body.append("           freeSlots.push(slot);\n");
+            body.append("       }\n");
+            appendIndexUpdate(body, "       ", "false", variableName + "s");
+            appendCommit(body, "       ", "buffer.force();");
+        } else if (storage == StorageMode.APPEND_LOG) {
+            body.append("       this.append(DELETE, ").append(variableName).append("s);\n");
+            body.append("       this.scheduleCompaction();\n");
+        } else {
+            body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                    .append(variableName).append("s) {\n");
+            body.append("           index.remove(keyOf(").append(variableName).append("));\n");
+            body.append("       }\n");
+            body.append("       this.writeAll();\n");
+            appendIndexUpdate(body, "       ", "false", variableName + "s");
+        }
+        body.append("   }\n\n");
+
+        body.append("   void beginBatch() throws ").append(this.className).append("ServiceException {\n");
+        body.append("       this.beginWrite();\n");
+        body.append("   }\n\n");
+
+        body.append("   void endBatch() {\n");
+        body.append("       this.endWrite();\n");
+        body.append("   }\n\n");
+
+        if (fixedSlot) {
+            body.append("   private void checkBatch(Collection<? extends ").append(this.className).append("> ")
+                    .append(variableName).append("s, boolean mustExist, boolean encoded)\n");
+            body.append("           throws ").append(this.className).append("RequestException {\n");
+        } else {
+            body.append("   private void checkBatch(Collection<? extends ").append(this.className).append("> ")
+                    .append(variableName).append("s, boolean mustExist) throws ").append(this.className)
+                    .append("RequestException {\n");
+        }
+        body.append("       List<String> problems = new ArrayList<>();\n");
+        body.append("       Set<Object> batchKeys = new HashSet<>();\n");
+        if (fixedSlot) {
+            body.append("       ByteBuffer scratch = ByteBuffer.allocate(").append(this.className)
+                    .append("Codec.SLOT_SIZE);\n");
+        }
+        body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                .append(variableName).append("s) {\n");
+        body.append("           ").append(this.offsetTable ? "long" : "Object").append(" key = keyOf(").append(variableName)
+                .append(");\n");
+        body.append("           if (!batchKeys.add(key)) {\n");
+        body.append("               problems.add(\"Duplicate key in batch: \" + key);\n");
+        body.append("           } else if (mustExist && !index.containsKey(key)) {\n");
+        body.append("               problems.add(\"Data not found: \" + key);\n");
+        body.append("           } else if (!mustExist && index.containsKey(key)) {\n");
+        body.append("               problems.add(\"Data already exists: \" + key);\n");
+        if (fixedSlot) {
+            body.append("           } else if (encoded) {\n");
+            body.append("               try {\n");
+            body.append("                   ").append(this.className).append("Codec.writeSlot(").append(variableName)
+                    .append(", scratch, 0);\n");
+            body.append("               } catch (IllegalArgumentException e) {\n");
+            body.append("                   problems.add(key + \": \" + e.getMessage());\n");
+            body.append("               }\n");
+        }
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       if (!problems.isEmpty()) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("RequestException(\"Batch rejected, nothing was written: \" + String.join(\"; \", problems));\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendStreamMethods(StringBuilder body, StringBuilder throwsExceptionString, StorageMode storage) {
+        body.append("   @Override\n");
+        body.append("   public void forEach(Consumer<? super ").append(this.className).append("> action) throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       try (Stream<").append(this.className).append("> ").append(variableName)
+                .append("s = this.stream()) {\n");
+        body.append("           ").append(variableName).append("s.forEach(action);\n");
+        body.append("       } catch (UncheckedIOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error occurred: \" + e.getCause());\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+        if (storage == StorageMode.FIXED_SLOT) {
+            body.append("   @Override\n");
+            body.append("   public Stream<").append(this.className).append("> stream() throws ")
+                    .append(throwsExceptionString).append(" {\n");
+            body.append("       this.beginRead();\n");
+            body.append("       try {\n");
+            body.append("           return IntStream.range(0, capacity).mapToObj(this::readUsedSlot).filter(Objects::nonNull);\n");
+            body.append("       } finally {\n");
+            body.append("           this.endRead();\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+
+            body.append("   private ").append(this.className).append(" readUsedSlot(int slot) {\n");
+            body.append("       try {\n");
+            body.append("           long generation = guard.lockShared();\n");
+            body.append("           try {\n");
+            body.append("               this.loadIndex(generation);\n");
+            body.append("               if (slot >= capacity || buffer.get(offsetOf(slot)) != USED) {\n");
+            body.append("                   return null;\n");
+            body.append("               }\n");
+            body.append("               return ").append(this.className)
+                    .append("Codec.readSlot(buffer, offsetOf(slot));\n");
+            body.append("           } finally {\n");
+            body.append("               guard.unlockShared();\n");
+            body.append("           }\n");
+            body.append("       } catch (IOException e) {\n");
+            body.append("           throw new UncheckedIOException(e);\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+            return;
+        }
+        boolean appendLog = storage == StorageMode.APPEND_LOG;
+        body.append("   @Override\n");
+        body.append("   public List<").append(this.className).append("> getAll() throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       List<").append(this.className).append("> ").append(variableName)
+                .append("s = new ArrayList<>();\n");
+        body.append("       this.forEach(").append(variableName).append("s::add);\n");
+        body.append("       return ").append(variableName).append("s;\n");
+        body.append("   }\n\n");
+        if (storage == StorageMode.COLUMNAR) {
+            return;
+        }
+
+        body.append("   private final class Cursor implements Iterator<").append(this.className)
+                .append(">, Closeable {\n");
+        if (appendLog) {
+            body.append("       private final boolean guarded;\n");
+            body.append("       private final PositionInputStream positionIn;\n");
+        }
+        body.append("       private final DataInputStream dataIn;\n");
+        body.append("       private ").append(this.className).append(" next;\n");
+        body.append("       private ").append(this.className).append("Codec.Schema schema = ").append(this.className).append("Codec.CURRENT_SCHEMA;\n");
+        body.append("       private boolean closed;\n\n");
+        if (appendLog) {
+            body.append("       private Cursor(boolean guarded) throws IOException {\n");
+            body.append("           this.guarded = guarded;\n");
+            body.append("           if (guarded) {\n");
+            body.append("               guard.openCursor();\n");
+            body.append("           }\n");
+            body.append("           try {\n");
+            body.append("               positionIn = new PositionInputStream(new BufferedInputStream(new FileInputStream(dbFile)));\n");
+            body.append("           } catch (IOException e) {\n");
+            body.append("               if (guarded) {\n");
+            body.append("                   guard.closeCursor();\n");
+            body.append("               }\n");
+            body.append("               throw e;\n");
+            body.append("           }\n");
+            body.append("           dataIn = new DataInputStream(positionIn);\n");
+            body.append("       }\n");
+        } else {
+            body.append("       private Cursor() throws IOException {\n");
+            body.append("           dataIn = new DataInputStream(")
+                    .append(this.dataStream("new BufferedInputStream(new FileInputStream(dbFile))")).append(");\n");
+            body.append("       }\n");
+        }
+        body.append("\n");
+
+        body.append("       private Stream<").append(this.className).append("> stream() {\n");
+        body.append("           return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)\n");
+        body.append("                   .onClose(this::close);\n");
+        body.append("       }\n\n");
+
+        body.append("       @Override\n");
+        body.append("       public boolean hasNext() {\n");
+        body.append("           if (next == null && !closed) {\n");
+        body.append("               try {\n");
+        body.append("                   next = this.readNext();\n");
+        body.append("               } catch (IOException e) {\n");
+        body.append("                   this.close();\n");
+        body.append("                   throw new UncheckedIOException(e);\n");
+        body.append("               }\n");
+        body.append("               if (next == null) {\n");
+        body.append("                   this.close();\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           return next != null;\n");
+        body.append("       }\n\n");
+
+        body.append("       @Override\n");
+        body.append("       public ").append(this.className).append(" next() {\n");
+        body.append("           if (!this.hasNext()) {\n");
+        body.append("               throw new NoSuchElementException();\n");
+        body.append("           }\n");
+        body.append("           ").append(this.className).append(" ").append(variableName).append(" = next;\n");
+        body.append("           next = null;\n");
+        body.append("           return ").append(variableName).append(";\n");
+        body.append("       }\n\n");
+
+        body.append("       private ").append(this.className).append(" readNext() throws IOException {\n");
+        if (appendLog) {
+            body.append("           while (positionIn.position() < this.liveLength()) {\n");
+            body.append("               long offset = positionIn.position();\n");
+            body.append("               int op = dataIn.read();\n");
+            body.append("               DataInputStream entryIn = readEntry(op, dataIn, offset);\n");
+            body.append("               op &= ~CHECKSUMMED;\n");
+            body.append("               if (op == PUT) {\n");
+            body.append("                   ").append(this.className).append(" ").append(variableName).append(" = ")
+                    .append(this.className).append("Codec.readFrom(entryIn, schema);\n");
+            body.append("                   if (this.isLive(keyOf(").append(variableName).append("), offset)) {\n");
+            body.append("                       return ").append(variableName).append(";\n");
+            body.append("                   }\n");
+            body.append("               } else if (op == SCHEMA) {\n");
+            body.append("                   schema = ").append(this.className).append("Codec.readSchema(entryIn);\n");
+            body.append("               } else {\n");
+            body.append("                   ").append(this.className).append("Codec.readKeyFrom(entryIn);\n");
+            body.append("               }\n");
+            body.append("           }\n");
+        } else {
+            body.append("           int op;\n");
+            body.append("           while ((op = dataIn.read()) != -1) {\n");
+            body.append("               if (op == PUT) {\n");
+            body.append("                   return ").append(this.className).append("Codec.readFrom(dataIn, schema);\n");
+            body.append("               } else if (op == SCHEMA) {\n");
+            body.append("                   schema = ").append(this.className).append("Codec.readSchema(dataIn);\n");
+            body.append("               } else {\n");
+            body.append("                   ").append(this.className).append("Codec.readKeyFrom(dataIn);\n");
+            body.append("               }\n");
+            body.append("           }\n");
+        }
+        body.append("           return null;\n");
+        body.append("       }\n\n");
+        if (appendLog) {
+            body.append("       private long liveLength() throws IOException {\n");
+            body.append("           if (!guarded) {\n");
+            body.append("               return logLength;\n");
+            body.append("           }\n");
+            body.append("           long generation = guard.lockShared();\n");
+            body.append("           try {\n");
+            body.append("               loadIndex(generation);\n");
+            body.append("               return logLength;\n");
+            body.append("           } finally {\n");
+            body.append("               guard.unlockShared();\n");
+            body.append("           }\n");
+            body.append("       }\n\n");
+
+            String live = this.offsetTable ? "index.get(key) == offset" : "Long.valueOf(offset).equals(index.get(key))";
+            body.append("       private boolean isLive(").append(this.offsetTable ? "long" : "Object")
+                    .append(" key, long offset) throws IOException {\n");
+            body.append("           if (!guarded) {\n");
+            body.append("               return ").append(live).append(";\n");
+            body.append("           }\n");
+            body.append("           long generation = guard.lockShared();\n");
+            body.append("           try {\n");
+            body.append("               loadIndex(generation);\n");
+            body.append("               return ").append(live).append(";\n");
+            body.append("           } finally {\n");
+            body.append("               guard.unlockShared();\n");
+            body.append("           }\n");
+            body.append("       }\n\n");
+        }
+        body.append("       @Override\n");
+        body.append("       public void close() {\n");
+        body.append("           if (closed) {\n");
+        body.append("               return;\n");
+        body.append("           }\n");
+        body.append("           closed = true;\n");
+        body.append("           try {\n");
+        body.append("               dataIn.close();\n");
+        body.append("           } catch (IOException e) {\n");
+        body.append("               // Nothing was written through this handle, so a failed close loses no data.\n");
+        body.append("           }\n");
+        if (appendLog) {
+            body.append("           if (guarded) {\n");
+            body.append("               guard.closeCursor();\n");
+            body.append("           }\n");
+        }
+        body.append("       }\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendLegacyMethods(StringBuilder body) {
+        String dtoClassName = this.className + DTO_SUFFIX;
+        body.append("   private boolean isLegacyFile() throws IOException {\n");
+        body.append("       try (InputStream in = new FileInputStream(dbFile)) {\n");
+        body.append("           int firstByte = in.read();\n");
+        body.append("           this.checkFormat(firstByte);\n");
+        body.append("           return firstByte == LEGACY_STREAM_MAGIC;\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private void checkFormat(int firstByte) throws IOException {\n");
+        if (!this.columns.isEmpty()) {
+            body.append("       if (firstByte != LEGACY_STREAM_MAGIC && firstByte != COLUMNAR_MAGIC >>> 24) {\n");
+            body.append("           throw new IOException(dbFile + \" is not columnar\");\n");
+        } else if (this.compressed) {
+            body.append("       // A block compressed file starts with the length of its first block, whose top byte is always 0.\n");
+            body.append("       if (firstByte > 0 && firstByte != LEGACY_STREAM_MAGIC) {\n");
+            body.append("           throw new IOException(dbFile + \" is not block compressed\");\n");
+        } else {
+            body.append("       // A block compressed file starts with the length of its first block, whose top byte is always 0.\n");
+            body.append("       if (firstByte == 0) {\n");
+            body.append("           throw new IOException(dbFile + \" is block compressed\");\n");
+        }
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private Map<Object, ").append(this.className)
+                .append("> replayLegacy(InputStream in) throws IOException {\n");
+        body.append("       Map<Object, ").append(this.className).append("> records = new LinkedHashMap<>();\n");
+        body.append("       try (ObjectInputStream objectIn = new ObjectInputStream(in)) {\n");
+        body.append("           while(true) {\n");
+        body.append("               try {\n");
+        body.append("                   ").append(this.className).append(" ").append(variableName)
+                .append(" = convert").append(dtoClassName).append("To").append(this.className).append("((")
+                .append(dtoClassName).append(") objectIn.readObject());\n");
+        body.append("                   records.put(keyOf(").append(variableName).append("), ").append(variableName)
+                .append(");\n");
+        body.append("               } catch (EOFException eof) {\n");
+        body.append("                   break;\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("       } catch (ClassNotFoundException e) {\n");
+        body.append("           throw new IOException(e);\n");
+        body.append("       }\n");
+        body.append("       return records;\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendKeyLookupMethods(StringBuilder body, StringBuilder throwsExceptionString,
+                                        List<VariableElement> fields, List<VariableElement> uniqueKeyFields,
+                                        StorageMode storage) {
+        String keyParameters = keyParameters(uniqueKeyFields);
+        String keyArguments = keyArguments(uniqueKeyFields);
+        body.append("   @Override\n");
+        body.append("   public Optional<").append(this.className).append("> findByKey(").append(keyParameters)
+                .append(") throws ").append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginRead();\n");
+        body.append("       try {\n");
+        if (storage == StorageMode.FIXED_SLOT) {
+            body.append("           Integer slot = index.get(keyOf(").append(keyArguments).append("));\n");
+            body.append("           return slot == null ? Optional.empty() : Optional.of(").append(this.className)
+                    .append("Codec.readSlot(buffer, offsetOf(slot)));\n");
+        } else if (this.offsetTable) {
+            body.append("           long offset = index.get(keyOf(").append(keyArguments).append("));\n");
+            body.append("           return offset < 0 ? Optional.empty() : Optional.of(this.readRecord(offset));\n");
+        } else if (storage == StorageMode.APPEND_LOG) {
+            body.append("           Long offset = index.get(keyOf(").append(keyArguments).append("));\n");
+            body.append("           return offset == null ? Optional.empty() : Optional.of(this.readRecord(offset));\n");
+        } else {
+            body.append("           ").append(this.className).append(" ").append(variableName)
+                    .append(" = index.get(keyOf(").append(keyArguments).append("));\n");
+            body.append("           return ").append(variableName)
+                    .append(" == null ? Optional.empty() : Optional.of(copyOf(").append(variableName).append("));\n");
+        }
+        body.append("       } finally {\n");
+        body.append("           this.endRead();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public boolean existsByKey(").append(keyParameters).append(") throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginRead();\n");
+        body.append("       try {\n");
+        body.append("           return index.containsKey(keyOf(").append(keyArguments).append("));\n");
+        body.append("       } finally {\n");
+        body.append("           this.endRead();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        String keyType = this.offsetTable ? "long" : "Object";
+        body.append("   private static ").append(keyType).append(" keyOf(").append(this.className).append(" ")
+                .append(variableName).append(") {\n");
+        body.append("       return keyOf(");
+        for (int i=0; i < uniqueKeyFields.size(); i++) {
+            body.append(variableName).append(".").append(getterName(uniqueKeyFields.get(i))).append("()");
+            if (i != uniqueKeyFields.size() - 1) {
+                body.append(", ");
+            }
+        }
+        body.append(");\n");
+        body.append("   }\n\n");
+
+        body.append("   private static ").append(keyType).append(" keyOf(").append(keyParameters).append(") {\n");
+        if (uniqueKeyFields.size() == 1) {
+            body.append("       return ").append(keyArguments).append(";\n");
+        } else {
+            body.append("       return Arrays.asList(").append(keyArguments).append(");\n");
+        }
+        body.append("   }\n\n");
+
+        if (storage != StorageMode.REWRITE && storage != StorageMode.COLUMNAR && !this.snapshot) {
+            return;
+        }
+        body.append("   private static ").append(this.className).append(" copyOf(").append(this.className).append(" ")
+                .append(variableName).append(") {\n");
+        body.append("       ").append(this.className).append(" copy = new ").append(this.className).append("();\n");
+        for (VariableElement field : uniqueKeyFields) {
+            body.append("       copy.").append(setterName(field)).append("(").append(variableName).append(".")
+                    .append(getterName(field)).append("());\n");
+        }
+        for (VariableElement field : fields) {
+            body.append("       copy.").append(setterName(field)).append("(").append(variableName).append(".")
+                    .append(getterName(field)).append("());\n");
+        }
+        body.append("       return copy;\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendLockMethods(StringBuilder body, StorageMode storage) {
+        boolean appendLog = storage == StorageMode.APPEND_LOG;
+        body.append("   private void beginRead() throws ").append(this.className).append("ServiceException {\n");
+        if (appendLog) {
+            body.append("       if (!upgraded) {\n");
+            body.append("           // A legacy file has to be converted under the exclusive lock before it can be indexed by offset.\n");
+            body.append("           this.beginWrite();\n");
+            body.append("           this.endWrite();\n");
+            body.append("       }\n");
+        }
+        body.append("       try {\n");
+        body.append("           long generation = guard.lockShared();\n");
+        body.append("           try {\n");
+        body.append("               this.loadIndex(generation);\n");
+        body.append("           } catch (IOException | RuntimeException e) {\n");
+        body.append("               guard.unlockShared();\n");
+        body.append("               throw e;\n");
+        body.append("           }\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error occurred: \" + e);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private void endRead() {\n");
+        body.append("       guard.unlockShared();\n");
+        body.append("   }\n\n");
+
+        body.append("   private void beginWrite() throws ").append(this.className).append("ServiceException {\n");
+        body.append("       try {\n");
+        body.append("           long generation = guard.lockExclusive();\n");
+        body.append("           try {\n");
+        body.append("               this.loadIndex(generation);\n");
+        body.append("           } catch (IOException | RuntimeException e) {\n");
+        body.append("               guard.unlockExclusive();\n");
+        body.append("               throw e;\n");
+        body.append("           }\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error occurred: \" + e);\n");
+        body.append("       }\n");
+        if (appendLog) {
+            body.append("       upgraded = true;\n");
+        }
+        body.append("   }\n\n");
+
+        body.append("   private void endWrite() {\n");
+        body.append("       guard.unlockExclusive();\n");
+        body.append("   }\n\n");
+
+        body.append("   private void markModified() throws ").append(this.className).append("ServiceException {\n");
+        body.append("       try {\n");
+        body.append("           loadedGeneration = guard.advance();\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error, please try again!\" + e);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private static final class FileGuard {\n");
+        body.append("       private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();\n");
+        body.append("       private final ReentrantLock holders = new ReentrantLock();\n");
+        body.append("       private final Path lockFile;\n");
+        body.append("       private FileChannel channel;\n");
+        body.append("       private FileLock dataLock;\n");
+        body.append("       private int sharedHolders;\n");
+        if (appendLog) {
+            body.append("       private FileLock cursorLock;\n");
+            body.append("       private int cursorHolders;\n");
+        }
+        body.append("\n");
+
+        body.append("       private FileGuard(String dbPath) {\n");
+        body.append("           this.lockFile = Path.of(dbPath + \".lock\");\n");
+        body.append("       }\n\n");
+
+        body.append("       private long lockShared() throws IOException {\n");
+        body.append("           lock.readLock().lock();\n");
+        body.append("           try {\n");
+        body.append("               holders.lock();\n");
+        body.append("               try {\n");
+        body.append("                   if (sharedHolders == 0) {\n");
+        body.append("                       dataLock = this.channel().lock(DATA_LOCK_POSITION, 1, true);\n");
+        body.append("                   }\n");
+        body.append("                   sharedHolders++;\n");
+        body.append("               } finally {\n");
+        body.append("                   holders.unlock();\n");
+        body.append("               }\n");
+        body.append("           } catch (IOException | RuntimeException e) {\n");
+        body.append("               lock.readLock().unlock();\n");
+        body.append("               throw e;\n");
+        body.append("           }\n");
+        body.append("           try {\n");
+        body.append("               return this.generation();\n");
+        body.append("           } catch (IOException | RuntimeException e) {\n");
+        body.append("               this.unlockShared();\n");
+        body.append("               throw e;\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+
+        body.append("       private void unlockShared() {\n");
+        body.append("           holders.lock();\n");
+        body.append("           try {\n");
+        body.append("               if (--sharedHolders == 0) {\n");
+        body.append("                   release(dataLock);\n");
+        body.append("               }\n");
+        body.append("           } finally {\n");
+        body.append("               holders.unlock();\n");
+        body.append("           }\n");
+        body.append("           lock.readLock().unlock();\n");
+        body.append("       }\n\n");
+
+        body.append("       private long lockExclusive() throws IOException {\n");
+        body.append("           lock.writeLock().lock();\n");
+        body.append("           try {\n");
+        body.append("               dataLock = this.channel().lock(DATA_LOCK_POSITION, 1, false);\n");
+        body.append("               return this.generation();\n");
+        body.append("           } catch (IOException | RuntimeException e) {\n");
+        body.append("               this.unlockExclusive();\n");
+        body.append("               throw e;\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+
+        body.append("       private void unlockExclusive() {\n");
+        body.append("           release(dataLock);\n");
+        body.append("           dataLock = null;\n");
+        body.append("           lock.writeLock().unlock();\n");
+        body.append("       }\n\n");
+        if (appendLog) {
+            body.append("       private void openCursor() throws IOException {\n");
+            body.append("           holders.lock();\n");
+            body.append("           try {\n");
+            body.append("               if (cursorHolders == 0) {\n");
+            body.append("                   cursorLock = this.channel().lock(CURSOR_LOCK_POSITION, 1, true);\n");
+            body.append("               }\n");
+            body.append("               cursorHolders++;\n");
+            body.append("           } finally {\n");
+            body.append("               holders.unlock();\n");
+            body.append("           }\n");
+            body.append("       }\n\n");
+
+            body.append("       private void closeCursor() {\n");
+            body.append("           holders.lock();\n");
+            body.append("           try {\n");
+            body.append("               if (--cursorHolders == 0) {\n");
+            body.append("                   release(cursorLock);\n");
+            body.append("               }\n");
+            body.append("           } finally {\n");
+            body.append("               holders.unlock();\n");
+            body.append("           }\n");
+            body.append("       }\n\n");
+
+            body.append("       private FileLock tryLockCursors() throws IOException {\n");
+            body.append("           holders.lock();\n");
+            body.append("           try {\n");
+            body.append("               return cursorHolders > 0 ? null : this.channel().tryLock(CURSOR_LOCK_POSITION, 1, false);\n");
+            body.append("           } finally {\n");
+            body.append("               holders.unlock();\n");
+            body.append("           }\n");
+            body.append("       }\n\n");
+        }
+        body.append("       private long generation() throws IOException {\n");
+        body.append("           ByteBuffer counter = ByteBuffer.allocate(Long.BYTES);\n");
+        body.append("           this.channel().read(counter, 0);\n");
+        body.append("           return counter.position() == Long.BYTES ? counter.getLong(0) : 0;\n");
+        body.append("       }\n\n");
+
+        body.append("       private long advance() throws IOException {\n");
+        body.append("           long generation = this.generation() + 1;\n");
+        body.append("           this.channel().write(ByteBuffer.allocate(Long.BYTES).putLong(0, generation), 0);\n");
+        body.append("           return generation;\n");
+        body.append("       }\n\n");
+
+        body.append("       private FileChannel channel() throws IOException {\n");
+        body.append("           holders.lock();\n");
+        body.append("           try {\n");
+        body.append("               if (channel == null || !channel.isOpen()) {\n");
+        body.append("                   channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ,\n");
+        body.append("                           StandardOpenOption.WRITE);\n");
+        body.append("               }\n");
+        body.append("               return channel;\n");
+        body.append("           } finally {\n");
+        body.append("               holders.unlock();\n");
+        body.append("           }\n");
+        body.append("       }\n\n");
+
+        body.append("       private static void release(FileLock fileLock) {\n");
+        body.append("           if (fileLock == null) {\n");
+        body.append("               return;\n");
+        body.append("           }\n");
+        body.append("           try {\n");
+        body.append("               fileLock.release();\n");
+        body.append("           } catch (IOException e) {\n");
+        body.append("               // The lock is dropped with its channel anyway, there is nothing left to undo.\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendDurabilityMethods(StringBuilder body, StorageMode storage) {
+        if (this.durability == Durability.OS) {
+            return;
+        }
+        boolean fixedSlot = storage == StorageMode.FIXED_SLOT;
+        if (!fixedSlot) {
+            body.append("   private void forceDirectory() {\n");
+            body.append("       try (FileChannel directory = FileChannel.open(new File(dbFile).getAbsoluteFile().getParentFile().toPath(),\n");
+            body.append("               StandardOpenOption.READ)) {\n");
+            body.append("           directory.force(true);\n");
+            body.append("       } catch (IOException e) {\n");
+            body.append("           // Not every platform can sync a directory, the file contents themselves are already on disk.\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+        }
+        if (this.durability != Durability.GROUP) {
+            return;
+        }
+        body.append("   private void committed() throws ").append(this.className).append("ServiceException {\n");
+        body.append("       if (unsyncedCommits.incrementAndGet() >= GROUP_COMMIT_OPS) {\n");
+        body.append("           unsyncedCommits.set(0);\n");
+        body.append("           try {\n");
+        body.append("               this.sync();\n");
+        body.append("           } catch (IOException e) {\n");
+        body.append("               throw new ").append(this.className)
+                .append("ServiceException(\"Internal service error, please try again!\" + e);\n");
+        body.append("           }\n");
+        body.append("       } else if (syncScheduled.compareAndSet(false, true)) {\n");
+        body.append("           SYNCER.schedule(this::groupSync, GROUP_COMMIT_MILLIS, TimeUnit.MILLISECONDS);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private void groupSync() {\n");
+        body.append("       syncScheduled.set(false);\n");
+        body.append("       int pending = unsyncedCommits.getAndSet(0);\n");
+        body.append("       if (pending == 0) {\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       try {\n");
+        body.append("           guard.lockShared();\n");
+        body.append("           try {\n");
+        body.append("               this.sync();\n");
+        body.append("           } finally {\n");
+        body.append("               guard.unlockShared();\n");
+        body.append("           }\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           // Leave the commits pending, the next commit schedules another attempt.\n");
+        body.append("           unsyncedCommits.addAndGet(pending);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private void sync() throws IOException {\n");
+        if (fixedSlot) {
+            body.append("       buffer.force();\n");
+        } else {
+            if (storage == StorageMode.APPEND_LOG) {
+                body.append("       try (FileChannel channel = FileChannel.open(Path.of(dbFile), StandardOpenOption.WRITE)) {\n");
+                body.append("           channel.force(false);\n");
+                body.append("       }\n");
+                if (this.offsetTable) {
+                    body.append("       if (index != null) {\n");
+                    body.append("           index.force();\n");
+                    body.append("       }\n");
+                }
+            }
+            body.append("       this.forceDirectory();\n");
+        }
+        body.append("   }\n\n");
+    }
+
+    private void appendSnapshotMethods(StringBuilder body, StringBuilder throwsExceptionString, StorageMode storage) {
+        boolean appendLog = storage == StorageMode.APPEND_LOG;
+        body.append("   @Override\n");
+        body.append("   public Stream<").append(this.className).append("> stream() throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginRead();\n");
+        body.append("       try {\n");
+        body.append("           return this.snapshot().stream().map(").append(this.className)
+                .append("DaoPartition::copyOf);\n");
+        if (appendLog) {
+            body.append("       } catch (IOException | UncheckedIOException e) {\n");
+            body.append("           throw new ").append(this.className)
+                    .append("ServiceException(\"Internal service error occurred: \" + e);\n");
+        }
+        body.append("       } finally {\n");
+        body.append("           this.endRead();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        appendStateLocked(body, "List<" + this.className + "> snapshot()" + (appendLog ? " throws IOException" : ""),
+                "return this.snapshotLocked();");
+        body.append("   private List<").append(this.className).append("> snapshotLocked()")
+                .append(appendLog ? " throws IOException" : "").append(" {\n");
+        body.append("       // Writes and reloads drop the snapshot, so it is rebuilt at most once per change of the file.\n");
+        body.append("       if (snapshot == null) {\n");
+        if (appendLog) {
+            body.append("           List<").append(this.className).append("> ").append(variableName)
+                    .append("s = new ArrayList<>();\n");
+            body.append("           if (logLength > 0) {\n");
+            body.append("               try (Cursor cursor = new Cursor(false)) {\n");
+            body.append("                   cursor.forEachRemaining(").append(variableName).append("s::add);\n");
+            body.append("               }\n");
+            body.append("           }\n");
+            body.append("           snapshot = ").append(variableName).append("s;\n");
+        } else {
+            body.append("           snapshot = new ArrayList<>(index.values());\n");
+        }
+        body.append("       }\n");
+        body.append("       return snapshot;\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendStateLocked(StringBuilder body, String signature, String statement) {
+        body.append("   private ").append(signature).append(" {\n");
+        body.append("       stateLock.lock();\n");
+        body.append("       try {\n");
+        body.append("           ").append(statement).append("\n");
+        body.append("       } finally {\n");
+        body.append("           stateLock.unlock();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+    }
+
+    private void appendKeyOrder(StringBuilder body, List<VariableElement> uniqueKeyFields) {
+        body.append("   private static final Comparator<Object> KEY_ORDER = Comparator\n");
+        for (int i = 0; i < uniqueKeyFields.size(); i++) {
+            String keyType = this.offsetTable ? "Long" : boxedType(uniqueKeyFields.get(i));
+            String keyPart = uniqueKeyFields.size() == 1 ? "key" : "((List<?>) key).get(" + i + ")";
+            body.append("           .").append(i == 0 ? "comparing((Object key) -> (" : "thenComparing(key -> (")
+                    .append(keyType).append(") ").append(keyPart)
+                    .append(", Comparator.nullsFirst(Comparator.naturalOrder()))");
+            body.append(i == uniqueKeyFields.size() - 1 ? ";\n" : "\n");
+        }
+    }
+
+    private void appendKeyRangeMethods(StringBuilder body, StringBuilder throwsExceptionString,
+                                       List<VariableElement> uniqueKeyFields, StorageMode storage) {
+        body.append("   @Override\n");
+        body.append("   public List<").append(this.className).append("> findByKeyRange(")
+                .append(keyParameters(uniqueKeyFields, "from")).append(", ")
+                .append(keyParameters(uniqueKeyFields, "to")).append(") throws ").append(throwsExceptionString)
+                .append(" {\n");
+        body.append("       this.beginRead();\n");
+        body.append("       try {\n");
+        body.append("           Object lowerBound = keyOf(").append(keyArguments(uniqueKeyFields, "from")).append(");\n");
+        body.append("           Object upperBound = keyOf(").append(keyArguments(uniqueKeyFields, "to")).append(");\n");
+        body.append("           if (KEY_ORDER.compare(lowerBound, upperBound) > 0) {\n");
+        body.append("               return new ArrayList<>();\n");
+        body.append("           }\n");
+        body.append("           return this.readKeys(this.sortedKeys().subSet(lowerBound, true, upperBound, true), Integer.MAX_VALUE);\n");
+        body.append("       } finally {\n");
+        body.append("           this.endRead();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public List<").append(this.className).append("> page(int limit) throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginRead();\n");
+        body.append("       try {\n");
+        body.append("           return this.readKeys(this.sortedKeys(), limit);\n");
+        body.append("       } finally {\n");
+        body.append("           this.endRead();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   @Override\n");
+        body.append("   public List<").append(this.className).append("> page(")
+                .append(keyParameters(uniqueKeyFields, "after")).append(", int limit) throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       this.beginRead();\n");
+        body.append("       try {\n");
+        body.append("           return this.readKeys(this.sortedKeys().tailSet(keyOf(")
+                .append(keyArguments(uniqueKeyFields, "after")).append("), false), limit);\n");
+        body.append("       } finally {\n");
+        body.append("           this.endRead();\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        appendStateLocked(body, "NavigableSet<Object> sortedKeys()", "return this.sortedKeysLocked();");
+        body.append("   private NavigableSet<Object> sortedKeysLocked() {\n");
+        body.append("       if (sortedKeys == null) {\n");
+        body.append("           NavigableSet<Object> keys = new TreeSet<>(KEY_ORDER);\n");
+        if (this.offsetTable) {
+            body.append("           for (long key : index.keys()) {\n");
+            body.append("               keys.add(key);\n");
+            body.append("           }\n");
+        } else {
+            body.append("           keys.addAll(index.keySet());\n");
+        }
+        body.append("           sortedKeys = keys;\n");
+        body.append("       }\n");
+        body.append("       return sortedKeys;\n");
+        body.append("   }\n\n");
+
+        body.append("   private List<").append(this.className).append("> readKeys(Set<Object> keys, int limit) throws ")
+                .append(throwsExceptionString).append(" {\n");
+        body.append("       if (limit < 0) {\n");
+        body.append("           throw new ").append(this.className)
+                .append("RequestException(\"limit must not be negative: \" + limit);\n");
+        body.append("       }\n");
+        body.append("       List<").append(this.className).append("> ").append(variableName)
+                .append("s = new ArrayList<>();\n");
+        body.append("       for (Object key : keys) {\n");
+        body.append("           if (").append(variableName).append("s.size() == limit) {\n");
+        body.append("               break;\n");
+        body.append("           }\n");
+        body.append("           ").append(variableName).append("s.add(").append(recordByKey(storage, "key"))
+                .append(");\n");
+        body.append("       }\n");
+        body.append("       return ").append(variableName).append("s;\n");
+        body.append("   }\n\n");
+
+        body.append("   private void updateSortedKeys(boolean put, Collection<? extends ").append(this.className)
+                .append("> ").append(variableName).append("s) {\n");
+        body.append("       if (sortedKeys == null) {\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                .append(variableName).append("s) {\n");
+        body.append("           if (put) {\n");
+        body.append("               sortedKeys.add(keyOf(").append(variableName).append("));\n");
+        body.append("           } else {\n");
+        body.append("               sortedKeys.remove(keyOf(").append(variableName).append("));\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        // The reloaded index usually differs in a few keys, so only those are applied to the set instead of sorting
+        // every key again.
+        if (this.offsetTable) {
+            body.append("   private void reconcileSortedKeys(OffsetTable previous, long previousLogLength) {\n");
+            body.append("       if (sortedKeys == null) {\n");
+            body.append("           return;\n");
+            body.append("       }\n");
+            body.append("       if (previous == null || previous.tableId() != index.tableId()) {\n");
+            body.append("           // Compaction renumbered the offsets, or the index was dropped, so the set is sorted again on first use.\n");
+            body.append("           sortedKeys = null;\n");
+            body.append("           return;\n");
+            body.append("       }\n");
+            body.append("       // The log was only appended to since the last load, so every key written since sits past its old end.\n");
+            body.append("       for (long key : index.keysSince(previousLogLength)) {\n");
+            body.append("           sortedKeys.add(key);\n");
+            body.append("       }\n");
+            body.append("       if (sortedKeys.size() > index.size()) {\n");
+            body.append("           // A deleted key leaves no trace in the table, so only a delete pays for a pass over the set.\n");
+            body.append("           sortedKeys.removeIf(key -> !index.containsKey((Long) key));\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+        } else {
+            body.append("   private void reconcileSortedKeys(Map<Object, ?> previous) {\n");
+            body.append("       if (sortedKeys == null) {\n");
+            body.append("           return;\n");
+            body.append("       }\n");
+            body.append("       if (previous == null) {\n");
+            body.append("           // A failed write dropped the index, so the set is sorted again on first use.\n");
+            body.append("           sortedKeys = null;\n");
+            body.append("           return;\n");
+            body.append("       }\n");
+            body.append("       for (Object key : previous.keySet()) {\n");
+            body.append("           if (!index.containsKey(key)) {\n");
+            body.append("               sortedKeys.remove(key);\n");
+            body.append("           }\n");
+            body.append("       }\n");
+            body.append("       for (Object key : index.keySet()) {\n");
+            body.append("           if (!previous.containsKey(key)) {\n");
+            body.append("               sortedKeys.add(key);\n");
+            body.append("           }\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+        }
+    }
+
+    private String recordByKey(StorageMode storage, String key) {
+        if (storage == StorageMode.FIXED_SLOT) {
+            return this.className + "Codec.readSlot(buffer, offsetOf(index.get(" + key + ")))";
+        } else if (storage == StorageMode.APPEND_LOG) {
+            return "this.readRecord(index.get(" + (this.offsetTable ? "(long) " : "") + key + "))";
+        }
+        return "copyOf(index.get(" + key + "))";
+    }
+
+    private void appendSecondaryIndexMethods(StringBuilder body, StringBuilder throwsExceptionString,
+                                             List<VariableElement> uniqueKeyFields, StorageMode storage) {
+        String codecClassName = this.className + "Codec";
+        for (VariableElement field : this.indexedFields) {
+            String fieldName = field.getSimpleName().toString();
+            body.append("   @Override\n");
+            body.append("   public List<").append(this.className).append("> findBy")
+                    .append(StringUtil.capitalizeFirstLetter(fieldName)).append("(").append(field.asType().toString())
+                    .append(" ").append(fieldName).append(") throws ").append(throwsExceptionString).append(" {\n");
+            body.append("       this.beginRead();\n");
+            body.append("       try {\n");
+            body.append("           List<").append(this.className).append("> ").append(variableName)
+                    .append("s = new ArrayList<>();\n");
+            body.append("           for (Object key : ").append(fieldName).append("Index.getOrDefault(").append(fieldName)
+                    .append(", Set.of())) {\n");
+            body.append("               ").append(variableName).append("s.add(").append(recordByKey(storage, "key"))
+                    .append(");\n");
+            body.append("           }\n");
+            body.append("           return ").append(variableName).append("s;\n");
+            body.append("       } finally {\n");
+            body.append("           this.endRead();\n");
+            body.append("       }\n");
+            body.append("   }\n\n");
+        }
+        body.append("   private void loadSecondaryIndexes() throws IOException {\n");
+        body.append("       this.clearSecondaryIndexes();\n");
+        body.append("       secondaryFileCurrent = this.readSecondaryIndexes();\n");
+        body.append("       if (secondaryFileCurrent) {\n");
+        body.append("           return;\n");
+        body.append("       }\n");
+        body.append("       // The index file is missing or older than the data file, the next write replaces it.\n");
+        body.append("       this.clearSecondaryIndexes();\n");
+        if (storage == StorageMode.FIXED_SLOT) {
+            body.append("       for (int slot : index.values()) {\n");
+            body.append("           this.indexPut(projectionOf(").append(codecClassName)
+                    .append(".readSlot(buffer, offsetOf(slot))));\n");
+            body.append("       }\n");
+        } else if (storage == StorageMode.APPEND_LOG) {
+            body.append("       if (!this.dbExist()) {\n");
+            body.append("           return;\n");
+            body.append("       }\n");
+            body.append("       try (Cursor cursor = new Cursor(false)) {\n");
+            body.append("           while (cursor.hasNext()) {\n");
+            body.append("               this.indexPut(projectionOf(cursor.next()));\n");
+            body.append("           }\n");
+            body.append("       }\n");
+        } else {
+            body.append("       for (").append(this.className).append(" ").append(variableName)
+                    .append(" : index.values()) {\n");
+            body.append("           this.indexPut(projectionOf(").append(variableName).append("));\n");
+            body.append("       }\n");
+        }
+        body.append("   }\n\n");
+
+        body.append("   private boolean readSecondaryIndexes() throws IOException {\n");
+        body.append("       File file = new File(dbFile + \".idx\");\n");
+        body.append("       if (!file.exists()) {\n");
+        body.append("           return false;\n");
+        body.append("       }\n");
+        body.append("       try (DataInputStream dataIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {\n");
+        body.append("           if (dataIn.readInt() != INDEX_MAGIC || dataIn.readLong() != loadedGeneration) {\n");
+        body.append("               return false;\n");
+        body.append("           }\n");
+        body.append("           long entries = dataIn.readLong();\n");
+        body.append("           if (dataIn.readInt() != INDEX_LAYOUT) {\n");
+        body.append("               return false;\n");
+        body.append("           }\n");
+        body.append("           for (long entry = 0; entry < entries; entry++) {\n");
+        body.append("               byte op = dataIn.readByte();\n");
+        body.append("               if (op == INDEX_PUT) {\n");
+        body.append("                   this.indexPut(").append(codecClassName).append(".readIndexedFrom(dataIn));\n");
+        body.append("               } else if (op == INDEX_DELETE) {\n");
+        body.append("                   this.indexRemove(keyOf(").append(codecClassName)
+                .append(".readKeyFrom(dataIn)));\n");
+        body.append("               } else {\n");
+        body.append("                   return false;\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           secondaryEntries = entries;\n");
+        body.append("           return true;\n");
+        body.append("       } catch (EOFException e) {\n");
+        body.append("           return false;\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private void updateSecondaryIndexes(boolean put, Collection<? extends ")
+                .append(this.className).append("> ").append(variableName).append("s) {\n");
+        body.append("       for (").append(this.className).append(" ").append(variableName).append(" : ")
+                .append(variableName).append("s) {\n");
+        body.append("           if (put) {\n");
+        body.append("               this.indexPut(projectionOf(").append(variableName).append("));\n");
+        body.append("           } else {\n");
+        body.append("               this.indexRemove(keyOf(").append(variableName).append("));\n");
+        body.append("           }\n");
+        body.append("       }\n");
+        body.append("       try {\n");
+        body.append("           if (secondaryFileCurrent && secondaryEntries <= 2L * indexedRecords.size() + INDEX_SLACK) {\n");
+        body.append("               this.appendSecondaryEntries(put, ").append(variableName).append("s);\n");
+        body.append("           } else {\n");
+        body.append("               this.writeSecondaryIndexes();\n");
+        body.append("           }\n");
+        body.append("       } catch (IOException e) {\n");
+        body.append("           // The data file is already committed, an index file left behind stays stale and gets rebuilt on load.\n");
+        body.append("           secondaryFileCurrent = false;\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private void appendSecondaryEntries(boolean put, Collection<? extends ")
+                .append(this.className).append("> ").append(variableName).append("s) throws IOException {\n");
+        body.append("       secondaryFileCurrent = false;\n");
+        body.append("       try (FileChannel channel = FileChannel.open(Path.of(dbFile + \".idx\"), StandardOpenOption.WRITE)) {\n");
+        body.append("           channel.position(channel.size());\n");
+        body.append("           DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));\n");
+        body.append("           for (").append(this.className).append(" ").append(variableName).append(" : ")
+                .append(variableName).append("s) {\n");
+        body.append("               if (put) {\n");
+        body.append("                   dataOut.writeByte(INDEX_PUT);\n");
+        body.append("                   ").append(codecClassName).append(".writeIndexedTo(").append(variableName)
+                .append(", dataOut);\n");
+        body.append("               } else {\n");
+        body.append("                   dataOut.writeByte(INDEX_DELETE);\n");
+        body.append("                   ").append(codecClassName).append(".writeKeyTo(").append(variableName)
+                .append(", dataOut);\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           dataOut.flush();\n");
+        body.append("           channel.write(ByteBuffer.allocate(16).putLong(loadedGeneration).putLong(secondaryEntries + ")
+                .append(variableName).append("s.size()).flip(), 4);\n");
+        body.append("       }\n");
+        body.append("       secondaryEntries += ").append(variableName).append("s.size();\n");
+        body.append("       secondaryFileCurrent = true;\n");
+        body.append("   }\n\n");
+
+        body.append("   private void writeSecondaryIndexes() throws IOException {\n");
+        body.append("       secondaryFileCurrent = false;\n");
+        body.append("       File staged = new File(dbFile + \".idx.tmp\");\n");
+        body.append("       try {\n");
+        body.append("           try (DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(staged)))) {\n");
+        body.append("               dataOut.writeInt(INDEX_MAGIC);\n");
+        body.append("               dataOut.writeLong(loadedGeneration);\n");
+        body.append("               dataOut.writeLong(indexedRecords.size());\n");
+        body.append("               dataOut.writeInt(INDEX_LAYOUT);\n");
+        body.append("               for (").append(this.className)
+                .append(" projection : indexedRecords.values()) {\n");
+        body.append("                   dataOut.writeByte(INDEX_PUT);\n");
+        body.append("                   ").append(codecClassName).append(".writeIndexedTo(projection, dataOut);\n");
+        body.append("               }\n");
+        body.append("           }\n");
+        body.append("           Files.move(staged.toPath(), Path.of(dbFile + \".idx\"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);\n");
+        body.append("       } finally {\n");
+        body.append("           staged.delete();\n");
+        body.append("       }\n");
+        body.append("       secondaryEntries = indexedRecords.size();\n");
+        body.append("       secondaryFileCurrent = true;\n");
+        body.append("   }\n\n");
+
+        body.append("   private void clearSecondaryIndexes() {\n");
+        body.append("       indexedRecords = new HashMap<>();\n");
+        for (VariableElement field : this.indexedFields) {
+            body.append("       ").append(field.getSimpleName()).append("Index = new HashMap<>();\n");
+        }
+        body.append("       secondaryEntries = 0;\n");
+        body.append("   }\n\n");
+
+        body.append("   private void indexPut(").append(this.className).append(" projection) {\n");
+        body.append("       Object key = keyOf(projection);\n");
+        body.append("       this.indexRemove(key);\n");
+        body.append("       indexedRecords.put(key, projection);\n");
+        for (VariableElement field : this.indexedFields) {
+            body.append("       ").append(field.getSimpleName()).append("Index.computeIfAbsent(projection.")
+                    .append(getterName(field)).append("(), value -> new HashSet<>()).add(key);\n");
+        }
+        body.append("   }\n\n");
+
+        body.append("   private void indexRemove(Object key) {\n");
+        body.append("       ").append(this.className).append(" previous = indexedRecords.remove(key);\n");
+        body.append("       if (previous != null) {\n");
+        for (VariableElement field : this.indexedFields) {
+            body.append("           unindex(").append(field.getSimpleName()).append("Index, previous.")
+                    .append(getterName(field)).append("(), key);\n");
+        }
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private static void unindex(Map<Object, Set<Object>> fieldIndex, Object value, Object key) {\n");
+        body.append("       Set<Object> keys = fieldIndex.get(value);\n");
+        body.append("       keys.remove(key);\n");
+        body.append("       if (keys.isEmpty()) {\n");
+        body.append("           fieldIndex.remove(value);\n");
+        body.append("       }\n");
+        body.append("   }\n\n");
+
+        body.append("   private static ").append(this.className).append(" projectionOf(").append(this.className)
+                .append(" ").append(variableName).append(") {\n");
+        body.append("       ").append(this.className).append(" projection = new ").append(this.className)
+                .append("();\n");
+        List<VariableElement> projectedFields = new ArrayList<>(uniqueKeyFields);
+        projectedFields.addAll(this.indexedFields);
+        for (VariableElement field : projectedFields) {
+            body.append("       projection.").append(setterName(field)).append("(").append(variableName).append(".")
+                    .append(getterName(field)).append("());\n");
+        }
+        body.append("       return projection;\n");
+        body.append("   }\n\n");
+    }
+
+
+    /**
+     * Keeps the index a loader is about to replace, so {@link #appendIndexLoad} can patch the sorted key view with
+     * the difference.
+     */
+    private void appendPreviousIndex(StringBuilder body, String indentation) {
+        if (!this.keyRanges) {
+            return;
+        }
+        if (this.offsetTable) {
+            body.append(indentation).append("OffsetTable previous = index;\n");
+            body.append(indentation).append("long previousLogLength = logLength;\n");
+        } else {
+            body.append(indentation).append("Map<Object, ?> previous = index;\n");
+        }
+    }
+
+    private void appendIndexLoad(StringBuilder body, String indentation) {
+        if (this.keyRanges) {
+            body.append(indentation).append(this.offsetTable
+                    ? "this.reconcileSortedKeys(previous, previousLogLength);\n" : "this.reconcileSortedKeys(previous);\n");
+        }
+        if (this.snapshot) {
+            body.append(indentation).append("snapshot = null;\n");
+        }
+        if (!this.indexedFields.isEmpty()) {
+            body.append(indentation).append("this.loadSecondaryIndexes();\n");
+        }
+    }
+
+    private void appendIndexUpdate(StringBuilder body, String indentation, String put, String items) {
+        if (this.snapshot) {
+            body.append(indentation).append("snapshot = null;\n");
+        }
+        if (this.keyRanges) {
+            body.append(indentation).append("this.updateSortedKeys(").append(put).append(", ").append(items)
+                    .append(");\n");
+        }
+        if (!this.indexedFields.isEmpty()) {
+            body.append(indentation).append("this.updateSecondaryIndexes(").append(put).append(", ").append(items)
+                    .append(");\n");
+        }
+    }
+
+    private void appendCommit(StringBuilder body, String indentation, String syncStatement) {
+        if (this.durability == Durability.ALWAYS) {
+            body.append(indentation).append(syncStatement).append("\n");
+        } else if (this.durability == Durability.GROUP) {
+            body.append(indentation).append("this.committed();\n");
+        }
+    }
+
+    private String keyParameters(List<VariableElement> uniqueKeyFields) {
+        return keyParameters(uniqueKeyFields, "");
+    }
+
+    private String keyParameters(List<VariableElement> uniqueKeyFields, String prefix) {
+        StringBuilder parameters = new StringBuilder();
+        for (int i=0; i < uniqueKeyFields.size(); i++) {
+            parameters.append(uniqueKeyFields.get(i).asType().toString()).append(" ")
+                    .append(prefixedName(prefix, uniqueKeyFields.get(i)));
+            if (i != uniqueKeyFields.size() - 1) {
+                parameters.append(", ");
+            }
+        }
+        return parameters.toString();
+    }
+
+    private String keyArguments(List<VariableElement> uniqueKeyFields) {
+        return keyArguments(uniqueKeyFields, "");
+    }
+
+    private String keyArguments(List<VariableElement> uniqueKeyFields, String prefix) {
+        StringBuilder arguments = new StringBuilder();
+        for (int i=0; i < uniqueKeyFields.size(); i++) {
+            arguments.append(prefixedName(prefix, uniqueKeyFields.get(i)));
+            if (i != uniqueKeyFields.size() - 1) {
+                arguments.append(", ");
+            }
+        }
+        return arguments.toString();
+    }
+
+    private String prefixedName(String prefix, VariableElement field) {
+        String name = field.getSimpleName().toString();
+        return prefix.isEmpty() ? name : prefix + StringUtil.capitalizeFirstLetter(name);
+    }
+
+    private String getterName(VariableElement field) {
+        return "get" + StringUtil.capitalizeFirstLetter(field.getSimpleName().toString());
+    }
+
+    private String setterName(VariableElement field) {
+        return "set" + StringUtil.capitalizeFirstLetter(field.getSimpleName().toString());
+    }
+
+    private void writeSourceFile(String generatedClassName, StringBuilder body) {
+        try {
+            Writer writer = processingEnv.getFiler()
+                    .createSourceFile(this.packageName + "." + generatedClassName)
                     .openWriter();
             writer.write(body.toString());
             writer.close();
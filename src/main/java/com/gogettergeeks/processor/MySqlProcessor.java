@@ -1,5 +1,6 @@
 package com.gogettergeeks.processor;
 
+import com.gogettergeeks.annotation.Indexed;
 import com.gogettergeeks.annotation.MySqlGenerated;
 import com.gogettergeeks.annotation.Persisted;
 import com.gogettergeeks.annotation.UniqueKey;
@@ -13,6 +14,8 @@ import com.squareup.javapoet.ParameterSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.RoundEnvironment;
@@ -24,26 +27,72 @@ import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.Modifier;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
+import javax.sql.DataSource;
+import javax.tools.Diagnostic;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @SupportedAnnotationTypes("com.gogettergeeks.annotation.MySqlGenerated")
 @SupportedSourceVersion(SourceVersion.RELEASE_21)
 public class MySqlProcessor extends AbstractProcessor {
     private static final String DTO_SUFFIX = "GeneratedDto";
+    private static final String CONNECTION_POOL = "MySqlConnectionPool";
+
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long VALIDATE_AFTER_MILLIS = 5000;
+    private static final int ACQUIRE_TIMEOUT_SECONDS = 30;
 
     private String packageName;
     private String className;
+    private int poolSize;
+    private long idleTimeoutMillis;
+    private int batchSize;
+    private int fetchSize;
+    private boolean caching;
+    private int cacheSize;
+    private long cacheTtlMillis;
+    private final Set<String> poolPackages = new HashSet<>();
 
     @Override
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
@@ -55,6 +104,8 @@ public class MySqlProcessor extends AbstractProcessor {
 
                 List<VariableElement> fields = new ArrayList<>();
                 List<VariableElement> uniqueKeyFields = new ArrayList<>();
+                List<VariableElement> indexedFields = new ArrayList<>();
+                boolean fieldsValid = true;
                 for (Element enclosedElement : classElement.getEnclosedElements()) {
                     if (enclosedElement.getKind() == ElementKind.FIELD
                             && enclosedElement.getAnnotation(UniqueKey.class) != null) {
@@ -65,14 +116,69 @@ public class MySqlProcessor extends AbstractProcessor {
                         VariableElement fieldElement = (VariableElement) enclosedElement;
                         fields.add(fieldElement);
                     }
+                    if (enclosedElement.getKind() == ElementKind.FIELD
+                            && enclosedElement.getAnnotation(Indexed.class) != null) {
+                        if (enclosedElement.getAnnotation(Persisted.class) == null
+                                || enclosedElement.getAnnotation(UniqueKey.class) != null) {
+                            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                    "@Indexed is only supported on @Persisted fields that are not @UniqueKey",
+                                    enclosedElement);
+                            fieldsValid = false;
+                        }
+                        indexedFields.add((VariableElement) enclosedElement);
+                    }
+                    if (enclosedElement.getKind() == ElementKind.FIELD
+                            && (enclosedElement.getAnnotation(UniqueKey.class) != null
+                            || enclosedElement.getAnnotation(Persisted.class) != null)
+                            && getColumnType((VariableElement) enclosedElement) == null) {
+                        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                                "No MySQL column type for " + enclosedElement.asType(), enclosedElement);
+                        fieldsValid = false;
+                    }
+                }
+                if (!fieldsValid) {
+                    continue;
                 }
 
+                MySqlGenerated mySqlGenerated = classElement.getAnnotation(MySqlGenerated.class);
+                if (mySqlGenerated.poolSize() < 1 || mySqlGenerated.idleTimeoutMillis() <= 0
+                        || mySqlGenerated.batchSize() < 1) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "poolSize, idleTimeoutMillis and batchSize must be positive", classElement);
+                    continue;
+                }
+                if (mySqlGenerated.fetchSize() < 0 && mySqlGenerated.fetchSize() != Integer.MIN_VALUE) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "fetchSize must be zero or positive, or Integer.MIN_VALUE to stream rows", classElement);
+                    continue;
+                }
+                if (mySqlGenerated.cacheSize() < 0 || mySqlGenerated.cacheTtlMillis() < 0) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "cacheSize and cacheTtlMillis must not be negative", classElement);
+                    continue;
+                }
+                if (mySqlGenerated.cacheSize() > 0 && uniqueKeyFields.isEmpty()) {
+                    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                            "cacheSize requires at least one @UniqueKey field", classElement);
+                    continue;
+                }
+                this.poolSize = mySqlGenerated.poolSize();
+                this.idleTimeoutMillis = mySqlGenerated.idleTimeoutMillis();
+                this.batchSize = mySqlGenerated.batchSize();
+                this.fetchSize = mySqlGenerated.fetchSize();
+                this.caching = mySqlGenerated.cacheSize() > 0;
+                this.cacheSize = mySqlGenerated.cacheSize();
+                this.cacheTtlMillis = mySqlGenerated.cacheTtlMillis();
+
                 if (!fields.isEmpty()) {
                     TypeElement enclosingClass = (TypeElement) fields.stream().findAny().get().getEnclosingElement();
                     this.packageName = processingEnv.getElementUtils().getPackageOf(enclosingClass).toString();
                     this.className = enclosingClass.getSimpleName().toString();
                     generateDto(uniqueKeyFields, fields);
-                    generateDao(uniqueKeyFields, fields);
+                    generateDao(uniqueKeyFields, fields, indexedFields);
+                    if (poolPackages.add(this.packageName)) {
+                        generateConnectionPool();
+                    }
                 }
             }
         }
@@ -147,15 +253,16 @@ public class MySqlProcessor extends AbstractProcessor {
         }
     }
 
-    private void generateDao(List<VariableElement> uniqueFields, List<VariableElement> fields) {
-        FieldSpec connectionUrlFieldSpec = FieldSpec
-                .builder(String.class, "connectionUrl", Modifier.PRIVATE, Modifier.FINAL)
-                .build();
-        FieldSpec usernameFieldSpec = FieldSpec
-                .builder(String.class, "username", Modifier.PRIVATE, Modifier.FINAL)
+    private void generateDao(List<VariableElement> uniqueFields, List<VariableElement> fields,
+                             List<VariableElement> indexedFields) {
+        FieldSpec dataSourceFieldSpec = FieldSpec
+                .builder(DataSource.class, "dataSource", Modifier.PRIVATE, Modifier.FINAL)
                 .build();
-        FieldSpec passwordFieldSpec = FieldSpec
-                .builder(String.class, "password", Modifier.PRIVATE, Modifier.FINAL)
+
+        MethodSpec dataSourceConstructorSpec = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(DataSource.class, "dataSource")
+                .addStatement("this.dataSource = $T.requireNonNull(dataSource)", Objects.class)
                 .build();
 
         ParameterSpec connectionUrlParamSpec = ParameterSpec.builder(String.class, "connectionUrl")
@@ -165,25 +272,136 @@ public class MySqlProcessor extends AbstractProcessor {
         ParameterSpec passwordParamSpec = ParameterSpec.builder(String.class, "password")
                 .build();
         MethodSpec constructorSpec = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
                 .addParameters(Arrays.asList(connectionUrlParamSpec, usernameParamSpec, passwordParamSpec))
-                .addStatement("this.connectionUrl = connectionUrl;")
-                .addStatement("this.username = username;")
-                .addStatement("this.password = password;")
+                .addStatement("this($T.shared(connectionUrl, username, password, $L, $LL))",
+                        ClassName.get(packageName, CONNECTION_POOL), poolSize, idleTimeoutMillis)
                 .build();
 
+        List<VariableElement> keyLast = concat(fields, uniqueFields);
+        List<String> columns = new ArrayList<>();
+        for (VariableElement field : concat(uniqueFields, fields)) {
+            columns.add(getColumnName(field));
+        }
+        List<FieldSpec> constantSpecs = Arrays.asList(
+                FieldSpec.builder(int.class, "BATCH_SIZE", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$L", batchSize)
+                        .build(),
+                FieldSpec.builder(int.class, "FETCH_SIZE", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer(fetchSize == Integer.MIN_VALUE ? "$T.MIN_VALUE" : "$L",
+                                fetchSize == Integer.MIN_VALUE ? Integer.class : fetchSize)
+                        .build(),
+                FieldSpec.builder(String.class, "COLUMNS", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$S", String.join(", ", columns))
+                        .build(),
+                FieldSpec.builder(String.class, "CREATE_TABLE_DDL", Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$S", getCreateTableDdl(uniqueFields, fields, indexedFields))
+                        .build(),
+                FieldSpec.builder(String.class, "SELECT_QUERY", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$S", "SELECT " + String.join(", ", columns) + " FROM " + className.toLowerCase())
+                        .build(),
+                FieldSpec.builder(String.class, "INSERT_QUERY", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$S", getInsertQuery(uniqueFields, fields))
+                        .build(),
+                FieldSpec.builder(String.class, "UPSERT_QUERY", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$S", getUpsertQuery(uniqueFields, fields))
+                        .build(),
+                FieldSpec.builder(String.class, "UPDATE_QUERY", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$S", getUpdateQuery(uniqueFields, fields))
+                        .build(),
+                FieldSpec.builder(String.class, "DELETE_QUERY", Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$S", getDeleteQuery(uniqueFields))
+                        .build()
+        );
+
         List<MethodSpec> methodSpecs = Arrays.asList(
-                getCreateMethodSpec(uniqueFields, fields),
-                getReadMethodSpec(uniqueFields, fields),
-                getUpdateMethodSpec(uniqueFields, fields),
-                getDeleteMethodSpec(uniqueFields)
+                getEnsureSchemaMethodSpec(),
+                getWriteMethodSpec("create", "INSERT_QUERY", "bindInsert"),
+                getReadMethodSpec(),
+                getForEachMethodSpec(),
+                getStreamMethodSpec(),
+                getOpenScanMethodSpec(),
+                getWriteMethodSpec("update", "UPDATE_QUERY", "bindUpdate"),
+                getWriteMethodSpec("delete", "DELETE_QUERY", "bindDelete"),
+                getWriteMethodSpec("upsert", "UPSERT_QUERY", "bindInsert"),
+                getBatchWriteMethodSpec("createAll", "INSERT_QUERY", "bindInsert"),
+                getBatchWriteMethodSpec("updateAll", "UPDATE_QUERY", "bindUpdate"),
+                getBatchWriteMethodSpec("deleteAll", "DELETE_QUERY", "bindDelete"),
+                getBatchWriteMethodSpec("upsertAll", "UPSERT_QUERY", "bindInsert"),
+                getExecuteBatchMethodSpec(),
+                getMapMethodSpec(uniqueFields, fields),
+                getBindMethodSpec("bindInsert", concat(uniqueFields, fields)),
+                getBindMethodSpec("bindUpdate", keyLast),
+                getBindMethodSpec("bindDelete", uniqueFields)
         );
 
+        List<FieldSpec> keyConstantSpecs = new ArrayList<>();
+        List<MethodSpec> keyMethodSpecs = new ArrayList<>();
+        if (!uniqueFields.isEmpty()) {
+            List<String> keyColumns = new ArrayList<>();
+            for (VariableElement uniqueField : uniqueFields) {
+                keyColumns.add(getColumnName(uniqueField));
+            }
+            String placeholder = String.join(", ", Collections.nCopies(uniqueFields.size(), "?"));
+            boolean composite = uniqueFields.size() > 1;
+            keyConstantSpecs.add(FieldSpec.builder(String.class, "FIND_BY_KEY_QUERY",
+                            Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("SELECT_QUERY + $S", " WHERE " + getKeyCondition(uniqueFields))
+                    .build());
+            keyConstantSpecs.add(FieldSpec.builder(String.class, "FIND_ALL_BY_KEYS_QUERY",
+                            Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("SELECT_QUERY + $S", composite
+                            ? " WHERE (" + String.join(", ", keyColumns) + ") IN ("
+                            : " WHERE " + keyColumns.get(0) + " IN (")
+                    .build());
+            keyConstantSpecs.add(FieldSpec.builder(String.class, "KEY_PLACEHOLDER",
+                            Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$S", composite ? "(" + placeholder + ")" : placeholder)
+                    .build());
+            keyConstantSpecs.add(FieldSpec.builder(int.class, "KEY_COLUMN_COUNT",
+                            Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer("$L", uniqueFields.size())
+                    .build());
+            keyMethodSpecs.add(getFindByKeyMethodSpec(uniqueFields));
+            keyMethodSpecs.add(getFindAllByKeysMethodSpec());
+            keyMethodSpecs.add(getBindKeyMethodSpec(uniqueFields));
+        }
+
+        List<FieldSpec> cacheFieldSpecs = new ArrayList<>();
+        List<MethodSpec> cacheMethodSpecs = new ArrayList<>();
+        List<TypeSpec> cacheTypeSpecs = new ArrayList<>();
+        if (caching) {
+            ClassName entityCache = ClassName.get(packageName, className + "Dao", "EntityCache");
+            cacheFieldSpecs.add(FieldSpec.builder(int.class, "CACHE_SIZE", Modifier.PRIVATE, Modifier.STATIC,
+                            Modifier.FINAL)
+                    .initializer("$L", cacheSize)
+                    .build());
+            cacheFieldSpecs.add(FieldSpec.builder(long.class, "CACHE_TTL_MILLIS", Modifier.PRIVATE, Modifier.STATIC,
+                            Modifier.FINAL)
+                    .initializer("$LL", cacheTtlMillis)
+                    .build());
+            cacheFieldSpecs.add(FieldSpec.builder(entityCache, "cache", Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", entityCache)
+                    .build());
+            cacheMethodSpecs.addAll(getCacheMethodSpecs(uniqueFields, fields));
+            cacheTypeSpecs.add(getEntityCacheTypeSpec());
+        }
+
         TypeSpec daoSpec = TypeSpec.classBuilder(className + "Dao")
                 .addModifiers(Modifier.PUBLIC)
-                .addFields(Arrays.asList(connectionUrlFieldSpec, usernameFieldSpec, passwordFieldSpec))
+                .addFields(constantSpecs)
+                .addFields(keyConstantSpecs)
+                .addFields(cacheFieldSpecs)
+                .addField(dataSourceFieldSpec)
+                .addMethod(dataSourceConstructorSpec)
                 .addMethod(constructorSpec)
                 .addMethods(methodSpecs)
+                .addMethods(keyMethodSpecs)
+                .addMethods(cacheMethodSpecs)
                 .addMethod(convertDtoToGeneratedDtoMethodSpec(uniqueFields, fields))
+                .addType(getStatementBinderTypeSpec())
+                .addType(getUncheckedSqlExceptionTypeSpec())
+                .addTypes(cacheTypeSpecs)
                 .build();
 
         JavaFile javaFile = JavaFile.builder(packageName, daoSpec).build();
@@ -194,220 +412,582 @@ public class MySqlProcessor extends AbstractProcessor {
         }
     }
 
-    private MethodSpec getCreateMethodSpec(List<VariableElement> uniqueFields, List<VariableElement> fields) {
-        CodeBlock.Builder methodBodyBuilder = CodeBlock.builder();
-        methodBodyBuilder.add(className + DTO_SUFFIX + " generatedDto = convert(" + className.toLowerCase() + ");");
-        methodBodyBuilder.add("String query = \"INSERT INTO " + className.toLowerCase() + "(");
-
-        StringBuilder questionMarks = new StringBuilder();
-        StringBuilder preparedStatements = new StringBuilder();
-        int queryParamIndex = 1;
-        for (int i=0; i < uniqueFields.size(); i++, queryParamIndex++) {
-            VariableElement uniqueField = uniqueFields.get(i);
-            String columnName = StringUtil.camelCaseToUnderscore(uniqueField.getSimpleName().toString());
-            methodBodyBuilder.add(columnName);
-            questionMarks.append("?");
-
-            String variableSimpleTypeName = uniqueField.asType().getKind().isPrimitive() ?
-                    uniqueField.asType().toString() : getSimpleClassName(uniqueField);
-            preparedStatements.append("preparedStatement.set")
-                    .append(StringUtil.capitalizeFirstLetter(variableSimpleTypeName))
-                    .append("(").append(queryParamIndex).append(", generatedDto.get")
-                    .append(StringUtil.capitalizeFirstLetter(uniqueField.getSimpleName().toString())).append("());");
-
-            if (fields.size() > 0) {
-                methodBodyBuilder.add(", ");
-                questionMarks.append(", ");
-            } else {
-                if (i != uniqueFields.size()-1) {
-                    methodBodyBuilder.add(", ");
-                    questionMarks.append(", ");
-                }
-            }
+    private String getCreateTableDdl(List<VariableElement> uniqueFields, List<VariableElement> fields,
+                                     List<VariableElement> indexedFields) {
+        String tableName = className.toLowerCase();
+        List<String> definitions = new ArrayList<>();
+        for (VariableElement uniqueField : uniqueFields) {
+            definitions.add(getColumnName(uniqueField) + " " + getColumnType(uniqueField) + " NOT NULL");
         }
-
-        for (int i=0; i < fields.size(); i++, queryParamIndex++) {
-            VariableElement field = fields.get(i);
-            String columnName = StringUtil.camelCaseToUnderscore(field.getSimpleName().toString());
-            methodBodyBuilder.add(columnName);
-            questionMarks.append("?");
-
-            String variableSimpleTypeName = field.asType().getKind().isPrimitive() ?
-                    field.asType().toString() : getSimpleClassName(field);
-            preparedStatements.append("preparedStatement.set")
-                    .append(StringUtil.capitalizeFirstLetter(variableSimpleTypeName))
-                    .append("(").append(queryParamIndex).append(", generatedDto.get")
-                    .append(StringUtil.capitalizeFirstLetter(field.getSimpleName().toString())).append("());");
-
-            if (i != fields.size()-1) {
-                methodBodyBuilder.add(", ");
-                questionMarks.append(", ");
+        for (VariableElement field : fields) {
+            definitions.add(getColumnName(field) + " " + getColumnType(field)
+                    + (field.asType().getKind().isPrimitive() ? " NOT NULL" : ""));
+        }
+        if (!uniqueFields.isEmpty()) {
+            List<String> keyColumns = new ArrayList<>();
+            for (VariableElement uniqueField : uniqueFields) {
+                keyColumns.add(getColumnName(uniqueField));
             }
+            definitions.add("PRIMARY KEY (" + String.join(", ", keyColumns) + ")");
         }
-        preparedStatements.append("preparedStatement.executeUpdate();");
-
-        methodBodyBuilder.add(") VALUES (" + questionMarks + ")\";");
-        methodBodyBuilder.add("try ($T connection = $T.getConnection(this.connectionUrl, username, password);",
-                Connection.class, DriverManager.class);
-        methodBodyBuilder.add("$T preparedStatement = connection.prepareStatement(query)) {", PreparedStatement.class);
-        methodBodyBuilder.add(preparedStatements.toString());
-        methodBodyBuilder.add("}");
+        for (VariableElement indexedField : indexedFields) {
+            String columnName = getColumnName(indexedField);
+            definitions.add("INDEX idx_" + tableName + "_" + columnName + " (" + columnName + ")");
+        }
+        return "CREATE TABLE IF NOT EXISTS " + tableName + " (" + String.join(", ", definitions) + ")";
+    }
 
-        return MethodSpec.methodBuilder("create")
+    private MethodSpec getEnsureSchemaMethodSpec() {
+        return MethodSpec.methodBuilder("ensureSchema")
                 .addModifiers(Modifier.PUBLIC)
-                .addParameter(ClassName.get(packageName, className), className.toLowerCase())
                 .addException(SQLException.class)
-                .addStatement(methodBodyBuilder.build())
+                .beginControlFlow("try ($T connection = dataSource.getConnection();\n$>$>"
+                        + "$T statement = connection.createStatement())$<$<", Connection.class, Statement.class)
+                .addStatement("statement.execute(CREATE_TABLE_DDL)")
+                .endControlFlow()
                 .build();
     }
 
-    private MethodSpec getReadMethodSpec(List<VariableElement> uniqueFields, List<VariableElement> fields) {
-        ClassName list = ClassName.get("java.util", "List");
-        ClassName arrayList = ClassName.get("java.util", "ArrayList");
-        ClassName userProvidedDto = ClassName.get(packageName, className);
-
-        CodeBlock.Builder methodBodyBuilder = CodeBlock.builder();
-        methodBodyBuilder.add("$T dtoList = new $T();", ParameterizedTypeName.get(list, userProvidedDto),
-                ParameterizedTypeName.get(arrayList, userProvidedDto));
-        methodBodyBuilder.add("String query = \"SELECT * FROM $L\";", className.toLowerCase());
-        methodBodyBuilder.add("try ($T connection = $T.getConnection(this.connectionUrl, username, password);",
-                Connection.class, DriverManager.class);
-        methodBodyBuilder.add("$T statement = connection.createStatement();", Statement.class);
-        methodBodyBuilder.add("$T resultSet = statement.executeQuery(query)) {", ResultSet.class);
-        methodBodyBuilder.add("while (resultSet.next()) {");
-        methodBodyBuilder.add("$T dto = new $T();", userProvidedDto, userProvidedDto);
-
-        for (VariableElement uniqueField : uniqueFields) {
-            String columnName = StringUtil.camelCaseToUnderscore(uniqueField.getSimpleName().toString());
-            String variableSimpleTypeName = uniqueField.asType().getKind().isPrimitive() ?
-                    uniqueField.asType().toString() : getSimpleClassName(uniqueField);
-            methodBodyBuilder.add("dto.set$L(resultSet.get$L($S));",
-                    StringUtil.capitalizeFirstLetter(uniqueField.getSimpleName().toString()),
-                    StringUtil.capitalizeFirstLetter(variableSimpleTypeName), columnName);
+    private String getInsertQuery(List<VariableElement> uniqueFields, List<VariableElement> fields) {
+        List<String> columns = new ArrayList<>();
+        List<String> questionMarks = new ArrayList<>();
+        for (VariableElement field : concat(uniqueFields, fields)) {
+            columns.add(getColumnName(field));
+            questionMarks.add("?");
         }
+        return "INSERT INTO " + className.toLowerCase() + "(" + String.join(", ", columns) + ") VALUES ("
+                + String.join(", ", questionMarks) + ")";
+    }
 
+    private String getUpsertQuery(List<VariableElement> uniqueFields, List<VariableElement> fields) {
+        List<String> assignments = new ArrayList<>();
         for (VariableElement field : fields) {
-            String columnName = StringUtil.camelCaseToUnderscore(field.getSimpleName().toString());
-            String variableSimpleTypeName = field.asType().getKind().isPrimitive() ?
-                    field.asType().toString() : getSimpleClassName(field);
-            methodBodyBuilder.add("dto.set$L(resultSet.get$L($S));",
-                    StringUtil.capitalizeFirstLetter(field.getSimpleName().toString()),
-                    StringUtil.capitalizeFirstLetter(variableSimpleTypeName), columnName);
+            String columnName = getColumnName(field);
+            assignments.add(columnName + " = VALUES(" + columnName + ")");
         }
+        return getInsertQuery(uniqueFields, fields) + " ON DUPLICATE KEY UPDATE " + String.join(", ", assignments);
+    }
 
-        methodBodyBuilder.add("dtoList.add(dto);");
-        methodBodyBuilder.add("}");
-        methodBodyBuilder.add("}");
-        methodBodyBuilder.add("return dtoList");
+    private String getUpdateQuery(List<VariableElement> uniqueFields, List<VariableElement> fields) {
+        List<String> assignments = new ArrayList<>();
+        for (VariableElement field : fields) {
+            assignments.add(getColumnName(field) + " = ?");
+        }
+        return "UPDATE " + className.toLowerCase() + " SET " + String.join(", ", assignments)
+                + " WHERE " + getKeyCondition(uniqueFields);
+    }
 
-        TypeName listOfUserProvidedDto = ParameterizedTypeName.get(list, userProvidedDto);
-        return MethodSpec.methodBuilder("read")
-                .addModifiers(Modifier.PUBLIC)
-                .returns(listOfUserProvidedDto)
-                .addException(SQLException.class)
-                .addStatement(methodBodyBuilder.build())
-                .build();
+    private String getDeleteQuery(List<VariableElement> uniqueFields) {
+        return "DELETE FROM " + className.toLowerCase() + " WHERE " + getKeyCondition(uniqueFields);
     }
 
-    private MethodSpec getDeleteMethodSpec(List<VariableElement> uniqueFields) {
-        CodeBlock.Builder methodBodyBuilder = CodeBlock.builder();
-        methodBodyBuilder.add(className + DTO_SUFFIX + " generatedDto = convert(" + className.toLowerCase() + ");");
-        methodBodyBuilder.add("String query = \"DELETE FROM " + className.toLowerCase() + " WHERE ");
+    private String getKeyCondition(List<VariableElement> uniqueFields) {
+        List<String> conditions = new ArrayList<>();
+        for (VariableElement uniqueField : uniqueFields) {
+            conditions.add(getColumnName(uniqueField) + " = ?");
+        }
+        return String.join(" AND ", conditions);
+    }
 
-        StringBuilder preparedStatements = new StringBuilder();
+    private MethodSpec getBindMethodSpec(String name, List<VariableElement> parameters) {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(PreparedStatement.class, "preparedStatement")
+                .addParameter(ClassName.get(packageName, className + DTO_SUFFIX), "generatedDto")
+                .addException(SQLException.class);
         int queryParamIndex = 1;
-        for (int i=0; i < uniqueFields.size(); i++, queryParamIndex++) {
+        for (VariableElement parameter : parameters) {
+            addBindStatement(builder, parameter, String.valueOf(queryParamIndex++),
+                    "generatedDto.get" + StringUtil.capitalizeFirstLetter(parameter.getSimpleName().toString()) + "()");
+        }
+        return builder.build();
+    }
 
-            VariableElement uniqueField = uniqueFields.get(i);
-            String columnName = StringUtil.camelCaseToUnderscore(uniqueField.getSimpleName().toString());
-            methodBodyBuilder.add(columnName).add(" = ?");
+    private MethodSpec getWriteMethodSpec(String name, String query, String bindMethod) {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ClassName.get(packageName, className), className.toLowerCase())
+                .addException(SQLException.class);
+        if (caching) {
+            builder.beginControlFlow("try");
+        }
+        builder.beginControlFlow("try ($T connection = dataSource.getConnection();\n$>$>"
+                        + "$T preparedStatement = connection.prepareStatement($L))$<$<", Connection.class,
+                        PreparedStatement.class, query)
+                .addStatement("$L(preparedStatement, convert($L))", bindMethod, className.toLowerCase())
+                .addStatement("preparedStatement.executeUpdate()")
+                .endControlFlow();
+        if (caching) {
+            builder.nextControlFlow("finally")
+                    .addStatement("cache.invalidate(cacheKeyOf($L))", className.toLowerCase())
+                    .endControlFlow();
+        }
+        return builder.build();
+    }
 
-            String variableSimpleTypeName = uniqueField.asType().getKind().isPrimitive() ?
-                    uniqueField.asType().toString() : getSimpleClassName(uniqueField);
-            preparedStatements.append("preparedStatement.set")
-                    .append(StringUtil.capitalizeFirstLetter(variableSimpleTypeName))
-                    .append("(").append(queryParamIndex).append(", generatedDto.get")
-                    .append(StringUtil.capitalizeFirstLetter(uniqueField.getSimpleName().toString())).append("());");
+    private MethodSpec getBatchWriteMethodSpec(String name, String query, String bindMethod) {
+        return MethodSpec.methodBuilder(name)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Collection.class),
+                        ClassName.get(packageName, className)), "entities")
+                .addException(SQLException.class)
+                .addStatement("executeBatch($L, entities, $T::$L)", query,
+                        ClassName.get(packageName, className + "Dao"), bindMethod)
+                .build();
+    }
 
-            if (i != uniqueFields.size()-1) {
-                methodBodyBuilder.add(" AND ");
-            }
+    private MethodSpec getExecuteBatchMethodSpec() {
+        ClassName entity = ClassName.get(packageName, className);
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("executeBatch")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(String.class, "query")
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Collection.class), entity), "entities")
+                .addParameter(ClassName.get(packageName, className + "Dao", "StatementBinder"), "binder")
+                .addException(SQLException.class)
+                .beginControlFlow("if (entities.isEmpty())")
+                .addStatement("return")
+                .endControlFlow();
+        if (caching) {
+            builder.beginControlFlow("try");
         }
+        builder.beginControlFlow("try ($T connection = dataSource.getConnection())", Connection.class)
+                .addStatement("boolean autoCommit = connection.getAutoCommit()")
+                .addStatement("connection.setAutoCommit(false)")
+                .beginControlFlow("try ($T preparedStatement = connection.prepareStatement(query))",
+                        PreparedStatement.class)
+                .addStatement("int pending = 0")
+                .beginControlFlow("for ($T entity : entities)", entity)
+                .addStatement("binder.bind(preparedStatement, convert(entity))")
+                .addStatement("preparedStatement.addBatch()")
+                .beginControlFlow("if (++pending == BATCH_SIZE)")
+                .addStatement("preparedStatement.executeBatch()")
+                .addStatement("pending = 0")
+                .endControlFlow()
+                .endControlFlow()
+                .beginControlFlow("if (pending > 0)")
+                .addStatement("preparedStatement.executeBatch()")
+                .endControlFlow()
+                .addStatement("connection.commit()")
+                .nextControlFlow("catch ($T | $T e)", SQLException.class, RuntimeException.class)
+                .beginControlFlow("try")
+                .addStatement("connection.rollback()")
+                .nextControlFlow("catch ($T rollbackFailure)", SQLException.class)
+                .addStatement("e.addSuppressed(rollbackFailure)")
+                .endControlFlow()
+                .addStatement("throw e")
+                .nextControlFlow("finally")
+                .addStatement("connection.setAutoCommit(autoCommit)")
+                .endControlFlow()
+                .endControlFlow();
+        if (caching) {
+            builder.nextControlFlow("finally")
+                    .beginControlFlow("for ($T entity : entities)", entity)
+                    .addStatement("cache.invalidate(cacheKeyOf(entity))")
+                    .endControlFlow()
+                    .endControlFlow();
+        }
+        return builder.build();
+    }
 
+    private TypeSpec getStatementBinderTypeSpec() {
+        return TypeSpec.interfaceBuilder("StatementBinder")
+                .addModifiers(Modifier.PRIVATE)
+                .addAnnotation(FunctionalInterface.class)
+                .addMethod(MethodSpec.methodBuilder("bind")
+                        .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+                        .addParameter(PreparedStatement.class, "preparedStatement")
+                        .addParameter(ClassName.get(packageName, className + DTO_SUFFIX), "generatedDto")
+                        .addException(SQLException.class)
+                        .build())
+                .build();
+    }
 
-        preparedStatements.append("preparedStatement.executeUpdate();");
+    private MethodSpec getReadMethodSpec() {
+        ClassName entity = ClassName.get(packageName, className);
+        return MethodSpec.methodBuilder("read")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get(List.class), entity))
+                .addException(SQLException.class)
+                .addStatement("$T<$T> dtoList = new $T<>()", List.class, entity, ArrayList.class)
+                .beginControlFlow("try ($T connection = dataSource.getConnection();\n$>$>"
+                        + "$T statement = connection.createStatement();\n"
+                        + "$T resultSet = statement.executeQuery(SELECT_QUERY))$<$<",
+                        Connection.class, Statement.class, ResultSet.class)
+                .beginControlFlow("while (resultSet.next())")
+                .addStatement("dtoList.add(map(resultSet))")
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return dtoList")
+                .build();
+    }
 
-        methodBodyBuilder.add("\";");
-        methodBodyBuilder.add("try ($T connection = $T.getConnection(this.connectionUrl, username, password);", Connection.class, DriverManager.class);
-        methodBodyBuilder.add("$T preparedStatement = connection.prepareStatement(query)) {", PreparedStatement.class);
-        methodBodyBuilder.add(preparedStatements.toString());
-        methodBodyBuilder.add("}");
+    private MethodSpec getForEachMethodSpec() {
+        ClassName entity = ClassName.get(packageName, className);
+        return MethodSpec.methodBuilder("forEach")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Consumer.class),
+                        WildcardTypeName.supertypeOf(entity)), "action")
+                .addException(SQLException.class)
+                .beginControlFlow("try ($T connection = dataSource.getConnection();\n$>$>"
+                        + "$T preparedStatement = openScan(connection);\n"
+                        + "$T resultSet = preparedStatement.executeQuery())$<$<",
+                        Connection.class, PreparedStatement.class, ResultSet.class)
+                .beginControlFlow("while (resultSet.next())")
+                .addStatement("action.accept(map(resultSet))")
+                .endControlFlow()
+                .endControlFlow()
+                .build();
+    }
 
-        return MethodSpec.methodBuilder("delete")
+    private MethodSpec getStreamMethodSpec() {
+        ClassName entity = ClassName.get(packageName, className);
+        ClassName unchecked = ClassName.get(packageName, className + "Dao", "UncheckedSQLException");
+        TypeSpec spliterator = TypeSpec.anonymousClassBuilder("$T.MAX_VALUE, $T.ORDERED | $T.NONNULL",
+                        Long.class, Spliterator.class, Spliterator.class)
+                .superclass(ParameterizedTypeName.get(ClassName.get(Spliterators.AbstractSpliterator.class), entity))
+                .addMethod(MethodSpec.methodBuilder("tryAdvance")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(boolean.class)
+                        .addParameter(ParameterizedTypeName.get(ClassName.get(Consumer.class),
+                                WildcardTypeName.supertypeOf(entity)), "action")
+                        .beginControlFlow("try")
+                        .beginControlFlow("if (!resultSet.next())")
+                        .addStatement("return false")
+                        .endControlFlow()
+                        .addStatement("action.accept(map(resultSet))")
+                        .addStatement("return true")
+                        .nextControlFlow("catch ($T e)", SQLException.class)
+                        .addStatement("throw new $T(e)", unchecked)
+                        .endControlFlow()
+                        .build())
+                .build();
+        return MethodSpec.methodBuilder("stream")
                 .addModifiers(Modifier.PUBLIC)
-                .addParameter(ClassName.get(packageName, className), className.toLowerCase())
+                .returns(ParameterizedTypeName.get(ClassName.get(Stream.class), entity))
                 .addException(SQLException.class)
-                .addStatement(methodBodyBuilder.build())
+                .addStatement("$T connection = dataSource.getConnection()", Connection.class)
+                .beginControlFlow("try")
+                .addStatement("$T preparedStatement = openScan(connection)", PreparedStatement.class)
+                .addStatement("$T resultSet = preparedStatement.executeQuery()", ResultSet.class)
+                .addCode("return $T.stream($L, false).onClose(() -> {\n$>", StreamSupport.class, spliterator)
+                .beginControlFlow("try (connection; preparedStatement; resultSet)")
+                .nextControlFlow("catch ($T e)", SQLException.class)
+                .addStatement("throw new $T(e)", unchecked)
+                .endControlFlow()
+                .addCode("$<});\n")
+                .nextControlFlow("catch ($T | $T e)", SQLException.class, RuntimeException.class)
+                .beginControlFlow("try")
+                .addStatement("connection.close()")
+                .nextControlFlow("catch ($T closeFailure)", SQLException.class)
+                .addStatement("e.addSuppressed(closeFailure)")
+                .endControlFlow()
+                .addStatement("throw e")
+                .endControlFlow()
                 .build();
     }
 
-    private MethodSpec getUpdateMethodSpec(List<VariableElement> uniqueFields, List<VariableElement> fields) {
-        CodeBlock.Builder methodBodyBuilder = CodeBlock.builder();
-        methodBodyBuilder.add(className + DTO_SUFFIX + " generatedDto = convert(" + className.toLowerCase() + ");");
-        methodBodyBuilder.add("String query = \"UPDATE " + className.toLowerCase() + " SET ");
+    private MethodSpec getOpenScanMethodSpec() {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("openScan")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(PreparedStatement.class)
+                .addParameter(Connection.class, "connection")
+                .addException(SQLException.class)
+                .addStatement("$T preparedStatement = connection.prepareStatement(SELECT_QUERY,\n$>$>"
+                        + "$T.TYPE_FORWARD_ONLY, $T.CONCUR_READ_ONLY)$<$<", PreparedStatement.class, ResultSet.class,
+                        ResultSet.class);
+        if (fetchSize == Integer.MIN_VALUE) {
+            // Only Connector/J reads MIN_VALUE as "stream rows", other drivers reject a negative fetch size.
+            builder.beginControlFlow("if (connection.getMetaData().getDriverName().startsWith($S))", "MySQL Connector")
+                    .addStatement("preparedStatement.setFetchSize(FETCH_SIZE)")
+                    .endControlFlow();
+        } else {
+            builder.addStatement("preparedStatement.setFetchSize(FETCH_SIZE)");
+        }
+        return builder.addStatement("return preparedStatement").build();
+    }
+
+    private TypeSpec getUncheckedSqlExceptionTypeSpec() {
+        return TypeSpec.classBuilder("UncheckedSQLException")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .superclass(RuntimeException.class)
+                .addField(FieldSpec.builder(long.class, "serialVersionUID", Modifier.PRIVATE, Modifier.STATIC,
+                                Modifier.FINAL)
+                        .initializer("1L")
+                        .build())
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addParameter(SQLException.class, "cause")
+                        .addStatement("super(cause)")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("getCause")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC, Modifier.SYNCHRONIZED)
+                        .returns(SQLException.class)
+                        .addStatement("return ($T) super.getCause()", SQLException.class)
+                        .build())
+                .build();
+    }
 
-        StringBuilder preparedStatements = new StringBuilder();
+    private MethodSpec getFindByKeyMethodSpec(List<VariableElement> uniqueFields) {
+        ClassName entity = ClassName.get(packageName, className);
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("findByKey")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get(Optional.class), entity))
+                .addException(SQLException.class);
+        for (VariableElement uniqueField : uniqueFields) {
+            builder.addParameter(TypeName.get(uniqueField.asType()), uniqueField.getSimpleName().toString());
+        }
+        if (caching) {
+            builder.addStatement("Object key = cacheKey($L)", getKeyArguments(uniqueFields, null))
+                    .addStatement("$T cached = cache.get(key)", entity)
+                    .beginControlFlow("if (cached != null)")
+                    .addStatement("return $T.of(cached)", Optional.class)
+                    .endControlFlow()
+                    .addStatement("long generation = cache.generation()");
+        }
+        builder.beginControlFlow("try ($T connection = dataSource.getConnection();\n$>$>"
+                        + "$T preparedStatement = connection.prepareStatement(FIND_BY_KEY_QUERY))$<$<",
+                Connection.class, PreparedStatement.class);
         int queryParamIndex = 1;
-        for (int i=0; i < fields.size(); i++, queryParamIndex++) {
-            VariableElement field = fields.get(i);
-            String columnName = StringUtil.camelCaseToUnderscore(field.getSimpleName().toString());
-            methodBodyBuilder.add(columnName).add(" = ?");
-
-            String variableSimpleTypeName = field.asType().getKind().isPrimitive() ?
-                    field.asType().toString() : getSimpleClassName(field);
-            preparedStatements.append("preparedStatement.set")
-                    .append(StringUtil.capitalizeFirstLetter(variableSimpleTypeName))
-                    .append("(").append(queryParamIndex).append(", generatedDto.get")
-                    .append(StringUtil.capitalizeFirstLetter(field.getSimpleName().toString())).append("());");
-
-            if (i != fields.size()-1) {
-                methodBodyBuilder.add(", ");
-            }
+        for (VariableElement uniqueField : uniqueFields) {
+            addBindStatement(builder, uniqueField, String.valueOf(queryParamIndex++),
+                    uniqueField.getSimpleName().toString());
         }
+        builder.beginControlFlow("try ($T resultSet = preparedStatement.executeQuery())", ResultSet.class);
+        if (caching) {
+            builder.beginControlFlow("if (!resultSet.next())")
+                    .addStatement("return $T.empty()", Optional.class)
+                    .endControlFlow()
+                    .addStatement("$T found = map(resultSet)", entity)
+                    .addStatement("cache.put(key, found, generation)")
+                    .addStatement("return $T.of(found)", Optional.class);
+        } else {
+            builder.addStatement("return resultSet.next() ? $T.of(map(resultSet)) : $T.empty()", Optional.class,
+                    Optional.class);
+        }
+        return builder.endControlFlow()
+                .endControlFlow()
+                .build();
+    }
 
-        methodBodyBuilder.add(" WHERE ");
-        for (int i=0; i < uniqueFields.size(); i++, queryParamIndex++) {
+    private MethodSpec getFindAllByKeysMethodSpec() {
+        ClassName entity = ClassName.get(packageName, className);
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("findAllByKeys")
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ParameterizedTypeName.get(ClassName.get(List.class), entity))
+                .addParameter(ParameterizedTypeName.get(ClassName.get(Collection.class), entity), "keys")
+                .addException(SQLException.class)
+                .addStatement("$T<$T> found = new $T<>()", List.class, entity, ArrayList.class)
+                .beginControlFlow("if (keys.isEmpty())")
+                .addStatement("return found")
+                .endControlFlow();
+        if (caching) {
+            builder.addStatement("$T<$T> pending = new $T<>()", List.class, entity, ArrayList.class)
+                    .beginControlFlow("for ($T key : keys)", entity)
+                    .addStatement("$T cached = cache.get(cacheKeyOf(key))", entity)
+                    .beginControlFlow("if (cached != null)")
+                    .addStatement("found.add(cached)")
+                    .nextControlFlow("else")
+                    .addStatement("pending.add(key)")
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("long generation = cache.generation()");
+        } else {
+            builder.addStatement("$T<$T> pending = new $T<>(keys)", List.class, entity, ArrayList.class);
+        }
+        return builder.beginControlFlow("try ($T connection = dataSource.getConnection())", Connection.class)
+                .beginControlFlow("for (int from = 0; from < pending.size(); from += BATCH_SIZE)")
+                .addStatement("$T<$T> chunk = pending.subList(from, $T.min(from + BATCH_SIZE, pending.size()))",
+                        List.class, entity, Math.class)
+                .addStatement("String query = FIND_ALL_BY_KEYS_QUERY\n$>$>"
+                        + "+ String.join($S, $T.nCopies(chunk.size(), KEY_PLACEHOLDER)) + $S$<$<",
+                        ", ", Collections.class, ")")
+                .beginControlFlow("try ($T preparedStatement = connection.prepareStatement(query))",
+                        PreparedStatement.class)
+                .addStatement("int offset = 0")
+                .beginControlFlow("for ($T key : chunk)", entity)
+                .addStatement("bindKey(preparedStatement, offset, convert(key))")
+                .addStatement("offset += KEY_COLUMN_COUNT")
+                .endControlFlow()
+                .beginControlFlow("try ($T resultSet = preparedStatement.executeQuery())", ResultSet.class)
+                .beginControlFlow("while (resultSet.next())")
+                .addCode(caching
+                        ? CodeBlock.builder()
+                                .addStatement("$T entity = map(resultSet)", entity)
+                                .addStatement("cache.put(cacheKeyOf(entity), entity, generation)")
+                                .addStatement("found.add(entity)")
+                                .build()
+                        : CodeBlock.of("found.add(map(resultSet));\n"))
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("return found")
+                .build();
+    }
 
-            VariableElement uniqueField = uniqueFields.get(i);
-            String columnName = StringUtil.camelCaseToUnderscore(uniqueField.getSimpleName().toString());
-            methodBodyBuilder.add(columnName).add(" = ?");
+    private MethodSpec getBindKeyMethodSpec(List<VariableElement> uniqueFields) {
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("bindKey")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(PreparedStatement.class, "preparedStatement")
+                .addParameter(int.class, "offset")
+                .addParameter(ClassName.get(packageName, className + DTO_SUFFIX), "generatedDto")
+                .addException(SQLException.class);
+        int queryParamIndex = 1;
+        for (VariableElement uniqueField : uniqueFields) {
+            addBindStatement(builder, uniqueField, "offset + " + queryParamIndex++,
+                    "generatedDto.get" + StringUtil.capitalizeFirstLetter(uniqueField.getSimpleName().toString()) + "()");
+        }
+        return builder.build();
+    }
 
-            String variableSimpleTypeName = uniqueField.asType().getKind().isPrimitive() ?
-                    uniqueField.asType().toString() : getSimpleClassName(uniqueField);
-            preparedStatements.append("preparedStatement.set")
-                    .append(StringUtil.capitalizeFirstLetter(variableSimpleTypeName))
-                    .append("(").append(queryParamIndex).append(", generatedDto.get")
-                    .append(StringUtil.capitalizeFirstLetter(uniqueField.getSimpleName().toString())).append("());");
+    private MethodSpec getMapMethodSpec(List<VariableElement> uniqueFields, List<VariableElement> fields) {
+        ClassName entity = ClassName.get(packageName, className);
+        MethodSpec.Builder builder = MethodSpec.methodBuilder("map")
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(entity)
+                .addParameter(ResultSet.class, "resultSet")
+                .addException(SQLException.class)
+                .addStatement("$T dto = new $T()", entity, entity);
+        int columnIndex = 1;
+        for (VariableElement field : concat(uniqueFields, fields)) {
+            addReadStatement(builder, field, columnIndex++);
+        }
+        return builder.addStatement("return dto").build();
+    }
 
-            if (i != uniqueFields.size()-1) {
-                methodBodyBuilder.add(" AND ");
-            }
+    private List<MethodSpec> getCacheMethodSpecs(List<VariableElement> uniqueFields, List<VariableElement> fields) {
+        ClassName entity = ClassName.get(packageName, className);
+        List<MethodSpec> methodSpecs = new ArrayList<>();
+        for (String counter : Arrays.asList("Hits", "Misses", "Evictions")) {
+            methodSpecs.add(MethodSpec.methodBuilder("cache" + counter)
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(long.class)
+                    .addStatement("return cache.$L()", counter.toLowerCase())
+                    .build());
         }
+        methodSpecs.add(MethodSpec.methodBuilder("invalidateCache")
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("cache.invalidateAll()")
+                .build());
 
+        MethodSpec.Builder cacheKey = MethodSpec.methodBuilder("cacheKey")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(Object.class);
+        for (VariableElement uniqueField : uniqueFields) {
+            cacheKey.addParameter(TypeName.get(uniqueField.asType()), uniqueField.getSimpleName().toString());
+        }
+        if (uniqueFields.size() == 1) {
+            cacheKey.addStatement("return $L", uniqueFields.get(0).getSimpleName());
+        } else {
+            cacheKey.addStatement("return $T.asList($L)", Arrays.class, getKeyArguments(uniqueFields, null));
+        }
+        methodSpecs.add(cacheKey.build());
+        methodSpecs.add(MethodSpec.methodBuilder("cacheKeyOf")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(Object.class)
+                .addParameter(entity, "entity")
+                .addStatement("return cacheKey($L)", getKeyArguments(uniqueFields, "entity"))
+                .build());
+
+        MethodSpec.Builder copyOf = MethodSpec.methodBuilder("copyOf")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(entity)
+                .addParameter(entity, "source")
+                .addStatement("$T copy = new $T()", entity, entity);
+        for (VariableElement field : concat(uniqueFields, fields)) {
+            String capitalizedFieldName = StringUtil.capitalizeFirstLetter(field.getSimpleName().toString());
+            copyOf.addStatement("copy.set$L(source.get$L())", capitalizedFieldName, capitalizedFieldName);
+        }
+        methodSpecs.add(copyOf.addStatement("return copy").build());
+        return methodSpecs;
+    }
 
-        preparedStatements.append("preparedStatement.executeUpdate();");
+    private TypeSpec getEntityCacheTypeSpec() {
+        ClassName entity = ClassName.get(packageName, className);
+        ClassName cachedEntity = ClassName.get(packageName, className + "Dao", "EntityCache", "CachedEntity");
+        TypeSpec cachedEntitySpec = TypeSpec.classBuilder(cachedEntity)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addField(entity, "entity", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(long.class, "cachedAt", Modifier.PRIVATE, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addParameter(entity, "entity")
+                        .addParameter(long.class, "cachedAt")
+                        .addStatement("this.entity = entity")
+                        .addStatement("this.cachedAt = cachedAt")
+                        .build())
+                .build();
 
-        methodBodyBuilder.add("\";");
-        methodBodyBuilder.add("try ($T connection = $T.getConnection(this.connectionUrl, username, password);", Connection.class, DriverManager.class);
-        methodBodyBuilder.add("$T preparedStatement = connection.prepareStatement(query)) {", PreparedStatement.class);
-        methodBodyBuilder.add(preparedStatements.toString());
-        methodBodyBuilder.add("}");
+        List<MethodSpec> counterSpecs = new ArrayList<>();
+        for (String counter : Arrays.asList("hits", "misses", "evictions", "generation")) {
+            counterSpecs.add(MethodSpec.methodBuilder(counter)
+                    .addModifiers(Modifier.SYNCHRONIZED)
+                    .returns(long.class)
+                    .addStatement("return $L", counter)
+                    .build());
+        }
 
-        return MethodSpec.methodBuilder("update")
-                .addModifiers(Modifier.PUBLIC)
-                .addParameter(ClassName.get(packageName, className), className.toLowerCase())
-                .addException(SQLException.class)
-                .addStatement(methodBodyBuilder.build())
+        return TypeSpec.classBuilder("EntityCache")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(LinkedHashMap.class),
+                                ClassName.get(Object.class), cachedEntity), "entries", Modifier.PRIVATE,
+                                Modifier.FINAL)
+                        .initializer("new $T<>(16, 0.75f, true)", LinkedHashMap.class)
+                        .build())
+                .addField(long.class, "generation", Modifier.PRIVATE)
+                .addField(long.class, "hits", Modifier.PRIVATE)
+                .addField(long.class, "misses", Modifier.PRIVATE)
+                .addField(long.class, "evictions", Modifier.PRIVATE)
+                .addMethod(MethodSpec.methodBuilder("get")
+                        .addModifiers(Modifier.SYNCHRONIZED)
+                        .returns(entity)
+                        .addParameter(Object.class, "key")
+                        .addStatement("$T cached = entries.get(key)", cachedEntity)
+                        .beginControlFlow("if (cached != null && CACHE_TTL_MILLIS > 0\n$>$>"
+                                + "&& $T.currentTimeMillis() - cached.cachedAt >= CACHE_TTL_MILLIS)$<$<",
+                                System.class)
+                        .addStatement("entries.remove(key)")
+                        .addStatement("evictions++")
+                        .addStatement("cached = null")
+                        .endControlFlow()
+                        .beginControlFlow("if (cached == null)")
+                        .addStatement("misses++")
+                        .addStatement("return null")
+                        .endControlFlow()
+                        .addStatement("hits++")
+                        .addStatement("return copyOf(cached.entity)")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("put")
+                        .addModifiers(Modifier.SYNCHRONIZED)
+                        .addParameter(Object.class, "key")
+                        .addParameter(entity, "entity")
+                        .addParameter(long.class, "readGeneration")
+                        .beginControlFlow("if (readGeneration != generation)")
+                        .addStatement("return")
+                        .endControlFlow()
+                        .addStatement("entries.put(key, new $T(copyOf(entity), $T.currentTimeMillis()))",
+                                cachedEntity, System.class)
+                        .beginControlFlow("if (entries.size() > CACHE_SIZE)")
+                        .addStatement("$T<Object> eldest = entries.keySet().iterator()", Iterator.class)
+                        .addStatement("eldest.next()")
+                        .addStatement("eldest.remove()")
+                        .addStatement("evictions++")
+                        .endControlFlow()
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("invalidate")
+                        .addModifiers(Modifier.SYNCHRONIZED)
+                        .addParameter(Object.class, "key")
+                        .addStatement("generation++")
+                        .addStatement("entries.remove(key)")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("invalidateAll")
+                        .addModifiers(Modifier.SYNCHRONIZED)
+                        .addStatement("generation++")
+                        .addStatement("entries.clear()")
+                        .build())
+                .addMethods(counterSpecs)
+                .addType(cachedEntitySpec)
                 .build();
     }
 
@@ -436,9 +1016,501 @@ public class MySqlProcessor extends AbstractProcessor {
                 .build();
     }
 
-    private String getSimpleClassName(VariableElement variableElement) {
-        TypeMirror typeMirror = variableElement.asType();
-        Element typeElement = processingEnv.getTypeUtils().asElement(typeMirror);
-        return typeElement.getSimpleName().toString();
+    private void generateConnectionPool() {
+        JavaFile javaFile = JavaFile.builder(packageName, getConnectionPoolTypeSpec()).build();
+        try {
+            javaFile.writeTo(processingEnv.getFiler());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private TypeSpec getConnectionPoolTypeSpec() {
+        ClassName pool = ClassName.get(packageName, CONNECTION_POOL);
+        ClassName idleConnection = pool.nestedClass("IdleConnection");
+        TypeSpec idleConnectionSpec = TypeSpec.classBuilder(idleConnection)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addField(Connection.class, "connection", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(long.class, "since", Modifier.PRIVATE, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addParameter(Connection.class, "connection")
+                        .addParameter(long.class, "since")
+                        .addStatement("this.connection = connection")
+                        .addStatement("this.since = since")
+                        .build())
+                .build();
+
+        MethodSpec constructorSpec = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(String.class, "connectionUrl")
+                .addParameter(String.class, "username")
+                .addParameter(String.class, "password")
+                .addParameter(int.class, "maxSize")
+                .addParameter(long.class, "idleTimeoutMillis")
+                .beginControlFlow("if (maxSize < 1 || idleTimeoutMillis <= 0)")
+                .addStatement("throw new $T($S)", IllegalArgumentException.class,
+                        "maxSize and idleTimeoutMillis must be positive")
+                .endControlFlow()
+                .addStatement("this.connectionUrl = connectionUrl")
+                .addStatement("this.username = username")
+                .addStatement("this.password = password")
+                .addStatement("this.maxSize = maxSize")
+                .addStatement("this.idleTimeoutMillis = idleTimeoutMillis")
+                .addStatement("this.permits = new $T(maxSize, true)", Semaphore.class)
+                .addStatement("scheduleEviction(idleTimeoutMillis)")
+                .build();
+
+        MethodSpec sharedSpec = MethodSpec.methodBuilder("shared")
+                .addModifiers(Modifier.STATIC)
+                .returns(pool)
+                .addParameter(String.class, "connectionUrl")
+                .addParameter(String.class, "username")
+                .addParameter(String.class, "password")
+                .addParameter(int.class, "maxSize")
+                .addParameter(long.class, "idleTimeoutMillis")
+                .addComment("Keyed without the password, so it never sits in the map; a changed password opens a new pool")
+                .addCode("return SHARED.compute(connectionUrl + '\\0' + username, (key, existing) -> {\n$>")
+                .beginControlFlow("if (existing == null || existing.closed || !$T.equals(existing.password, password))",
+                        Objects.class)
+                .addStatement("return new $T(connectionUrl, username, password, maxSize, idleTimeoutMillis)", pool)
+                .endControlFlow()
+                .addStatement("existing.widen(maxSize, idleTimeoutMillis)")
+                .addStatement("return existing")
+                .addCode("$<});\n")
+                .build();
+
+        MethodSpec widenSpec = MethodSpec.methodBuilder("widen")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(int.class, "maxSize")
+                .addParameter(long.class, "idleTimeoutMillis")
+                .beginControlFlow("if (maxSize > this.maxSize)")
+                .addStatement("permits.release(maxSize - this.maxSize)")
+                .addStatement("this.maxSize = maxSize")
+                .endControlFlow()
+                .addStatement("this.idleTimeoutMillis = $T.min(this.idleTimeoutMillis, idleTimeoutMillis)", Math.class)
+                .build();
+
+        MethodSpec scheduleEvictionSpec = MethodSpec.methodBuilder("scheduleEviction")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(long.class, "delayMillis")
+                .addStatement("eviction = EVICTOR.schedule(this::evictIdle, delayMillis, $T.MILLISECONDS)", TimeUnit.class)
+                .build();
+
+        MethodSpec evictIdleSpec = MethodSpec.methodBuilder("evictIdle")
+                .addModifiers(Modifier.PRIVATE)
+                .addStatement("$T<$T> expired = new $T<>()", List.class, Connection.class, ArrayList.class)
+                .addStatement("long timeout = idleTimeoutMillis")
+                .addStatement("long nextDelay = timeout")
+                .beginControlFlow("synchronized (idle)")
+                .beginControlFlow("if (closed)")
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("long now = $T.currentTimeMillis()", System.class)
+                .beginControlFlow("while (!idle.isEmpty() && now - idle.peekLast().since >= timeout)")
+                .addStatement("expired.add(idle.pollLast().connection)")
+                .endControlFlow()
+                .beginControlFlow("if (!idle.isEmpty())")
+                .addStatement("nextDelay = timeout - (now - idle.peekLast().since)")
+                .endControlFlow()
+                .addStatement("scheduleEviction(nextDelay)")
+                .endControlFlow()
+                .addStatement("expired.forEach($T::closeQuietly)", pool)
+                .build();
+
+        MethodSpec closeSpec = MethodSpec.methodBuilder("close")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addStatement("$T<$T> open = new $T<>()", List.class, Connection.class, ArrayList.class)
+                .beginControlFlow("synchronized (idle)")
+                .beginControlFlow("if (closed)")
+                .addStatement("return")
+                .endControlFlow()
+                .addStatement("closed = true")
+                .addStatement("eviction.cancel(false)")
+                .addStatement("idle.forEach(candidate -> open.add(candidate.connection))")
+                .addStatement("idle.clear()")
+                .endControlFlow()
+                .addStatement("SHARED.remove(connectionUrl + '\\0' + username, this)")
+                .addStatement("open.forEach($T::closeQuietly)", pool)
+                .build();
+
+        MethodSpec getConnectionSpec = MethodSpec.methodBuilder("getConnection")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(Connection.class)
+                .addException(SQLException.class)
+                .beginControlFlow("if (closed)")
+                .addStatement("throw new $T($S + connectionUrl + $S)", SQLException.class, "Connection pool for ",
+                        " is closed")
+                .endControlFlow()
+                .beginControlFlow("try")
+                .beginControlFlow("if (!permits.tryAcquire(loginTimeout > 0 ? loginTimeout : $L, $T.SECONDS))",
+                        ACQUIRE_TIMEOUT_SECONDS, TimeUnit.class)
+                .addStatement("throw new $T($S + connectionUrl)", SQLTransientConnectionException.class,
+                        "Timed out waiting for a pooled connection to ")
+                .endControlFlow()
+                .nextControlFlow("catch ($T e)", InterruptedException.class)
+                .addStatement("$T.currentThread().interrupt()", Thread.class)
+                .addStatement("throw new $T($S, e)", SQLException.class, "Interrupted waiting for a pooled connection")
+                .endControlFlow()
+                .beginControlFlow("try")
+                .addStatement("return lease(borrow())")
+                .nextControlFlow("catch ($T | $T e)", SQLException.class, RuntimeException.class)
+                .addStatement("permits.release()")
+                .addStatement("throw e")
+                .endControlFlow()
+                .build();
+
+        MethodSpec borrowSpec = MethodSpec.methodBuilder("borrow")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(Connection.class)
+                .addException(SQLException.class)
+                .beginControlFlow("while (true)")
+                .addStatement("$T candidate", idleConnection)
+                .beginControlFlow("synchronized (idle)")
+                .addStatement("candidate = idle.pollFirst()")
+                .endControlFlow()
+                .beginControlFlow("if (candidate == null)")
+                .addStatement("return $T.getConnection(connectionUrl, username, password)", DriverManager.class)
+                .endControlFlow()
+                .addStatement("long idleMillis = $T.currentTimeMillis() - candidate.since", System.class)
+                .beginControlFlow("if (idleMillis < idleTimeoutMillis && (idleMillis < $L || candidate.connection.isValid($L)))",
+                        VALIDATE_AFTER_MILLIS, VALIDATION_TIMEOUT_SECONDS)
+                .addStatement("return candidate.connection")
+                .endControlFlow()
+                .addStatement("closeQuietly(candidate.connection)")
+                .endControlFlow()
+                .build();
+
+        MethodSpec leaseSpec = MethodSpec.methodBuilder("lease")
+                .addModifiers(Modifier.PRIVATE)
+                .returns(Connection.class)
+                .addParameter(Connection.class, "connection")
+                .addStatement("$T closed = new $T()", AtomicBoolean.class, AtomicBoolean.class)
+                .addStatement("$T failed = new $T()", AtomicBoolean.class, AtomicBoolean.class)
+                .addCode("return ($T) $T.newProxyInstance($T.class.getClassLoader(), new Class<?>[] {$T.class},\n$>$>"
+                        + "(proxy, method, args) -> {\n$>", Connection.class, Proxy.class, pool, Connection.class)
+                .beginControlFlow("switch (method.getName())")
+                .addCode("case $S:\n$>", "close")
+                .beginControlFlow("if (closed.compareAndSet(false, true))")
+                .addStatement("release(connection, failed.get())")
+                .endControlFlow()
+                .addStatement("return null")
+                .addCode("$<case $S:\n$>", "isClosed")
+                .addStatement("return closed.get() || connection.isClosed()")
+                .addCode("$<case $S:\n$>", "equals")
+                .addStatement("return proxy == args[0]")
+                .addCode("$<case $S:\n$>", "hashCode")
+                .addStatement("return $T.identityHashCode(proxy)", System.class)
+                .addCode("$<case $S:\n$>", "toString")
+                .addStatement("return $S + connection", "Pooled ")
+                .addCode("$<default:\n$>")
+                .beginControlFlow("if (closed.get())")
+                .addStatement("throw new $T($S)", SQLException.class, "Connection is closed")
+                .endControlFlow()
+                .beginControlFlow("try")
+                .addStatement("return method.invoke(connection, args)")
+                .nextControlFlow("catch ($T e)", InvocationTargetException.class)
+                .beginControlFlow("if (e.getCause() instanceof $T)", SQLException.class)
+                .addStatement("failed.set(true)")
+                .endControlFlow()
+                .addStatement("throw e.getCause()")
+                .endControlFlow()
+                .addCode("$<")
+                .endControlFlow()
+                .addCode("$<});\n$<$<")
+                .build();
+
+        MethodSpec releaseSpec = MethodSpec.methodBuilder("release")
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(Connection.class, "connection")
+                .addParameter(boolean.class, "failed")
+                .beginControlFlow("try")
+                .beginControlFlow("if (connection.isClosed() || failed && !connection.isValid($L))",
+                        VALIDATION_TIMEOUT_SECONDS)
+                .addStatement("closeQuietly(connection)")
+                .addStatement("return")
+                .endControlFlow()
+                .beginControlFlow("if (!connection.getAutoCommit())")
+                .addStatement("connection.rollback()")
+                .addStatement("connection.setAutoCommit(true)")
+                .endControlFlow()
+                .addStatement("$T<$T> expired = new $T<>()", List.class, Connection.class, ArrayList.class)
+                .addStatement("long now = $T.currentTimeMillis()", System.class)
+                .beginControlFlow("synchronized (idle)")
+                .beginControlFlow("if (closed)")
+                .addStatement("expired.add(connection)")
+                .nextControlFlow("else")
+                .addStatement("idle.addFirst(new $T(connection, now))", idleConnection)
+                .beginControlFlow("while (now - idle.peekLast().since >= idleTimeoutMillis)")
+                .addStatement("expired.add(idle.pollLast().connection)")
+                .endControlFlow()
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("expired.forEach($T::closeQuietly)", pool)
+                .nextControlFlow("catch ($T e)", SQLException.class)
+                .addStatement("closeQuietly(connection)")
+                .nextControlFlow("finally")
+                .addStatement("permits.release()")
+                .endControlFlow()
+                .build();
+
+        MethodSpec closeQuietlySpec = MethodSpec.methodBuilder("closeQuietly")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .addParameter(Connection.class, "connection")
+                .beginControlFlow("try")
+                .addStatement("connection.close()")
+                .nextControlFlow("catch ($T ignored)", SQLException.class)
+                .endControlFlow()
+                .build();
+
+        TypeVariableName t = TypeVariableName.get("T");
+        ParameterizedTypeName wildcardClass = ParameterizedTypeName.get(ClassName.get(Class.class),
+                WildcardTypeName.subtypeOf(Object.class));
+        List<MethodSpec> dataSourceMethods = Arrays.asList(
+                MethodSpec.methodBuilder("getConnection")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(Connection.class)
+                        .addParameter(String.class, "username")
+                        .addParameter(String.class, "password")
+                        .addException(SQLException.class)
+                        .addStatement("throw new $T($S)", SQLFeatureNotSupportedException.class,
+                                "Pooled connections are opened with the credentials of the pool")
+                        .build(),
+                MethodSpec.methodBuilder("getLogWriter")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(PrintWriter.class)
+                        .addStatement("return logWriter")
+                        .build(),
+                MethodSpec.methodBuilder("setLogWriter")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(PrintWriter.class, "logWriter")
+                        .addStatement("this.logWriter = logWriter")
+                        .build(),
+                MethodSpec.methodBuilder("getLoginTimeout")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(int.class)
+                        .addStatement("return loginTimeout")
+                        .build(),
+                MethodSpec.methodBuilder("setLoginTimeout")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(int.class, "seconds")
+                        .addStatement("this.loginTimeout = seconds")
+                        .build(),
+                MethodSpec.methodBuilder("getParentLogger")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(Logger.class)
+                        .addException(SQLFeatureNotSupportedException.class)
+                        .addStatement("throw new $T()", SQLFeatureNotSupportedException.class)
+                        .build(),
+                MethodSpec.methodBuilder("unwrap")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addTypeVariable(t)
+                        .returns(t)
+                        .addParameter(ParameterizedTypeName.get(ClassName.get(Class.class), t), "iface")
+                        .addException(SQLException.class)
+                        .beginControlFlow("if (iface.isInstance(this))")
+                        .addStatement("return iface.cast(this)")
+                        .endControlFlow()
+                        .addStatement("throw new $T($S + iface)", SQLException.class, "Not a wrapper for ")
+                        .build(),
+                MethodSpec.methodBuilder("isWrapperFor")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(boolean.class)
+                        .addParameter(wildcardClass, "iface")
+                        .addStatement("return iface.isInstance(this)")
+                        .build()
+        );
+
+        return TypeSpec.classBuilder(pool)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addSuperinterface(DataSource.class)
+                .addSuperinterface(AutoCloseable.class)
+                .addField(FieldSpec.builder(ScheduledExecutorService.class, "EVICTOR",
+                                Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("$T.newSingleThreadScheduledExecutor(task -> {\n$>"
+                                + "$T thread = new $T(task, $S);\n"
+                                + "thread.setDaemon(true);\n"
+                                + "return thread;\n$<})", Executors.class, Thread.class, Thread.class,
+                                CONNECTION_POOL + "-evictor")
+                        .build())
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(ConcurrentMap.class),
+                                ClassName.get(String.class), pool), "SHARED",
+                                Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("new $T<>()", ConcurrentHashMap.class)
+                        .build())
+                .addField(String.class, "connectionUrl", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(String.class, "username", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(String.class, "password", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(int.class, "maxSize", Modifier.PRIVATE)
+                .addField(long.class, "idleTimeoutMillis", Modifier.PRIVATE, Modifier.VOLATILE)
+                .addField(Semaphore.class, "permits", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(Deque.class), idleConnection),
+                                "idle", Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T<>()", ArrayDeque.class)
+                        .build())
+                .addField(int.class, "loginTimeout", Modifier.PRIVATE, Modifier.VOLATILE)
+                .addField(PrintWriter.class, "logWriter", Modifier.PRIVATE, Modifier.VOLATILE)
+                .addField(ParameterizedTypeName.get(ClassName.get(ScheduledFuture.class),
+                        WildcardTypeName.subtypeOf(Object.class)), "eviction", Modifier.PRIVATE, Modifier.VOLATILE)
+                .addField(boolean.class, "closed", Modifier.PRIVATE, Modifier.VOLATILE)
+                .addMethod(constructorSpec)
+                .addMethod(sharedSpec)
+                .addMethod(widenSpec)
+                .addMethod(scheduleEvictionSpec)
+                .addMethod(evictIdleSpec)
+                .addMethod(closeSpec)
+                .addMethod(getConnectionSpec)
+                .addMethod(borrowSpec)
+                .addMethod(leaseSpec)
+                .addMethod(releaseSpec)
+                .addMethod(closeQuietlySpec)
+                .addMethods(dataSourceMethods)
+                .addType(idleConnectionSpec)
+                .build();
+    }
+
+    private String getColumnType(VariableElement field) {
+        String typeName = getQualifiedTypeName(field);
+        if (typeName == null) {
+            return null;
+        }
+        switch (typeName) {
+            case "java.lang.String":
+                return "VARCHAR(255)";
+            case "java.lang.Boolean":
+                return "BOOLEAN";
+            case "java.lang.Byte":
+                return "TINYINT";
+            case "java.lang.Short":
+                return "SMALLINT";
+            case "java.lang.Integer":
+                return "INT";
+            case "java.lang.Long":
+                return "BIGINT";
+            case "java.lang.Float":
+                return "FLOAT";
+            case "java.lang.Double":
+                return "DOUBLE";
+            case "java.lang.Character":
+                return "CHAR(1)";
+            case "java.math.BigDecimal":
+                return "DECIMAL(19, 4)";
+            case "java.sql.Date":
+                return "DATE";
+            case "java.sql.Time":
+                return "TIME";
+            case "java.sql.Timestamp":
+                return "TIMESTAMP";
+            default:
+                return null;
+        }
+    }
+
+    private String getJdbcAccessor(VariableElement field) {
+        switch (getQualifiedTypeName(field)) {
+            case "java.lang.Integer":
+                return "Int";
+            case "java.lang.Character":
+                return "String";
+            case "java.math.BigDecimal":
+                return "BigDecimal";
+            default:
+                return getSimpleClassName(getQualifiedTypeName(field));
+        }
+    }
+
+    private String getQualifiedTypeName(VariableElement field) {
+        TypeMirror type = field.asType();
+        if (type.getKind().isPrimitive()) {
+            return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).getQualifiedName().toString();
+        }
+        if (type.getKind() == TypeKind.DECLARED) {
+            return processingEnv.getTypeUtils().erasure(type).toString();
+        }
+        return null;
+    }
+
+    private void addBindStatement(MethodSpec.Builder builder, VariableElement field, String index, String value) {
+        String argument = getQualifiedTypeName(field).equals("java.lang.Character")
+                ? "String.valueOf(" + value + ")" : value;
+        TypeName type = TypeName.get(field.asType());
+        if (!type.isBoxedPrimitive()) {
+            builder.addStatement("preparedStatement.set$L($L, $L)", getJdbcAccessor(field), index, argument);
+            return;
+        }
+        builder.beginControlFlow("if ($L == null)", value)
+                .addStatement("preparedStatement.setNull($L, $T.$L)", index, Types.class, getSqlType(type))
+                .nextControlFlow("else")
+                .addStatement("preparedStatement.set$L($L, $L)", getJdbcAccessor(field), index, argument)
+                .endControlFlow();
+    }
+
+    private static String getSqlType(TypeName boxedType) {
+        TypeName type = boxedType.unbox();
+        if (type.equals(TypeName.BOOLEAN)) {
+            return "BOOLEAN";
+        } else if (type.equals(TypeName.BYTE)) {
+            return "TINYINT";
+        } else if (type.equals(TypeName.SHORT)) {
+            return "SMALLINT";
+        } else if (type.equals(TypeName.INT)) {
+            return "INTEGER";
+        } else if (type.equals(TypeName.LONG)) {
+            return "BIGINT";
+        } else if (type.equals(TypeName.FLOAT)) {
+            return "REAL";
+        } else if (type.equals(TypeName.DOUBLE)) {
+            return "DOUBLE";
+        }
+        return "CHAR";
+    }
+
+    private void addReadStatement(MethodSpec.Builder builder, VariableElement field, int columnIndex) {
+        String fieldName = field.getSimpleName().toString();
+        String setter = "set" + StringUtil.capitalizeFirstLetter(fieldName);
+        TypeName type = TypeName.get(field.asType());
+        if (type.equals(TypeName.CHAR)) {
+            builder.addStatement("dto.$L(resultSet.getString($L).charAt(0))", setter, columnIndex);
+        } else if (type.equals(TypeName.CHAR.box())) {
+            builder.addStatement("String $LValue = resultSet.getString($L)", fieldName, columnIndex)
+                    .addStatement("dto.$L($LValue == null ? null : $LValue.charAt(0))", setter, fieldName, fieldName);
+        } else if (type.isBoxedPrimitive()) {
+            builder.addStatement("dto.$L(resultSet.getObject($L, $T.class))", setter, columnIndex, type);
+        } else {
+            builder.addStatement("dto.$L(resultSet.get$L($L))", setter, getJdbcAccessor(field), columnIndex);
+        }
+    }
+
+    private String getColumnName(VariableElement field) {
+        return StringUtil.camelCaseToUnderscore(field.getSimpleName().toString());
+    }
+
+    private static String getKeyArguments(List<VariableElement> uniqueFields, String entityVariable) {
+        List<String> arguments = new ArrayList<>();
+        for (VariableElement uniqueField : uniqueFields) {
+            String fieldName = uniqueField.getSimpleName().toString();
+            arguments.add(entityVariable == null ? fieldName
+                    : entityVariable + ".get" + StringUtil.capitalizeFirstLetter(fieldName) + "()");
+        }
+        return String.join(", ", arguments);
+    }
+
+    private static List<VariableElement> concat(List<VariableElement> first, List<VariableElement> second) {
+        List<VariableElement> all = new ArrayList<>(first);
+        all.addAll(second);
+        return all;
+    }
+
+    private static String getSimpleClassName(String qualifiedName) {
+        return qualifiedName.substring(qualifiedName.lastIndexOf('.') + 1);
     }
 }
@@ -0,0 +1,309 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles an APPEND_LOG entity with {@link FileDBProcessor} and runs the generated DAO against a temporary directory.
+ */
+class FileDBAppendLogTest {
+    private static final String ORDER = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.APPEND_LOG, compactionThreshold = 0.3)
+            public class Order {
+                @UniqueKey
+                private String code;
+                @Persisted
+                private int quantity;
+                @Persisted
+                private String note;
+
+                public static Order of(String code, int quantity, String note) {
+                    Order order = new Order();
+                    order.setCode(code);
+                    order.setQuantity(quantity);
+                    order.setNote(note);
+                    return order;
+                }
+
+                public String getCode() { return code; }
+                public void setCode(String code) { this.code = code; }
+                public int getQuantity() { return quantity; }
+                public void setQuantity(int quantity) { this.quantity = quantity; }
+                public String getNote() { return note; }
+                public void setNote(String note) { this.note = note; }
+
+                @Override
+                public String toString() {
+                    return code + ":" + quantity + ":" + note;
+                }
+            }
+            """;
+
+    private static final String ORDER_CALLS = """
+            package sample;
+
+            import java.io.File;
+            import java.util.ArrayList;
+            import java.util.Collection;
+            import java.util.Iterator;
+            import java.util.List;
+            import java.util.stream.Collectors;
+            import java.util.stream.Stream;
+
+            public class OrderCalls {
+                public static List<String> write(String directory) throws Exception {
+                    OrderDao orderDao = new OrderDaoImpl(directory);
+                    orderDao.add(Order.of("a", 1, "first"));
+                    orderDao.add(Order.of("b", 2, null));
+                    orderDao.add(Order.of("c", 3, "third"));
+                    orderDao.update(Order.of("a", 10, "updated"));
+                    orderDao.delete(Order.of("b", 0, null));
+                    return render(orderDao.getAll());
+                }
+
+                public static List<String> read(String directory) throws Exception {
+                    return render(new OrderDaoImpl(directory).getAll());
+                }
+
+                public static String find(String directory, String code) throws Exception {
+                    OrderDao orderDao = new OrderDaoImpl(directory);
+                    String found = orderDao.findByKey(code).map(Order::toString).orElse("none");
+                    return found + " " + orderDao.existsByKey(code);
+                }
+
+                public static List<String> stream(String directory) throws Exception {
+                    try (Stream<Order> orders = new OrderDaoImpl(directory).stream()) {
+                        return orders.map(Order::toString).sorted().collect(Collectors.toList());
+                    }
+                }
+
+                public static void add(String directory, String code) throws Exception {
+                    new OrderDaoImpl(directory).add(Order.of(code, 0, null));
+                }
+
+                public static void update(String directory, String code) throws Exception {
+                    new OrderDaoImpl(directory).update(Order.of(code, 0, null));
+                }
+
+                public static void delete(String directory, String code) throws Exception {
+                    new OrderDaoImpl(directory).delete(Order.of(code, 0, null));
+                }
+
+                public static void addAll(String directory, List<String> codes) throws Exception {
+                    new OrderDaoImpl(directory).addAll(codes.stream().map(code -> Order.of(code, 0, "batch")).toList());
+                }
+
+                public static void churn(String directory, int updates) throws Exception {
+                    OrderDao orderDao = new OrderDaoImpl(directory);
+                    orderDao.add(Order.of("hot", 0, null));
+                    for (int i = 1; i <= updates; i++) {
+                        orderDao.update(Order.of("hot", i, "v" + i));
+                    }
+                }
+
+                public static List<String> shareFile(String directory) throws Exception {
+                    OrderDao first = new OrderDaoImpl(directory);
+                    OrderDao second = new OrderDaoImpl(directory);
+                    first.add(Order.of("x", 1, "from first"));
+                    second.update(Order.of("x", 2, "from second"));
+                    second.add(Order.of("y", 3, null));
+                    return render(first.getAll());
+                }
+
+                public static List<String> streamDuringChurn(String directory) throws Exception {
+                    new OrderDaoImpl(directory).addAll(List.of(Order.of("a", 1, null), Order.of("b", 2, null),
+                            Order.of("c", 3, null)));
+                    List<String> streamed = new ArrayList<>();
+                    long sizeWhileOpen;
+                    try (Stream<Order> orders = new OrderDaoImpl(directory).stream()) {
+                        Iterator<Order> iterator = orders.iterator();
+                        streamed.add(iterator.next().getCode());
+                        churn(directory, 300);
+                        Thread.sleep(200);
+                        sizeWhileOpen = new File(directory, "order.db").length();
+                        iterator.forEachRemaining(order -> streamed.add(order.getCode()));
+                    }
+                    new OrderDaoImpl(directory).update(Order.of("hot", 301, "v301"));
+                    return List.of("distinct " + (streamed.size() == streamed.stream().distinct().count()),
+                            "compacted while open " + (sizeWhileOpen <= 200));
+                }
+
+                private static List<String> render(Collection<Order> orders) {
+                    return orders.stream().map(Order::toString).sorted().collect(Collectors.toList());
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                ORDER, ORDER_CALLS);
+    }
+
+    @Test
+    void writesSurviveReopen(@TempDir Path data) throws Exception {
+        assertEquals(List.of("a:10:updated", "c:3:third"), call("write", data.toString()));
+
+        assertEquals(List.of("a:10:updated", "c:3:third"), call("read", data.toString()));
+        assertEquals(List.of("a:10:updated", "c:3:third"), call("stream", data.toString()));
+        assertEquals("c:3:third true", call("find", data.toString(), "c"));
+        assertEquals("none false", call("find", data.toString(), "b"));
+    }
+
+    @Test
+    void rejectsDuplicateAddsAndMissingKeys(@TempDir Path data) throws Exception {
+        call("add", data.toString(), "a");
+
+        assertRequestException(() -> call("add", data.toString(), "a"));
+        assertRequestException(() -> call("update", data.toString(), "b"));
+        assertRequestException(() -> call("delete", data.toString(), "b"));
+        assertEquals(List.of("a:0:null"), call("read", data.toString()));
+    }
+
+    @Test
+    void batchWithDuplicateWritesNothing(@TempDir Path data) throws Exception {
+        call("add", data.toString(), "a");
+
+        assertRequestException(() -> call("addAll", data.toString(), List.of("b", "a")));
+        assertRequestException(() -> call("addAll", data.toString(), List.of("c", "c")));
+        assertEquals(List.of("a:0:null"), call("read", data.toString()));
+
+        call("addAll", data.toString(), List.of("b", "c"));
+        assertEquals(List.of("a:0:null", "b:0:batch", "c:0:batch"), call("read", data.toString()));
+    }
+
+    @Test
+    void compactionDropsOverwrittenEntries(@TempDir Path data) throws Exception {
+        call("churn", data.toString(), 300);
+
+        awaitCompaction(data.resolve("order.db"), 150);
+        assertEquals(List.of("hot:300:v300"), call("read", data.toString()));
+    }
+
+    @Test
+    void openStreamHoldsOffCompactionUntilClosed(@TempDir Path data) throws Exception {
+        assertEquals(List.of("distinct true", "compacted while open false"),
+                call("streamDuringChurn", data.toString()));
+
+        awaitCompaction(data.resolve("order.db"), 200);
+        assertEquals(List.of("a:1:null", "b:2:null", "c:3:null", "hot:301:v301"), call("read", data.toString()));
+    }
+
+    @Test
+    void damageBeforeTheLastEntryFailsAndLeavesTheLog(@TempDir Path data) throws Exception {
+        Path log = addThree(data);
+        byte[] damaged = Files.readAllBytes(log);
+        // A string length pointing past the end of the file must not pass for a torn tail; String keys keep no
+        // key table, so the log is all there is.
+        int note = indexOf(damaged, "batch") - 4;
+        damaged[note] = 0x00;
+        damaged[note + 1] = 0x7f;
+        Files.write(log, damaged);
+
+        assertServiceException(() -> call("read", data.toString()));
+        assertServiceException(() -> call("add", data.toString(), "d"));
+        assertArrayEquals(damaged, Files.readAllBytes(log));
+    }
+
+    @Test
+    void tornLastEntryIsCutOffByTheNextAppend(@TempDir Path data) throws Exception {
+        Path log = addThree(data);
+        byte[] bytes = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertEquals(List.of("a:0:null", "b:0:batch"), call("read", data.toString()));
+        call("add", data.toString(), "d");
+        assertEquals(List.of("a:0:null", "b:0:batch", "d:0:null"), call("read", data.toString()));
+    }
+
+    @Test
+    void zerosAfterTheLastEntryAreIgnored(@TempDir Path data) throws Exception {
+        Path log = addThree(data);
+        byte[] bytes = Files.readAllBytes(log);
+        Files.write(log, Arrays.copyOf(bytes, bytes.length + 64));
+
+        assertEquals(List.of("a:0:null", "b:0:batch", "c:0:batch"), call("read", data.toString()));
+        call("add", data.toString(), "d");
+        assertEquals(List.of("a:0:null", "b:0:batch", "c:0:batch", "d:0:null"), call("read", data.toString()));
+    }
+
+    @Test
+    void instancesSharingFileSeeEachOthersWrites(@TempDir Path data) throws Exception {
+        assertEquals(List.of("x:2:from second", "y:3:null"), call("shareFile", data.toString()));
+    }
+
+    /**
+     * Compaction runs in the background once enough of the log is dead, so give it a moment to shrink the log to at
+     * most {@code bytes}.
+     */
+    private static void awaitCompaction(Path log, long bytes) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (Files.size(log) > bytes && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(Files.size(log) <= bytes, () -> log.getFileName() + " still holds " + log.toFile().length() + " bytes");
+    }
+
+    /**
+     * Writes a log without dead entries, so no compaction rewrites it behind the test's back.
+     */
+    private static Path addThree(Path data) throws Exception {
+        call("add", data.toString(), "a");
+        call("addAll", data.toString(), List.of("b", "c"));
+        return data.resolve("order.db");
+    }
+
+    private static int indexOf(byte[] bytes, String text) {
+        byte[] target = text.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + target.length <= bytes.length; i++) {
+            if (Arrays.equals(bytes, i, i + target.length, target, 0, target.length)) {
+                return i;
+            }
+        }
+        throw new AssertionError(text + " is not in the log");
+    }
+
+    private static void assertServiceException(ThrowingCall call) {
+        Exception e = assertThrows(Exception.class, call::run);
+        assertEquals("OrderServiceException", e.getClass().getSimpleName(), e::toString);
+    }
+
+    private static void assertRequestException(ThrowingCall call) {
+        Exception e = assertThrows(Exception.class, call::run);
+        assertEquals("OrderRequestException", e.getClass().getSimpleName(), e::toString);
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.OrderCalls", name, arguments);
+    }
+
+    private interface ThrowingCall {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,145 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles an entity with {@link FileDBProcessor} and drives the generated asynchronous DAO.
+ */
+class FileDBAsyncDaoTest {
+    private static final String TASK = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated
+            public class Task {
+                @UniqueKey
+                private int id;
+                @Persisted
+                private String title;
+
+                public static Task of(int id, String title) {
+                    Task task = new Task();
+                    task.setId(id);
+                    task.setTitle(title);
+                    return task;
+                }
+
+                public int getId() { return id; }
+                public void setId(int id) { this.id = id; }
+                public String getTitle() { return title; }
+                public void setTitle(String title) { this.title = title; }
+            }
+            """;
+
+    private static final String TASK_CALLS = """
+            package sample;
+
+            import java.util.ArrayList;
+            import java.util.List;
+            import java.util.concurrent.CompletableFuture;
+            import java.util.concurrent.CompletionException;
+
+            public class TaskCalls {
+                public static List<String> coalesce(String directory) throws Exception {
+                    List<String> outcomes = new ArrayList<>();
+                    try (TaskAsyncDao taskDao = new TaskAsyncDaoImpl(new TaskDaoImpl(directory))) {
+                        List<CompletableFuture<Void>> adds = new ArrayList<>();
+                        for (int id = 0; id < 500; id++) {
+                            adds.add(taskDao.add(Task.of(id, "t" + id)));
+                        }
+                        CompletableFuture<Void> duplicate = taskDao.add(Task.of(7, "again"));
+                        CompletableFuture<Void> update = taskDao.update(Task.of(8, "updated"));
+                        CompletableFuture<Void> delete = taskDao.delete(Task.of(9, null));
+                        taskDao.flush().join();
+
+                        outcomes.add("adds " + adds.stream().filter(future -> !future.isCompletedExceptionally()).count());
+                        outcomes.add("duplicate " + outcome(duplicate));
+                        outcomes.add("update " + outcome(update));
+                        outcomes.add("delete " + outcome(delete));
+                        outcomes.add("7 " + taskDao.findByKey(7).join().map(Task::getTitle).orElse("none"));
+                        outcomes.add("8 " + taskDao.findByKey(8).join().map(Task::getTitle).orElse("none"));
+                        outcomes.add("9 " + taskDao.existsByKey(9).join());
+                    }
+                    outcomes.add("reopened " + new TaskDaoImpl(directory).getAll().size());
+                    return outcomes;
+                }
+
+                public static String copyOnEnqueue(String directory) throws Exception {
+                    try (TaskAsyncDao taskDao = new TaskAsyncDaoImpl(new TaskDaoImpl(directory))) {
+                        Task task = Task.of(1, "before");
+                        CompletableFuture<Void> add = taskDao.add(task);
+                        task.setId(2);
+                        task.setTitle("after");
+                        add.join();
+                        return taskDao.findByKey(1).join().map(Task::getTitle).orElse("none") + " "
+                                + taskDao.existsByKey(2).join();
+                    }
+                }
+
+                public static List<String> closeDrainsQueue(String directory) throws Exception {
+                    TaskAsyncDao taskDao = new TaskAsyncDaoImpl(new TaskDaoImpl(directory));
+                    List<CompletableFuture<Void>> adds = new ArrayList<>();
+                    for (int id = 0; id < 200; id++) {
+                        adds.add(taskDao.add(Task.of(id, "t" + id)));
+                    }
+                    taskDao.close();
+                    return List.of("done " + adds.stream().filter(CompletableFuture::isDone).count(),
+                            "stored " + new TaskDaoImpl(directory).getAll().size(),
+                            "after close " + outcome(taskDao.add(Task.of(1000, "late"))));
+                }
+
+                private static String outcome(CompletableFuture<Void> future) {
+                    try {
+                        future.join();
+                        return "ok";
+                    } catch (CompletionException e) {
+                        return e.getCause().getClass().getSimpleName();
+                    }
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                TASK, TASK_CALLS);
+    }
+
+    @Test
+    void coalescedWritesFailOnlyTheRejectedOne(@TempDir Path data) throws Exception {
+        assertEquals(List.of("adds 500", "duplicate TaskRequestException", "update ok", "delete ok", "7 t7",
+                "8 updated", "9 false", "reopened 499"), call("coalesce", data.toString()));
+    }
+
+    @Test
+    void writeIsCopiedWhenEnqueued(@TempDir Path data) throws Exception {
+        assertEquals("before false", call("copyOnEnqueue", data.toString()));
+    }
+
+    @Test
+    void closeAppliesQueuedWritesThenRefusesNewOnes(@TempDir Path data) throws Exception {
+        assertEquals(List.of("done 200", "stored 200", "after close IllegalStateException"),
+                call("closeDrainsQueue", data.toString()));
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.TaskCalls", name, arguments);
+    }
+}
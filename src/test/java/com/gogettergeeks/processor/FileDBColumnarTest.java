@@ -0,0 +1,173 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles a COLUMNAR entity with {@link FileDBProcessor} and checks full reads and projection reads of the
+ * generated DAO.
+ */
+class FileDBColumnarTest {
+    private static final String SALE = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.COLUMNAR)
+            public class Sale {
+                public enum Channel { SHOP, WEB }
+
+                @UniqueKey
+                private int id;
+                @Persisted
+                private String region;
+                @Persisted
+                private Channel channel;
+                @Persisted
+                private double amount;
+                @Persisted
+                private Long voucher;
+
+                public static Sale of(int id, String region, Channel channel, double amount, Long voucher) {
+                    Sale sale = new Sale();
+                    sale.setId(id);
+                    sale.setRegion(region);
+                    sale.setChannel(channel);
+                    sale.setAmount(amount);
+                    sale.setVoucher(voucher);
+                    return sale;
+                }
+
+                public int getId() { return id; }
+                public void setId(int id) { this.id = id; }
+                public String getRegion() { return region; }
+                public void setRegion(String region) { this.region = region; }
+                public Channel getChannel() { return channel; }
+                public void setChannel(Channel channel) { this.channel = channel; }
+                public double getAmount() { return amount; }
+                public void setAmount(double amount) { this.amount = amount; }
+                public Long getVoucher() { return voucher; }
+                public void setVoucher(Long voucher) { this.voucher = voucher; }
+
+                @Override
+                public String toString() {
+                    return id + ":" + region + ":" + channel + ":" + amount + ":" + voucher;
+                }
+            }
+            """;
+
+    private static final String SALE_CALLS = """
+            package sample;
+
+            import java.util.ArrayList;
+            import java.util.Comparator;
+            import java.util.List;
+            import java.util.stream.Collectors;
+            import java.util.stream.Stream;
+
+            public class SaleCalls {
+                private static final String[] REGIONS = {"north", "south", "east"};
+
+                public static void write(String directory, int count) throws Exception {
+                    List<Sale> sales = new ArrayList<>();
+                    for (int id = 0; id < count; id++) {
+                        sales.add(Sale.of(id, id % 7 == 0 ? null : REGIONS[id % 3],
+                                id % 5 == 0 ? null : Sale.Channel.values()[id % 2], id * 1.5,
+                                id % 2 == 0 ? Long.valueOf(-id) : null));
+                    }
+                    SaleDao saleDao = new SaleDaoImpl(directory);
+                    saleDao.addAll(sales);
+                    saleDao.update(Sale.of(3, "west", Sale.Channel.SHOP, 0.25, 9L));
+                    saleDao.delete(Sale.of(4, null, null, 0, null));
+                }
+
+                public static List<String> all(String directory) throws Exception {
+                    return new SaleDaoImpl(directory).getAll().stream().sorted(Comparator.comparingInt(Sale::getId))
+                            .map(Sale::toString).collect(Collectors.toList());
+                }
+
+                public static List<String> streamed(String directory) throws Exception {
+                    try (Stream<Sale> sales = new SaleDaoImpl(directory).stream()) {
+                        return sales.sorted(Comparator.comparingInt(Sale::getId)).map(Sale::toString)
+                                .collect(Collectors.toList());
+                    }
+                }
+
+                public static String find(String directory, int id) throws Exception {
+                    return new SaleDaoImpl(directory).findByKey(id).map(Sale::toString).orElse("none");
+                }
+
+                public static List<String> columns(String directory) throws Exception {
+                    SaleDao saleDao = new SaleDaoImpl(directory);
+                    return List.of("ids " + saleDao.readIdColumn().size(),
+                            "total " + saleDao.readAmountColumn().stream().mapToDouble(Double::doubleValue).sum(),
+                            "north " + saleDao.readRegionColumn().stream().filter("north"::equals).count(),
+                            "no region " + saleDao.readRegionColumn().stream().filter(region -> region == null).count(),
+                            "web " + saleDao.readChannelColumn().stream().filter(Sale.Channel.WEB::equals).count(),
+                            "vouchers " + saleDao.readVoucherColumn().stream().filter(voucher -> voucher != null).count());
+                }
+
+                public static List<String> projected(String directory) throws Exception {
+                    return new SaleDaoImpl(directory).readColumns(SaleColumn.ID, SaleColumn.REGION).stream()
+                            .sorted(Comparator.comparingInt(Sale::getId)).limit(4).map(Sale::toString)
+                            .collect(Collectors.toList());
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                SALE, SALE_CALLS);
+    }
+
+    @Test
+    void recordsRoundTripAcrossReopen(@TempDir Path data) throws Exception {
+        call("write", data.toString(), 50);
+
+        List<?> all = (List<?>) call("all", data.toString());
+        assertEquals(49, all.size());
+        assertEquals(List.of("0:null:null:0.0:0", "1:south:WEB:1.5:null", "2:east:SHOP:3.0:-2",
+                "3:west:SHOP:0.25:9", "5:east:null:7.5:null"), all.subList(0, 5));
+        assertEquals(all, call("streamed", data.toString()));
+        assertEquals("7:null:WEB:10.5:null", call("find", data.toString(), 7));
+        assertEquals("none", call("find", data.toString(), 4));
+    }
+
+    @Test
+    void columnReadersDecodeOneFieldEach(@TempDir Path data) throws Exception {
+        call("write", data.toString(), 50);
+
+        // 1.5 * (0 + ... + 49) = 1837.5, minus the 4.5 of id 3 replaced by 0.25 and the 6.0 of the deleted id 4.
+        assertEquals(List.of("ids 49", "total 1827.25", "north 13", "no region 8", "web 19", "vouchers 25"),
+                call("columns", data.toString()));
+    }
+
+    @Test
+    void projectionLeavesUnselectedFieldsUnset(@TempDir Path data) throws Exception {
+        call("write", data.toString(), 10);
+
+        assertEquals(List.of("0:null:null:0.0:null", "1:south:null:0.0:null", "2:east:null:0.0:null",
+                "3:west:null:0.0:null"), call("projected", data.toString()));
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.SaleCalls", name, arguments);
+    }
+}
@@ -0,0 +1,178 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles block compressed REWRITE and APPEND_LOG entities with {@link FileDBProcessor} and runs the generated DAOs.
+ */
+class FileDBCompressionTest {
+    private static final String MEMO = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(compressed = true, blockSize = 1024)
+            public class Memo {
+                @UniqueKey
+                private int id;
+                @Persisted
+                private String text;
+
+                public static Memo of(int id, String text) {
+                    Memo memo = new Memo();
+                    memo.setId(id);
+                    memo.setText(text);
+                    return memo;
+                }
+
+                public int getId() { return id; }
+                public void setId(int id) { this.id = id; }
+                public String getText() { return text; }
+                public void setText(String text) { this.text = text; }
+            }
+            """;
+
+    private static final String READING = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.APPEND_LOG, compressed = true, blockSize = 512)
+            public class Reading {
+                @UniqueKey
+                private long id;
+                @Persisted
+                private String sensor;
+                @Persisted
+                private double value;
+
+                public static Reading of(long id, double value) {
+                    Reading reading = new Reading();
+                    reading.setId(id);
+                    reading.setSensor("sensor-" + id % 4);
+                    reading.setValue(value);
+                    return reading;
+                }
+
+                public long getId() { return id; }
+                public void setId(long id) { this.id = id; }
+                public String getSensor() { return sensor; }
+                public void setSensor(String sensor) { this.sensor = sensor; }
+                public double getValue() { return value; }
+                public void setValue(double value) { this.value = value; }
+            }
+            """;
+
+    private static final String COMPRESSION_CALLS = """
+            package sample;
+
+            import java.util.ArrayList;
+            import java.util.List;
+
+            public class CompressionCalls {
+                public static void addMemos(String directory, int count) throws Exception {
+                    List<Memo> memos = new ArrayList<>();
+                    for (int id = 0; id < count; id++) {
+                        memos.add(Memo.of(id, "the same sentence compresses well, " + id));
+                    }
+                    new MemoDaoImpl(directory).addAll(memos);
+                }
+
+                public static String memo(String directory, int id) throws Exception {
+                    return new MemoDaoImpl(directory).findByKey(id).map(Memo::getText).orElse("none");
+                }
+
+                public static int memoCount(String directory) throws Exception {
+                    return new MemoDaoImpl(directory).getAll().size();
+                }
+
+                public static void addReadings(String directory, long from, long to) throws Exception {
+                    ReadingDao readingDao = new ReadingDaoImpl(directory);
+                    for (long id = from; id < to; id++) {
+                        readingDao.add(Reading.of(id, id / 2.0));
+                    }
+                }
+
+                public static void updateReading(String directory, long id, double value) throws Exception {
+                    new ReadingDaoImpl(directory).update(Reading.of(id, value));
+                }
+
+                public static String reading(String directory, long id) throws Exception {
+                    return new ReadingDaoImpl(directory).findByKey(id)
+                            .map(reading -> reading.getSensor() + "=" + reading.getValue()).orElse("none");
+                }
+
+                public static long readingCount(String directory) throws Exception {
+                    return new ReadingDaoImpl(directory).stream().count();
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                MEMO, READING, COMPRESSION_CALLS);
+    }
+
+    @Test
+    void compressedRewriteRoundTripsAndShrinksTheFile(@TempDir Path data) throws Exception {
+        call("addMemos", data.toString(), 1000);
+
+        assertEquals(1000, call("memoCount", data.toString()));
+        assertEquals("the same sentence compresses well, 777", call("memo", data.toString(), 777));
+        // Each record carries about 45 bytes of text alone, so an uncompressed file would exceed 45 KB.
+        long size = Files.size(data.resolve("memo.db"));
+        assertTrue(size < 15_000, () -> "memo.db holds " + size + " bytes");
+    }
+
+    @Test
+    void compressedLogRoundTripsAcrossReopen(@TempDir Path data) throws Exception {
+        call("addReadings", data.toString(), 0L, 300L);
+        call("updateReading", data.toString(), 42L, -1.5);
+
+        assertEquals(300L, call("readingCount", data.toString()));
+        assertEquals("sensor-2=-1.5", call("reading", data.toString(), 42L));
+        assertEquals("sensor-3=149.5", call("reading", data.toString(), 299L));
+    }
+
+    @Test
+    void tornLastBlockIsDroppedAndAppendsContinue(@TempDir Path data) throws Exception {
+        call("addReadings", data.toString(), 0L, 300L);
+        try (RandomAccessFile log = new RandomAccessFile(data.resolve("reading.db").toFile(), "rw")) {
+            log.setLength(log.length() - 3);
+        }
+        Files.delete(data.resolve("reading.db.keys"));
+
+        // Each append writes its own block, so the crash only lost the last reading.
+        assertEquals(299L, call("readingCount", data.toString()));
+        assertEquals("none", call("reading", data.toString(), 299L));
+        call("addReadings", data.toString(), 299L, 310L);
+        assertEquals(310L, call("readingCount", data.toString()));
+        assertEquals("sensor-1=154.5", call("reading", data.toString(), 309L));
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.CompressionCalls", name, arguments);
+    }
+}
@@ -0,0 +1,191 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles a REWRITE and an APPEND_LOG entity with {@link FileDBProcessor} and writes the same data files from
+ * several threads and several processes at once.
+ */
+class FileDBConcurrencyTest {
+    private static final String SEAT = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.REWRITE)
+            public class Seat {
+                @UniqueKey
+                private int id;
+                @Persisted
+                private int holds;
+
+                public static Seat of(int id, int holds) {
+                    Seat seat = new Seat();
+                    seat.setId(id);
+                    seat.setHolds(holds);
+                    return seat;
+                }
+
+                public int getId() { return id; }
+                public void setId(int id) { this.id = id; }
+                public int getHolds() { return holds; }
+                public void setHolds(int holds) { this.holds = holds; }
+            }
+            """;
+
+    private static final String CONCURRENCY_CALLS = """
+            package sample;
+
+            import java.util.ArrayList;
+            import java.util.List;
+            import java.util.concurrent.ExecutorService;
+            import java.util.concurrent.Executors;
+            import java.util.concurrent.Future;
+
+            public class ConcurrencyCalls {
+                /**
+                 * Adds the seats and berths {@code from} to {@code to} from another process.
+                 */
+                public static void main(String[] args) throws Exception {
+                    add(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+                }
+
+                public static void add(String directory, int from, int to) throws Exception {
+                    SeatDao seatDao = new SeatDaoImpl(directory);
+                    BerthDao berthDao = new BerthDaoImpl(directory);
+                    for (int id = from; id < to; id++) {
+                        seatDao.add(Seat.of(id, 0));
+                        berthDao.add(Berth.of(id, 0));
+                    }
+                }
+
+                /**
+                 * Adds {@code perThread} seats and berths from each thread while other threads read, each thread through
+                 * its own DAO instances.
+                 */
+                public static List<String> threads(String directory, int threads, int perThread) throws Exception {
+                    ExecutorService executor = Executors.newFixedThreadPool(threads * 2);
+                    try {
+                        List<Future<?>> futures = new ArrayList<>();
+                        for (int thread = 0; thread < threads; thread++) {
+                            int from = thread * perThread;
+                            futures.add(executor.submit(() -> {
+                                add(directory, from, from + perThread);
+                                return null;
+                            }));
+                            futures.add(executor.submit(() -> {
+                                for (int read = 0; read < perThread; read++) {
+                                    new SeatDaoImpl(directory).getAll();
+                                    new BerthDaoImpl(directory).getAll();
+                                }
+                                return null;
+                            }));
+                        }
+                        for (Future<?> future : futures) {
+                            future.get();
+                        }
+                    } finally {
+                        executor.shutdown();
+                    }
+                    return count(directory);
+                }
+
+                /**
+                 * Increments the holds of seat and berth 0 {@code times} times from one DAO instance per thread.
+                 */
+                public static List<String> increments(String directory, int threads, int times) throws Exception {
+                    new SeatDaoImpl(directory).add(Seat.of(0, 0));
+                    new BerthDaoImpl(directory).add(Berth.of(0, 0));
+                    ExecutorService executor = Executors.newFixedThreadPool(threads);
+                    try {
+                        List<Future<?>> futures = new ArrayList<>();
+                        for (int thread = 0; thread < threads; thread++) {
+                            futures.add(executor.submit(() -> {
+                                SeatDao seatDao = new SeatDaoImpl(directory);
+                                BerthDao berthDao = new BerthDaoImpl(directory);
+                                for (int i = 0; i < times; i++) {
+                                    synchronized (ConcurrencyCalls.class) {
+                                        seatDao.update(Seat.of(0, seatDao.findByKey(0).orElseThrow().getHolds() + 1));
+                                        berthDao.update(Berth.of(0, berthDao.findByKey(0).orElseThrow().getHolds() + 1));
+                                    }
+                                }
+                                return null;
+                            }));
+                        }
+                        for (Future<?> future : futures) {
+                            future.get();
+                        }
+                    } finally {
+                        executor.shutdown();
+                    }
+                    return List.of("seat " + new SeatDaoImpl(directory).findByKey(0).orElseThrow().getHolds(),
+                            "berth " + new BerthDaoImpl(directory).findByKey(0).orElseThrow().getHolds());
+                }
+
+                public static List<String> count(String directory) throws Exception {
+                    return List.of("seats " + new SeatDaoImpl(directory).getAll().size(),
+                            "berths " + new BerthDaoImpl(directory).getAll().size());
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        // Compaction is left out, it would still be running in the background when the data directory is deleted.
+        String berth = SEAT.replace("StorageMode.REWRITE", "StorageMode.APPEND_LOG, compactionThreshold = 1")
+                .replace("Seat", "Berth").replace("seat", "berth");
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                SEAT, berth, CONCURRENCY_CALLS);
+    }
+
+    @Test
+    void threadsWithTheirOwnInstancesLoseNoWrites(@TempDir Path data) throws Exception {
+        assertEquals(List.of("seats 200", "berths 200"), call("threads", data.toString(), 4, 50));
+    }
+
+    @Test
+    void eachUpdateSeesThePreviousOne(@TempDir Path data) throws Exception {
+        // The lock around read-then-update only orders the threads; every instance must still reload what the others wrote.
+        assertEquals(List.of("seat 200", "berth 200"), call("increments", data.toString(), 4, 50));
+    }
+
+    @Test
+    void processesWritingTheSameFilesLoseNoWrites(@TempDir Path data) throws Exception {
+        List<Process> processes = new ArrayList<>();
+        for (int process = 0; process < 3; process++) {
+            processes.add(new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", workDir.resolve("classes") + File.pathSeparator + System.getProperty("java.class.path"),
+                    "sample.ConcurrencyCalls", data.toString(), String.valueOf(process * 100),
+                    String.valueOf(process * 100 + 100)).inheritIO().start());
+        }
+        call("add", data.toString(), 300, 400);
+        for (Process process : processes) {
+            assertEquals(0, process.waitFor());
+        }
+
+        assertEquals(List.of("seats 400", "berths 400"), call("count", data.toString()));
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.ConcurrencyCalls", name, arguments);
+    }
+}
@@ -0,0 +1,138 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles entities named like the locals and types of the generated code through {@link FileDBProcessor} and runs
+ * their DAOs.
+ */
+class FileDBEntityNameTest {
+    private static final String ENTITY = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.MaxLength;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated($Options)
+            public class $Entity {
+                @UniqueKey
+                private long id;
+                @Persisted
+                @MaxLength(16)
+                private String label;
+
+                public static $Entity of(long id, String label) {
+                    $Entity created = new $Entity();
+                    created.setId(id);
+                    created.setLabel(label);
+                    return created;
+                }
+
+                public long getId() { return id; }
+                public void setId(long id) { this.id = id; }
+                public String getLabel() { return label; }
+                public void setLabel(String label) { this.label = label; }
+            }
+            """;
+
+    private static final String CALLS = """
+            package sample;
+
+            import java.io.File;
+            import java.util.ArrayList;
+            import java.util.Arrays;
+            import java.util.Comparator;
+            import java.util.List;
+            import java.util.stream.Collectors;
+
+            public class $EntityCalls {
+                public static List<String> roundTrip(String directory) throws Exception {
+                    $EntityDao dao = new $EntityDaoImpl(directory);
+                    dao.addAll(List.of($Entity.of(1, "one"), $Entity.of(2, "two"), $Entity.of(3, "three")));
+                    dao.update($Entity.of(2, "deux"));
+                    dao.delete($Entity.of(3, null));
+                    List<String> seen = new ArrayList<>();
+                    seen.add(new $EntityDaoImpl(directory).getAll().stream().sorted(Comparator.comparing($Entity::getId))
+                            .map(found -> found.getId() + ":" + found.getLabel()).collect(Collectors.joining(" ")));
+                    seen.add(new $EntityDaoImpl(directory).findByKey(2).map($Entity::getLabel).orElse("none"));
+                    seen.add(Arrays.stream(new File(directory).list()).filter(name -> name.endsWith(".db")).sorted()
+                            .collect(Collectors.joining(" ")));
+                    return seen;
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSamples() throws IOException, URISyntaxException {
+        // Each name is a local or parameter of the generated code for its mode; Label also matches its own field.
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                sample(ENTITY, "Slot", "storage = StorageMode.FIXED_SLOT"), sample(CALLS, "Slot", ""),
+                sample(ENTITY, "Index", "snapshot = true, partitions = 2"), sample(CALLS, "Index", ""),
+                sample(ENTITY, "Label", "compressed = true"), sample(CALLS, "Label", ""),
+                sample(ENTITY, "Key", "storage = StorageMode.APPEND_LOG"), sample(CALLS, "Key", ""),
+                sample(ENTITY, "Out", "storage = StorageMode.APPEND_LOG, compressed = true"), sample(CALLS, "Out", ""),
+                sample(ENTITY, "Row", "storage = StorageMode.COLUMNAR"), sample(CALLS, "Row", ""));
+    }
+
+    @Test
+    void fixedSlotEntityNamedSlot(@TempDir Path data) throws Exception {
+        assertEquals(List.of("1:one 2:deux", "deux", "slot.db"), call("Slot", data));
+    }
+
+    @Test
+    void partitionedEntityNamedIndex(@TempDir Path data) throws Exception {
+        // Both keys hash to the first partition, the second one never gets a file.
+        assertEquals(List.of("1:one 2:deux", "deux", "index-0.db"), call("Index", data));
+    }
+
+    @Test
+    void entityNamedAfterItsOwnField(@TempDir Path data) throws Exception {
+        assertEquals(List.of("1:one 2:deux", "deux", "label.db"), call("Label", data));
+    }
+
+    @Test
+    void logEntitiesNamedKeyAndOut(@TempDir Path data, @TempDir Path other) throws Exception {
+        assertEquals(List.of("1:one 2:deux", "deux", "key.db"), call("Key", data));
+        assertEquals(List.of("1:one 2:deux", "deux", "out.db"), call("Out", other));
+    }
+
+    @Test
+    void columnarEntityNamedRow(@TempDir Path data) throws Exception {
+        assertEquals(List.of("1:one 2:deux", "deux", "row.db"), call("Row", data));
+    }
+
+    @Test
+    void entityHidingATypeOfTheGeneratedCodeIsRejected(@TempDir Path other) throws Exception {
+        String diagnostics = ProcessorCompiler.tryCompile(other, FileDBProcessor.class, "all,-processing,-serial",
+                sample(ENTITY, "Cursor", "storage = StorageMode.APPEND_LOG"));
+
+        assertTrue(diagnostics.contains("Cursor would hide a type the generated DAO uses, rename the entity"),
+                diagnostics);
+    }
+
+    private static String sample(String template, String name, String options) {
+        return template.replace("$Options", options).replace("$Entity", name);
+    }
+
+    private static Object call(String entity, Path data) throws Exception {
+        return ProcessorCompiler.call(generated, "sample." + entity + "Calls", "roundTrip", data.toString());
+    }
+}
@@ -0,0 +1,181 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Compiles a FIXED_SLOT entity with {@link FileDBProcessor} and runs the generated DAO against a temporary directory.
+ */
+class FileDBFixedSlotTest {
+    private static final String BADGE = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.MaxLength;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.FIXED_SLOT)
+            public class Badge {
+                public enum Level { BRONZE, GOLD }
+
+                @UniqueKey
+                private long id;
+                @Persisted
+                @MaxLength(12)
+                private String label;
+                @Persisted
+                private Double score;
+                @Persisted
+                private boolean active;
+                @Persisted
+                private Level level;
+                @Persisted
+                private byte tier;
+
+                public static Badge of(long id, String label, Double score, Level level) {
+                    Badge badge = new Badge();
+                    badge.setId(id);
+                    badge.setLabel(label);
+                    badge.setScore(score);
+                    badge.setActive(id % 2 == 0);
+                    badge.setLevel(level);
+                    badge.setTier((byte) -id);
+                    return badge;
+                }
+
+                public long getId() { return id; }
+                public void setId(long id) { this.id = id; }
+                public String getLabel() { return label; }
+                public void setLabel(String label) { this.label = label; }
+                public Double getScore() { return score; }
+                public void setScore(Double score) { this.score = score; }
+                public boolean getActive() { return active; }
+                public void setActive(boolean active) { this.active = active; }
+                public Level getLevel() { return level; }
+                public void setLevel(Level level) { this.level = level; }
+                public byte getTier() { return tier; }
+                public void setTier(byte tier) { this.tier = tier; }
+
+                @Override
+                public String toString() {
+                    return id + ":" + label + ":" + score + ":" + active + ":" + level + ":" + tier;
+                }
+            }
+            """;
+
+    private static final String BADGE_CALLS = """
+            package sample;
+
+            import java.util.List;
+            import java.util.stream.Collectors;
+
+            public class BadgeCalls {
+                public static List<String> write(String directory) throws Exception {
+                    BadgeDao badgeDao = new BadgeDaoImpl(directory);
+                    badgeDao.add(Badge.of(1, "ünïcödé", 1.5, Badge.Level.GOLD));
+                    badgeDao.add(Badge.of(2, null, null, null));
+                    badgeDao.add(Badge.of(3, "twelve bytes", -0.0, Badge.Level.BRONZE));
+                    badgeDao.update(Badge.of(2, "two", 2.0, Badge.Level.BRONZE));
+                    badgeDao.delete(Badge.of(3, null, null, null));
+                    return read(directory);
+                }
+
+                public static List<String> read(String directory) throws Exception {
+                    return new BadgeDaoImpl(directory).getAll().stream().map(Badge::toString).sorted()
+                            .collect(Collectors.toList());
+                }
+
+                public static String find(String directory, long id) throws Exception {
+                    return new BadgeDaoImpl(directory).findByKey(id).map(Badge::toString).orElse("none");
+                }
+
+                public static void add(String directory, long id, String label) throws Exception {
+                    new BadgeDaoImpl(directory).add(Badge.of(id, label, null, null));
+                }
+
+                public static void addRange(String directory, long from, long to) throws Exception {
+                    BadgeDao badgeDao = new BadgeDaoImpl(directory);
+                    for (long id = from; id < to; id++) {
+                        badgeDao.add(Badge.of(id, "b" + id, null, null));
+                    }
+                }
+
+                public static void deleteEven(String directory, long from, long to) throws Exception {
+                    BadgeDao badgeDao = new BadgeDaoImpl(directory);
+                    for (long id = from; id < to; id += 2) {
+                        badgeDao.delete(Badge.of(id, null, null, null));
+                    }
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                BADGE, BADGE_CALLS);
+    }
+
+    @Test
+    void slotsRoundTripAcrossReopen(@TempDir Path data) throws Exception {
+        List<String> expected = List.of("1:ünïcödé:1.5:false:GOLD:-1", "2:two:2.0:true:BRONZE:-2");
+        assertEquals(expected, call("write", data.toString()));
+        assertEquals(expected, call("read", data.toString()));
+        assertEquals("none", call("find", data.toString(), 3L));
+    }
+
+    @Test
+    void labelOverMaxLengthIsRejectedWithoutTakingSlot(@TempDir Path data) throws Exception {
+        // Six two-byte characters fill the twelve bytes exactly, a seventh does not fit.
+        call("add", data.toString(), 1L, "éééééé");
+        Exception e = assertThrows(Exception.class, () -> call("add", data.toString(), 2L, "ééééééé"));
+        assertEquals("BadgeRequestException", e.getClass().getSimpleName(), e::toString);
+
+        assertEquals(List.of("1:éééééé:null:false:null:-1"), call("read", data.toString()));
+        call("add", data.toString(), 2L, "fits");
+        assertEquals("2:fits:null:true:null:-2", call("find", data.toString(), 2L));
+    }
+
+    @Test
+    void deletedSlotsAreReusedBeforeFileGrows(@TempDir Path data) throws Exception {
+        call("addRange", data.toString(), 0L, 64L);
+        long size = Files.size(data.resolve("badge.db"));
+
+        call("deleteEven", data.toString(), 0L, 64L);
+        call("addRange", data.toString(), 100L, 132L);
+        assertEquals(size, Files.size(data.resolve("badge.db")));
+        assertEquals(64, ((List<?>) call("read", data.toString())).size());
+    }
+
+    @Test
+    void partialSlotLeftByInterruptedGrowIsIgnored(@TempDir Path data) throws Exception {
+        call("addRange", data.toString(), 0L, 16L);
+        Files.write(data.resolve("badge.db"), new byte[] {1, 2, 3}, StandardOpenOption.APPEND);
+
+        assertEquals(16, ((List<?>) call("read", data.toString())).size());
+        call("addRange", data.toString(), 16L, 20L);
+        assertEquals(20, ((List<?>) call("read", data.toString())).size());
+        assertEquals("19:b19:null:false:null:-19", call("find", data.toString(), 19L));
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.BadgeCalls", name, arguments);
+    }
+}
@@ -0,0 +1,178 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles entities with ordered keys through {@link FileDBProcessor} and checks range and page reads while another
+ * DAO instance writes the same file.
+ */
+class FileDBKeyRangeTest {
+    private static final String ENTITY = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.$Mode)
+            public class $Entity {
+                @UniqueKey
+                private $Type $key;
+                @Persisted
+                private String label;
+
+                public static $Entity of($Type $key, String label) {
+                    $Entity $entity = new $Entity();
+                    $entity.set$Key($key);
+                    $entity.setLabel(label);
+                    return $entity;
+                }
+
+                public $Type get$Key() { return $key; }
+                public void set$Key($Type $key) { this.$key = $key; }
+                public String getLabel() { return label; }
+                public void setLabel(String label) { this.label = label; }
+            }
+            """;
+
+    private static final String CALLS = """
+            package sample;
+
+            import java.io.File;
+            import java.util.ArrayList;
+            import java.util.List;
+            import java.util.stream.Collectors;
+            import java.util.stream.IntStream;
+
+            public class $EntityCalls {
+                public static List<String> reconcile(String directory) throws Exception {
+                    $EntityDao reader = new $EntityDaoImpl(directory);
+                    $EntityDao writer = new $EntityDaoImpl(directory);
+                    writer.addAll(IntStream.range(0, 20).mapToObj(n -> $Entity.of(key(n * 10), "v")).toList());
+                    List<String> seen = new ArrayList<>();
+                    seen.add(render(reader.findByKeyRange(key(50), key(120))));
+                    writer.add($Entity.of(key(55), "new"));
+                    writer.delete($Entity.of(key(60), null));
+                    writer.update($Entity.of(key(70), "u"));
+                    seen.add(render(reader.findByKeyRange(key(50), key(120))));
+                    seen.add(render(reader.page(2)));
+                    seen.add(render(reader.page(key(150), 3)));
+                    writer.deleteAll(IntStream.range(0, 5).mapToObj(n -> $Entity.of(key(n * 10), null)).toList());
+                    writer.addAll(List.of($Entity.of(key(5), "late"), $Entity.of(key(195), "late")));
+                    seen.add(render(reader.page(2)));
+                    seen.add(render(reader.page(key(180), 5)));
+                    seen.add(render(reader.findByKeyRange(key(120), key(50))));
+                    return seen;
+                }
+
+                public static String acrossCompaction(String directory) throws Exception {
+                    $EntityDao reader = new $EntityDaoImpl(directory);
+                    $EntityDao writer = new $EntityDaoImpl(directory);
+                    writer.addAll(IntStream.range(0, 20).mapToObj(n -> $Entity.of(key(n * 10), "v")).toList());
+                    reader.page(1);
+                    for (int i = 1; i <= 100; i++) {
+                        writer.update($Entity.of(key(10), "v" + i));
+                    }
+                    // Compaction runs in the background and rewrites every offset, wait for it to land.
+                    File data = new File(directory, "$entity.db");
+                    long deadline = System.nanoTime() + 10_000_000_000L;
+                    while (data.length() > 600 && System.nanoTime() < deadline) {
+                        Thread.sleep(10);
+                    }
+                    writer.add($Entity.of(key(25), "new"));
+                    return render(reader.findByKeyRange(key(0), key(40)));
+                }
+
+                private static String render(List<$Entity> $entitys) {
+                    return $entitys.stream().map($entity -> number($entity.get$Key()) + ":" + $entity.getLabel())
+                            .collect(Collectors.joining(" "));
+                }
+
+                $KeyFunctions
+            }
+            """;
+
+    private static final String LONG_KEYS = """
+            private static long key(int number) {
+                    return number;
+                }
+
+                private static String number(long key) {
+                    return String.valueOf(key);
+                }
+            """;
+
+    private static final String STRING_KEYS = """
+            private static String key(int number) {
+                    return String.format("k%03d", number);
+                }
+
+                private static String number(String key) {
+                    return String.valueOf(Integer.parseInt(key.substring(1)));
+                }
+            """;
+
+    private static final List<String> RECONCILED = List.of("50:v 60:v 70:v 80:v 90:v 100:v 110:v 120:v",
+            "50:v 55:new 70:u 80:v 90:v 100:v 110:v 120:v", "0:v 10:v", "160:v 170:v 180:v", "5:late 50:v",
+            "190:v 195:late", "");
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        // A key field named key must not clash with the locals of the generated range methods.
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                sample(ENTITY, "Card", "REWRITE", "long", "id"), sample(CALLS, "Card", "", "", "id", LONG_KEYS),
+                sample(ENTITY, "Stamp", "APPEND_LOG", "long", "id"), sample(CALLS, "Stamp", "", "", "id", LONG_KEYS),
+                sample(ENTITY, "Tag", "APPEND_LOG", "String", "key"), sample(CALLS, "Tag", "", "", "key", STRING_KEYS));
+    }
+
+    @Test
+    void rewriteRangesFollowWritesOfAnotherInstance(@TempDir Path data) throws Exception {
+        assertEquals(RECONCILED, call("Card", "reconcile", data));
+    }
+
+    @Test
+    void keyTableRangesFollowWritesOfAnotherInstance(@TempDir Path data) throws Exception {
+        assertEquals(RECONCILED, call("Stamp", "reconcile", data));
+    }
+
+    @Test
+    void logRangesFollowWritesOfAnotherInstance(@TempDir Path data) throws Exception {
+        assertEquals(RECONCILED, call("Tag", "reconcile", data));
+    }
+
+    @Test
+    void rangesSurviveCompactionByAnotherInstance(@TempDir Path data, @TempDir Path other) throws Exception {
+        assertEquals("0:v 10:v100 20:v 25:new 30:v 40:v", call("Stamp", "acrossCompaction", data));
+        assertEquals("0:v 10:v100 20:v 25:new 30:v 40:v", call("Tag", "acrossCompaction", other));
+    }
+
+    private static String sample(String template, String name, String mode, String type, String key) {
+        return sample(template, name, mode, type, key, "");
+    }
+
+    private static String sample(String template, String name, String mode, String type, String key,
+                                 String keyFunctions) {
+        return template.replace("$KeyFunctions", keyFunctions.strip()).replace("$Mode", mode).replace("$Type", type)
+                .replace("$Entity", name).replace("$entity", name.toLowerCase())
+                .replace("$Key", Character.toUpperCase(key.charAt(0)) + key.substring(1)).replace("$key", key);
+    }
+
+    private static Object call(String entity, String name, Path data) throws Exception {
+        return ProcessorCompiler.call(generated, "sample." + entity + "Calls", name, data.toString());
+    }
+}
@@ -0,0 +1,136 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles an APPEND_LOG entity with a single {@code long} key through {@link FileDBProcessor} and checks the
+ * memory-mapped {@code .keys} table of the generated DAO.
+ */
+class FileDBKeyTableTest {
+    private static final String TICKET = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.APPEND_LOG)
+            public class Ticket {
+                @UniqueKey
+                private long id;
+                @Persisted
+                private String seat;
+
+                public static Ticket of(long id, String seat) {
+                    Ticket ticket = new Ticket();
+                    ticket.setId(id);
+                    ticket.setSeat(seat);
+                    return ticket;
+                }
+
+                public long getId() { return id; }
+                public void setId(long id) { this.id = id; }
+                public String getSeat() { return seat; }
+                public void setSeat(String seat) { this.seat = seat; }
+            }
+            """;
+
+    private static final String TICKET_CALLS = """
+            package sample;
+
+            import java.util.List;
+
+            public class TicketCalls {
+                public static void write(String directory, long from, long to) throws Exception {
+                    TicketDao ticketDao = new TicketDaoImpl(directory);
+                    for (long id = from; id < to; id++) {
+                        ticketDao.add(Ticket.of(id * 7919, "s" + id));
+                    }
+                    for (long id = from; id < to; id += 3) {
+                        ticketDao.delete(Ticket.of(id * 7919, null));
+                    }
+                    for (long id = from + 1; id < to; id += 3) {
+                        ticketDao.update(Ticket.of(id * 7919, "u" + id));
+                    }
+                }
+
+                public static List<String> probe(String directory, long id) throws Exception {
+                    TicketDao ticketDao = new TicketDaoImpl(directory);
+                    return List.of(ticketDao.findByKey(id * 7919).map(Ticket::getSeat).orElse("none"),
+                            ticketDao.findByKey((id + 1) * 7919).map(Ticket::getSeat).orElse("none"),
+                            ticketDao.findByKey((id + 2) * 7919).map(Ticket::getSeat).orElse("none"),
+                            String.valueOf(ticketDao.existsByKey(id * 7919 + 1)),
+                            String.valueOf(ticketDao.getAll().size()));
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                TICKET, TICKET_CALLS);
+    }
+
+    @Test
+    void tableGrowsAndSurvivesReopen(@TempDir Path data) throws Exception {
+        call("write", data.toString(), 0L, 3000L);
+
+        assertTrue(Files.exists(data.resolve("ticket.db.keys")));
+        assertFalse(Files.exists(data.resolve("ticket.db.keys.tmp")));
+        assertEquals(List.of("none", "u2983", "s2984", "false", "2000"), call("probe", data.toString(), 2982L));
+    }
+
+    @Test
+    void missingTableIsRebuiltFromTheLog(@TempDir Path data) throws Exception {
+        call("write", data.toString(), 0L, 300L);
+        Files.delete(data.resolve("ticket.db.keys"));
+
+        assertEquals(List.of("none", "u253", "s254", "false", "200"), call("probe", data.toString(), 252L));
+        assertTrue(Files.exists(data.resolve("ticket.db.keys")));
+        call("write", data.toString(), 300L, 330L);
+        assertEquals(List.of("none", "u325", "s326", "false", "220"), call("probe", data.toString(), 324L));
+    }
+
+    @Test
+    void tableFromAnEarlierWriteIsNotTrusted(@TempDir Path data) throws Exception {
+        call("write", data.toString(), 0L, 300L);
+        byte[] earlier = Files.readAllBytes(data.resolve("ticket.db.keys"));
+        call("write", data.toString(), 300L, 330L);
+        // A crash after the log was synced but before the table caught up leaves the older table behind.
+        Files.write(data.resolve("ticket.db.keys"), earlier);
+
+        assertEquals(List.of("none", "u325", "s326", "false", "220"), call("probe", data.toString(), 324L));
+    }
+
+    @Test
+    void truncatedTableIsRebuilt(@TempDir Path data) throws Exception {
+        call("write", data.toString(), 0L, 300L);
+        byte[] table = Files.readAllBytes(data.resolve("ticket.db.keys"));
+        Files.write(data.resolve("ticket.db.keys"), Arrays.copyOf(table, table.length / 2));
+
+        assertEquals(List.of("none", "u253", "s254", "false", "200"), call("probe", data.toString(), 252L));
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.TicketCalls", name, arguments);
+    }
+}
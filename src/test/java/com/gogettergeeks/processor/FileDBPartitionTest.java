@@ -0,0 +1,212 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles a REWRITE and an APPEND_LOG entity with {@link FileDBProcessor} and runs the generated DAOs over
+ * several partition files.
+ */
+class FileDBPartitionTest {
+    private static final String MEMBER = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(partitions = 4)
+            public class Member {
+                @UniqueKey
+                private int id;
+                @Persisted
+                private String name;
+
+                public static Member of(int id, String name) {
+                    Member member = new Member();
+                    member.setId(id);
+                    member.setName(name);
+                    return member;
+                }
+
+                public int getId() { return id; }
+                public void setId(int id) { this.id = id; }
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+            }
+            """;
+
+    private static final String VISIT = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.APPEND_LOG, partitions = 4)
+            public class Visit {
+                @UniqueKey
+                private String site;
+                @UniqueKey
+                private int day;
+                @Persisted
+                private String note;
+
+                public static Visit of(int day, String note) {
+                    Visit visit = new Visit();
+                    visit.setSite("site" + day % 3);
+                    visit.setDay(day);
+                    visit.setNote(note);
+                    return visit;
+                }
+
+                public String getSite() { return site; }
+                public void setSite(String site) { this.site = site; }
+                public int getDay() { return day; }
+                public void setDay(int day) { this.day = day; }
+                public String getNote() { return note; }
+                public void setNote(String note) { this.note = note; }
+            }
+            """;
+
+    private static final String PARTITION_CALLS = """
+            package sample;
+
+            import java.util.Comparator;
+            import java.util.List;
+            import java.util.stream.Collectors;
+            import java.util.stream.Stream;
+
+            public class PartitionCalls {
+                public static void addMembers(String directory, List<Integer> ids) throws Exception {
+                    new MemberDaoImpl(directory).addAll(ids.stream().map(id -> Member.of(id, "m" + id)).toList());
+                }
+
+                public static void updateMembers(String directory, List<Integer> ids) throws Exception {
+                    new MemberDaoImpl(directory).updateAll(ids.stream().map(id -> Member.of(id, "u" + id)).toList());
+                }
+
+                public static void deleteMembers(String directory, List<Integer> ids) throws Exception {
+                    new MemberDaoImpl(directory).deleteAll(ids.stream().map(id -> Member.of(id, null)).toList());
+                }
+
+                public static List<String> members(String directory) throws Exception {
+                    try (Stream<Member> members = new MemberDaoImpl(directory).stream()) {
+                        return members.sorted(Comparator.comparingInt(Member::getId))
+                                .map(member -> member.getId() + ":" + member.getName()).collect(Collectors.toList());
+                    }
+                }
+
+                public static String findMember(String directory, int id) throws Exception {
+                    return new MemberDaoImpl(directory).findByKey(id).map(Member::getName).orElse("none");
+                }
+
+                public static int openMembers(String directory, int partitionCount) throws Exception {
+                    return new MemberDaoImpl(directory, partitionCount).getAll().size();
+                }
+
+                public static void addVisits(String directory, List<Integer> days) throws Exception {
+                    new VisitDaoImpl(directory).addAll(days.stream().map(day -> Visit.of(day, "v" + day)).toList());
+                }
+
+                public static void updateVisits(String directory, List<Integer> days) throws Exception {
+                    new VisitDaoImpl(directory).updateAll(days.stream().map(day -> Visit.of(day, "u" + day)).toList());
+                }
+
+                public static List<String> visits(String directory) throws Exception {
+                    return new VisitDaoImpl(directory).getAll().stream()
+                            .sorted(Comparator.comparingInt(Visit::getDay))
+                            .map(visit -> visit.getSite() + "/" + visit.getDay() + ":" + visit.getNote())
+                            .collect(Collectors.toList());
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                MEMBER, VISIT, PARTITION_CALLS);
+    }
+
+    @Test
+    void recordsSpreadOverPartitionFilesAndSurviveReopen(@TempDir Path data) throws Exception {
+        call("addMembers", data.toString(), range(0, 200));
+
+        List<?> members = (List<?>) call("members", data.toString());
+        assertEquals(200, members.size());
+        assertEquals("0:m0", members.get(0));
+        assertEquals("m123", call("findMember", data.toString(), 123));
+        assertEquals("4 mixed", Files.readString(data.resolve("member.partitions")));
+        for (int i = 0; i < 4; i++) {
+            Path partition = data.resolve("member-" + i + ".db");
+            assertTrue(Files.size(partition) > 200, () -> partition + " holds fewer records than expected");
+        }
+    }
+
+    @Test
+    void batchSpanningPartitionsIsAllOrNothing(@TempDir Path data) throws Exception {
+        call("addMembers", data.toString(), range(0, 20));
+
+        assertRequestException(() -> call("addMembers", data.toString(), List.of(100, 101, 102, 7)));
+        assertRequestException(() -> call("updateMembers", data.toString(), List.of(1, 2, 3, 100)));
+        assertRequestException(() -> call("deleteMembers", data.toString(), List.of(4, 5, 6, 100)));
+        assertEquals("none", call("findMember", data.toString(), 100));
+        assertEquals("m1", call("findMember", data.toString(), 1));
+        assertEquals(20, ((List<?>) call("members", data.toString())).size());
+
+        call("addVisits", data.toString(), range(0, 20));
+        assertRequestException(() -> call("addVisits", data.toString(), List.of(100, 101, 102, 7)));
+        assertRequestException(() -> call("updateVisits", data.toString(), List.of(1, 2, 3, 100)));
+        List<?> visits = (List<?>) call("visits", data.toString());
+        assertEquals(20, visits.size());
+        assertEquals("site1/1:v1", visits.get(1));
+
+        call("updateVisits", data.toString(), List.of(1, 2, 3));
+        assertEquals("site1/1:u1", ((List<?>) call("visits", data.toString())).get(1));
+    }
+
+    @Test
+    void openingWithAnotherPartitionCountIsRefused(@TempDir Path data) throws Exception {
+        call("addMembers", data.toString(), range(0, 10));
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> call("openMembers", data.toString(), 2));
+        assertTrue(e.getMessage().contains("records 4 partitions, the DAO was opened with 2"), e::getMessage);
+        assertEquals(10, call("openMembers", data.toString(), 4));
+    }
+
+    private static List<Integer> range(int from, int to) {
+        return IntStream.range(from, to).boxed().toList();
+    }
+
+    private static void assertRequestException(ThrowingCall call) {
+        Exception e = assertThrows(Exception.class, call::run);
+        assertTrue(e.getClass().getSimpleName().endsWith("RequestException"), e::toString);
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.PartitionCalls", name, arguments);
+    }
+
+    private interface ThrowingCall {
+        void run() throws Exception;
+    }
+}
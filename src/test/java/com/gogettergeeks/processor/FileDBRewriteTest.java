@@ -0,0 +1,193 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Compiles a REWRITE entity covering every codec type with {@link FileDBProcessor} and runs the generated DAO.
+ */
+class FileDBRewriteTest {
+    private static final String PROFILE = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            import java.time.LocalDate;
+
+            @FileDBGenerated
+            public class Profile {
+                public enum Level { LOW, HIGH }
+
+                @UniqueKey
+                private long id;
+                @Persisted
+                private String name;
+                @Persisted
+                private char initial;
+                @Persisted
+                private double score;
+                @Persisted
+                private short rank;
+                @Persisted
+                private Boolean active;
+                @Persisted
+                private Integer visits;
+                @Persisted
+                private Level level;
+                @Persisted
+                private LocalDate joined;
+
+                public static Profile of(long id, String name, Boolean active, Integer visits, Level level,
+                                         LocalDate joined) {
+                    Profile profile = new Profile();
+                    profile.setId(id);
+                    profile.setName(name);
+                    profile.setInitial(name == null || name.isEmpty() ? '?' : name.charAt(0));
+                    profile.setScore(id / 4.0);
+                    profile.setRank((short) -id);
+                    profile.setActive(active);
+                    profile.setVisits(visits);
+                    profile.setLevel(level);
+                    profile.setJoined(joined);
+                    return profile;
+                }
+
+                public long getId() { return id; }
+                public void setId(long id) { this.id = id; }
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+                public char getInitial() { return initial; }
+                public void setInitial(char initial) { this.initial = initial; }
+                public double getScore() { return score; }
+                public void setScore(double score) { this.score = score; }
+                public short getRank() { return rank; }
+                public void setRank(short rank) { this.rank = rank; }
+                public Boolean getActive() { return active; }
+                public void setActive(Boolean active) { this.active = active; }
+                public Integer getVisits() { return visits; }
+                public void setVisits(Integer visits) { this.visits = visits; }
+                public Level getLevel() { return level; }
+                public void setLevel(Level level) { this.level = level; }
+                public LocalDate getJoined() { return joined; }
+                public void setJoined(LocalDate joined) { this.joined = joined; }
+
+                @Override
+                public String toString() {
+                    return id + ":" + name + ":" + initial + ":" + score + ":" + rank + ":" + active + ":" + visits
+                            + ":" + level + ":" + joined;
+                }
+            }
+            """;
+
+    private static final String PROFILE_CALLS = """
+            package sample;
+
+            import java.io.FileOutputStream;
+            import java.io.ObjectOutputStream;
+            import java.nio.file.Path;
+            import java.time.LocalDate;
+            import java.util.List;
+            import java.util.stream.Collectors;
+
+            public class ProfileCalls {
+                public static List<String> write(String directory) throws Exception {
+                    ProfileDao profileDao = new ProfileDaoImpl(directory);
+                    profileDao.add(Profile.of(1, "Zoë ünïcode €", true, 7, Profile.Level.HIGH, LocalDate.of(2024, 2, 29)));
+                    profileDao.add(Profile.of(2, null, null, null, null, null));
+                    profileDao.add(Profile.of(3, "", false, 0, Profile.Level.LOW, LocalDate.of(1970, 1, 1)));
+                    profileDao.update(Profile.of(3, "third", false, Integer.MIN_VALUE, Profile.Level.LOW, null));
+                    profileDao.addAll(List.of(Profile.of(4, "four", true, 4, null, null),
+                            Profile.of(5, "five", null, 5, Profile.Level.LOW, null)));
+                    profileDao.delete(Profile.of(4, null, null, null, null, null));
+                    return read(directory);
+                }
+
+                public static List<String> read(String directory) throws Exception {
+                    return new ProfileDaoImpl(directory).getAll().stream().map(Profile::toString).sorted()
+                            .collect(Collectors.toList());
+                }
+
+                public static void writeLegacy(String directory) throws Exception {
+                    try (ObjectOutputStream out = new ObjectOutputStream(
+                            new FileOutputStream(Path.of(directory, "profile.db").toFile()))) {
+                        for (long id = 1; id <= 2; id++) {
+                            ProfileGeneratedDto dto = new ProfileGeneratedDto();
+                            dto.setId(id);
+                            dto.setName("legacy" + id);
+                            dto.setInitial('L');
+                            dto.setActive(id == 1 ? Boolean.TRUE : null);
+                            dto.setLevel(Profile.Level.HIGH);
+                            dto.setJoined(LocalDate.of(2000, 1, (int) id));
+                            out.writeObject(dto);
+                        }
+                    }
+                }
+
+                public static void add(String directory, long id, String name) throws Exception {
+                    new ProfileDaoImpl(directory).add(Profile.of(id, name, null, null, null, null));
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                PROFILE, PROFILE_CALLS);
+    }
+
+    @Test
+    void everyFieldTypeRoundTripsAcrossReopen(@TempDir Path data) throws Exception {
+        List<String> expected = List.of(
+                "1:Zoë ünïcode €:Z:0.25:-1:true:7:HIGH:2024-02-29",
+                "2:null:?:0.5:-2:null:null:null:null",
+                "3:third:t:0.75:-3:false:-2147483648:LOW:null",
+                "5:five:f:1.25:-5:null:5:LOW:null");
+        assertEquals(expected, call("write", data.toString()));
+        assertEquals(expected, call("read", data.toString()));
+    }
+
+    @Test
+    void legacySerializedFileIsReadAndRewrittenInTheCurrentFormat(@TempDir Path data) throws Exception {
+        call("writeLegacy", data.toString());
+        assertEquals(List.of("1:legacy1:L:0.0:0:true:null:HIGH:2000-01-01", "2:legacy2:L:0.0:0:null:null:HIGH:2000-01-02"),
+                call("read", data.toString()));
+
+        call("add", data.toString(), 3L, "new");
+        assertNotEquals(0xAC, Files.readAllBytes(data.resolve("profile.db"))[0] & 0xFF);
+        assertEquals(List.of("1:legacy1:L:0.0:0:true:null:HIGH:2000-01-01", "2:legacy2:L:0.0:0:null:null:HIGH:2000-01-02",
+                "3:new:n:0.75:-3:null:null:null:null"), call("read", data.toString()));
+    }
+
+    @Test
+    void stagedFileLeftByCrashedWriteIsIgnored(@TempDir Path data) throws Exception {
+        call("add", data.toString(), 1L, "kept");
+        // A crash between writing the staged copy and moving it into place leaves it behind, half written.
+        Files.write(data.resolve("profile.db.tmp"), new byte[] {3, 0, 0, 1});
+
+        assertEquals(List.of("1:kept:k:0.25:-1:null:null:null:null"), call("read", data.toString()));
+        call("add", data.toString(), 2L, "next");
+        assertEquals(List.of("1:kept:k:0.25:-1:null:null:null:null", "2:next:n:0.5:-2:null:null:null:null"),
+                call("read", data.toString()));
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.ProfileCalls", name, arguments);
+    }
+}
@@ -0,0 +1,261 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Compiles two versions of the same entities with {@link FileDBProcessor}, writes the data files with the first
+ * and reads them with the second.
+ */
+class FileDBSchemaEvolutionTest {
+    private static final String ACCOUNT_V1 = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.REWRITE)
+            public class Account {
+                public enum Tier { FREE, PRO, GOLD }
+
+                @UniqueKey
+                private String login;
+                @Persisted
+                private String name;
+                @Persisted
+                private int age;
+                @Persisted
+                private Tier tier;
+                @Persisted
+                private int score;
+
+                public static Account of(String login, String name, int age, Tier tier, int score) {
+                    Account account = new Account();
+                    account.setLogin(login);
+                    account.setName(name);
+                    account.setAge(age);
+                    account.setTier(tier);
+                    account.setScore(score);
+                    return account;
+                }
+
+                public String getLogin() { return login; }
+                public void setLogin(String login) { this.login = login; }
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+                public int getAge() { return age; }
+                public void setAge(int age) { this.age = age; }
+                public Tier getTier() { return tier; }
+                public void setTier(Tier tier) { this.tier = tier; }
+                public int getScore() { return score; }
+                public void setScore(int score) { this.score = score; }
+            }
+            """;
+
+    /**
+     * Drops {@code age}, reorders the fields, removes the {@code GOLD} constant, changes {@code score} from
+     * {@code int} to {@code String} and adds {@code email}.
+     */
+    private static final String ACCOUNT_V2 = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.REWRITE)
+            public class Account {
+                public enum Tier { FREE, PRO }
+
+                @Persisted
+                private String email;
+                @Persisted
+                private Tier tier;
+                @UniqueKey
+                private String login;
+                @Persisted
+                private String score;
+                @Persisted
+                private String name;
+
+                public static Account of(String login, String name, Tier tier, String score, String email) {
+                    Account account = new Account();
+                    account.setLogin(login);
+                    account.setName(name);
+                    account.setTier(tier);
+                    account.setScore(score);
+                    account.setEmail(email);
+                    return account;
+                }
+
+                public String getLogin() { return login; }
+                public void setLogin(String login) { this.login = login; }
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+                public Tier getTier() { return tier; }
+                public void setTier(Tier tier) { this.tier = tier; }
+                public String getScore() { return score; }
+                public void setScore(String score) { this.score = score; }
+                public String getEmail() { return email; }
+                public void setEmail(String email) { this.email = email; }
+
+                @Override
+                public String toString() {
+                    return login + ":" + name + ":" + tier + ":" + score + ":" + email;
+                }
+            }
+            """;
+
+    /**
+     * Keys the entity by another field, which the schema header cannot map.
+     */
+    private static final String ACCOUNT_V3 = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.REWRITE)
+            public class Account {
+                @UniqueKey
+                private String name;
+                @Persisted
+                private String login;
+
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+                public String getLogin() { return login; }
+                public void setLogin(String login) { this.login = login; }
+            }
+            """;
+
+    private static final String V1_CALLS = """
+            package sample;
+
+            import java.util.List;
+
+            public class EvolutionCalls {
+                public static void write(String directory) throws Exception {
+                    new AccountDaoImpl(directory).addAll(List.of(Account.of("a1", "ann", 30, Account.Tier.PRO, 5),
+                            Account.of("a2", "bob", 40, Account.Tier.GOLD, 7)));
+                    LedgerDao ledgerDao = new LedgerDaoImpl(directory);
+                    ledgerDao.add(Ledger.of("a1", "ann", 30, Ledger.Tier.PRO, 5));
+                    ledgerDao.add(Ledger.of("a2", "bob", 40, Ledger.Tier.GOLD, 7));
+                }
+            }
+            """;
+
+    private static final String V2_CALLS = """
+            package sample;
+
+            import java.util.ArrayList;
+            import java.util.Comparator;
+            import java.util.List;
+            import java.util.stream.Collectors;
+
+            public class EvolutionCalls {
+                public static List<String> read(String directory) throws Exception {
+                    List<String> rendered = new ArrayList<>();
+                    new AccountDaoImpl(directory).getAll().stream().sorted(Comparator.comparing(Account::getLogin))
+                            .map(account -> "account " + account).forEach(rendered::add);
+                    new LedgerDaoImpl(directory).getAll().stream().sorted(Comparator.comparing(Ledger::getLogin))
+                            .map(ledger -> "ledger " + ledger).forEach(rendered::add);
+                    return rendered;
+                }
+
+                public static void write(String directory) throws Exception {
+                    AccountDao accountDao = new AccountDaoImpl(directory);
+                    accountDao.update(Account.of("a1", "ann", Account.Tier.FREE, "high", "ann@example.com"));
+                    accountDao.add(Account.of("a3", "cy", null, "low", null));
+                    LedgerDao ledgerDao = new LedgerDaoImpl(directory);
+                    ledgerDao.update(Ledger.of("a1", "ann", Ledger.Tier.FREE, "high", "ann@example.com"));
+                    ledgerDao.add(Ledger.of("a3", "cy", null, "low", null));
+                }
+
+                public static String find(String directory, String login) throws Exception {
+                    return new AccountDaoImpl(directory).findByKey(login).map(Account::toString).orElse("none") + " "
+                            + new LedgerDaoImpl(directory).findByKey(login).map(Ledger::toString).orElse("none");
+                }
+            }
+            """;
+
+    private static final String V3_CALLS = """
+            package sample;
+
+            public class EvolutionCalls {
+                public static int count(String directory) throws Exception {
+                    return new AccountDaoImpl(directory).getAll().size();
+                }
+            }
+            """;
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader v1;
+    private static ClassLoader v2;
+    private static ClassLoader v3;
+
+    @BeforeAll
+    static void compileSamples() throws IOException, URISyntaxException {
+        v1 = ProcessorCompiler.compile(workDir.resolve("v1"), FileDBProcessor.class, "all,-processing,-serial",
+                ACCOUNT_V1, ledger(ACCOUNT_V1), V1_CALLS);
+        v2 = ProcessorCompiler.compile(workDir.resolve("v2"), FileDBProcessor.class, "all,-processing,-serial",
+                ACCOUNT_V2, ledger(ACCOUNT_V2), V2_CALLS);
+        v3 = ProcessorCompiler.compile(workDir.resolve("v3"), FileDBProcessor.class, "all,-processing,-serial",
+                ACCOUNT_V3, V3_CALLS);
+    }
+
+    @Test
+    void recordsWrittenUnderOldHeaderAreUpgradedOnRead(@TempDir Path data) throws Exception {
+        ProcessorCompiler.call(v1, "sample.EvolutionCalls", "write", data.toString());
+
+        assertEquals(List.of("account a1:ann:PRO:null:null", "account a2:bob:null:null:null",
+                "ledger a1:ann:PRO:null:null", "ledger a2:bob:null:null:null"),
+                ProcessorCompiler.call(v2, "sample.EvolutionCalls", "read", data.toString()));
+    }
+
+    @Test
+    void writesAfterUpgradeMixWithOldRecords(@TempDir Path data) throws Exception {
+        ProcessorCompiler.call(v1, "sample.EvolutionCalls", "write", data.toString());
+        ProcessorCompiler.call(v2, "sample.EvolutionCalls", "write", data.toString());
+
+        assertEquals(List.of("account a1:ann:FREE:high:ann@example.com", "account a2:bob:null:null:null",
+                "account a3:cy:null:low:null", "ledger a1:ann:FREE:high:ann@example.com",
+                "ledger a2:bob:null:null:null", "ledger a3:cy:null:low:null"),
+                ProcessorCompiler.call(v2, "sample.EvolutionCalls", "read", data.toString()));
+        assertEquals("a2:bob:null:null:null a2:bob:null:null:null",
+                ProcessorCompiler.call(v2, "sample.EvolutionCalls", "find", data.toString(), "a2"));
+    }
+
+    @Test
+    void changedKeyFieldsAreRefused(@TempDir Path data) throws Exception {
+        ProcessorCompiler.call(v1, "sample.EvolutionCalls", "write", data.toString());
+
+        Exception e = assertThrows(Exception.class,
+                () -> ProcessorCompiler.call(v3, "sample.EvolutionCalls", "count", data.toString()));
+        assertEquals("AccountServiceException", e.getClass().getSimpleName(), e::toString);
+    }
+
+    /**
+     * Turns an {@code Account} source into the same entity stored in APPEND_LOG mode as {@code Ledger}.
+     */
+    private static String ledger(String account) {
+        return account.replace("StorageMode.REWRITE", "StorageMode.APPEND_LOG").replace("Account", "Ledger")
+                .replace("account", "ledger");
+    }
+}
@@ -0,0 +1,150 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles an entity with {@code @Indexed} fields through {@link FileDBProcessor} and checks the finders and the
+ * {@code .idx} file behind them.
+ */
+class FileDBSecondaryIndexTest {
+    private static final String LESSON = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Indexed;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.APPEND_LOG)
+            public class Lesson {
+                @UniqueKey
+                private String code;
+                @Persisted
+                @Indexed
+                private String teacher;
+                @Persisted
+                @Indexed
+                private boolean open;
+
+                public static Lesson of(String code, String teacher, boolean open) {
+                    Lesson lesson = new Lesson();
+                    lesson.setCode(code);
+                    lesson.setTeacher(teacher);
+                    lesson.setOpen(open);
+                    return lesson;
+                }
+
+                public String getCode() { return code; }
+                public void setCode(String code) { this.code = code; }
+                public String getTeacher() { return teacher; }
+                public void setTeacher(String teacher) { this.teacher = teacher; }
+                public boolean getOpen() { return open; }
+                public void setOpen(boolean open) { this.open = open; }
+            }
+            """;
+
+    private static final String LESSON_CALLS = """
+            package sample;
+
+            import java.util.Collection;
+            import java.util.List;
+            import java.util.stream.Collectors;
+
+            public class LessonCalls {
+                public static void write(String directory) throws Exception {
+                    LessonDao lessonDao = new LessonDaoImpl(directory);
+                    lessonDao.addAll(List.of(Lesson.of("math", "ada", true), Lesson.of("art", "ada", false),
+                            Lesson.of("music", "bo", true), Lesson.of("chess", null, true)));
+                    lessonDao.update(Lesson.of("music", "ada", false));
+                    lessonDao.delete(Lesson.of("math", null, false));
+                }
+
+                public static void add(String directory, String code, String teacher) throws Exception {
+                    new LessonDaoImpl(directory).add(Lesson.of(code, teacher, true));
+                }
+
+                public static List<String> find(String directory) throws Exception {
+                    LessonDao lessonDao = new LessonDaoImpl(directory);
+                    return List.of("ada " + codes(lessonDao.findByTeacher("ada")),
+                            "bo " + codes(lessonDao.findByTeacher("bo")),
+                            "none " + codes(lessonDao.findByTeacher(null)),
+                            "open " + codes(lessonDao.findByOpen(true)),
+                            "closed " + codes(lessonDao.findByOpen(false)));
+                }
+
+                private static List<String> codes(Collection<Lesson> lessons) {
+                    return lessons.stream().map(Lesson::getCode).sorted().collect(Collectors.toList());
+                }
+            }
+            """;
+
+    private static final List<String> AFTER_WRITE = List.of("ada [art, music]", "bo []", "none [chess]",
+            "open [chess]", "closed [art, music]");
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                LESSON, LESSON_CALLS);
+    }
+
+    @Test
+    void findersFollowWritesAndReopen(@TempDir Path data) throws Exception {
+        call("write", data.toString());
+
+        assertTrue(Files.exists(data.resolve("lesson.db.idx")));
+        assertEquals(AFTER_WRITE, call("find", data.toString()));
+    }
+
+    @Test
+    void missingIndexFileIsRebuiltFromTheData(@TempDir Path data) throws Exception {
+        call("write", data.toString());
+        Files.delete(data.resolve("lesson.db.idx"));
+
+        assertEquals(AFTER_WRITE, call("find", data.toString()));
+        call("add", data.toString(), "drama", "bo");
+        assertTrue(Files.exists(data.resolve("lesson.db.idx")));
+        assertEquals("bo [drama]", ((List<?>) call("find", data.toString())).get(1));
+    }
+
+    @Test
+    void indexFileFromAnEarlierWriteIsNotTrusted(@TempDir Path data) throws Exception {
+        call("write", data.toString());
+        byte[] earlier = Files.readAllBytes(data.resolve("lesson.db.idx"));
+        call("add", data.toString(), "drama", "bo");
+        // A crash after the data file was committed but before the index file caught up leaves the older one.
+        Files.write(data.resolve("lesson.db.idx"), earlier);
+
+        assertEquals("bo [drama]", ((List<?>) call("find", data.toString())).get(1));
+    }
+
+    @Test
+    void truncatedIndexFileIsRebuilt(@TempDir Path data) throws Exception {
+        call("write", data.toString());
+        byte[] index = Files.readAllBytes(data.resolve("lesson.db.idx"));
+        Files.write(data.resolve("lesson.db.idx"), Arrays.copyOf(index, index.length - 3));
+
+        assertEquals(AFTER_WRITE, call("find", data.toString()));
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.LessonCalls", name, arguments);
+    }
+}
@@ -0,0 +1,139 @@
+package com.gogettergeeks.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles snapshot REWRITE and APPEND_LOG entities with {@link FileDBProcessor} and checks that the cached record
+ * list follows writes from the same and from other DAO instances.
+ */
+class FileDBSnapshotTest {
+    private static final String QUOTE = """
+            package sample;
+
+            import com.gogettergeeks.annotation.FileDBGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.StorageMode;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @FileDBGenerated(storage = StorageMode.REWRITE, snapshot = true)
+            public class Quote {
+                @UniqueKey
+                private String symbol;
+                @Persisted
+                private double price;
+
+                public static Quote of(String symbol, double price) {
+                    Quote quote = new Quote();
+                    quote.setSymbol(symbol);
+                    quote.setPrice(price);
+                    return quote;
+                }
+
+                public String getSymbol() { return symbol; }
+                public void setSymbol(String symbol) { this.symbol = symbol; }
+                public double getPrice() { return price; }
+                public void setPrice(double price) { this.price = price; }
+            }
+            """;
+
+    private static final String SNAPSHOT_CALLS = """
+            package sample;
+
+            import java.util.ArrayList;
+            import java.util.Comparator;
+            import java.util.List;
+            import java.util.stream.Collectors;
+            import java.util.stream.Stream;
+
+            public class SnapshotCalls {
+                public static List<String> quotes(String directory) throws Exception {
+                    QuoteDao reader = new QuoteDaoImpl(directory);
+                    QuoteDao writer = new QuoteDaoImpl(directory);
+                    List<String> seen = new ArrayList<>();
+                    writer.addAll(List.of(Quote.of("abc", 1.0), Quote.of("xyz", 2.0)));
+                    seen.add(render(reader.getAll()));
+                    reader.getAll().get(0).setPrice(-1);
+                    seen.add(render(reader.getAll()));
+                    writer.update(Quote.of("abc", 3.0));
+                    seen.add(render(reader.getAll()));
+                    reader.delete(Quote.of("xyz", 0));
+                    try (Stream<Quote> quotes = reader.stream()) {
+                        seen.add(render(quotes.collect(Collectors.toList())));
+                    }
+                    List<Quote> visited = new ArrayList<>();
+                    writer.forEach(visited::add);
+                    seen.add(render(visited));
+                    return seen;
+                }
+
+                public static List<String> rates(String directory) throws Exception {
+                    RateDao reader = new RateDaoImpl(directory);
+                    RateDao writer = new RateDaoImpl(directory);
+                    List<String> seen = new ArrayList<>();
+                    writer.addAll(List.of(Rate.of("abc", 1.0), Rate.of("xyz", 2.0)));
+                    seen.add(renderRates(reader.getAll()));
+                    reader.getAll().get(0).setPrice(-1);
+                    seen.add(renderRates(reader.getAll()));
+                    writer.update(Rate.of("abc", 3.0));
+                    seen.add(renderRates(reader.getAll()));
+                    reader.delete(Rate.of("xyz", 0));
+                    try (Stream<Rate> rates = reader.stream()) {
+                        seen.add(renderRates(rates.collect(Collectors.toList())));
+                    }
+                    List<Rate> visited = new ArrayList<>();
+                    writer.forEach(visited::add);
+                    seen.add(renderRates(visited));
+                    return seen;
+                }
+
+                private static String render(List<Quote> quotes) {
+                    return quotes.stream().sorted(Comparator.comparing(Quote::getSymbol))
+                            .map(quote -> quote.getSymbol() + "=" + quote.getPrice()).collect(Collectors.joining(" "));
+                }
+
+                private static String renderRates(List<Rate> rates) {
+                    return rates.stream().sorted(Comparator.comparing(Rate::getSymbol))
+                            .map(rate -> rate.getSymbol() + "=" + rate.getPrice()).collect(Collectors.joining(" "));
+                }
+            }
+            """;
+
+    private static final List<String> SEEN = List.of("abc=1.0 xyz=2.0", "abc=1.0 xyz=2.0", "abc=3.0 xyz=2.0",
+            "abc=3.0", "abc=3.0");
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        String rate = QUOTE.replace("StorageMode.REWRITE", "StorageMode.APPEND_LOG").replace("Quote", "Rate")
+                .replace("quote", "rate");
+        generated = ProcessorCompiler.compile(workDir, FileDBProcessor.class, "all,-processing,-serial",
+                QUOTE, rate, SNAPSHOT_CALLS);
+    }
+
+    @Test
+    void rewriteSnapshotFollowsWritesAndHandsOutCopies(@TempDir Path data) throws Exception {
+        assertEquals(SEEN, call("quotes", data.toString()));
+    }
+
+    @Test
+    void appendLogSnapshotFollowsWritesAndHandsOutCopies(@TempDir Path data) throws Exception {
+        assertEquals(SEEN, call("rates", data.toString()));
+    }
+
+    private static Object call(String name, Object... arguments) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.SnapshotCalls", name, arguments);
+    }
+}
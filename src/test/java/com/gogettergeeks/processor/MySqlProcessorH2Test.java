@@ -0,0 +1,169 @@
+package com.gogettergeeks.processor;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles a sample entity with {@link MySqlProcessor} and runs the generated DAO against H2 in MySQL mode.
+ */
+class MySqlProcessorH2Test {
+    private static final String WIDGET = """
+            package sample;
+
+            import com.gogettergeeks.annotation.Indexed;
+            import com.gogettergeeks.annotation.MySqlGenerated;
+            import com.gogettergeeks.annotation.Persisted;
+            import com.gogettergeeks.annotation.UniqueKey;
+
+            @MySqlGenerated(batchSize = 2)
+            public class Widget {
+                @UniqueKey
+                private int id;
+                @Persisted
+                private String name;
+                @Persisted
+                @Indexed
+                private Integer quantity;
+                @Persisted
+                private Character grade;
+
+                public static Widget of(int id, String name, Integer quantity, Character grade) {
+                    Widget widget = new Widget();
+                    widget.setId(id);
+                    widget.setName(name);
+                    widget.setQuantity(quantity);
+                    widget.setGrade(grade);
+                    return widget;
+                }
+
+                public int getId() { return id; }
+                public void setId(int id) { this.id = id; }
+                public String getName() { return name; }
+                public void setName(String name) { this.name = name; }
+                public Integer getQuantity() { return quantity; }
+                public void setQuantity(Integer quantity) { this.quantity = quantity; }
+                public Character getGrade() { return grade; }
+                public void setGrade(Character grade) { this.grade = grade; }
+            }
+            """;
+
+    private static final String WIDGET_CALLS = """
+            package sample;
+
+            import javax.sql.DataSource;
+            import java.sql.SQLException;
+            import java.util.List;
+            import java.util.stream.Stream;
+
+            public class WidgetCalls {
+                public static void ensureSchema(DataSource dataSource) throws SQLException {
+                    WidgetDao widgetDao = new WidgetDao(dataSource);
+                    widgetDao.ensureSchema();
+                    widgetDao.ensureSchema();
+                }
+
+                public static long upsert(DataSource dataSource) throws SQLException {
+                    WidgetDao widgetDao = new WidgetDao(dataSource);
+                    widgetDao.ensureSchema();
+                    widgetDao.create(Widget.of(1, "bolt", 10, 'A'));
+                    widgetDao.upsert(Widget.of(1, "nut", null, null));
+                    widgetDao.upsert(Widget.of(2, "gear", 5, 'B'));
+                    widgetDao.upsertAll(List.of(Widget.of(2, "cog", 6, 'C'), Widget.of(3, "pin", 7, null),
+                            Widget.of(4, "cam", null, 'D')));
+                    try (Stream<Widget> widgets = widgetDao.stream()) {
+                        return widgets.count();
+                    }
+                }
+            }
+            """;
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    @TempDir
+    static Path workDir;
+
+    private static ClassLoader generated;
+
+    @BeforeAll
+    static void compileSample() throws IOException, URISyntaxException {
+        generated = ProcessorCompiler.compile(workDir, MySqlProcessor.class, "all,-processing", WIDGET, WIDGET_CALLS);
+    }
+
+    @Test
+    void ensureSchemaCreatesTableWithKeyAndIndex() throws Exception {
+        DataSource dataSource = newDatabase();
+        call("ensureSchema", dataSource);
+
+        try (Connection connection = dataSource.getConnection()) {
+            List<String> primaryKey = new ArrayList<>();
+            try (ResultSet resultSet = connection.getMetaData().getPrimaryKeys(null, null, "widget")) {
+                while (resultSet.next()) {
+                    primaryKey.add(resultSet.getString("COLUMN_NAME"));
+                }
+            }
+            assertEquals(List.of("id"), primaryKey);
+
+            List<String> indexes = new ArrayList<>();
+            try (ResultSet resultSet = connection.getMetaData().getIndexInfo(null, null, "widget", false, false)) {
+                while (resultSet.next()) {
+                    indexes.add(resultSet.getString("INDEX_NAME") + " " + resultSet.getString("COLUMN_NAME"));
+                }
+            }
+            assertTrue(indexes.contains("idx_widget_quantity quantity"), indexes::toString);
+
+            List<String> columns = new ArrayList<>();
+            try (ResultSet resultSet = connection.getMetaData().getColumns(null, null, "widget", null)) {
+                while (resultSet.next()) {
+                    columns.add(resultSet.getString("COLUMN_NAME") + " " + resultSet.getString("TYPE_NAME") + " "
+                            + resultSet.getString("IS_NULLABLE"));
+                }
+            }
+            assertEquals(List.of("id INTEGER NO", "name CHARACTER VARYING YES", "quantity INTEGER YES",
+                    "grade CHARACTER YES"), columns);
+        }
+    }
+
+    @Test
+    void upsertInsertsNewRowsAndOverwritesExistingOnes() throws Exception {
+        DataSource dataSource = newDatabase();
+        assertEquals(4L, call("upsert", dataSource));
+
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT id, name, quantity, grade FROM widget ORDER BY id")) {
+            while (resultSet.next()) {
+                rows.add(resultSet.getInt(1) + " " + resultSet.getString(2) + " " + resultSet.getObject(3) + " "
+                        + resultSet.getString(4));
+            }
+        }
+        assertEquals(List.of("1 nut null null", "2 cog 6 C", "3 pin 7 null", "4 cam null D"), rows);
+    }
+
+    private static DataSource newDatabase() {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:widgets" + DATABASES.incrementAndGet()
+                + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        return dataSource;
+    }
+
+    private static Object call(String name, DataSource dataSource) throws Exception {
+        return ProcessorCompiler.call(generated, "sample.WidgetCalls", name, dataSource);
+    }
+}
@@ -0,0 +1,101 @@
+package com.gogettergeeks.processor;
+
+import com.squareup.javapoet.JavaFile;
+
+import javax.annotation.processing.Processor;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compiles sample sources with one of the processors and loads the classes it generated, so tests can run them.
+ */
+final class ProcessorCompiler {
+    private static final Pattern PACKAGE = Pattern.compile("^package\\s+([\\w.]+);", Pattern.MULTILINE);
+    private static final Pattern TYPE = Pattern.compile("^public\\s+(?:final\\s+)?(?:class|enum|interface)\\s+(\\w+)",
+            Pattern.MULTILINE);
+
+    private ProcessorCompiler() {
+    }
+
+    static ClassLoader compile(Path workDir, Class<? extends Processor> processor, String lint, String... sources)
+            throws IOException, URISyntaxException {
+        String diagnostics = tryCompile(workDir, processor, lint, sources);
+        assertEquals("", diagnostics, diagnostics);
+        return new URLClassLoader(new URL[] {workDir.resolve("classes").toUri().toURL()},
+                ProcessorCompiler.class.getClassLoader());
+    }
+
+    /**
+     * Returns the compiler output, which is empty exactly when the sources and everything generated from them compiled.
+     */
+    static String tryCompile(Path workDir, Class<? extends Processor> processor, String lint, String... sources)
+            throws IOException, URISyntaxException {
+        Path classes = Files.createDirectories(workDir.resolve("classes"));
+        Path generatedSources = Files.createDirectories(workDir.resolve("generated"));
+        List<String> arguments = new ArrayList<>(List.of("-proc:full", "-processor", processor.getName(),
+                "-Xlint:" + lint, "-Werror", "-classpath", classPath(), "-processorpath", classPath(),
+                "-d", classes.toString(), "-s", generatedSources.toString()));
+        for (String source : sources) {
+            Matcher packageName = PACKAGE.matcher(source);
+            Matcher typeName = TYPE.matcher(source);
+            if (!packageName.find() || !typeName.find()) {
+                throw new IllegalArgumentException("Sample source needs a package and a public type:\n" + source);
+            }
+            Path directory = Files.createDirectories(workDir.resolve("src")
+                    .resolve(packageName.group(1).replace('.', File.separatorChar)));
+            Path file = Files.writeString(directory.resolve(typeName.group(1) + ".java"), source);
+            arguments.add(file.toString());
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+        int status = compiler.run(null, diagnostics, diagnostics, arguments.toArray(new String[0]));
+        String output = diagnostics.toString();
+        return status == 0 && output.isEmpty() ? "" : "exit " + status + "\n" + output;
+    }
+
+    /**
+     * Invokes a public static method of a sample class, rethrowing whatever the method itself threw.
+     */
+    static Object call(ClassLoader generated, String className, String name, Object... arguments) throws Exception {
+        for (Method method : generated.loadClass(className).getMethods()) {
+            if (method.getName().equals(name) && Modifier.isStatic(method.getModifiers())
+                    && method.getParameterCount() == arguments.length) {
+                try {
+                    return method.invoke(null, arguments);
+                } catch (InvocationTargetException e) {
+                    if (e.getCause() instanceof Error error) {
+                        throw error;
+                    }
+                    throw (Exception) e.getCause();
+                }
+            }
+        }
+        throw new NoSuchMethodException(className + "." + name + " taking " + arguments.length + " arguments");
+    }
+
+    private static String classPath() throws URISyntaxException {
+        return locationOf(FileDBProcessor.class) + File.pathSeparator + locationOf(JavaFile.class);
+    }
+
+    private static String locationOf(Class<?> type) throws URISyntaxException {
+        return Path.of(type.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+}